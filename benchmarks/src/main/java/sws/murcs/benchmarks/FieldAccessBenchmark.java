@@ -0,0 +1,188 @@
+package sws.murcs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sws.murcs.debug.sampledata.OrganisationGenerator;
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.FieldAccessor;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.Model;
+import sws.murcs.model.Organisation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading and writing back the tracked fields of every model in an organisation, as saving and
+ * searching do. Compares the accessors kept by ClassMetadata with method handles bound once for each field
+ * and with looking the field up through reflection every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FieldAccessBenchmark {
+
+    /**
+     * The seed the organisation is generated from.
+     */
+    private static final long SEED = 302;
+
+    /**
+     * The type of a getter, after it has been adapted to work with any object.
+     */
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * The type of a setter, after it has been adapted to work with any object.
+     */
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * The amount of data in the organisation.
+     */
+    @Param({"Medium", "High"})
+    public OrganisationGenerator.Stress stress;
+
+    /**
+     * The models in the organisation.
+     */
+    private List<Model> models;
+
+    /**
+     * The accessors of the tracked fields of each model.
+     */
+    private List<List<FieldAccessor>> accessors;
+
+    /**
+     * The getters of the tracked fields of each model.
+     */
+    private List<MethodHandle[]> getters;
+
+    /**
+     * The setters of the tracked fields of each model, null for final fields.
+     */
+    private List<MethodHandle[]> setters;
+
+    /**
+     * Generates the organisation and finds the tracked fields of its models.
+     * @throws Exception if the fields could not be accessed.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        UndoRedoManager.get().setDisabled(true);
+        Organisation organisation = new OrganisationGenerator(stress, SEED).generate();
+        models = new ArrayList<>();
+        models.addAll(organisation.getPeople());
+        models.addAll(organisation.getTeams());
+        models.addAll(organisation.getSkills());
+        models.addAll(organisation.getStories());
+        models.addAll(organisation.getBacklogs());
+
+        accessors = new ArrayList<>();
+        getters = new ArrayList<>();
+        setters = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Model model : models) {
+            List<FieldAccessor> fields = ClassMetadata.of(model.getClass()).getTrackedFields();
+            MethodHandle[] modelGetters = new MethodHandle[fields.size()];
+            MethodHandle[] modelSetters = new MethodHandle[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i).getField();
+                modelGetters[i] = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                if (!Modifier.isFinal(field.getModifiers())) {
+                    modelSetters[i] = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                }
+            }
+            accessors.add(fields);
+            getters.add(modelGetters);
+            setters.add(modelSetters);
+        }
+    }
+
+    /**
+     * Reads and writes back the fields through the accessors kept by ClassMetadata.
+     * @return the number of fields that had a value.
+     */
+    @Benchmark
+    public int accessors() {
+        int found = 0;
+        for (int i = 0; i < models.size(); i++) {
+            Model model = models.get(i);
+            for (FieldAccessor accessor : accessors.get(i)) {
+                Object value = accessor.get(model);
+                accessor.set(model, value);
+                if (value != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads and writes back the fields through method handles bound once for each field.
+     * @return the number of fields that had a value.
+     * @throws Throwable if a field could not be accessed.
+     */
+    @Benchmark
+    public int methodHandles() throws Throwable {
+        int found = 0;
+        for (int i = 0; i < models.size(); i++) {
+            Model model = models.get(i);
+            MethodHandle[] modelGetters = getters.get(i);
+            MethodHandle[] modelSetters = setters.get(i);
+            for (int j = 0; j < modelGetters.length; j++) {
+                Object value = (Object) modelGetters[j].invokeExact((Object) model);
+                if (modelSetters[j] != null) {
+                    modelSetters[j].invokeExact((Object) model, value);
+                }
+                if (value != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads and writes back the fields through reflection, looking each field up every time.
+     * @return the number of fields that had a value.
+     * @throws Exception if a field could not be accessed.
+     */
+    @Benchmark
+    public int lookupEachTime() throws Exception {
+        int found = 0;
+        for (int i = 0; i < models.size(); i++) {
+            Model model = models.get(i);
+            for (FieldAccessor accessor : accessors.get(i)) {
+                Field field = accessor.getField().getDeclaringClass().getDeclaredField(accessor.getName());
+                field.setAccessible(true);
+                Object value = field.get(model);
+                field.set(model, value);
+                if (value != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,20 @@
+package sws.murcs.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reports the size of the saved fixture alongside the timings, so that the size of each format
+ * shows up in the same table. The counter is set once per iteration, so it is only meaningful
+ * when the benchmarks are run with a single thread (the default).
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class FileSize {
+
+    /**
+     * The number of bytes on disk used by the saved fixture.
+     */
+    public long fileBytes;
+}
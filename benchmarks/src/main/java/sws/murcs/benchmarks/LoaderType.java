@@ -0,0 +1,81 @@
+package sws.murcs.benchmarks;
+
+import sws.murcs.model.persistence.loaders.BinaryPersistenceLoader;
+import sws.murcs.model.persistence.loaders.FilePersistenceLoader;
+import sws.murcs.model.persistence.loaders.JournalPersistenceLoader;
+import sws.murcs.model.persistence.loaders.JsonStreamingPersistenceLoader;
+import sws.murcs.model.persistence.loaders.ShardedPersistenceLoader;
+
+import java.io.File;
+
+/**
+ * The persistence loaders that are benchmarked. New loaders should be added here,
+ * so they are measured against the same fixtures as the existing ones.
+ */
+public enum LoaderType {
+    /**
+     * Java serialization.
+     */
+    File,
+    /**
+     * Binary snapshots.
+     */
+    Binary,
+    /**
+     * Binary snapshots with a journal of changes.
+     */
+    Journal,
+    /**
+     * Streamed JSON.
+     */
+    Json,
+    /**
+     * A directory of binary shards.
+     */
+    Sharded;
+
+    /**
+     * Creates a loader of this type.
+     * @param directory the directory the loader works in.
+     * @return the new loader.
+     */
+    public FilePersistenceLoader create(final String directory) {
+        switch (this) {
+            case Binary:
+                return new BinaryPersistenceLoader(directory);
+            case Journal:
+                return new JournalPersistenceLoader(directory);
+            case Json:
+                return new JsonStreamingPersistenceLoader(directory);
+            case Sharded:
+                return new ShardedPersistenceLoader(directory);
+            default:
+                return new FilePersistenceLoader(directory);
+        }
+    }
+
+    /**
+     * Gets the number of bytes on disk used by a model saved by a loader of this type,
+     * including any journal or shards that go with it.
+     * @param file the file the model was saved to.
+     * @return the number of bytes.
+     */
+    public long sizeOf(final File file) {
+        long size = 0;
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File part : files) {
+                    size += part.length();
+                }
+            }
+        }
+        else {
+            size = file.length();
+        }
+        if (this == Journal) {
+            size += JournalPersistenceLoader.getJournalFile(file).length();
+        }
+        return size;
+    }
+}
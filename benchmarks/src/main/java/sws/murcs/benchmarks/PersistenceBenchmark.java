@@ -0,0 +1,153 @@
+package sws.murcs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sws.murcs.debug.sampledata.OrganisationGenerator;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.persistence.loaders.FilePersistenceLoader;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks saving and loading an organisation with each of the persistence loaders.
+ * The organisation is generated from a fixed seed, so every run and every loader works with the same data.
+ * Run with "-prof gc" to see the allocation rate alongside the throughput, e.g.
+ * <pre>java -jar target/benchmarks.jar PersistenceBenchmark -prof gc</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    /**
+     * The seed the fixtures are generated from.
+     */
+    private static final long SEED = 302;
+
+    /**
+     * The name of the fixture that is loaded.
+     */
+    private static final String FIXTURE = "fixture.project";
+
+    /**
+     * The name the organisation is saved as, so that saving does not change the fixture.
+     */
+    private static final String SAVED = "saved.project";
+
+    /**
+     * The amount of data in the organisation.
+     */
+    @Param({"Low", "Medium", "High"})
+    public OrganisationGenerator.Stress stress;
+
+    /**
+     * The loader being benchmarked.
+     */
+    @Param({"File", "Binary", "Journal", "Json", "Sharded"})
+    public LoaderType loaderType;
+
+    /**
+     * The directory the fixtures are saved in.
+     */
+    private File directory;
+
+    /**
+     * The loader being benchmarked.
+     */
+    private FilePersistenceLoader loader;
+
+    /**
+     * The organisation that is saved.
+     */
+    private Organisation organisation;
+
+    /**
+     * Generates the organisation and saves the fixture that is loaded.
+     * Undo/redo is disabled so that every save writes out the whole organisation,
+     * rather than only the changes since the last one.
+     * @throws Exception if the fixture could not be saved.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        UndoRedoManager.get().setDisabled(true);
+        directory = Files.createTempDirectory("murcs-benchmark").toFile();
+        loader = loaderType.create(directory.getAbsolutePath());
+        organisation = new OrganisationGenerator(stress, SEED).generate();
+        loader.saveModel(FIXTURE, organisation, directory.getAbsolutePath());
+    }
+
+    /**
+     * Records the size of the fixture for this iteration.
+     * @param size the counter to record the size in.
+     */
+    @Setup(Level.Iteration)
+    public void recordSize(final FileSize size) {
+        size.fileBytes = loaderType.sizeOf(new File(directory, FIXTURE));
+    }
+
+    /**
+     * Deletes the fixtures, along with any journals and shards saved with them.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                loader.deletePersistence(file.getName(), directory.getAbsolutePath());
+            }
+        }
+        if (!directory.delete()) {
+            System.err.println("Could not delete the benchmark directory " + directory);
+        }
+    }
+
+    /**
+     * Saves the whole organisation.
+     * @param size the counter the size of the fixture is recorded in.
+     * @throws Exception if the organisation could not be saved.
+     */
+    @Benchmark
+    public void save(final FileSize size) throws Exception {
+        loader.saveModel(SAVED, organisation, directory.getAbsolutePath());
+    }
+
+    /**
+     * Loads the fixture along with every model in it, as is needed before it can be changed or searched.
+     * @param size the counter the size of the fixture is recorded in.
+     * @return the loaded organisation.
+     */
+    @Benchmark
+    public Organisation load(final FileSize size) {
+        Organisation loaded = loader.loadModel(FIXTURE, directory.getAbsolutePath());
+        loaded.loadAll();
+        return loaded;
+    }
+
+    /**
+     * Opens the fixture, leaving any models the loader reads lazily unread.
+     * For loaders that read everything up front this is the same as loading it.
+     * @param size the counter the size of the fixture is recorded in.
+     * @return the opened organisation.
+     */
+    @Benchmark
+    public Organisation open(final FileSize size) {
+        return loader.loadModel(FIXTURE, directory.getAbsolutePath());
+    }
+}
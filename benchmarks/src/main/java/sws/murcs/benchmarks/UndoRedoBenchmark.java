@@ -0,0 +1,124 @@
+package sws.murcs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sws.murcs.debug.sampledata.OrganisationGenerator;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks bulk edits that are tracked by the UndoRedoManager and then assimilated into a single commit,
+ * as Organisation.add, Organisation.remove and Organisation.addAllocations do. Every edit changes a field,
+ * so the assimilated commit merges as many fields as there are edits.
+ * Also benchmarks jumping back and forth over the same number of commits, as selecting a commit in the
+ * undo history does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class UndoRedoBenchmark {
+
+    /**
+     * The seed the organisation is generated from.
+     */
+    private static final long SEED = 302;
+
+    /**
+     * The amount of data in the organisation.
+     */
+    @Param({"Medium", "High"})
+    public OrganisationGenerator.Stress stress;
+
+    /**
+     * The number of edits that are made and then assimilated.
+     */
+    @Param({"100", "1000", "5000"})
+    public int edits;
+
+    /**
+     * The tasks in the organisation, which are edited in turn.
+     */
+    private List<Task> tasks;
+
+    /**
+     * Counts the edits, so that every edit sets a new value.
+     */
+    private long editCount;
+
+    /**
+     * Generates the organisation and starts tracking it.
+     * @throws Exception if the organisation could not be tracked.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        UndoRedoManager.get().setDisabled(true);
+        Organisation organisation = new OrganisationGenerator(stress, SEED).generate();
+        UndoRedoManager.get().setDisabled(false);
+        UndoRedoManager.get().setMaximumCommits(-1);
+        UndoRedoManager.get().importModel(organisation);
+        tasks = new ArrayList<>();
+        organisation.getStories().forEach(story -> tasks.addAll(story.getTasks()));
+    }
+
+    /**
+     * Stops tracking the organisation.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        UndoRedoManager.get().forget(true);
+        UndoRedoManager.get().setDisabled(true);
+    }
+
+    /**
+     * Edits a field of the tasks in turn, committing each edit, then assimilates the edits into one commit.
+     * @return the commit number of the assimilated commit.
+     * @throws Exception if the edits could not be assimilated.
+     */
+    @Benchmark
+    public long assimilateEdits() throws Exception {
+        long commitNumber = UndoRedoManager.get().getHead().getCommitNumber();
+        for (int i = 0; i < edits; i++) {
+            tasks.get(i % tasks.size()).setDescription("Edit " + editCount++);
+        }
+        UndoRedoManager.get().assimilate(commitNumber);
+        return UndoRedoManager.get().commit("edit tasks");
+    }
+
+    /**
+     * Edits a field of the tasks in turn, committing each edit, then reverts to before the edits and remakes
+     * them in one jump each. The history is forgotten afterwards, so that it does not keep growing.
+     * @return the commit number that was remade to.
+     * @throws Exception if the edits could not be reverted or remade.
+     */
+    @Benchmark
+    public long jumpOverEdits() throws Exception {
+        long commitNumber = UndoRedoManager.get().getHead().getCommitNumber();
+        for (int i = 0; i < edits; i++) {
+            tasks.get(i % tasks.size()).setDescription("Edit " + editCount++);
+        }
+        long lastCommitNumber = UndoRedoManager.get().getHead().getCommitNumber();
+        UndoRedoManager.get().revert(commitNumber);
+        UndoRedoManager.get().remake(lastCommitNumber);
+        UndoRedoManager.get().forget();
+        return UndoRedoManager.get().getHead().getCommitNumber();
+    }
+}
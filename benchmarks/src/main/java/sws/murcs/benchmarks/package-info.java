@@ -0,0 +1,5 @@
+/**
+ * This package contains the JMH benchmarks used as a baseline
+ * for changes to how organisations are persisted.
+ */
+package sws.murcs.benchmarks;
@@ -38,6 +38,7 @@ import sws.murcs.controller.windowManagement.Window;
 import sws.murcs.debug.errorreporting.ErrorReporter;
 import sws.murcs.internationalization.AutoLanguageFXMLLoader;
 import sws.murcs.internationalization.InternationalizationHelper;
+import sws.murcs.magic.tracking.Commit;
 import sws.murcs.magic.tracking.UndoRedoManager;
 import sws.murcs.magic.tracking.listener.ChangeState;
 import sws.murcs.magic.tracking.listener.UndoRedoChangeListener;
@@ -45,6 +46,7 @@ import sws.murcs.model.Model;
 import sws.murcs.model.ModelType;
 import sws.murcs.model.Organisation;
 import sws.murcs.model.persistence.PersistenceManager;
+import sws.murcs.model.persistence.SaveListener;
 import sws.murcs.reporting.ui.ReportGeneratorView;
 import sws.murcs.view.AboutView;
 import sws.murcs.view.App;
@@ -638,18 +640,25 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
      */
     @Override
     public final void undoRedoNotification(final ChangeState change) {
-        if (!UndoRedoManager.get().canRevert()) {
+        // history saved with the project can be undone, but it is not an unsaved change
+        if (!UndoRedoManager.get().hasUnsavedChanges()) {
             revert.setDisable(true);
             toolBarController.updateRevertButton(true);
+            App.removeTitleStar();
+        }
+        else {
+            revert.setDisable(false);
+            toolBarController.updateRevertButton(false);
+            App.addTitleStar();
+        }
+
+        if (!UndoRedoManager.get().canRevert()) {
             String undoPrompt = InternationalizationHelper.translatasert("{Undo}...");
             undoMenuItem.setDisable(true);
             undoMenuItem.setText(undoPrompt);
             toolBarController.updateUndoButton(true, undoPrompt);
-            App.removeTitleStar();
         }
         else {
-            revert.setDisable(false);
-            toolBarController.updateRevertButton(false);
             String translated = "";
             String[] strs = UndoRedoManager.get().getRevertMessage().split(" ");
             for (int i = 0; i < strs.length; i++) {
@@ -663,7 +672,6 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
             undoMenuItem.setDisable(false);
             undoMenuItem.setText(undoPrompt);
             toolBarController.updateUndoButton(false, undoPrompt);
-            App.addTitleStar();
         }
 
         if (!UndoRedoManager.get().canRemake()) {
@@ -752,7 +760,7 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
      */
     @FXML
     private void newModel(final ActionEvent event) {
-        if (UndoRedoManager.get().canRevert() || App.getWindowManager().getAllWindows().size() > 1) {
+        if (UndoRedoManager.get().hasUnsavedChanges() || App.getWindowManager().getAllWindows().size() > 1) {
             GenericPopup popup = new GenericPopup(window);
             popup.setWindowTitle("{StillWorking}");
             popup.setTitleText("{LooksLikeStillWorking}");
@@ -762,12 +770,13 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
                 try {
                     // Close all windows which are not the main app.
                     App.getWindowManager().cleanUp();
+                    PersistenceManager.getCurrent().discardChanges();
                     createNewModel();
                 } catch (Exception e) {
                     ErrorReporter.get().reportError(e, "Something went wrong creating a new organisation :(");
                 }
             }, "danger-will-robinson");
-            if (UndoRedoManager.get().canRevert()) {
+            if (UndoRedoManager.get().hasUnsavedChanges()) {
                 popup.addButton("{Save}", GenericPopup.Position.RIGHT, GenericPopup.Action.DEFAULT, () -> {
                     // Let the user save the project
                     if (save()) {
@@ -823,19 +832,20 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
      */
     @FXML
     public final void open(final ActionEvent event) {
-        if (UndoRedoManager.get().canRevert() || App.getWindowManager().getAllWindows().size() > 1) {
+        if (UndoRedoManager.get().hasUnsavedChanges() || App.getWindowManager().getAllWindows().size() > 1) {
             GenericPopup popup = new GenericPopup(window);
             popup.setWindowTitle("{StillWorking}");
             popup.setTitleText("{LooksLikeStillWorking}");
             popup.setMessageText("{Doyouwantto}");
             popup.addButton("{DiscardThem}", GenericPopup.Position.LEFT, GenericPopup.Action.NONE, () -> {
+                PersistenceManager.getCurrent().discardChanges();
                 if (openFile()) {
                     popup.close();
                     // Close all windows which are not the main app.
                     App.getWindowManager().cleanUp();
                 }
             }, "danger-will-robinson");
-            if (UndoRedoManager.get().canRevert()) {
+            if (UndoRedoManager.get().hasUnsavedChanges()) {
                 popup.addButton("{SaveThem}", GenericPopup.Position.RIGHT, GenericPopup.Action.DEFAULT, () -> {
                     // Let the user save the project
                     if (save() && openFile()) {
@@ -907,17 +917,18 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
     @FXML
     private void fileQuitPress(final ActionEvent event) {
         mainTabPane.requestFocus();
-        if (UndoRedoManager.get().canRevert() || App.getWindowManager().getAllWindows().size() > 1) {
+        if (UndoRedoManager.get().hasUnsavedChanges() || App.getWindowManager().getAllWindows().size() > 1) {
             GenericPopup popup = new GenericPopup(window);
             popup.setWindowTitle("{StillWorking}");
             popup.setTitleText("{LooksLikeStillWorking}");
             popup.setMessageText("{Doyouwantto}");
             popup.addButton("{DiscardandExit}", GenericPopup.Position.LEFT, GenericPopup.Action.NONE, () -> {
                 popup.close();
+                PersistenceManager.getCurrent().discardChanges();
                 App.getWindowManager().cleanUp();
                 Platform.exit();
             }, "danger-will-robinson");
-            if (UndoRedoManager.get().canRevert()) {
+            if (UndoRedoManager.get().hasUnsavedChanges()) {
                 popup.addButton("{SaveandExit}", GenericPopup.Position.RIGHT, GenericPopup.Action.DEFAULT, () -> {
                     // Let the user save the project
                     if (save()) {
@@ -1027,14 +1038,14 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
      */
     @FXML
     public final void revert(final ActionEvent event) {
-        if (UndoRedoManager.get().canRevert() || App.getWindowManager().getAllWindows().size() > 1) {
+        if (UndoRedoManager.get().hasUnsavedChanges() || App.getWindowManager().getAllWindows().size() > 1) {
             GenericPopup popup = new GenericPopup(window);
             popup.setWindowTitle("{Revert}");
             popup.setTitleText("{RevertChangesQuestion}");
             popup.setMessageText("{LooksLikeStillWorking} {UnsavedChangesWillBeLost}");
             popup.addButton("{RevertChanges}", GenericPopup.Position.LEFT, GenericPopup.Action.NONE, () -> {
                 try {
-                    UndoRedoManager.get().revert(0);
+                    UndoRedoManager.get().revertToSaved();
                     popup.close();
                     // Close all windows which are not the main app.
                     App.getWindowManager().cleanUp();
@@ -1043,12 +1054,12 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
                     ErrorReporter.get().reportError(e, "Something went wrong reverting the state of the organisation.");
                 }
             }, "danger-will-robinson");
-            if (UndoRedoManager.get().canRevert()) {
+            if (UndoRedoManager.get().hasUnsavedChanges()) {
                 popup.addButton("{SaveAs}", GenericPopup.Position.RIGHT, GenericPopup.Action.DEFAULT, () -> {
                     // Let the user save the project
                     if (saveAs(null, false)) {
                         try {
-                            UndoRedoManager.get().revert(0);
+                            UndoRedoManager.get().revertToSaved();
                             popup.close();
                             // Close all windows which are not the main app.
                             App.getWindowManager().cleanUp();
@@ -1077,20 +1088,52 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
      * @return If the project successfully saved.
      */
     private boolean save() {
-        return save(null);
+        try {
+            if (PersistenceManager.getCurrent().getLastFile() != null) {
+                Commit saving = UndoRedoManager.get().getHead();
+                PersistenceManager.getCurrent().save();
+                UndoRedoManager.get().markSaved(saving);
+                return true;
+            }
+            else {
+                return saveAs(null);
+            }
+        }
+        catch (Exception e) {
+            ErrorReporter.get().reportError(e, "Something went wrong saving :(");
+        }
+        return false;
     }
 
     /**
-     * Save the current model.
+     * Save the current model. The model is written in the background so the UI does not freeze
+     * while large models are saved, any errors are reported once the save has finished. The project
+     * is only marked as saved once the save has succeeded, in the state it was in when it was captured.
      * @param event The event that causes this function to be called, namely clicking save.
-     * @return If the project successfully saved.
+     * @return If the project was captured to be saved.
      */
     @FXML
     public final boolean save(final ActionEvent event) {
         try {
             if (PersistenceManager.getCurrent().getLastFile() != null) {
-                PersistenceManager.getCurrent().save();
-                UndoRedoManager.get().forget();
+                Commit saving = UndoRedoManager.get().getHead();
+                PersistenceManager.getCurrent().saveInBackground(new SaveListener() {
+                    @Override
+                    public void saveProgressed(final double fraction) {
+                        // saves are quick enough that progress is not shown in the main window
+                    }
+
+                    @Override
+                    public void saveCompleted(final Exception error) {
+                        if (error != null) {
+                            Platform.runLater(() -> ErrorReporter.get().reportError(error,
+                                    "Something went wrong saving :("));
+                        }
+                        else {
+                            Platform.runLater(() -> UndoRedoManager.get().markSaved(saving));
+                        }
+                    }
+                });
                 return true;
             }
             else {
@@ -1116,10 +1159,10 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
     /**
      * Saves the model as a new file.
      * @param event The event that causes this function to be called, namely clicking save.
-     * @param forgetHistory If true all history about the project is forgotten
+     * @param markSaved If true the project is marked as saved in its current state
      * @return If the project successfully saved.
      */
-    private boolean saveAs(final ActionEvent event, final boolean forgetHistory) {
+    private boolean saveAs(final ActionEvent event, final boolean markSaved) {
         try {
             FileChooser fileChooser = new FileChooser();
             fileChooser.setTitle("Save As");
@@ -1133,9 +1176,10 @@ public class MainController implements UndoRedoChangeListener, ToolBarCommands,
                     fileName += ".project";
                 }
                 PersistenceManager.getCurrent().setCurrentWorkingDirectory(file.getParentFile().getAbsolutePath());
+                Commit saving = UndoRedoManager.get().getHead();
                 PersistenceManager.getCurrent().saveModel(fileName);
-                if (forgetHistory) {
-                    UndoRedoManager.get().forget();
+                if (markSaved) {
+                    UndoRedoManager.get().markSaved(saving);
                 }
                 return true;
             }
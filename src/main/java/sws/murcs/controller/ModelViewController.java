@@ -25,6 +25,7 @@ import sws.murcs.internationalization.InternationalizationHelper;
 import sws.murcs.helpfulHints.HelpfulHintsView;
 import sws.murcs.listeners.ViewUpdate;
 import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.magic.tracking.listener.ChangeSet;
 import sws.murcs.magic.tracking.listener.ChangeState;
 import sws.murcs.magic.tracking.listener.UndoRedoChangeListener;
 import sws.murcs.model.Model;
@@ -548,6 +549,25 @@ public class ModelViewController implements ViewUpdate<Model>, UndoRedoChangeLis
         updateTitle();
     }
 
+    @Override
+    public boolean isDeferrable() {
+        // the list only shows what is in the organisation, so it can be updated once for many changes
+        return true;
+    }
+
+    @Override
+    public void undoRedoNotification(final ChangeState param, final ChangeSet changes) {
+        // the list only shows the organisation's models of the selected type
+        ModelType type = ModelType.getModelType(displayChoiceBox.getSelectionModel().getSelectedIndex());
+        boolean skip = (param == ChangeState.Commit || param == ChangeState.Remake)
+                && !changes.isEmpty()
+                && !changes.containsType(Organisation.class)
+                && !changes.containsType(ModelType.getTypeFromModel(type));
+        if (!skip) {
+            undoRedoNotification(param);
+        }
+    }
+
     @Override
     public void undoRedoNotification(final ChangeState param) {
         switch (param) {
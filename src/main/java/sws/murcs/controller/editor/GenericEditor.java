@@ -15,10 +15,14 @@ import sws.murcs.controller.pipes.FormErrors;
 import sws.murcs.controller.pipes.Navigable;
 import sws.murcs.controller.windowManagement.Window;
 import sws.murcs.internationalization.InternationalizationHelper;
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.FieldAccessor;
 import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.magic.tracking.listener.ChangeSet;
 import sws.murcs.magic.tracking.listener.ChangeState;
 import sws.murcs.magic.tracking.listener.UndoRedoChangeListener;
 import sws.murcs.model.Model;
+import sws.murcs.model.Organisation;
 import sws.murcs.view.App;
 
 import java.util.AbstractMap;
@@ -160,6 +164,70 @@ public abstract class GenericEditor<T extends Model> implements UndoRedoChangeLi
         }
     }
 
+    /**
+     * Updates the form with an undo redo notification, if it touched anything the form shows.
+     * @param param event arguments.
+     * @param changes the objects and fields that were touched.
+     */
+    @Override
+    public void undoRedoNotification(final ChangeState param, final ChangeSet changes) {
+        if (changes.isEmpty() || isShowing(changes)) {
+            undoRedoNotification(param);
+        }
+    }
+
+    /**
+     * Forms only update what they show, so they can be notified once for many changes.
+     * @return true.
+     */
+    @Override
+    public boolean isDeferrable() {
+        return true;
+    }
+
+    /**
+     * Gets the types of the objects the form shows without the model referring to them, e.g. objects that refer
+     * to the model, or objects that are listed as choices. The form is updated whenever an object of one of these
+     * types is touched. Forms that do not know what they show update on every change.
+     * @return the types, or null to update the form on every change.
+     */
+    protected Collection<Class<?>> getDependencies() {
+        return null;
+    }
+
+    /**
+     * Checks if the form shows anything that was touched. This is the organisation, the objects of the types the
+     * form depends on, the model and the objects its tracked fields refer to, either directly or in a collection.
+     * @param changes the objects and fields that were touched.
+     * @return true if the form needs to be updated.
+     */
+    private boolean isShowing(final ChangeSet changes) {
+        Collection<Class<?>> dependencies = getDependencies();
+        if (model == null || dependencies == null || changes.contains(model)
+                || changes.containsType(Organisation.class)) {
+            return true;
+        }
+        for (Class<?> type : dependencies) {
+            if (changes.containsType(type)) {
+                return true;
+            }
+        }
+        for (FieldAccessor field : ClassMetadata.of(model.getClass()).getTrackedFields()) {
+            Object value = field.get(model);
+            if (value != null && changes.contains(value)) {
+                return true;
+            }
+            if (value instanceof Collection) {
+                for (Object item : (Collection<?>) value) {
+                    if (changes.contains(item)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Highlights errors on the form.
      */
@@ -29,6 +29,7 @@ import sws.murcs.model.Skill;
 import sws.murcs.model.persistence.PersistenceManager;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -127,6 +128,12 @@ public class PersonEditor extends GenericEditor<Person> {
         isLoaded = true;
     }
 
+    @Override
+    protected final Collection<Class<?>> getDependencies() {
+        // the skills the person can be given are listed by name
+        return Collections.singletonList(Skill.class);
+    }
+
     @Override
     protected final void saveChangesAndErrors() {
         Skill selectedSkill = skillComboBox.getValue();
@@ -26,6 +26,8 @@ import sws.murcs.model.persistence.PersistenceManager;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * Controller for the model creator popup window.
@@ -141,6 +143,12 @@ public class ProjectEditor extends GenericEditor<Project> {
         isLoaded = true;
     }
 
+    @Override
+    protected final Collection<Class<?>> getDependencies() {
+        // the project's work is found among all of the allocations, and teams are listed by name
+        return Arrays.asList(WorkAllocation.class, Team.class);
+    }
+
     @Override
     protected final void saveChangesAndErrors() {
         String modelShortName = getModel().getShortName();
@@ -16,6 +16,8 @@ import sws.murcs.model.Release;
 import sws.murcs.model.persistence.PersistenceManager;
 
 import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Optional;
 
 /**
@@ -131,6 +133,12 @@ public class ReleaseEditor extends GenericEditor<Release> {
         isLoaded = true;
     }
 
+    @Override
+    protected final Collection<Class<?>> getDependencies() {
+        // the project is found by looking for the one that has the release
+        return Collections.singletonList(Project.class);
+    }
+
     @Override
     protected final void saveChangesAndErrors() {
         String modelShortName = getModel().getShortName();
@@ -7,6 +7,9 @@ import sws.murcs.exceptions.DuplicateObjectException;
 import sws.murcs.exceptions.InvalidParameterException;
 import sws.murcs.model.Skill;
 
+import java.util.Collection;
+import java.util.Collections;
+
 /**
  * A controller to model skills.
  */
@@ -82,6 +85,12 @@ public class SkillEditor extends GenericEditor<Skill> {
         super.dispose();
     }
 
+    @Override
+    protected final Collection<Class<?>> getDependencies() {
+        // only the skill itself is shown
+        return Collections.emptyList();
+    }
+
     @Override
     protected final void saveChangesAndErrors() {
         String modelShortName =  getModel().getShortName();
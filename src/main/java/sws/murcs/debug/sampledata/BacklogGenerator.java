@@ -53,6 +53,13 @@ public class BacklogGenerator implements Generator<Backlog> {
      */
     private static int indicator = 0;
 
+    /**
+     * Starts numbering stories with duplicate names from zero again, so that a seeded generation
+     * gives the same names every time.
+     */
+    static void resetIndicator() {
+        indicator = 0;
+    }
 
     /**
      * A list of backlog names.
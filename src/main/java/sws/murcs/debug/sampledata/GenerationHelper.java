@@ -18,6 +18,22 @@ public final class GenerationHelper {
     private GenerationHelper() {
     }
 
+    /**
+     * Seeds the random generator, so that the same data is generated every time.
+     * @param seed the seed.
+     */
+    public static void setSeed(final long seed) {
+        RANDOM.setSeed(seed);
+    }
+
+    /**
+     * Gets the random generator used by the generators.
+     * @return the random generator.
+     */
+    static Random getRandom() {
+        return RANDOM;
+    }
+
     /**
      * Generates a random number between 0 and a maximum number.
      * @param max maximum number.
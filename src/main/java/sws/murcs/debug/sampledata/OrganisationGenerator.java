@@ -14,6 +14,7 @@ import sws.murcs.model.Story;
 import sws.murcs.model.Team;
 import sws.murcs.model.WorkAllocation;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -23,6 +24,12 @@ import java.util.stream.Collectors;
  */
 public class OrganisationGenerator implements Generator<Organisation> {
 
+    /**
+     * The day that seeded generations generate dates around, so that they generate the same Organisation
+     * whatever day it is.
+     */
+    private static final LocalDate SEEDED_TODAY = LocalDate.of(2015, 6, 1);
+
     /**
      * The various stress level the generator can produce.
      */
@@ -94,6 +101,11 @@ public class OrganisationGenerator implements Generator<Organisation> {
      */
     private Stress stress;
 
+    /**
+     * Seed used for every generation, null to generate different data every time.
+     */
+    private Long seed;
+
     /**
      * Set if the last generation had an error.
      */
@@ -149,6 +161,19 @@ public class OrganisationGenerator implements Generator<Organisation> {
         sprintGenerator = new SprintGenerator();
     }
 
+    /**
+     * Instantiates a new Organisation generator that generates the same Organisation every time,
+     * e.g. for benchmarks that need the same data from one run to the next. Dates are generated around
+     * a fixed day rather than the current one.
+     * @param stressLevel the stress level to use. Stress level determines the amount of data generated.
+     * @param randomSeed the seed to generate data from.
+     */
+    public OrganisationGenerator(final Stress stressLevel, final long randomSeed) {
+        this(stressLevel);
+        seed = randomSeed;
+        workAllocationGenerator.setToday(SEEDED_TODAY);
+    }
+
     /**
      * Generates models of a particular type, given a generator
      * and a min and max number of items to generate.
@@ -230,6 +255,10 @@ public class OrganisationGenerator implements Generator<Organisation> {
 
     @Override
     public final Organisation generate() {
+        if (seed != null) {
+            GenerationHelper.setSeed(seed);
+            BacklogGenerator.resetIndicator();
+        }
         try {
             Organisation model = new Organisation();
             model.setIsUsingGeneratedData(true);
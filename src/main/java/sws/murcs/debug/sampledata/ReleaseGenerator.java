@@ -6,7 +6,6 @@ import sws.murcs.model.Release;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 /**
  * Generates RANDOM releases.
@@ -43,11 +42,6 @@ public class ReleaseGenerator implements Generator<Release> {
      */
     protected static final int HIGH_STRESS_MAX = 40;
 
-    /**
-     * The RANDOM used for RANDOM numbers within this class.
-     */
-    private static final Random RANDOM = new Random();
-
     /**
      * A list of default names for releases. They're all birds names.
      */
@@ -755,9 +749,9 @@ public class ReleaseGenerator implements Generator<Release> {
         String shortName = GenerationHelper.randomElement(defaultNames);
         String description = GenerationHelper.randomElement(descriptions);
         LocalDate releaseDate = LocalDate.of(
-                RANDOM.nextInt(yearVariance) + epoch,
-                RANDOM.nextInt(months) + 1,
-                RANDOM.nextInt(daysInMonth) + 1);
+                GenerationHelper.random(yearVariance) + epoch,
+                GenerationHelper.random(months) + 1,
+                GenerationHelper.random(daysInMonth) + 1);
 
         List<Project> projects = generateProjects(1, maxProjects);
 
@@ -27,6 +27,11 @@ public class WorkAllocationGenerator {
      */
     private List<Team> teamPool;
 
+    /**
+     * The date work is generated around, null to use the current date.
+     */
+    private LocalDate today;
+
     /**
      * Sets the project pool.
      * @param projects The project pool
@@ -43,6 +48,14 @@ public class WorkAllocationGenerator {
         this.teamPool = teams;
     }
 
+    /**
+     * Sets the date work is generated around, so that the same work is generated whatever day it is.
+     * @param date the date, null to use the current date.
+     */
+    public final void setToday(final LocalDate date) {
+        this.today = date;
+    }
+
     /**
      * Creates work allocations to occupy a team for the next six months.
      * @param team The team to create work for
@@ -53,13 +66,17 @@ public class WorkAllocationGenerator {
         final int daysInWeek = 7;
         final int maxAllocationLength = 21;
 
-        Random random = new Random();
+        Random random = GenerationHelper.getRandom();
         int numProjects = projectPool.size();
         List<WorkAllocation> allocations = new ArrayList<>();
-        LocalDate currentDate = LocalDate.now().minus(subtractMonths, ChronoUnit.MONTHS);
+        LocalDate now = today;
+        if (now == null) {
+            now = LocalDate.now();
+        }
+        LocalDate currentDate = now.minus(subtractMonths, ChronoUnit.MONTHS);
         LocalDate startDate;
         LocalDate endDate = currentDate;
-        while (endDate.isBefore(LocalDate.now().plus(subtractMonths, ChronoUnit.MONTHS))) {
+        while (endDate.isBefore(now.plus(subtractMonths, ChronoUnit.MONTHS))) {
             startDate = endDate.plus(random.nextInt(daysInWeek) + 1, ChronoUnit.DAYS);
             endDate = startDate.plus(random.nextInt(maxAllocationLength) + 1, ChronoUnit.DAYS);
             Project project = projectPool.get(random.nextInt(numProjects));
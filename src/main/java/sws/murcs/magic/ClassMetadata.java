@@ -0,0 +1,132 @@
+package sws.murcs.magic;
+
+import sws.murcs.magic.tracking.TrackableValue;
+import sws.murcs.search.SearchPriority;
+import sws.murcs.search.Searchable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fields of a class that are tracked for undo/redo and searched, found once per class and shared by
+ * every object of the class. Fields are accessed through FieldAccessors, so tracking and searching do not
+ * need to use reflection on every access.
+ */
+public final class ClassMetadata {
+
+    /**
+     * Cache of the metadata of the classes that have been looked at.
+     */
+    private static final Map<Class<?>, ClassMetadata> METADATA = new ConcurrentHashMap<>();
+
+    /**
+     * Fields marked with TrackableValue, from the class down to its superclasses.
+     */
+    private final List<FieldAccessor> trackedFields;
+
+    /**
+     * Fields marked with Searchable, from the class down to its superclasses.
+     */
+    private final List<FieldAccessor> searchableFields;
+
+    /**
+     * The searchable fields that are not tracked, so changes to them are not seen by the undo/redo manager.
+     */
+    private final List<FieldAccessor> untrackedSearchableFields;
+
+    /**
+     * The searchable fields, grouped by their priority.
+     */
+    private final Map<SearchPriority, List<FieldAccessor>> searchableByPriority;
+
+    /**
+     * Finds the tracked and searchable fields of a class.
+     * @param clazz the class.
+     */
+    private ClassMetadata(final Class<?> clazz) {
+        List<FieldAccessor> tracked = new ArrayList<>();
+        List<FieldAccessor> searchable = new ArrayList<>();
+        List<FieldAccessor> untrackedSearchable = new ArrayList<>();
+        Class<?> current = clazz;
+        while (current != null && current != Object.class) {
+            for (Field field : current.getDeclaredFields()) {
+                boolean isTracked = field.isAnnotationPresent(TrackableValue.class);
+                boolean isSearchable = field.isAnnotationPresent(Searchable.class);
+                if (Modifier.isStatic(field.getModifiers()) || !(isTracked || isSearchable)) {
+                    continue;
+                }
+                FieldAccessor accessor = new FieldAccessor(field);
+                if (isTracked) {
+                    tracked.add(accessor);
+                }
+                if (isSearchable) {
+                    searchable.add(accessor);
+                }
+                if (isSearchable && !isTracked) {
+                    untrackedSearchable.add(accessor);
+                }
+            }
+            current = current.getSuperclass();
+        }
+        trackedFields = Collections.unmodifiableList(tracked);
+        searchableFields = Collections.unmodifiableList(searchable);
+        untrackedSearchableFields = Collections.unmodifiableList(untrackedSearchable);
+
+        searchableByPriority = new EnumMap<>(SearchPriority.class);
+        for (SearchPriority priority : SearchPriority.values()) {
+            searchableByPriority.put(priority, new ArrayList<>());
+        }
+        for (FieldAccessor accessor : searchable) {
+            searchableByPriority.get(accessor.getSearchable().value()).add(accessor);
+        }
+        searchableByPriority.replaceAll((priority, fields) -> Collections.unmodifiableList(fields));
+    }
+
+    /**
+     * Gets the metadata of a class.
+     * @param clazz the class.
+     * @return the metadata of the class.
+     */
+    public static ClassMetadata of(final Class<?> clazz) {
+        return METADATA.computeIfAbsent(clazz, ClassMetadata::new);
+    }
+
+    /**
+     * Gets the fields of the class that are tracked for undo/redo.
+     * @return the tracked fields.
+     */
+    public List<FieldAccessor> getTrackedFields() {
+        return trackedFields;
+    }
+
+    /**
+     * Gets the fields of the class that can be searched.
+     * @return the searchable fields.
+     */
+    public List<FieldAccessor> getSearchableFields() {
+        return searchableFields;
+    }
+
+    /**
+     * Gets the fields of the class that can be searched but are not tracked for undo/redo.
+     * @return the untracked searchable fields.
+     */
+    public List<FieldAccessor> getUntrackedSearchableFields() {
+        return untrackedSearchableFields;
+    }
+
+    /**
+     * Gets the fields of the class that are searched with a priority.
+     * @param priority the priority.
+     * @return the searchable fields with that priority.
+     */
+    public List<FieldAccessor> getSearchableFields(final SearchPriority priority) {
+        return searchableByPriority.get(priority);
+    }
+}
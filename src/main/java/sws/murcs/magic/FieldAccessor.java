@@ -0,0 +1,85 @@
+package sws.murcs.magic;
+
+import sws.murcs.search.Searchable;
+
+import java.lang.reflect.Field;
+
+/**
+ * Gets and sets the value of a field that has been made accessible once, so that it is not looked up or
+ * checked every time. Accessors are created by ClassMetadata, which keeps one for each tracked or
+ * searchable field of a class.
+ */
+public final class FieldAccessor {
+
+    /**
+     * The field.
+     */
+    private final Field field;
+
+    /**
+     * The searchable annotation of the field, or null if it is not searchable.
+     */
+    private final Searchable searchable;
+
+    /**
+     * Creates a new accessor for a field.
+     * @param accessedField the field, which is made accessible.
+     */
+    FieldAccessor(final Field accessedField) {
+        field = accessedField;
+        field.setAccessible(true);
+        searchable = field.getAnnotation(Searchable.class);
+    }
+
+    /**
+     * Gets the field.
+     * @return the field.
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Gets the name of the field.
+     * @return the name of the field.
+     */
+    public String getName() {
+        return field.getName();
+    }
+
+    /**
+     * Gets the searchable annotation of the field.
+     * @return the annotation, or null if the field is not searchable.
+     */
+    public Searchable getSearchable() {
+        return searchable;
+    }
+
+    /**
+     * Gets the value of the field.
+     * @param object the object to get the value from.
+     * @return the value of the field.
+     */
+    public Object get(final Object object) {
+        try {
+            return field.get(object);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not get the value of " + field, e);
+        }
+    }
+
+    /**
+     * Sets the value of the field.
+     * @param object the object to set the value in.
+     * @param value the new value of the field.
+     */
+    public void set(final Object object, final Object value) {
+        try {
+            field.set(object, value);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not set the value of " + field, e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package sws.murcs.magic.tracking;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Stands in for a collection when the undo history is written out, so that collections that cannot be
+ * serialized (e.g. observable lists) can still be written. The collection is rebuilt the same way
+ * field value pairs copy it.
+ */
+final class CollectionValue implements Serializable {
+
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * The type of the collection.
+     */
+    private final Class<?> type;
+
+    /**
+     * The elements of the collection.
+     */
+    private final Object[] elements;
+
+    /**
+     * Creates a new stand in for a collection.
+     * @param collection the collection.
+     */
+    CollectionValue(final Collection<?> collection) {
+        type = collection.getClass();
+        elements = collection.toArray();
+    }
+
+    /**
+     * Rebuilds the collection.
+     * @return a new collection of the same type, with the same elements.
+     * @throws IOException if the collection cannot be created.
+     */
+    Object rebuild() throws IOException {
+        try {
+            Constructor<?> constructor = type.getConstructor(Collection.class);
+            return constructor.newInstance(Arrays.asList(elements));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IOException("Could not rebuild a collection of the undo history", e);
+        }
+    }
+}
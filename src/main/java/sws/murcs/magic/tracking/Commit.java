@@ -1,8 +1,15 @@
 package sws.murcs.magic.tracking;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a the state of values within the model at a period of time.
@@ -11,6 +18,16 @@ import java.util.Map;
  */
 public class Commit {
 
+    /**
+     * Estimated size in bytes of a commit, not counting its field value pairs.
+     */
+    private static final int COMMIT_SIZE = 96;
+
+    /**
+     * Estimated size in bytes of each field that was added or removed in a commit.
+     */
+    private static final int ENTRY_SIZE = 32;
+
     /**
      * Commit number of this commit.
      */
@@ -26,6 +43,12 @@ public class Commit {
      */
     private Collection<FieldValuePair> fieldValuePairs;
 
+    /**
+     * The fields that this commit has a value for, so that pairs can be merged into it without comparing
+     * them with every pair it already has. Only built once it is needed, as most commits are never merged.
+     */
+    private Set<FieldKey> fields;
+
     /**
      * Fields that were added in this commit.
      */
@@ -36,6 +59,11 @@ public class Commit {
      */
     private Collection<Map.Entry<TrackableObject, FieldValuePair>> removed;
 
+    /**
+     * Estimated number of bytes of memory used by the field value pairs of this commit.
+     */
+    private long pairsSize;
+
     /**
      * Creates a new commit.
      * @param newCommitNumber the unique commit number.
@@ -53,6 +81,9 @@ public class Commit {
         fieldValuePairs = newFieldValuePairs;
         added = addedFields;
         removed = removedFields;
+        for (FieldValuePair pair : fieldValuePairs) {
+            pairsSize += pair.estimateSize();
+        }
     }
 
     /**
@@ -79,6 +110,15 @@ public class Commit {
         return commitNumber;
     }
 
+    /**
+     * Changes the number of this commit, e.g. for commits of saved history that are older than every
+     * commit made since the model was opened.
+     * @param newCommitNumber the new commit number.
+     */
+    final void renumber(final long newCommitNumber) {
+        commitNumber = newCommitNumber;
+    }
+
     /**
      * Gets the associated message with this commit.
      * @return the commit message.
@@ -119,5 +159,113 @@ public class Commit {
      */
     protected void addPair(final FieldValuePair fieldValuePair) {
         fieldValuePairs.add(fieldValuePair);
+        pairsSize += fieldValuePair.estimateSize();
+        if (fields != null) {
+            fields.add(fieldValuePair.getKey());
+        }
+    }
+
+    /**
+     * Checks if this commit already has a value for the same field of the same object as a pair.
+     * @param fieldValuePair the pair.
+     * @return true if this commit has a value for the field.
+     */
+    protected final boolean hasPair(final FieldValuePair fieldValuePair) {
+        if (fields == null) {
+            fields = new HashSet<>();
+            for (FieldValuePair pair : fieldValuePairs) {
+                fields.add(pair.getKey());
+            }
+        }
+        return fields.contains(fieldValuePair.getKey());
+    }
+
+    /**
+     * Adds a FieldValuePair to this commit, unless it already has a value for the same field of the same object.
+     * @param fieldValuePair pair to add.
+     */
+    protected final void addPairIfAbsent(final FieldValuePair fieldValuePair) {
+        if (!hasPair(fieldValuePair)) {
+            addPair(fieldValuePair);
+        }
+    }
+
+    /**
+     * Gets an estimate of the memory used by this commit, so that the history can be kept within a budget.
+     * @return the estimated number of bytes.
+     */
+    protected final long getEstimatedSize() {
+        return COMMIT_SIZE + pairsSize + ENTRY_SIZE * (long) (added.size() + removed.size());
+    }
+
+    /**
+     * Writes this commit to a stream, so that it can be read back by readFrom.
+     * @param out the stream, which must be able to write the objects that are tracked.
+     * @throws IOException if the commit cannot be written.
+     */
+    final void writeTo(final ObjectOutputStream out) throws IOException {
+        out.writeLong(commitNumber);
+        out.writeObject(message);
+        out.writeInt(fieldValuePairs.size());
+        for (FieldValuePair pair : fieldValuePairs) {
+            pair.writeTo(out);
+        }
+        writeEntries(out, added);
+        writeEntries(out, removed);
+    }
+
+    /**
+     * Reads a commit that was written by writeTo.
+     * @param in the stream.
+     * @return the commit.
+     * @throws IOException if the commit cannot be read.
+     * @throws ClassNotFoundException if a value in the commit has a class that cannot be found.
+     */
+    static Commit readFrom(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        long commitNumber = in.readLong();
+        String message = (String) in.readObject();
+        int pairCount = in.readInt();
+        Collection<FieldValuePair> pairs = new ArrayList<>(pairCount);
+        for (int i = 0; i < pairCount; i++) {
+            pairs.add(FieldValuePair.readFrom(in));
+        }
+        Collection<Map.Entry<TrackableObject, FieldValuePair>> addedFields = readEntries(in);
+        Collection<Map.Entry<TrackableObject, FieldValuePair>> removedFields = readEntries(in);
+        return new Commit(commitNumber, message, pairs, addedFields, removedFields);
+    }
+
+    /**
+     * Writes fields that were added or removed to a stream.
+     * @param out the stream.
+     * @param entries the objects and their fields.
+     * @throws IOException if the fields cannot be written.
+     */
+    private static void writeEntries(final ObjectOutputStream out,
+                                     final Collection<Map.Entry<TrackableObject, FieldValuePair>> entries)
+            throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<TrackableObject, FieldValuePair> entry : entries) {
+            out.writeObject(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads fields that were added or removed from a stream.
+     * @param in the stream.
+     * @return the objects and their fields.
+     * @throws IOException if the fields cannot be read.
+     * @throws ClassNotFoundException if the class of an object cannot be found.
+     */
+    private static Collection<Map.Entry<TrackableObject, FieldValuePair>> readEntries(final ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        int count = in.readInt();
+        Collection<Map.Entry<TrackableObject, FieldValuePair>> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TrackableObject object = (TrackableObject) in.readObject();
+            FieldValuePair pair = (FieldValuePair) in.readObject();
+            entries.add(new AbstractMap.SimpleEntry<>(object, pair));
+        }
+        return entries;
     }
 }
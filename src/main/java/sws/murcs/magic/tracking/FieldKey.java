@@ -0,0 +1,46 @@
+package sws.murcs.magic.tracking;
+
+import java.lang.reflect.Field;
+
+/**
+ * Identifies a field of a particular object, so that the values of the same field
+ * can be found and merged without comparing every pair in a commit.
+ * Objects are compared by identity, as two equal models are still tracked separately.
+ */
+final class FieldKey {
+
+    /**
+     * The object the field belongs to.
+     */
+    private final TrackableObject object;
+
+    /**
+     * The field.
+     */
+    private final Field field;
+
+    /**
+     * Creates a new key.
+     * @param trackableObject the object the field belongs to.
+     * @param objectField the field.
+     */
+    FieldKey(final TrackableObject trackableObject, final Field objectField) {
+        object = trackableObject;
+        field = objectField;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (!(other instanceof FieldKey)) {
+            return false;
+        }
+        FieldKey key = (FieldKey) other;
+        return key.object == object && key.field.equals(field);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        return System.identityHashCode(object) * prime + field.hashCode();
+    }
+}
@@ -2,12 +2,19 @@ package sws.murcs.magic.tracking;
 
 import javafx.beans.Observable;
 import sws.murcs.debug.errorreporting.ErrorReporter;
+import sws.murcs.magic.FieldAccessor;
 import sws.murcs.model.Model;
+import sws.murcs.model.helpers.InterningHelper;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -19,10 +26,35 @@ import java.util.Set;
  */
 public class FieldValuePair {
 
+    /**
+     * Estimated size in bytes of a field value pair, not counting its value.
+     */
+    private static final int PAIR_SIZE = 48;
+
+    /**
+     * Estimated size in bytes of a string, not counting its characters.
+     */
+    private static final int STRING_SIZE = 40;
+
+    /**
+     * Estimated size in bytes of a collection or map, not counting its elements.
+     */
+    private static final int COLLECTION_SIZE = 64;
+
+    /**
+     * Estimated size in bytes of each element of a collection or entry of a map.
+     */
+    private static final int ELEMENT_SIZE = 16;
+
+    /**
+     * Estimated size in bytes of any other value.
+     */
+    private static final int VALUE_SIZE = 16;
+
     /**
      * Field that this FieldValuePair represents.
      */
-    private Field field;
+    private FieldAccessor field;
 
     /**
      * Value that this FieldValuePair represents.
@@ -34,6 +66,17 @@ public class FieldValuePair {
      */
     private TrackableObject trackableObject;
 
+    /**
+     * The collection in the object that the value is a copy of, while it is known to be unchanged.
+     * Null if the value is not a collection, or the collection needs to be compared.
+     */
+    private TrackableCollection sourceCollection;
+
+    /**
+     * The modification count of the source collection when the value was known to match it.
+     */
+    private long sourceModifications;
+
     /**
      * Field value pair that created this one.
      * Used for propagating updates.
@@ -51,10 +94,12 @@ public class FieldValuePair {
      * @param source object to get value from.
      * @throws Exception when source does not have the field specified.
      */
-    protected FieldValuePair(final Field objectField, final TrackableObject source) throws Exception {
+    protected FieldValuePair(final FieldAccessor objectField, final TrackableObject source) throws Exception {
         this.field = objectField;
         trackableObject = source;
-        value = getValueFromObject(source, objectField);
+        Object currentValue = getValueFromObject(source, objectField);
+        value = copyValue(currentValue);
+        rememberSource(currentValue);
     }
 
     /**
@@ -65,7 +110,7 @@ public class FieldValuePair {
      * @param parent field value pair that created this one.
      * @param isOldValue sets if this represents an old value.
      */
-    private FieldValuePair(final Field field, final Object objectValue,
+    private FieldValuePair(final FieldAccessor field, final Object objectValue,
                            final TrackableObject trackableObject, final FieldValuePair parent,
                            final boolean isOldValue) {
         this.field = field;
@@ -80,14 +125,30 @@ public class FieldValuePair {
      * @throws Exception if something goes wrong.
      */
     protected final void restoreValue() throws Exception {
+        applyValue();
+        parent.value = value;
+        parent.sourceCollection = null;
+    }
+
+    /**
+     * Sets the field of the object to the saved value, without updating the field value pair that created this one.
+     * @throws Exception if something goes wrong.
+     */
+    protected final void applyValue() throws Exception {
         if (value instanceof Collection) {
             Collection collection = (Collection) value;
             if (value instanceof Observable) {
                 // If Observable, changes need to be done through the add/remove
                 // methods so any listeners get correctly fired
                 Collection currentCollection = (Collection) field.get(trackableObject);
-                Set add = new HashSet<>(collection);
-                add.removeAll(currentCollection);
+                // added in the order they are in the value, so a list gets back the order it had
+                Set current = new HashSet<>(currentCollection);
+                List add = new ArrayList<>();
+                for (Object element : collection) {
+                    if (!current.contains(element)) {
+                        add.add(element);
+                    }
+                }
                 Set remove = new HashSet<>(currentCollection);
                 remove.removeAll(collection);
                 currentCollection.removeAll(remove);
@@ -113,7 +174,6 @@ public class FieldValuePair {
                 ((Model) trackableObject).getShortNameProperty().notifyChanged();
             }
         }
-        parent.value = value;
     }
 
     /**
@@ -121,14 +181,14 @@ public class FieldValuePair {
      * @return the field.
      */
     protected final Field getField() {
-        return field;
+        return field.getField();
     }
 
     /**
      * Sets the stored field value.
      * @param newField new field.
      */
-    protected final void setField(final Field newField) {
+    protected final void setField(final FieldAccessor newField) {
         this.field = newField;
     }
 
@@ -146,6 +206,7 @@ public class FieldValuePair {
      */
     protected final void setValue(final Object newValue) {
         this.value = newValue;
+        sourceCollection = null;
     }
 
     /**
@@ -168,7 +229,7 @@ public class FieldValuePair {
      * @return true if this FieldValuePair uses the same field as other.
      */
     public final boolean equals(final FieldValuePair other) {
-        return other.field.equals(field)
+        return other.field.getField().equals(field.getField())
                 && other.trackableObject.equals(trackableObject)
                 && Objects.equals(other.value, value);
     }
@@ -184,15 +245,24 @@ public class FieldValuePair {
     }
 
     /**
-     * Gets the value of an object.
+     * Gets the value of an object, without copying it.
      * @param object Object to retrieve value from.
      * @param field Field to get value from.
      * @return the value.
      * @throws Exception if the field does not exist in object.
      */
-    private static Object getValueFromObject(final Object object, final Field field) throws Exception {
-        field.setAccessible(true);
-        Object value = field.get(object);
+    private static Object getValueFromObject(final Object object, final FieldAccessor field) throws Exception {
+        return field.get(object);
+    }
+
+    /**
+     * Copies a value if it is a collection or map, so that later changes to it are not reflected in the copy.
+     * @param currentValue the value.
+     * @return the copy, or the value itself if it does not need to be copied.
+     * @throws Exception if the collection or map cannot be copied.
+     */
+    private static Object copyValue(final Object currentValue) throws Exception {
+        Object value = currentValue;
         if (value instanceof Collection) {
             Class<?> clazz = value.getClass();
             Constructor<?> ctor = clazz.getConstructor(Collection.class);
@@ -206,6 +276,30 @@ public class FieldValuePair {
         return value;
     }
 
+    /**
+     * Gets the accessor for the field this pair holds the value of.
+     * @return the accessor.
+     */
+    final FieldAccessor getAccessor() {
+        return field;
+    }
+
+    /**
+     * Gets the field value pair that created this one, which is updated when this one is restored.
+     * @return the pair that created this one.
+     */
+    final FieldValuePair getParent() {
+        return parent;
+    }
+
+    /**
+     * Gets the key that identifies the field of the object this pair holds the value of.
+     * @return the key.
+     */
+    final FieldKey getKey() {
+        return new FieldKey(trackableObject, field.getField());
+    }
+
     /**
      * Gets the object that this field value pair represents the value of.
      * @return the object that this FVP represents.
@@ -226,15 +320,19 @@ public class FieldValuePair {
         Object currentValue = null;
         try {
             currentValue = getValueFromObject(trackableObject, field);
+            if (isUnchanged(currentValue)) {
+                return null;
+            }
+            Object liveValue = currentValue;
+            currentValue = copyValue(currentValue);
+            rememberSource(liveValue);
         }
         catch (Exception e) {
             ErrorReporter.get().reportError(e, "Could not get value from object even though we have successfully "
                     + "done so before.");
         }
 
-        if (Objects.equals(value, currentValue)) {
-            return null;
-        }
+        currentValue = internValue(currentValue);
         Object oldValue = value;
         value = currentValue;
         return new FieldValuePair[] {
@@ -243,6 +341,61 @@ public class FieldValuePair {
         };
     }
 
+    /**
+     * Checks if the current value of the field is the same as the stored value. Collections that count their
+     * modifications are not compared if they have not been modified, and other collections are compared
+     * without being copied, so only collections that have actually changed are copied.
+     * @param currentValue the current value of the field, not copied.
+     * @return true if the value has not changed.
+     */
+    private boolean isUnchanged(final Object currentValue) {
+        if (sourceCollection != null && sourceCollection == currentValue
+                && sourceCollection.getModificationCount() == sourceModifications) {
+            return true;
+        }
+        if (Objects.equals(value, currentValue)) {
+            rememberSource(currentValue);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remembers the collection that the stored value matches, if it counts its modifications.
+     * @param currentValue the current value of the field, not copied.
+     */
+    private void rememberSource(final Object currentValue) {
+        if (currentValue instanceof TrackableCollection) {
+            sourceCollection = (TrackableCollection) currentValue;
+            sourceModifications = sourceCollection.getModificationCount();
+        }
+        else {
+            sourceCollection = null;
+        }
+    }
+
+    /**
+     * Replaces a value that has just been changed by its canonical instance, so that the model and the history
+     * share equal values instead of each keeping their own. Simple values are also replaced in the object.
+     * @param currentValue the value (a copy for collections and maps).
+     * @return the canonical value.
+     */
+    private Object internValue(final Object currentValue) {
+        if (currentValue instanceof Collection) {
+            InterningHelper.internElements((Collection<?>) currentValue);
+            return currentValue;
+        }
+        if (currentValue instanceof Map) {
+            InterningHelper.internEntries((Map<?, ?>) currentValue);
+            return currentValue;
+        }
+        Object canonical = InterningHelper.intern(currentValue);
+        if (canonical != currentValue) {
+            field.set(trackableObject, canonical);
+        }
+        return canonical;
+    }
+
     /**
      * This FVP represents the old value of the object.
      * @return true if it does, false otherwise.
@@ -250,4 +403,65 @@ public class FieldValuePair {
     protected boolean isOldValue() {
         return representsOldValue;
     }
+
+    /**
+     * Estimates the memory used by this pair and its value. The elements of collections are not counted,
+     * as they are shared with the model, only the space taken up by referring to them.
+     * @return the estimated number of bytes.
+     */
+    protected final long estimateSize() {
+        if (value instanceof String) {
+            return PAIR_SIZE + STRING_SIZE + 2L * ((String) value).length();
+        }
+        if (value instanceof Collection) {
+            return PAIR_SIZE + COLLECTION_SIZE + ELEMENT_SIZE * (long) ((Collection<?>) value).size();
+        }
+        if (value instanceof Map) {
+            return PAIR_SIZE + COLLECTION_SIZE + 2L * ELEMENT_SIZE * ((Map<?, ?>) value).size();
+        }
+        return PAIR_SIZE + VALUE_SIZE;
+    }
+
+    /**
+     * Writes this pair to a stream, so that it can be read back by readFrom.
+     * @param out the stream, which must be able to write the objects that are tracked.
+     * @throws IOException if the pair cannot be written.
+     */
+    final void writeTo(final ObjectOutputStream out) throws IOException {
+        out.writeObject(field);
+        out.writeObject(trackableObject);
+        out.writeObject(parent);
+        out.writeBoolean(representsOldValue);
+        out.writeObject(value);
+    }
+
+    /**
+     * Reads a pair that was written by writeTo.
+     * @param in the stream.
+     * @return the pair.
+     * @throws IOException if the pair cannot be read.
+     * @throws ClassNotFoundException if the class of the value cannot be found.
+     */
+    static FieldValuePair readFrom(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        FieldAccessor field = (FieldAccessor) in.readObject();
+        TrackableObject object = (TrackableObject) in.readObject();
+        FieldValuePair parent = (FieldValuePair) in.readObject();
+        boolean isOldValue = in.readBoolean();
+        Object value = in.readObject();
+        return restore(field, value, object, parent, isOldValue);
+    }
+
+    /**
+     * Recreates a pair that was written out.
+     * @param field the field of the pair.
+     * @param value the value of the pair.
+     * @param object the object the pair holds the value of.
+     * @param parent the pair that created the pair.
+     * @param isOldValue if the pair represents an old value.
+     * @return the pair.
+     */
+    static FieldValuePair restore(final FieldAccessor field, final Object value, final TrackableObject object,
+                                  final FieldValuePair parent, final boolean isOldValue) {
+        return new FieldValuePair(field, value, object, parent, isOldValue);
+    }
 }
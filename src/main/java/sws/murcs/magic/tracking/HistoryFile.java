@@ -0,0 +1,880 @@
+package sws.murcs.magic.tracking;
+
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.FieldAccessor;
+import sws.murcs.model.helpers.InterningHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Undo history saved alongside a model, so that it survives the model being closed and opened again.
+ * The file starts with a header (magic number, version and the stamp of the model file it belongs to) followed by
+ * segments, which are only ever added to the end of the file so that saving costs as much as has changed.
+ * Each segment has a header (its kind, its id, the id of the segment it continues on from, the number of entries,
+ * the message of the newest commit and the length of the rest of it) followed by the entries, compressed.
+ * A commit segment holds the commits made since the segment it continues on from was saved, newest first, and
+ * ends with the changes made since then to the commit that segment starts with (before values are only added to
+ * a commit once the next one is made). The history is the chain of segments that the newest one continues on
+ * from, segments that were undone and replaced by newer commits are left out of it.
+ * Objects that are part of the model are written as their stable id, and field value pairs that are part
+ * of the current state of the model as the object and field they are for, so that the history read back
+ * refers to the objects and state of the model it is loaded with. Anything else (e.g. objects that were
+ * removed from the model before they were given an id) is written in full. The ids of objects that have been
+ * removed from the model are forgotten when it is compacted, so the compacted objects are added in full as a
+ * dropped segment, which older segments that refer to them by id are read with.
+ */
+public final class HistoryFile {
+
+    /**
+     * Magic number at the start of a history file.
+     */
+    private static final int MAGIC = 0x4D555248;
+
+    /**
+     * Version of the format.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Length in bytes of the header at the start of the file.
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * Length in bytes of the header of a segment, not including its message.
+     */
+    private static final int SEGMENT_HEADER_LENGTH = 29;
+
+    /**
+     * Kind of segment that holds commits.
+     */
+    private static final byte COMMITS = 1;
+
+    /**
+     * Kind of segment that holds objects which were removed from the model when it was compacted.
+     */
+    private static final byte DROPPED = 2;
+
+    /**
+     * The header of a segment, and the entries in it once they have been read.
+     */
+    static final class Segment {
+
+        /**
+         * The kind of segment.
+         */
+        private final byte kind;
+
+        /**
+         * The id of the segment, later segments are given higher ids.
+         */
+        private final long id;
+
+        /**
+         * The id of the segment this one continues on from, -1 if it is the first.
+         */
+        private final long parent;
+
+        /**
+         * The number of entries in the segment.
+         */
+        private final int count;
+
+        /**
+         * The message of the newest commit in the segment.
+         */
+        private final String message;
+
+        /**
+         * The length in bytes of the segment, including its header.
+         */
+        private long size;
+
+        /**
+         * The compressed entries, null if they have not been read.
+         */
+        private byte[] entries;
+
+        /**
+         * Creates a new segment header.
+         * @param segmentKind the kind of segment.
+         * @param segmentId the id of the segment.
+         * @param parentId the id of the segment this one continues on from, -1 if it is the first.
+         * @param entryCount the number of entries in the segment.
+         * @param newestMessage the message of the newest commit in the segment.
+         */
+        private Segment(final byte segmentKind, final long segmentId, final long parentId, final int entryCount,
+                        final String newestMessage) {
+            kind = segmentKind;
+            id = segmentId;
+            parent = parentId;
+            count = entryCount;
+            message = newestMessage;
+        }
+
+        /**
+         * Gets the id of the segment.
+         * @return the id.
+         */
+        long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the message of the newest commit in the segment.
+         * @return the message.
+         */
+        String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Stands in for an object that is part of the model.
+     */
+    private static final class ObjectRef implements Serializable {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 0L;
+
+        /**
+         * The id of the object.
+         */
+        private final int id;
+
+        /**
+         * Creates a new reference to an object.
+         * @param objectId the id of the object.
+         */
+        private ObjectRef(final int objectId) {
+            id = objectId;
+        }
+    }
+
+    /**
+     * Stands in for a tracked field.
+     */
+    private static final class FieldRef implements Serializable {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 0L;
+
+        /**
+         * The class that declares the field.
+         */
+        private final Class<?> type;
+
+        /**
+         * The name of the field.
+         */
+        private final String name;
+
+        /**
+         * Creates a new reference to a field.
+         * @param field the field.
+         */
+        private FieldRef(final Field field) {
+            type = field.getDeclaringClass();
+            name = field.getName();
+        }
+    }
+
+    /**
+     * Stands in for a field value pair that is part of the current state of the model.
+     */
+    private static final class PairRef implements Serializable {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 0L;
+
+        /**
+         * The object the pair holds the value of.
+         */
+        private final Object object;
+
+        /**
+         * The field the pair holds the value of.
+         */
+        private final Object field;
+
+        /**
+         * Creates a new reference to a pair.
+         * @param pair the pair.
+         * @param accessor the field of the pair.
+         */
+        private PairRef(final FieldValuePair pair, final FieldAccessor accessor) {
+            object = pair.getObject();
+            field = accessor;
+        }
+    }
+
+    /**
+     * Stands in for any other field value pair, which is written in full.
+     */
+    private static final class PairValue implements Serializable {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 0L;
+
+        /**
+         * The field the pair holds the value of.
+         */
+        private final Object field;
+
+        /**
+         * The object the pair holds the value of.
+         */
+        private final Object object;
+
+        /**
+         * The pair that created this one.
+         */
+        private final Object parent;
+
+        /**
+         * If the pair represents an old value.
+         */
+        private final boolean old;
+
+        /**
+         * The value.
+         */
+        private final Object value;
+
+        /**
+         * Creates a new stand in for a pair.
+         * @param pair the pair.
+         * @param accessor the field of the pair.
+         */
+        private PairValue(final FieldValuePair pair, final FieldAccessor accessor) {
+            field = accessor;
+            object = pair.getObject();
+            parent = pair.getParent();
+            old = pair.isOldValue();
+            value = pair.getValue();
+        }
+    }
+
+    /**
+     * Writes a segment of commits.
+     */
+    static final class Writer {
+
+        /**
+         * The entries, before they are compressed.
+         */
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+
+        /**
+         * The compressed stream the commits are written to.
+         */
+        private final DeflaterOutputStream compressed;
+
+        /**
+         * The stream the commits are written to.
+         */
+        private final ObjectOutputStream out;
+
+        /**
+         * The number of commits that have been written.
+         */
+        private int count;
+
+        /**
+         * Starts writing a segment of commits.
+         * @param ids the ids of the objects in the model.
+         * @param modelState the current state of the model.
+         * @throws IOException if the commits cannot be written.
+         */
+        Writer(final StableIds ids, final Map<TrackableObject, List<FieldValuePair>> modelState) throws IOException {
+            compressed = new DeflaterOutputStream(entries);
+            out = new HistoryOutputStream(compressed, ids, modelState);
+        }
+
+        /**
+         * Writes the next commit. Commits are written newest first.
+         * @param commit the commit.
+         * @throws IOException if the commit cannot be written.
+         */
+        void write(final Commit commit) throws IOException {
+            commit.writeTo(out);
+            count++;
+        }
+
+        /**
+         * Finishes writing the segment, and writes it to a stream.
+         * @param stream the stream to write the segment to, which is not closed.
+         * @param id the id of the segment, which must be higher than the id of every segment already in the file.
+         * @param parent the id of the segment this one continues on from, -1 if it is the first.
+         * @param message the message of the newest commit.
+         * @throws IOException if the segment cannot be written.
+         */
+        void finish(final OutputStream stream, final long id, final long parent, final String message)
+                throws IOException {
+            out.flush();
+            compressed.finish();
+            writeSegment(stream, COMMITS, id, parent, count, message, entries);
+        }
+    }
+
+    /**
+     * Writes commits, replacing objects in the model and the pairs in its current state by references to them.
+     */
+    private static final class HistoryOutputStream extends ObjectOutputStream {
+
+        /**
+         * The ids of the objects in the model.
+         */
+        private final StableIds ids;
+
+        /**
+         * The current state of the model.
+         */
+        private final Map<TrackableObject, List<FieldValuePair>> modelState;
+
+        /**
+         * Creates a new stream.
+         * @param stream the stream to write to.
+         * @param objectIds the ids of the objects in the model.
+         * @param state the current state of the model.
+         * @throws IOException if the stream header cannot be written.
+         */
+        private HistoryOutputStream(final OutputStream stream, final StableIds objectIds,
+                                    final Map<TrackableObject, List<FieldValuePair>> state) throws IOException {
+            super(stream);
+            ids = objectIds;
+            modelState = state;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(final Object object) throws IOException {
+            if (object == null || object.getClass().isArray()) {
+                return object;
+            }
+            if (object instanceof FieldAccessor) {
+                return new FieldRef(((FieldAccessor) object).getField());
+            }
+            if (object instanceof FieldValuePair) {
+                return standIn((FieldValuePair) object);
+            }
+            if (object instanceof Collection) {
+                return new CollectionValue((Collection<?>) object);
+            }
+            if (object instanceof Map) {
+                return new MapValue((Map<?, ?>) object);
+            }
+            int id = ids.getId(object);
+            if (id >= 0) {
+                return new ObjectRef(id);
+            }
+            return object;
+        }
+
+        /**
+         * Creates the stand in for a pair.
+         * @param pair the pair.
+         * @return a reference to the pair if it is part of the current state of the model, otherwise the pair
+         * in full.
+         */
+        private Object standIn(final FieldValuePair pair) {
+            FieldAccessor accessor = pair.getAccessor();
+            List<FieldValuePair> current = modelState.get(pair.getObject());
+            if (current != null && current.contains(pair)) {
+                return new PairRef(pair, accessor);
+            }
+            return new PairValue(pair, accessor);
+        }
+    }
+
+    /**
+     * Reads commits, putting back the objects and pairs that were replaced by references to them.
+     */
+    private static final class HistoryInputStream extends ObjectInputStream {
+
+        /**
+         * The ids of the objects in the model.
+         */
+        private final StableIds ids;
+
+        /**
+         * The state of the model that the history refers to.
+         */
+        private final Map<TrackableObject, List<FieldValuePair>> modelState;
+
+        /**
+         * The objects that were removed from the model when it was compacted, keyed by the id they had.
+         */
+        private final Map<Integer, Object> dropped;
+
+        /**
+         * The pairs of objects that are no longer in the model, as they were when the objects were removed.
+         * Older segments refer to them as they were part of the state of the model when they were written.
+         */
+        private final Map<FieldKey, FieldValuePair> removedPairs;
+
+        /**
+         * Creates a new stream.
+         * @param stream the stream to read from.
+         * @param objectIds the ids of the objects in the model.
+         * @param state the state of the model that the history refers to.
+         * @param droppedObjects the objects that were removed from the model when it was compacted.
+         * @param removed the pairs of objects that are no longer in the model, which the pairs read are added to.
+         * @throws IOException if the stream header cannot be read.
+         */
+        private HistoryInputStream(final InputStream stream, final StableIds objectIds,
+                                   final Map<TrackableObject, List<FieldValuePair>> state,
+                                   final Map<Integer, Object> droppedObjects,
+                                   final Map<FieldKey, FieldValuePair> removed) throws IOException {
+            super(stream);
+            ids = objectIds;
+            modelState = state;
+            dropped = droppedObjects;
+            removedPairs = removed;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(final Object object) throws IOException {
+            if (object instanceof ObjectRef) {
+                int id = ((ObjectRef) object).id;
+                // ids are never reused, so an id that was dropped always refers to the dropped object
+                Object resolved = dropped.get(id);
+                if (resolved == null) {
+                    resolved = ids.getObject(id);
+                }
+                if (resolved == null) {
+                    throw new IOException("The undo history refers to an object that is no longer in the model.");
+                }
+                return resolved;
+            }
+            if (object instanceof FieldRef) {
+                return resolveField((FieldRef) object);
+            }
+            if (object instanceof PairRef) {
+                return resolvePair((PairRef) object);
+            }
+            if (object instanceof PairValue) {
+                PairValue pair = (PairValue) object;
+                FieldValuePair restored = FieldValuePair.restore((FieldAccessor) pair.field, pair.value,
+                        (TrackableObject) pair.object, (FieldValuePair) pair.parent, pair.old);
+                if (pair.parent == null) {
+                    // a pair of the state of the model, whose object has since been removed from it
+                    removedPairs.putIfAbsent(restored.getKey(), restored);
+                }
+                return restored;
+            }
+            if (object instanceof CollectionValue) {
+                return ((CollectionValue) object).rebuild();
+            }
+            if (object instanceof MapValue) {
+                return ((MapValue) object).rebuild();
+            }
+            return InterningHelper.intern(object);
+        }
+
+        /**
+         * Finds the accessor for a tracked field.
+         * @param field the reference to the field.
+         * @return the accessor.
+         * @throws IOException if the class no longer tracks the field.
+         */
+        private static FieldAccessor resolveField(final FieldRef field) throws IOException {
+            for (FieldAccessor accessor : ClassMetadata.of(field.type).getTrackedFields()) {
+                if (accessor.getField().getDeclaringClass() == field.type && accessor.getName().equals(field.name)) {
+                    return accessor;
+                }
+            }
+            throw new IOException("The undo history refers to a field that is no longer tracked: " + field.name);
+        }
+
+        /**
+         * Finds a pair in the state of the model, or in the pairs of the objects that have been removed from it.
+         * @param pair the reference to the pair.
+         * @return the pair.
+         * @throws IOException if the object does not have a pair for the field.
+         */
+        private FieldValuePair resolvePair(final PairRef pair) throws IOException {
+            Field field = ((FieldAccessor) pair.field).getField();
+            List<FieldValuePair> pairs = modelState.get(pair.object);
+            if (pairs != null) {
+                for (FieldValuePair candidate : pairs) {
+                    if (candidate.getField().equals(field)) {
+                        return candidate;
+                    }
+                }
+            }
+            FieldValuePair removed = removedPairs.get(new FieldKey((TrackableObject) pair.object, field));
+            if (removed != null) {
+                return removed;
+            }
+            throw new IOException("The undo history refers to a field of an object that is not being tracked.");
+        }
+    }
+
+    /**
+     * Empty private constructor as this is a utility class.
+     */
+    private HistoryFile() {
+    }
+
+    /**
+     * Writes the header at the start of a history file.
+     * @param stream the stream to write to, which is not closed.
+     * @param stamp the stamp of the file the model was saved to.
+     * @throws IOException if the header cannot be written.
+     */
+    static void writeHeader(final OutputStream stream, final long stamp) throws IOException {
+        DataOutputStream header = new DataOutputStream(stream);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeLong(stamp);
+        header.flush();
+    }
+
+    /**
+     * Writes a segment of the objects that were removed from a model when it was compacted, so that the history
+     * already saved can still refer to them by the ids they had. They are written as they were when they were
+     * removed, so this can be called on a copy of the model rather than on the model itself.
+     * @param stream the stream to write the segment to, which is not closed.
+     * @param dropped the objects that were removed, keyed by their id.
+     * @param ids the ids of the objects still in the model, which the removed objects refer to by id.
+     * @throws IOException if the segment cannot be written.
+     */
+    public static void writeDropped(final OutputStream stream, final Map<Integer, ?> dropped, final StableIds ids)
+            throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DeflaterOutputStream compressed = new DeflaterOutputStream(entries);
+        ObjectOutputStream out = new HistoryOutputStream(compressed, ids, Collections.emptyMap());
+        for (Map.Entry<Integer, ?> object : dropped.entrySet()) {
+            out.writeInt(object.getKey());
+            out.writeObject(object.getValue());
+        }
+        out.flush();
+        compressed.finish();
+        writeSegment(stream, DROPPED, -1, -1, dropped.size(), "", entries);
+    }
+
+    /**
+     * Finds the length of the complete part of saved history, checking that it belongs to a file. A segment that
+     * was only partly written (e.g. because the application exited while it was being written) is not complete,
+     * and anything after it is ignored, so more segments are added at this length.
+     * @param in the stream to read the history from.
+     * @param stamp the stamp of the file the history should belong to.
+     * @return the length in bytes.
+     * @throws IOException if the history cannot be read or belongs to another file.
+     */
+    public static long findLength(final InputStream in, final long stamp) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        readHeader(data, stamp);
+        long length = HEADER_LENGTH;
+        for (Segment segment : readSegments(data, false)) {
+            length += segment.size;
+        }
+        return length;
+    }
+
+    /**
+     * Finds the newest segment of commits in saved history, checking that the history belongs to the file
+     * the model was loaded from. Only the headers of the segments are read.
+     * @param in the stream to read the history from.
+     * @param stamp the stamp of the file the model was loaded from.
+     * @return the header of the segment.
+     * @throws IOException if the history cannot be read, belongs to another file or has no commits.
+     */
+    static Segment findNewest(final InputStream in, final long stamp) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        readHeader(data, stamp);
+        Segment newest = null;
+        for (Segment segment : readSegments(data, false)) {
+            if (segment.kind == COMMITS) {
+                newest = segment;
+            }
+        }
+        if (newest == null) {
+            throw new IOException("The saved undo history has no commits.");
+        }
+        return newest;
+    }
+
+    /**
+     * Reads saved history, following the chain of segments that the newest segment of commits continues on from.
+     * @param in the stream to read the history from.
+     * @param stamp the stamp of the file the model was loaded from.
+     * @param ids the ids of the objects in the model.
+     * @param modelState the state of the model that the history refers to, i.e. as it was loaded.
+     * @return the commits, newest first.
+     * @throws IOException if the history cannot be read, belongs to another file or refers to something that is
+     * no longer in the model.
+     */
+    static List<Commit> read(final InputStream in, final long stamp, final StableIds ids,
+                             final Map<TrackableObject, List<FieldValuePair>> modelState) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        readHeader(data, stamp);
+        Map<Integer, Object> dropped = new HashMap<>();
+        Map<FieldKey, FieldValuePair> removedPairs = new HashMap<>();
+        Map<Long, Segment> commitSegments = new HashMap<>();
+        Segment newest = null;
+        for (Segment segment : readSegments(data, true)) {
+            if (segment.kind == DROPPED) {
+                readDropped(segment, ids, dropped);
+            }
+            else if (segment.kind == COMMITS) {
+                commitSegments.put(segment.id, segment);
+                newest = segment;
+            }
+        }
+        if (newest == null) {
+            throw new IOException("The saved undo history has no commits.");
+        }
+
+        // newer segments are read first, as they have the pairs of the objects removed since older ones were saved
+        List<Commit> commits = readCommits(newest, ids, modelState, dropped, removedPairs);
+        Segment segment = newest;
+        while (segment.parent >= 0 && !commits.isEmpty()) {
+            Commit changes = commits.remove(commits.size() - 1);
+            Segment parent = commitSegments.get(segment.parent);
+            if (parent == null || parent.id >= segment.id) {
+                // the rest of the history is missing, so it ends here
+                break;
+            }
+            List<Commit> older = readCommits(parent, ids, modelState, dropped, removedPairs);
+            if (older.isEmpty()) {
+                break;
+            }
+            merge(older.get(0), changes);
+            commits.addAll(older);
+            segment = parent;
+        }
+        if (commits.isEmpty()) {
+            throw new IOException("The saved undo history has no commits.");
+        }
+        return commits;
+    }
+
+    /**
+     * Adds the changes made to a commit after it was saved to it.
+     * @param commit the commit as it was saved.
+     * @param changes the changes made to it since.
+     */
+    private static void merge(final Commit commit, final Commit changes) {
+        changes.getPairs().forEach(commit::addPairIfAbsent);
+        addEntries(commit.getAddedFields(), changes.getAddedFields());
+        addEntries(commit.getRemovedFields(), changes.getRemovedFields());
+        commit.modifyMessage(changes.getMessage());
+    }
+
+    /**
+     * Adds the fields added to (or removed from) the model by a commit that it does not have yet.
+     * @param entries the fields the commit has.
+     * @param added the fields to add.
+     */
+    private static void addEntries(final Collection<Map.Entry<TrackableObject, FieldValuePair>> entries,
+                                   final Collection<Map.Entry<TrackableObject, FieldValuePair>> added) {
+        Set<FieldValuePair> present = Collections.newSetFromMap(new IdentityHashMap<>());
+        entries.forEach(entry -> present.add(entry.getValue()));
+        for (Map.Entry<TrackableObject, FieldValuePair> entry : added) {
+            if (present.add(entry.getValue())) {
+                entries.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Reads the commits in a segment.
+     * @param segment the segment, whose entries have been read.
+     * @param ids the ids of the objects in the model.
+     * @param modelState the state of the model that the history refers to.
+     * @param dropped the objects that were removed from the model when it was compacted.
+     * @param removedPairs the pairs of objects that are no longer in the model, found in newer segments.
+     * @return the commits, newest first.
+     * @throws IOException if the commits cannot be read.
+     */
+    private static List<Commit> readCommits(final Segment segment, final StableIds ids,
+                                            final Map<TrackableObject, List<FieldValuePair>> modelState,
+                                            final Map<Integer, Object> dropped,
+                                            final Map<FieldKey, FieldValuePair> removedPairs) throws IOException {
+        List<Commit> commits = new ArrayList<>(segment.count);
+        try (ObjectInputStream in = new HistoryInputStream(openEntries(segment), ids, modelState, dropped,
+                removedPairs)) {
+            for (int i = 0; i < segment.count; i++) {
+                commits.add(Commit.readFrom(in));
+            }
+        }
+        catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Could not read the saved undo history", e);
+        }
+        return commits;
+    }
+
+    /**
+     * Reads the objects in a dropped segment.
+     * @param segment the segment, whose entries have been read.
+     * @param ids the ids of the objects in the model.
+     * @param dropped the objects that were removed from the model when it was compacted, which the objects
+     * read are added to.
+     * @throws IOException if the objects cannot be read.
+     */
+    private static void readDropped(final Segment segment, final StableIds ids, final Map<Integer, Object> dropped)
+            throws IOException {
+        try (ObjectInputStream in = new HistoryInputStream(openEntries(segment), ids, Collections.emptyMap(),
+                dropped, new HashMap<>())) {
+            for (int i = 0; i < segment.count; i++) {
+                int id = in.readInt();
+                dropped.put(id, in.readObject());
+            }
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("Could not read the saved undo history", e);
+        }
+    }
+
+    /**
+     * Opens the entries of a segment.
+     * @param segment the segment, whose entries have been read.
+     * @return the stream of entries.
+     */
+    private static InputStream openEntries(final Segment segment) {
+        return new InflaterInputStream(new ByteArrayInputStream(segment.entries));
+    }
+
+    /**
+     * Writes a segment.
+     * @param stream the stream to write the segment to, which is not closed.
+     * @param kind the kind of segment.
+     * @param id the id of the segment.
+     * @param parent the id of the segment it continues on from, -1 if none.
+     * @param count the number of entries.
+     * @param message the message of the newest commit.
+     * @param entries the compressed entries.
+     * @throws IOException if the segment cannot be written.
+     */
+    private static void writeSegment(final OutputStream stream, final byte kind, final long id, final long parent,
+                                     final int count, final String message, final ByteArrayOutputStream entries)
+            throws IOException {
+        DataOutputStream header = new DataOutputStream(stream);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        header.writeByte(kind);
+        header.writeLong(id);
+        header.writeLong(parent);
+        header.writeInt(count);
+        header.writeInt(messageBytes.length);
+        header.write(messageBytes);
+        header.writeInt(entries.size());
+        entries.writeTo(header);
+        header.flush();
+    }
+
+    /**
+     * Reads the segments after the header, stopping at the first one that is not complete.
+     * @param in the stream to read the segments from.
+     * @param readEntries true to read the entries of the segments, false to skip over them.
+     * @return the segments, oldest first.
+     * @throws IOException if the segments cannot be read.
+     */
+    private static List<Segment> readSegments(final DataInputStream in, final boolean readEntries)
+            throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        try {
+            while (true) {
+                byte kind = in.readByte();
+                long id = in.readLong();
+                long parent = in.readLong();
+                int count = in.readInt();
+                int messageLength = in.readInt();
+                if (count < 0 || messageLength < 0) {
+                    break;
+                }
+                byte[] message = new byte[messageLength];
+                in.readFully(message);
+                int length = in.readInt();
+                if (length < 0) {
+                    break;
+                }
+                Segment segment = new Segment(kind, id, parent, count, new String(message, StandardCharsets.UTF_8));
+                segment.size = SEGMENT_HEADER_LENGTH + message.length + (long) length;
+                if (readEntries) {
+                    segment.entries = new byte[length];
+                    in.readFully(segment.entries);
+                }
+                else {
+                    skipFully(in, length);
+                }
+                segments.add(segment);
+            }
+        }
+        catch (EOFException e) {
+            // the rest of the file was not written completely
+        }
+        return segments;
+    }
+
+    /**
+     * Skips over bytes in a stream.
+     * @param in the stream.
+     * @param length the number of bytes to skip.
+     * @throws IOException if the bytes cannot be skipped, or the stream ends first.
+     */
+    private static void skipFully(final InputStream in, final long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Reads the header at the start of the file, checking that it is a history file for the file the model was
+     * loaded from.
+     * @param header the stream to read the header from.
+     * @param stamp the stamp of the file the model was loaded from.
+     * @throws IOException if the header cannot be read or does not match.
+     */
+    private static void readHeader(final DataInputStream header, final long stamp) throws IOException {
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not an undo history file.");
+        }
+        if (header.readInt() != VERSION) {
+            throw new IOException("Unsupported undo history version.");
+        }
+        if (header.readLong() != stamp) {
+            throw new IOException("The undo history was saved with a different file.");
+        }
+    }
+}
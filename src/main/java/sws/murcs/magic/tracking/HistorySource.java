@@ -0,0 +1,29 @@
+package sws.murcs.magic.tracking;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Undo history that was saved alongside a model, which is read the first time it is needed.
+ */
+public interface HistorySource {
+    /**
+     * Opens the saved history.
+     * @return a stream to read the history from.
+     * @throws IOException if the history cannot be opened.
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * Gets the stamp of the file the model was loaded from. History saved against any other file is ignored.
+     * @return the stamp.
+     */
+    long getStamp();
+
+    /**
+     * Gets the ids the history refers to the objects of the model by. All of the objects the history
+     * could refer to are loaded first.
+     * @return the ids.
+     */
+    StableIds getIds();
+}
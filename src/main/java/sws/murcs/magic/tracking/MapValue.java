@@ -0,0 +1,62 @@
+package sws.murcs.magic.tracking;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stands in for a map when the undo history is written out, for the same reason as CollectionValue.
+ */
+final class MapValue implements Serializable {
+
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 0L;
+
+    /**
+     * The type of the map.
+     */
+    private final Class<?> type;
+
+    /**
+     * The keys of the map.
+     */
+    private final Object[] keys;
+
+    /**
+     * The values of the map, in the same order as the keys.
+     */
+    private final Object[] values;
+
+    /**
+     * Creates a new stand in for a map.
+     * @param map the map.
+     */
+    MapValue(final Map<?, ?> map) {
+        type = map.getClass();
+        keys = map.keySet().toArray();
+        values = map.values().toArray();
+    }
+
+    /**
+     * Rebuilds the map.
+     * @return a new map of the same type, with the same entries.
+     * @throws IOException if the map cannot be created.
+     */
+    Object rebuild() throws IOException {
+        Map<Object, Object> entries = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            entries.put(keys[i], values[i]);
+        }
+        try {
+            Constructor<?> constructor = type.getConstructor(Map.class);
+            return constructor.newInstance(entries);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IOException("Could not rebuild a map of the undo history", e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package sws.murcs.magic.tracking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A segment of commits in the saved history of a model, which later commits can be saved on top of.
+ * The commit the segment starts with was the head when it was saved, and is remembered by how many pairs and
+ * fields it had then. Commits are only ever added to, so anything after that is a change to it since it was saved.
+ */
+final class SavedSegment {
+
+    /**
+     * The id of the segment.
+     */
+    private final long id;
+
+    /**
+     * The number of the commit the segment starts with.
+     */
+    private final long commitNumber;
+
+    /**
+     * The message of the commit when it was saved.
+     */
+    private final String message;
+
+    /**
+     * The number of pairs the commit had when it was saved.
+     */
+    private final int pairs;
+
+    /**
+     * The number of added fields the commit had when it was saved.
+     */
+    private final int added;
+
+    /**
+     * The number of removed fields the commit had when it was saved.
+     */
+    private final int removed;
+
+    /**
+     * Creates a new saved segment.
+     * @param segmentId the id of the segment.
+     * @param commit the commit the segment starts with, as it was saved.
+     */
+    SavedSegment(final long segmentId, final Commit commit) {
+        id = segmentId;
+        commitNumber = commit.getCommitNumber();
+        message = commit.getMessage();
+        pairs = commit.getPairs().size();
+        added = commit.getAddedFields().size();
+        removed = commit.getRemovedFields().size();
+    }
+
+    /**
+     * Gets the id of the segment.
+     * @return the id.
+     */
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the number of the commit the segment starts with.
+     * @return the commit number.
+     */
+    long getCommitNumber() {
+        return commitNumber;
+    }
+
+    /**
+     * Gets the changes made to the commit the segment starts with since it was saved.
+     * @param commit the commit as it is now.
+     * @return a commit with only the pairs and fields added to it since, and its current message, or null if
+     * it has not changed.
+     */
+    Commit getChanges(final Commit commit) {
+        if (commit.getPairs().size() == pairs && commit.getAddedFields().size() == added
+                && commit.getRemovedFields().size() == removed && commit.getMessage().equals(message)) {
+            return null;
+        }
+        Collection<FieldValuePair> newPairs = commit.getPairs().stream().skip(pairs)
+                .collect(Collectors.toCollection(ArrayList::new));
+        return new Commit(commitNumber, commit.getMessage(), newPairs, skip(commit.getAddedFields(), added),
+                skip(commit.getRemovedFields(), removed));
+    }
+
+    /**
+     * Gets the fields added to (or removed from) the model by a commit since it was saved.
+     * @param fields the fields the commit has now.
+     * @param saved the number of fields it had when it was saved.
+     * @return the fields it has had since.
+     */
+    private static List<Map.Entry<TrackableObject, FieldValuePair>> skip(
+            final Collection<Map.Entry<TrackableObject, FieldValuePair>> fields, final int saved) {
+        return fields.stream().skip(saved).collect(Collectors.toCollection(ArrayList::new));
+    }
+}
@@ -0,0 +1,465 @@
+package sws.murcs.magic.tracking;
+
+import sws.murcs.model.helpers.InterningHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+/**
+ * The oldest part of the undo history, which has been written to a temporary file to save memory.
+ * Commits are spilled oldest first and paged back in newest first, so the file is used as a stack.
+ * Only the values in a commit are written out. Objects that have an identity in the model (the tracked
+ * objects, their fields and anything else that is not a simple value) are kept in memory and referred to
+ * by number, so that the commits that are paged back in still refer to the same objects. Each object is
+ * let go of once no commit in the file refers to it any more.
+ * This class is not thread safe.
+ */
+final class SpilledHistory {
+
+    /**
+     * The smallest amount of space that forgotten commits must take up at the start of the file before
+     * it is compacted, so that small files are not compacted over and over.
+     */
+    private static final long MINIMUM_COMPACTION = 64 * 1024;
+
+    /**
+     * The size of the buffer used to move the commits when the file is compacted.
+     */
+    private static final int COMPACTION_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A commit that has been written to the file.
+     */
+    private static final class Record {
+
+        /**
+         * Where the commit starts in the file.
+         */
+        private final long offset;
+
+        /**
+         * The number of bytes the commit takes up.
+         */
+        private final int length;
+
+        /**
+         * The numbers of the objects kept in memory that the commit refers to.
+         */
+        private final int[] anchorIds;
+
+        /**
+         * The number of the commit.
+         */
+        private final long commitNumber;
+
+        /**
+         * Creates a new record.
+         * @param recordOffset where the commit starts in the file.
+         * @param recordLength the number of bytes the commit takes up.
+         * @param recordAnchors the numbers of the objects kept in memory that the commit refers to.
+         * @param recordCommitNumber the number of the commit.
+         */
+        private Record(final long recordOffset, final int recordLength, final int[] recordAnchors,
+                       final long recordCommitNumber) {
+            offset = recordOffset;
+            length = recordLength;
+            anchorIds = recordAnchors;
+            commitNumber = recordCommitNumber;
+        }
+    }
+
+    /**
+     * Stands in for an object that is kept in memory rather than written to the file.
+     */
+    private static final class Anchor implements Serializable {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 0L;
+
+        /**
+         * The number of the object.
+         */
+        private final int id;
+
+        /**
+         * Creates a new anchor.
+         * @param anchorId the number of the object.
+         */
+        private Anchor(final int anchorId) {
+            id = anchorId;
+        }
+    }
+
+    /**
+     * Writes commits, replacing the objects that stay in memory with anchors.
+     */
+    private final class SpillOutputStream extends ObjectOutputStream {
+
+        /**
+         * The numbers of the objects that have been replaced with anchors.
+         */
+        private final Set<Integer> anchorIds = new LinkedHashSet<>();
+
+        /**
+         * Creates a new stream.
+         * @param out the stream to write to.
+         * @throws IOException if the stream header cannot be written.
+         */
+        private SpillOutputStream(final OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(final Object object) throws IOException {
+            if (object == null || object.getClass().isArray()) {
+                return object;
+            }
+            if (object instanceof Collection) {
+                return new CollectionValue((Collection<?>) object);
+            }
+            if (object instanceof Map) {
+                return new MapValue((Map<?, ?>) object);
+            }
+            if (isValue(object)) {
+                return object;
+            }
+            Anchor anchor = anchor(object);
+            anchorIds.add(anchor.id);
+            return anchor;
+        }
+
+        /**
+         * Gets the numbers of the objects that have been replaced with anchors.
+         * @return the numbers.
+         */
+        private int[] getAnchorIds() {
+            return anchorIds.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Reads commits, putting back the objects that were replaced when they were written.
+     */
+    private final class SpillInputStream extends ObjectInputStream {
+
+        /**
+         * Creates a new stream.
+         * @param in the stream to read from.
+         * @throws IOException if the stream header cannot be read.
+         */
+        private SpillInputStream(final InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(final Object object) throws IOException {
+            if (object instanceof Anchor) {
+                return anchored.get(((Anchor) object).id);
+            }
+            if (object instanceof CollectionValue) {
+                return ((CollectionValue) object).rebuild();
+            }
+            if (object instanceof MapValue) {
+                return ((MapValue) object).rebuild();
+            }
+            // values would otherwise be duplicates of the ones the model uses
+            return InterningHelper.intern(object);
+        }
+    }
+
+    /**
+     * The commits in the file, newest first.
+     */
+    private final Deque<Record> records = new ArrayDeque<>();
+
+    /**
+     * The numbers of the objects that are kept in memory, keyed by the object.
+     */
+    private final Map<Object, Integer> anchors = new IdentityHashMap<>();
+
+    /**
+     * The objects that are kept in memory, indexed by their number. Numbers that are not in use are null.
+     */
+    private final List<Object> anchored = new ArrayList<>();
+
+    /**
+     * The number of commits in the file that refer to each object kept in memory, indexed by its number.
+     */
+    private final List<Integer> anchorReferences = new ArrayList<>();
+
+    /**
+     * The numbers that are not in use, which are given to new objects before any new numbers are.
+     */
+    private final Deque<Integer> freeAnchorIds = new ArrayDeque<>();
+
+    /**
+     * The file, or null if nothing has been spilled yet.
+     */
+    private File file;
+
+    /**
+     * The open file, or null if nothing has been spilled yet.
+     */
+    private RandomAccessFile data;
+
+    /**
+     * Creates a new, empty spilled history.
+     */
+    SpilledHistory() {
+    }
+
+    /**
+     * Checks if any commits have been spilled.
+     * @return true if no commits are in the file.
+     */
+    boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /**
+     * Gets the number of commits that have been spilled.
+     * @return the number of commits in the file.
+     */
+    int size() {
+        return records.size();
+    }
+
+    /**
+     * Writes a commit to the file. It must be newer than all of the commits already in the file.
+     * @param commit the commit.
+     * @throws IOException if the commit cannot be written.
+     */
+    void push(final Commit commit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int[] anchorIds;
+        try (SpillOutputStream out = new SpillOutputStream(bytes)) {
+            commit.writeTo(out);
+            anchorIds = out.getAnchorIds();
+        }
+        for (int id : anchorIds) {
+            anchorReferences.set(id, anchorReferences.get(id) + 1);
+        }
+        if (data == null) {
+            file = File.createTempFile("murcs-history", ".tmp");
+            file.deleteOnExit();
+            data = new RandomAccessFile(file, "rw");
+        }
+        long offset = data.length();
+        data.seek(offset);
+        data.write(bytes.toByteArray());
+        records.push(new Record(offset, bytes.size(), anchorIds, commit.getCommitNumber()));
+    }
+
+    /**
+     * Reads the newest commit back from the file, and removes it from the file.
+     * @return the commit.
+     * @throws IOException if the commit cannot be read.
+     */
+    Commit pop() throws IOException {
+        Record record = records.pop();
+        Commit commit = read(record);
+        release(record);
+        // the newest commit is always at the end of the file
+        data.setLength(record.offset);
+        return commit;
+    }
+
+    /**
+     * Reads every commit back from the file, newest first, and writes it to saved history.
+     * The commits are left in the file.
+     * @param writer the saved history to write the commits to.
+     * @throws IOException if a commit cannot be read or written.
+     */
+    void copyTo(final HistoryFile.Writer writer) throws IOException {
+        for (Record record : records) {
+            writer.write(read(record));
+        }
+    }
+
+    /**
+     * Reads the newest commits back from the file, down to the newest one whose number passes a test.
+     * The commits are left in the file, and none are read if no commit passes the test.
+     * @param test the test of the number of the last commit to read.
+     * @return the commits, newest first, or null if no commit passes the test.
+     * @throws IOException if a commit cannot be read.
+     */
+    List<Commit> readNewest(final LongPredicate test) throws IOException {
+        int count = 0;
+        boolean found = false;
+        for (Record record : records) {
+            count++;
+            if (test.test(record.commitNumber)) {
+                found = true;
+                break;
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        List<Commit> commits = new ArrayList<>(count);
+        for (Record record : records) {
+            if (commits.size() == count) {
+                break;
+            }
+            commits.add(read(record));
+        }
+        return commits;
+    }
+
+    /**
+     * Forgets the oldest commit in the file. The space the forgotten commits take up at the start of the file
+     * is reclaimed once it is more than the space the rest of the commits take up, by moving them to the start.
+     * @throws IOException if the file cannot be emptied or compacted.
+     */
+    void dropOldest() throws IOException {
+        release(records.removeLast());
+        if (records.isEmpty()) {
+            data.setLength(0);
+            return;
+        }
+        long unused = records.peekLast().offset;
+        if (unused >= MINIMUM_COMPACTION && unused > data.length() - unused) {
+            compact(unused);
+        }
+    }
+
+    /**
+     * Moves the commits in the file to the start of it, removing the space before them.
+     * @param unused the number of bytes before the oldest commit.
+     * @throws IOException if the file cannot be compacted.
+     */
+    private void compact(final long unused) throws IOException {
+        byte[] buffer = new byte[COMPACTION_BUFFER_SIZE];
+        long length = data.length();
+        for (long position = unused; position < length; position += buffer.length) {
+            int count = (int) Math.min(buffer.length, length - position);
+            data.seek(position);
+            data.readFully(buffer, 0, count);
+            data.seek(position - unused);
+            data.write(buffer, 0, count);
+        }
+        data.setLength(length - unused);
+
+        Deque<Record> moved = new ArrayDeque<>();
+        for (Record record : records) {
+            moved.addLast(new Record(record.offset - unused, record.length, record.anchorIds, record.commitNumber));
+        }
+        records.clear();
+        records.addAll(moved);
+    }
+    /**
+     * Forgets all of the commits, and the objects kept in memory for them, and deletes the file.
+     */
+    void clear() {
+        records.clear();
+        anchors.clear();
+        anchored.clear();
+        anchorReferences.clear();
+        freeAnchorIds.clear();
+        if (data != null) {
+            try {
+                data.close();
+            }
+            catch (IOException e) {
+                // the file is deleted on exit anyway
+            }
+            file.delete();
+            data = null;
+            file = null;
+        }
+    }
+
+    /**
+     * Reads a commit from the file.
+     * @param record where the commit is in the file.
+     * @return the commit.
+     * @throws IOException if the commit cannot be read.
+     */
+    private Commit read(final Record record) throws IOException {
+        byte[] bytes = new byte[record.length];
+        data.seek(record.offset);
+        data.readFully(bytes);
+        try (ObjectInputStream in = new SpillInputStream(new ByteArrayInputStream(bytes))) {
+            return Commit.readFrom(in);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("Could not read a commit of the undo history", e);
+        }
+    }
+
+    /**
+     * Gets the anchor for an object that is kept in memory.
+     * @param object the object.
+     * @return the anchor.
+     */
+    private Anchor anchor(final Object object) {
+        Integer id = anchors.get(object);
+        if (id == null) {
+            id = freeAnchorIds.poll();
+            if (id == null) {
+                id = anchored.size();
+                anchored.add(object);
+                anchorReferences.add(0);
+            }
+            else {
+                anchored.set(id, object);
+            }
+            anchors.put(object, id);
+        }
+        return new Anchor(id);
+    }
+
+    /**
+     * Lets go of the objects kept in memory for a commit that is no longer in the file, if no other commit
+     * in the file refers to them.
+     * @param record the commit.
+     */
+    private void release(final Record record) {
+        for (int id : record.anchorIds) {
+            int references = anchorReferences.get(id) - 1;
+            anchorReferences.set(id, references);
+            if (references == 0) {
+                anchors.remove(anchored.get(id));
+                anchored.set(id, null);
+                freeAnchorIds.push(id);
+            }
+        }
+    }
+
+    /**
+     * Checks if an object is a value, that can be written out and read back in as an equal copy.
+     * Besides enums, these are the serializable classes of the standard library that are not collections,
+     * which includes the objects that dates are written out as.
+     * @param object the object.
+     * @return true if the object is a value.
+     */
+    private static boolean isValue(final Object object) {
+        return object instanceof Enum
+                || object instanceof Serializable && object.getClass().getName().startsWith("java.")
+                || object instanceof Anchor
+                || object instanceof CollectionValue
+                || object instanceof MapValue;
+    }
+}
@@ -0,0 +1,21 @@
+package sws.murcs.magic.tracking;
+
+/**
+ * Gives objects ids that stay the same when a model is saved and loaded again, so that saved undo history
+ * can refer to the objects of the model it was saved with.
+ */
+public interface StableIds {
+    /**
+     * Gets the id of an object.
+     * @param object the object.
+     * @return the id of the object, or -1 if it does not have one.
+     */
+    int getId(Object object);
+
+    /**
+     * Gets the object with an id.
+     * @param id the id.
+     * @return the object, or null if no object has the id.
+     */
+    Object getObject(int id);
+}
@@ -0,0 +1,15 @@
+package sws.murcs.magic.tracking;
+
+/**
+ * A collection that counts how many times it has been modified, so that the UndoRedoManager
+ * can tell it has not changed since it was last committed without comparing it element by element.
+ */
+public interface TrackableCollection {
+
+    /**
+     * Gets the number of times this collection has been modified. The number only needs to be different
+     * after a modification, it does not need to be the exact number of modifications.
+     * @return the modification count.
+     */
+    long getModificationCount();
+}
@@ -1,55 +1,22 @@
 package sws.murcs.magic.tracking;
 
 import sws.murcs.debug.errorreporting.ErrorReporter;
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.FieldAccessor;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
  * An object that is trackable by the UndoRedoManager.
  */
 public abstract class TrackableObject {
-    /**
-     * Fields that can be tracked within this object.
-     */
-    private List<Field> trackedFields;
-
-    /**
-     * Commit to assimilate to if an assimilation has been started.
-     */
-    private Long assimilateTo;
-
-    /**
-     * Instantiates a new TrackableObject by getting annotated fields,
-     * then adding this class for tracking.
-     */
-    protected TrackableObject() {
-        initialiseTrackedFields();
-    }
-
-    /**
-     * Gets all the annotated fields and adds them to the tracked fields list.
-     */
-    private void initialiseTrackedFields() {
-        trackedFields = new ArrayList<>();
-        Class clazz = getClass();
-        while (clazz != TrackableObject.class) {
-            for (Field field : clazz.getDeclaredFields()) {
-                if (field.isAnnotationPresent(TrackableValue.class)) {
-                    trackedFields.add(field);
-                }
-            }
-            clazz = clazz.getSuperclass();
-        }
-    }
-
     /**
      * Gets all of the fields in this class that can be tracked.
+     * The fields are found once for each class and shared by all of its objects.
      * @return an List of trackable fields.
      */
-    protected final List<Field> getTrackedFields() {
-        return trackedFields;
+    protected final List<FieldAccessor> getTrackedFields() {
+        return ClassMetadata.of(getClass()).getTrackedFields();
     }
 
     /**
@@ -60,12 +27,14 @@ public abstract class TrackableObject {
     }
 
     /**
-     * Wrapper around commit to deal with exceptions.
+     * Wrapper around commit to deal with exceptions. This object is marked as changed,
+     * so that its fields are checked for changes.
      * @param message commit message to use.
      * @return the commit number.
      */
     protected final long commit(final String message) {
         try {
+            UndoRedoManager.get().markChanged(this);
             return UndoRedoManager.get().commit(message);
         }
         catch (Exception e) {
@@ -83,39 +52,35 @@ public abstract class TrackableObject {
     }
 
     /**
-     * Starts the assimilation (merging commits process). All subsequent commits
-     * from this point will be merged with the current head (or new head if no
-     * commits have been made yet) when endAssimilation() is used.
+     * Begins a transaction, so that all subsequent commits are saved as a single commit
+     * when commitTransaction() is used. Transactions can be nested.
      */
-    protected final void startAssimilation() {
-        if (UndoRedoManager.get().getHead() == null) {
-            assimilateTo = 0L;
-        }
-        else {
-            assimilateTo = UndoRedoManager.get().getHead().getCommitNumber();
-        }
+    protected final void beginTransaction() {
+        UndoRedoManager.get().beginTransaction();
     }
 
     /**
-     * Ends the assimilation process, merging all commits since startAssimilation()
-     * was called. If startAssimilation() was not called, the behaviour is undefined.
-     * At least one commit must be made to the undo/redo system before this is used.
-     * @param commitMessage commit message to use on the assimilated commit.
-     * @return the commit number of the assimilated commits.
+     * Commits the transaction begun by beginTransaction(), saving all of the changes made since
+     * then as a single commit. This object is marked as changed, so that its fields are checked for changes.
+     * @param commitMessage commit message to use for the transaction.
+     * @return the commit number, or -1 if this was a nested transaction.
      */
-    protected final long endAssimilation(final String commitMessage) {
+    protected final long commitTransaction(final String commitMessage) {
         try {
-            if (UndoRedoManager.get().getDisable()) {
-                return 0L;
-            }
-            UndoRedoManager.get().assimilate(assimilateTo);
-            assimilateTo = null;
-            commit(commitMessage);
-            return UndoRedoManager.get().getHead().getCommitNumber();
-        } catch (Exception e) {
-            // This should never happen  because we have called commit before calling assimilate
-            ErrorReporter.get().reportError(e, "Assimilation failed. Commit was probably not called before using.");
-            return 0L;
+            UndoRedoManager.get().markChanged(this);
+            return UndoRedoManager.get().commitTransaction(commitMessage);
         }
+        catch (Exception e) {
+            ErrorReporter.get().reportError(e, "Could not commit a transaction. Was one begun?");
+            return -1;
+        }
+    }
+
+    /**
+     * Rolls back the transaction begun by beginTransaction(), restoring the tracked objects
+     * to how they were at the last commit (or marking the outermost transaction to be rolled back if nested).
+     */
+    protected final void rollbackTransaction() {
+        UndoRedoManager.get().rollbackTransaction();
     }
 }
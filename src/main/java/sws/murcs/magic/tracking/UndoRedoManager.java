@@ -1,20 +1,34 @@
 package sws.murcs.magic.tracking;
 
 import sws.murcs.debug.errorreporting.ErrorReporter;
+import sws.murcs.magic.FieldAccessor;
 import sws.murcs.magic.tracking.listener.ChangeListenerHandler;
+import sws.murcs.magic.tracking.listener.ChangeSet;
 import sws.murcs.magic.tracking.listener.ChangeState;
+import sws.murcs.magic.tracking.listener.ModelChangeListener;
 import sws.murcs.magic.tracking.listener.UndoRedoChangeListener;
+import sws.murcs.model.ModelType;
 import sws.murcs.model.Organisation;
 
-import java.lang.reflect.Field;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import static java.util.AbstractMap.SimpleEntry;
 
 /**
@@ -22,6 +36,12 @@ import static java.util.AbstractMap.SimpleEntry;
  */
 public final class UndoRedoManager {
 
+    /**
+     * The default estimated number of bytes of memory that the revert stack can use before older commits are
+     * written to disk.
+     */
+    public static final long DEFAULT_HISTORY_BUDGET = 16L * 1024 * 1024;
+
     /**
      * Instance of the UndoRedoManager.
      */
@@ -45,12 +65,20 @@ public final class UndoRedoManager {
         revertStack = new ArrayDeque<>();
         remakeStack = new ArrayDeque<>();
         commitNumber = 0;
+        savedCommitNumber = -1;
         maximumCommits = -1;
+        historyBudget = DEFAULT_HISTORY_BUDGET;
+        spilledHistory = new SpilledHistory();
         changeListeners = new ArrayList<>();
+        collectedListeners = new ReferenceQueue<>();
+        pendingNotifications = new LinkedHashMap<>();
+        modelChangeListeners = new ArrayList<>();
         disabled = false;
-        modelState = new ArrayList<>();
+        modelState = new IdentityHashMap<>();
+        changedSinceCommit = newChangedObjects();
         addedFields = new ArrayList<>();
         removedFields = new ArrayList<>();
+        savedSegments = new HashMap<>();
     }
 
     /**
@@ -78,11 +106,47 @@ public final class UndoRedoManager {
      */
     private long maximumCommits;
 
+    /**
+     * Estimated number of bytes of memory that the revert stack can use. -1 for infinity.
+     */
+    private long historyBudget;
+
+    /**
+     * The oldest commits that can be reverted to, which have been written to disk to keep the revert stack
+     * within its budget. They are older than all of the commits in the revert stack.
+     */
+    private SpilledHistory spilledHistory;
+
+    /**
+     * Estimated number of bytes of memory used by the commits in the revert stack.
+     */
+    private long historySize;
+
     /**
      * Listeners that have subscribed to the UndoRedoManager.
      */
     private List<ChangeListenerHandler> changeListeners;
 
+    /**
+     * The handlers of listeners that have been garbage collected, which are yet to be removed.
+     */
+    private ReferenceQueue<UndoRedoChangeListener> collectedListeners;
+
+    /**
+     * Schedules the delivery of notifications to the listeners, or null to deliver them straight away.
+     */
+    private Consumer<Runnable> notificationScheduler;
+
+    /**
+     * The notifications that are waiting to be delivered, with what they touched, in the order they were first made.
+     */
+    private Map<ChangeState, ChangeSet.Builder> pendingNotifications;
+
+    /**
+     * Listeners that are told which objects have changed.
+     */
+    private List<ModelChangeListener> modelChangeListeners;
+
     /**
      * If the UndoRedoManager is disabled.
      */
@@ -90,30 +154,115 @@ public final class UndoRedoManager {
 
     /**
      * Current state of the model. Using these objects we can search for changes.
+     * The field value pairs are kept for each tracked object (by identity), so that adding, removing
+     * and checking an object only touches its own fields rather than the whole model.
+     */
+    private Map<TrackableObject, List<FieldValuePair>> modelState;
+
+    /**
+     * Objects that have been marked as changed since the last commit. Only their fields
+     * are checked for changes when committing.
      */
-    private Collection<Map.Entry<TrackableObject, FieldValuePair>> modelState;
+    private Set<TrackableObject> changedSinceCommit;
 
     /**
      * Fields that have been added since the last commit.
      */
-    private Collection<Map.Entry<TrackableObject, FieldValuePair>> addedFields;
+    private List<Map.Entry<TrackableObject, FieldValuePair>> addedFields;
 
     /**
      * Fields that have been removed since the last commit.
      */
-    private Collection<Map.Entry<TrackableObject, FieldValuePair>> removedFields;
+    private List<Map.Entry<TrackableObject, FieldValuePair>> removedFields;
+
+    /**
+     * The number of transactions that have been begun and not yet committed or rolled back.
+     * Commits are not made while this is above zero.
+     */
+    private int transactionDepth;
+
+    /**
+     * If a nested transaction has been rolled back, so the outermost transaction must be rolled back too.
+     */
+    private boolean transactionRollbackOnly;
+
+    /**
+     * The number of fields that had been added when the outermost transaction began.
+     */
+    private int transactionAddedFields;
+
+    /**
+     * The number of fields that had been removed when the outermost transaction began.
+     */
+    private int transactionRemovedFields;
+
+    /**
+     * The number of the commit the model was at when it was last saved (or opened), -1 if it has not been.
+     * The number is kept rather than the commit, as commits that are spilled to disk are read back as
+     * new objects.
+     */
+    private long savedCommitNumber;
+
+    /**
+     * History that was saved alongside a model, waiting for the model to be imported.
+     */
+    private HistorySource pendingHistory;
+
+    /**
+     * The model that the pending history was saved alongside.
+     */
+    private Organisation pendingHistoryModel;
+
+    /**
+     * A model that had changes which were never saved recovered when it was loaded, waiting to be imported.
+     */
+    private Organisation pendingRecoveredModel;
+
+    /**
+     * If changes to the imported model that were never saved were recovered when it was loaded, and it has not
+     * been saved since. The state it was last saved in cannot be reverted to, as the changes have no history.
+     */
+    private boolean recoveredChanges;
+
+    /**
+     * History that was saved alongside the imported model and has not been read yet, null if there is none.
+     * It is older than every commit that has been made since the model was imported.
+     */
+    private HistorySource savedHistory;
+
+    /**
+     * The commit the model was imported at, which the saved history continues on from.
+     */
+    private Commit savedHistoryBase;
+
+    /**
+     * The field value pairs of the objects as they were when the model was imported (or loaded, for models
+     * that were loaded later), which the saved history refers to.
+     */
+    private Map<TrackableObject, List<FieldValuePair>> savedHistoryState;
+
+    /**
+     * The segments of the history saved alongside the imported model that later commits can be saved on top of,
+     * keyed by the number of the commit they start with. Empty if the history has to be saved in full.
+     */
+    private Map<Long, SavedSegment> savedSegments;
+
+    /**
+     * The id to give the next segment of history that is saved.
+     */
+    private long nextSegmentId;
 
     /**
      * Adds an object to be tracked.
      * @param object new object to be tracked.
      */
     public void add(final TrackableObject object) {
-        for (Field field : object.getTrackedFields()) {
+        for (FieldAccessor field : object.getTrackedFields()) {
             try {
                 Map.Entry<TrackableObject, FieldValuePair> newField
                         = new SimpleEntry<>(object, new FieldValuePair(field, object));
-                modelState.add(newField);
                 addedFields.add(newField);
+                trackPair(newField);
             }
             catch (Exception e) {
                 ErrorReporter.get().reportError(e, "Could not get the field of an object when adding it to Undo/Redo");
@@ -126,37 +275,87 @@ public final class UndoRedoManager {
      * @param object object to be removed from tracking.
      */
     public void remove(final TrackableObject object) {
-        Collection<Map.Entry<TrackableObject, FieldValuePair>> removed
-                = modelState.stream().filter(kvp -> kvp.getKey().equals(object)).collect(Collectors.toList());
-        modelState.removeAll(removed);
-        removedFields.addAll(removed);
+        List<FieldValuePair> removed = modelState.remove(object);
+        if (removed == null) {
+            return;
+        }
+        for (FieldValuePair pair : removed) {
+            removedFields.add(new SimpleEntry<>(object, pair));
+        }
+    }
+
+    /**
+     * Marks an object as changed, so that its fields are checked for changes by the next commit.
+     * This is the write barrier for tracking: changes to an object that has not been marked are not
+     * committed until it is. TrackableObjects mark themselves when they commit.
+     * @param object the object that has changed.
+     */
+    public void markChanged(final TrackableObject object) {
+        if (disabled) {
+            return;
+        }
+        changedSinceCommit.add(object);
     }
 
     /**
-     * Searches for changes to the model.
+     * Searches for changes to the objects that have been marked as changed since the last commit.
      * @param beforeValues values as they were before the model was committed.
      * @param afterValues values as they are after the model has been committed.
      */
     private void findChanges(final Collection<FieldValuePair> beforeValues,
                                     final Collection<FieldValuePair> afterValues) {
-        modelState.forEach(kvp -> {
-            FieldValuePair value = kvp.getValue();
-            FieldValuePair[] valueChange = value.update();
-            if (valueChange != null) {
-                beforeValues.add(valueChange[0]);
-                afterValues.add(valueChange[1]);
+        for (TrackableObject object : changedSinceCommit) {
+            List<FieldValuePair> pairs = modelState.get(object);
+            if (pairs == null) {
+                // not being tracked (yet)
+                continue;
             }
-        });
+            for (FieldValuePair value : pairs) {
+                FieldValuePair[] valueChange = value.update();
+                if (valueChange != null) {
+                    beforeValues.add(valueChange[0]);
+                    afterValues.add(valueChange[1]);
+                }
+            }
+        }
+        changedSinceCommit.clear();
+    }
+
+    /**
+     * Adds a field to the current state of the model.
+     * @param entry the object and field value pair.
+     */
+    private void trackPair(final Map.Entry<TrackableObject, FieldValuePair> entry) {
+        List<FieldValuePair> pairs = modelState.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+        if (!pairs.contains(entry.getValue())) {
+            pairs.add(entry.getValue());
+        }
+    }
+
+    /**
+     * Removes a field from the current state of the model.
+     * @param entry the object and field value pair.
+     */
+    private void untrackPair(final Map.Entry<TrackableObject, FieldValuePair> entry) {
+        List<FieldValuePair> pairs = modelState.get(entry.getKey());
+        if (pairs != null) {
+            pairs.remove(entry.getValue());
+            if (pairs.isEmpty()) {
+                modelState.remove(entry.getKey());
+            }
+        }
     }
 
     /**
      * Saves the current state so that it can be restored at a later point in time.
+     * Nothing is saved while a transaction is in progress, the changes are saved when it is committed.
      * @param message description of changes since last commit.
      * @return the unique commit number.
      * @throws Exception if an internal error occurs while committing.
      */
     public long commit(final String message) throws Exception {
-        if (disabled) {
+        if (disabled || transactionDepth > 0) {
+            // changed objects stay marked, so they are committed when the transaction is
             return -1;
         }
 
@@ -179,29 +378,139 @@ public final class UndoRedoManager {
 
         if (head != null) {
             // add FieldValuePair so that undo is possible. this is done retrospectively because it is significantly faster
-            beforeValues.stream().filter(fvp -> head.getPairs().stream()
-                    .noneMatch(rvfp -> Objects.equals(rvfp.getObject(), fvp.getObject())
-                            && rvfp.getField().equals(fvp.getField()))).forEach(head::addPair);
+            beforeValues.forEach(head::addPairIfAbsent);
 
-            revertStack.push(head);
+            pushRevert(head);
         }
 
         head = new Commit(commitNumber, message, afterValues, addedFields, removedFields);
+        Set<TrackableObject> changedObjects = newChangedObjects();
+        afterValues.forEach(pair -> changedObjects.add(pair.getObject()));
+        addedFields.forEach(field -> changedObjects.add(field.getKey()));
+        ChangeSet changes = getChanges(afterValues, Collections.singletonList(head));
         addedFields = new ArrayList<>();
         removedFields = new ArrayList<>();
 
-        if (maximumCommits >= 0 && revertStack.size() > maximumCommits) {
-            revertStack.removeLast();
+        if (maximumCommits >= 0 && revertStack.size() + spilledHistory.size() > maximumCommits) {
+            dropOldestCommit();
         }
+        spillHistory();
 
         if (canRemake()) {
             remakeStack.clear();
         }
-        notifyListeners(ChangeState.Commit);
+        notifyModelChanged(ChangeState.Commit, changedObjects, changes);
+        notifyListeners(ChangeState.Commit, changes);
 
         return commitNumber++;
     }
 
+    /**
+     * Begins a transaction. Commits made while a transaction is in progress are not saved, instead
+     * all of the changes made during it are saved as a single commit when it is committed, so that
+     * the model is only searched for changes once. Transactions can be nested, only the outermost
+     * transaction makes a commit.
+     */
+    public void beginTransaction() {
+        if (transactionDepth == 0) {
+            transactionRollbackOnly = false;
+            transactionAddedFields = addedFields.size();
+            transactionRemovedFields = removedFields.size();
+        }
+        transactionDepth++;
+    }
+
+    /**
+     * Checks if a transaction is in progress.
+     * @return true if a transaction has been begun and not yet committed or rolled back.
+     */
+    public boolean isInTransaction() {
+        return transactionDepth > 0;
+    }
+
+    /**
+     * Commits the current transaction. If it is the outermost transaction, all of the changes made
+     * since it began are saved as a single commit.
+     * @param message description of the changes made during the transaction.
+     * @return the unique commit number, or -1 if this was a nested transaction.
+     * @throws Exception if no transaction is in progress, if a nested transaction was rolled back
+     * (in which case this transaction has been rolled back too) or if an internal error occurs while committing.
+     */
+    public long commitTransaction(final String message) throws Exception {
+        if (transactionDepth == 0) {
+            throw new Exception("Cannot commit a transaction when none has been begun.");
+        }
+        transactionDepth--;
+        if (transactionDepth > 0) {
+            return -1;
+        }
+        if (transactionRollbackOnly) {
+            rollback();
+            throw new Exception("The transaction was rolled back because a nested transaction was rolled back.");
+        }
+        return commit(message);
+    }
+
+    /**
+     * Rolls back the current transaction. If it is the outermost transaction, the tracked objects are
+     * restored to how they were at the last commit. Otherwise the outermost transaction is marked so that
+     * it is rolled back rather than committed. Nothing is done if no transaction is in progress.
+     * Only changes to objects that have been marked as changed are undone.
+     */
+    public void rollbackTransaction() {
+        if (transactionDepth == 0) {
+            return;
+        }
+        transactionDepth--;
+        if (transactionDepth > 0) {
+            transactionRollbackOnly = true;
+            return;
+        }
+        rollback();
+    }
+
+    /**
+     * Restores the tracked objects to how they were at the last commit, undoing the changes made
+     * during the outermost transaction.
+     */
+    private void rollback() {
+        transactionRollbackOnly = false;
+        List<Map.Entry<TrackableObject, FieldValuePair>> removed
+                = removedFields.subList(transactionRemovedFields, removedFields.size());
+        removed.forEach(this::trackPair);
+        removed.clear();
+
+        Set<TrackableObject> changedObjects = newChangedObjects();
+        for (TrackableObject object : changedSinceCommit) {
+            List<FieldValuePair> pairs = modelState.get(object);
+            if (pairs == null) {
+                continue;
+            }
+            for (FieldValuePair pair : pairs) {
+                try {
+                    pair.applyValue();
+                }
+                catch (Exception e) {
+                    ErrorReporter.get().reportError(e, "Could not restore the value of a field when rolling back");
+                }
+            }
+            changedObjects.add(object);
+        }
+        changedSinceCommit.clear();
+
+        List<Map.Entry<TrackableObject, FieldValuePair>> added
+                = addedFields.subList(transactionAddedFields, addedFields.size());
+        added.forEach(this::untrackPair);
+        added.clear();
+
+        // listeners see the model go back to the last commit, just as if it had been reverted to
+        ChangeSet.Builder changes = new ChangeSet.Builder();
+        changedObjects.forEach(changes::addObject);
+        ChangeSet rolledBack = changes.build();
+        notifyModelChanged(ChangeState.Revert, changedObjects, rolledBack);
+        notifyListeners(ChangeState.Revert, rolledBack);
+    }
+
     /**
      * Forgets about the current commits.
      * Does NOT stop tracking currently added objects.
@@ -216,12 +525,22 @@ public final class UndoRedoManager {
      */
     public void forget(final boolean deleteSavedObjects) {
         revertStack.clear();
+        historySize = 0;
+        spilledHistory.clear();
         remakeStack.clear();
+        discardSavedHistory();
+        savedSegments.clear();
+        savedCommitNumber = getCommitNumber(head);
+        recoveredChanges = false;
         if (deleteSavedObjects) {
             modelState.clear();
+            changedSinceCommit.clear();
             addedFields.clear();
             removedFields.clear();
+            transactionDepth = 0;
+            transactionRollbackOnly = false;
             head = null;
+            savedCommitNumber = -1;
         }
         notifyListeners(ChangeState.Forget);
     }
@@ -231,6 +550,7 @@ public final class UndoRedoManager {
      * @throws Exception if an internal error occurs during the operation.
      */
     public void revert() throws Exception {
+        hasRevertCommit();
         revert(revertStack.peek().getCommitNumber());
     }
 
@@ -241,18 +561,22 @@ public final class UndoRedoManager {
      * @throws Exception if an internal error occurs during the operation.
      */
     public void revert(final long revertCommitNumber) throws Exception {
-        while (!revertStack.isEmpty()) {
+        List<Commit> commits = new ArrayList<>();
+        while (hasRevertCommit()) {
             remakeStack.push(head);
-            Commit commit = revertStack.pop();
-            commit.apply();
-            modelState.removeAll(commit.getRemovedFields());
-            modelState.addAll(commit.getAddedFields());
+            Commit commit = popRevert();
+            commits.add(commit);
+            commit.getRemovedFields().forEach(this::untrackPair);
+            commit.getAddedFields().forEach(this::trackPair);
             head = commit;
             if (commit.getCommitNumber() == revertCommitNumber) {
                 break;
             }
         }
-        notifyListeners(ChangeState.Revert);
+        Collection<FieldValuePair> applied = apply(commits);
+        ChangeSet changes = getChanges(applied, commits);
+        notifyModelChanged(ChangeState.Revert, getObjects(applied), changes);
+        notifyListeners(ChangeState.Revert, changes);
     }
 
     /**
@@ -260,9 +584,101 @@ public final class UndoRedoManager {
      * @return true if remake can be done, false otherwise.
      */
     public boolean canRevert() {
+        return !revertStack.isEmpty() || !spilledHistory.isEmpty() || savedHistory != null;
+    }
+
+    /**
+     * Checks if there is a commit that can be reverted to, paging the newest spilled commit back in
+     * (or reading the saved history) if the revert stack is empty.
+     * @return true if the revert stack has a commit on it.
+     */
+    private boolean hasRevertCommit() {
+        if (revertStack.isEmpty() && spilledHistory.isEmpty() && savedHistory != null) {
+            readSavedHistory();
+            spillHistory();
+        }
+        if (revertStack.isEmpty() && !spilledHistory.isEmpty()) {
+            try {
+                Commit commit = spilledHistory.pop();
+                revertStack.addLast(commit);
+                historySize += commit.getEstimatedSize();
+            }
+            catch (IOException e) {
+                ErrorReporter.get().reportError(e, "Could not read back the undo history that was written to disk");
+                spilledHistory.clear();
+            }
+        }
         return !revertStack.isEmpty();
     }
 
+    /**
+     * Pushes a commit onto the revert stack.
+     * @param commit the commit.
+     */
+    private void pushRevert(final Commit commit) {
+        revertStack.push(commit);
+        historySize += commit.getEstimatedSize();
+    }
+
+    /**
+     * Pops the newest commit off the revert stack.
+     * @return the commit.
+     */
+    private Commit popRevert() {
+        Commit commit = revertStack.pop();
+        historySize -= commit.getEstimatedSize();
+        return commit;
+    }
+
+    /**
+     * Forgets about the oldest commit that can be reverted to.
+     */
+    private void dropOldestCommit() {
+        if (spilledHistory.isEmpty()) {
+            Commit oldest = revertStack.removeLast();
+            historySize -= oldest.getEstimatedSize();
+            if (oldest == savedHistoryBase) {
+                // the saved history continues on from the commit, so it cannot be reverted to any more
+                discardSavedHistory();
+            }
+            return;
+        }
+        try {
+            spilledHistory.dropOldest();
+        }
+        catch (IOException e) {
+            ErrorReporter.get().reportError(e, "Could not forget the oldest undo history that was written to disk");
+            spilledHistory.clear();
+        }
+    }
+
+    /**
+     * Writes the oldest commits in the revert stack to disk, until the rest of them fit in the history budget.
+     * Commits that cannot be written are forgotten instead.
+     */
+    private void spillHistory() {
+        if (historyBudget < 0) {
+            return;
+        }
+        while (historySize > historyBudget && !revertStack.isEmpty()) {
+            if (savedHistory != null && revertStack.peekLast() == savedHistoryBase) {
+                // the saved history is merged into the commit it continues on from, so it is read before
+                // that commit is written to disk
+                readSavedHistory();
+                continue;
+            }
+            Commit oldest = revertStack.removeLast();
+            historySize -= oldest.getEstimatedSize();
+            try {
+                spilledHistory.push(oldest);
+            }
+            catch (IOException e) {
+                ErrorReporter.get().reportError(e, "Could not write the undo history to disk, so it has been forgotten");
+                spilledHistory.clear();
+            }
+        }
+    }
+
     /**
      * Gets the message associated with the first revert (undo) commit.
      * @return the commit message or null if cannot revert.
@@ -291,18 +707,74 @@ public final class UndoRedoManager {
      * @throws Exception if an internal error occurs during the operation.
      */
     public void remake(final long remakeCommitNumber) throws Exception {
+        List<Commit> commits = new ArrayList<>();
         while (!remakeStack.isEmpty()) {
-            revertStack.push(head);
+            pushRevert(head);
             Commit commit = remakeStack.pop();
-            commit.apply();
-            modelState.removeAll(commit.getRemovedFields());
-            modelState.addAll(commit.getAddedFields());
+            commits.add(commit);
+            commit.getRemovedFields().forEach(this::untrackPair);
+            commit.getAddedFields().forEach(this::trackPair);
             head = commit;
             if (commit.getCommitNumber() == remakeCommitNumber) {
                 break;
             }
         }
-        notifyListeners(ChangeState.Remake);
+        Collection<FieldValuePair> applied = apply(commits);
+        spillHistory();
+        ChangeSet changes = getChanges(applied, commits);
+        notifyModelChanged(ChangeState.Remake, getObjects(applied), changes);
+        notifyListeners(ChangeState.Remake, changes);
+    }
+
+    /**
+     * Applies the values in a series of commits to the objects, as if each commit had been applied in turn.
+     * Only the value each field has in the last of the commits is applied, so that jumping over many commits
+     * sets each field (and fires its listeners) once, rather than once for every commit that changed it.
+     * @param commits the commits, in the order they would be applied.
+     * @return the pairs that were applied.
+     * @throws Exception if something went very wrong.
+     */
+    private static Collection<FieldValuePair> apply(final List<Commit> commits) throws Exception {
+        // keyed by the field of the object, as pairs for the same field can have different parents (e.g. once
+        // they have been read back from disk, or the object has been removed and added again)
+        Map<FieldKey, FieldValuePair> latest = new LinkedHashMap<>();
+        for (Commit commit : commits) {
+            for (FieldValuePair pair : commit.getPairs()) {
+                latest.put(pair.getKey(), pair);
+            }
+        }
+        for (FieldValuePair pair : latest.values()) {
+            pair.restoreValue();
+        }
+        return latest.values();
+    }
+
+    /**
+     * Gets the objects that some pairs belong to.
+     * @param pairs the pairs.
+     * @return the objects.
+     */
+    private static Set<TrackableObject> getObjects(final Collection<FieldValuePair> pairs) {
+        Set<TrackableObject> objects = newChangedObjects();
+        pairs.forEach(pair -> objects.add(pair.getObject()));
+        return objects;
+    }
+
+    /**
+     * Gets what was touched by setting some fields and by moving through some commits, for the listeners.
+     * The objects that the commits added or removed had every field touched.
+     * @param pairs the fields that were set.
+     * @param commits the commits.
+     * @return the objects and fields that were touched.
+     */
+    private static ChangeSet getChanges(final Collection<FieldValuePair> pairs, final List<Commit> commits) {
+        ChangeSet.Builder changes = new ChangeSet.Builder();
+        pairs.forEach(pair -> changes.add(pair.getObject(), pair.getField().getName()));
+        for (Commit commit : commits) {
+            commit.getAddedFields().forEach(field -> changes.addObject(field.getKey()));
+            commit.getRemovedFields().forEach(field -> changes.addObject(field.getKey()));
+        }
+        return changes.build();
     }
 
     /**
@@ -353,6 +825,26 @@ public final class UndoRedoManager {
         return maximumCommits;
     }
 
+    /**
+     * Gets the estimated number of bytes of memory that the commits that can be reverted to can use,
+     * before the oldest of them are written to disk. They are read back in when they are reverted to.
+     * This can be negative (defaults to DEFAULT_HISTORY_BUDGET) for no limit.
+     * @return the history budget in bytes.
+     */
+    public long getHistoryBudget() {
+        return historyBudget;
+    }
+
+    /**
+     * Sets the estimated number of bytes of memory that the commits that can be reverted to can use,
+     * before the oldest of them are written to disk. Commits that can be remade are not counted.
+     * @param newHistoryBudget new history budget in bytes, or negative for no limit.
+     */
+    public void setHistoryBudget(final long newHistoryBudget) {
+        historyBudget = newHistoryBudget;
+        spillHistory();
+    }
+
     /**
      * Sets the Maximum number of commits that can be made before commits are forgotten.
      * @param newMaximumCommits new maximum number of commits.
@@ -372,7 +864,7 @@ public final class UndoRedoManager {
         if (disabled) {
             return;
         }
-        ChangeListenerHandler changeListenerHandler = new ChangeListenerHandler(eventListener);
+        ChangeListenerHandler changeListenerHandler = new ChangeListenerHandler(eventListener, collectedListeners);
         changeListeners.add(changeListenerHandler);
     }
 
@@ -389,22 +881,122 @@ public final class UndoRedoManager {
     }
 
     /**
-     * Notifies listeners that a change has occurred.
+     * Sets what schedules the delivery of notifications to the listeners that can be deferred, see
+     * UndoRedoChangeListener.isDeferrable. While a notification is waiting to be delivered, further notifications
+     * of the same type are merged into it, so those listeners are notified at most once of each type of change per
+     * delivery. e.g. scheduling with Platform.runLater notifies them once per pulse. Other listeners, and the
+     * listeners that are told which objects have changed, are always notified straight away.
+     * @param scheduler the scheduler, or null to notify every listener straight away (the default).
+     */
+    public void setNotificationScheduler(final Consumer<Runnable> scheduler) {
+        notificationScheduler = scheduler;
+    }
+
+    /**
+     * Notifies listeners that a change has occurred, which touched nothing in particular.
      * @param changeType the type of change that occurred.
      */
     private void notifyListeners(final ChangeState changeType) {
-        if (changeListeners.size() == 0) {
+        notifyListeners(changeType, ChangeSet.EMPTY);
+    }
+
+    /**
+     * Notifies listeners that a change has occurred, or schedules the listeners that can be deferred to be notified
+     * if there is a scheduler.
+     * @param changeType the type of change that occurred.
+     * @param changes the objects and fields that were touched.
+     */
+    private void notifyListeners(final ChangeState changeType, final ChangeSet changes) {
+        if (notificationScheduler == null) {
+            deliverNotification(changeType, changes, handler -> true);
             return;
         }
-        //ChangeListenerHandler.performGC(); Disabled as forcing a GC is very sloooowwwww
+        deliverNotification(changeType, changes, handler -> !handler.isDeferrable());
+        boolean scheduled = !pendingNotifications.isEmpty();
+        if (!pendingNotifications.containsKey(changeType)) {
+            pendingNotifications.put(changeType, new ChangeSet.Builder());
+        }
+        pendingNotifications.get(changeType).addAll(changes);
+        if (!scheduled) {
+            notificationScheduler.accept(this::deliverPendingNotifications);
+        }
+    }
+
+    /**
+     * Delivers the notifications that were waiting to be delivered to the listeners that can be deferred.
+     */
+    private void deliverPendingNotifications() {
+        Map<ChangeState, ChangeSet.Builder> pending = pendingNotifications;
+        pendingNotifications = new LinkedHashMap<>();
+        pending.forEach((changeType, changes) ->
+                deliverNotification(changeType, changes.build(), ChangeListenerHandler::isDeferrable));
+    }
+
+    /**
+     * Notifies listeners that a change has occurred.
+     * @param changeType the type of change that occurred.
+     * @param changes the objects and fields that were touched.
+     * @param recipients which of the listeners to notify.
+     */
+    private void deliverNotification(final ChangeState changeType, final ChangeSet changes,
+                                     final Predicate<ChangeListenerHandler> recipients) {
+        // the handlers of collected listeners are queued up, so the others need not be checked
+        Reference<? extends UndoRedoChangeListener> collected = collectedListeners.poll();
+        while (collected != null) {
+            changeListeners.remove(collected);
+            collected = collectedListeners.poll();
+        }
         for (int i = 0; i < changeListeners.size(); i++) {
-            if (!changeListeners.get(i).eventNotification(changeType)) {
-                changeListeners.remove(i);
-                i--;
+            ChangeListenerHandler handler = changeListeners.get(i);
+            if (recipients.test(handler)) {
+                handler.eventNotification(changeType, changes);
             }
         }
     }
 
+    /**
+     * Adds a listener that will be told which objects are changed by each commit, revert or remake.
+     * The listener is strongly referenced, so it must be removed once it is no longer needed.
+     * @param listener the listener to add.
+     */
+    public void addModelChangeListener(final ModelChangeListener listener) {
+        if (!modelChangeListeners.contains(listener)) {
+            modelChangeListeners.add(listener);
+        }
+    }
+
+    /**
+     * Removes a listener that was told which objects have changed.
+     * @param listener listener to remove.
+     */
+    public void removeModelChangeListener(final ModelChangeListener listener) {
+        modelChangeListeners.remove(listener);
+    }
+
+    /**
+     * Creates a new set to collect the objects changed by an operation in.
+     * @return a new empty set.
+     */
+    private static Set<TrackableObject> newChangedObjects() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * Notifies listeners which objects have changed.
+     * @param changeType the type of change that occurred.
+     * @param changedObjects the objects that changed.
+     * @param changes the objects and fields that were touched.
+     */
+    private void notifyModelChanged(final ChangeState changeType, final Collection<TrackableObject> changedObjects,
+                                    final ChangeSet changes) {
+        if (modelChangeListeners.isEmpty() || changedObjects.isEmpty()) {
+            return;
+        }
+        for (ModelChangeListener listener : new ArrayList<>(modelChangeListeners)) {
+            listener.modelChanged(changeType, changedObjects, changes);
+        }
+    }
+
     /**
      * Clears all listeners.
      */
@@ -441,33 +1033,36 @@ public final class UndoRedoManager {
         if (canRemake()) {
             throw new Exception("Cannot assimilate while remake is possible.");
         }
-        List<FieldValuePair> removablePairs = new ArrayList<>();
-        while (!revertStack.isEmpty()) {
+        if (savedHistory != null) {
+            // the commit the saved history continues on from could be assimilated
+            readSavedHistory();
+        }
+        // the commits already saved change, so the history has to be saved in full
+        savedSegments.clear();
+        // the oldest value of each field in the assimilated commits, keyed by (object, field)
+        Map<FieldKey, FieldValuePair> removablePairs = new LinkedHashMap<>();
+        while (hasRevertCommit()) {
             if (revertStack.peek().getCommitNumber() == assimilateCommitNumber) {
                 break;
             }
-            Commit commit = revertStack.pop();
-            Collection<FieldValuePair> addablePairs = commit.getPairs().stream().filter(
-                    p -> !head.getPairs().stream().anyMatch(
-                    o -> o.getField().equals(p.getField())
-                    && o.getObject().equals(p.getObject())))
-                    .collect(Collectors.toList());
-            addablePairs.forEach(head::addPair);
-
-            Collection<FieldValuePair> removedFields = commit.getPairs().stream()
-                    .filter(FieldValuePair::isOldValue).collect(Collectors.toList());
-            removablePairs.removeIf(p -> removedFields.stream()
-                    .anyMatch(o -> o.getObject().equals(p.getObject()) && o.getField().equals(p.getField())));
-            removablePairs.addAll(removedFields);
+            Commit commit = popRevert();
+            commit.getPairs().forEach(head::addPairIfAbsent);
+
+            for (FieldValuePair pair : commit.getPairs()) {
+                if (pair.isOldValue()) {
+                    removablePairs.put(pair.getKey(), pair);
+                }
+            }
 
             head.getRemovedFields().addAll(commit.getAddedFields());
             head.getAddedFields().addAll(commit.getRemovedFields());
         }
 
-        if (!revertStack.isEmpty()) {
-            removablePairs.removeIf(p -> revertStack.peek().getPairs().stream()
-                    .anyMatch(o -> o.getObject().equals(p.getObject()) && o.getField().equals(p.getField())));
-            removablePairs.forEach(revertStack.peek()::addPair);
+        if (hasRevertCommit()) {
+            Commit previous = revertStack.peek();
+            historySize -= previous.getEstimatedSize();
+            removablePairs.values().forEach(previous::addPairIfAbsent);
+            historySize += previous.getEstimatedSize();
         }
 
         notifyListeners(ChangeState.Assimilate);
@@ -475,6 +1070,8 @@ public final class UndoRedoManager {
 
     /**
      * Imports a organisation, so that it can be tracked by the undo/redo manager.
+     * Models that have not been loaded yet (e.g. from a partially loaded file) are tracked once
+     * they are loaded, see importLoaded.
      * WARNING: will forget about anything relating to previous models or objects that
      * are currently being tracked.
      * @param model model to import.
@@ -483,21 +1080,383 @@ public final class UndoRedoManager {
     public void importModel(final Organisation model) throws Exception {
         forget(true);
         add(model);
-        model.getPeople().forEach(this::add);
-        model.getTeams().forEach(this::add);
-        model.getSkills().forEach(this::add);
-        model.getProjects().forEach(this::add);
-        model.getReleases().forEach(this::add);
-        model.getStories().forEach(s -> {
-            add(s);
-            s.getAcceptanceCriteria().forEach(this::add);
-            s.getTasks().forEach(t -> {
-                add(t);
-                add(t.getEstimateInfo());
-            });
-        });
-        model.getBacklogs().forEach(this::add);
-        model.getSprints().forEach(this::add);
+        List<TrackableObject> found = new ArrayList<>();
+        for (ModelType type : ModelType.values()) {
+            if (model.isLoaded(ModelType.getTypeFromModel(type))) {
+                findTrackable(model, type, found);
+            }
+        }
+        found.forEach(this::add);
         commit("open project");
+        savedCommitNumber = getCommitNumber(head);
+
+        HistorySource history = pendingHistory;
+        boolean hasHistory = pendingHistoryModel == model;
+        pendingHistory = null;
+        pendingHistoryModel = null;
+        if (hasHistory) {
+            installSavedHistory(history);
+        }
+        if (pendingRecoveredModel == model) {
+            recoveredChanges = true;
+            notifyListeners(ChangeState.Commit);
+        }
+        pendingRecoveredModel = null;
+    }
+
+    /**
+     * Marks that changes to a model which were never saved (e.g. because the application exited unexpectedly)
+     * were recovered when it was loaded, so that once it is imported it has unsaved changes until it is saved.
+     * @param model the model, which has just been loaded.
+     */
+    public void setRecoveredChanges(final Organisation model) {
+        pendingRecoveredModel = model;
+    }
+
+    /**
+     * Sets the history that was saved alongside a model, which can be reverted to once the model is imported.
+     * The history is not read until it is needed, e.g. when the model is reverted past the state it was
+     * opened in, so opening a model is no slower for having history.
+     * @param model the model, which has just been loaded.
+     * @param history the history that was saved alongside it.
+     */
+    public void setSavedHistory(final Organisation model, final HistorySource history) {
+        pendingHistory = history;
+        pendingHistoryModel = model;
+    }
+
+    /**
+     * Checks if there is history of a model to save, i.e. it is the imported model and it can be reverted.
+     * @param model the model.
+     * @return true if the model has history.
+     */
+    public boolean hasHistory(final Organisation model) {
+        return canRevert() && modelState.containsKey(model);
+    }
+
+    /**
+     * Saves the history of the imported model in full, so that it can be reverted to after the model is opened
+     * again. The head commit and every commit that can be reverted to are saved, commits that can be remade are
+     * not. Saved history that has not been read yet is read first, so that it is saved again.
+     * Later commits can be added to the history with saveHistoryChanges.
+     * @param out the stream to write the history to, which is not closed.
+     * @param ids the ids of the objects in the model, as it is being saved.
+     * @param stamp the stamp of the file the model is being saved to.
+     * @throws IOException if the history cannot be written.
+     */
+    public void saveHistory(final OutputStream out, final StableIds ids, final long stamp) throws IOException {
+        if (savedHistory != null) {
+            readSavedHistory();
+            spillHistory();
+        }
+        savedSegments.clear();
+        HistoryFile.writeHeader(out, stamp);
+        HistoryFile.Writer writer = new HistoryFile.Writer(ids, modelState);
+        writer.write(head);
+        for (Commit commit : revertStack) {
+            writer.write(commit);
+        }
+        spilledHistory.copyTo(writer);
+        writer.finish(out, 0, -1, head.getMessage());
+        savedSegments.put(head.getCommitNumber(), new SavedSegment(0, head));
+        nextSegmentId = 1;
+    }
+
+    /**
+     * Saves the changes to the history of the imported model since it was last saved (or opened), so that they
+     * can be added to the end of the saved history. Only the commits made since then are written, and the changes
+     * made to the commit that was the head then, which the segment of history saved then starts with. If those
+     * commits have since been reverted and replaced by others, the commits are saved on top of an older segment.
+     * Saved history that has not been read yet does not have to be, the changes are saved on top of it.
+     * @param out the stream to write the history to, which is not closed. Nothing is written if the history
+     * has not changed.
+     * @param ids the ids of the objects in the model, as it is being saved.
+     * @return true if the changes were saved, false if the history has to be saved in full with saveHistory
+     * (e.g. every commit that was saved has been reverted and replaced).
+     * @throws IOException if the history cannot be written.
+     */
+    public boolean saveHistoryChanges(final OutputStream out, final StableIds ids) throws IOException {
+        if (savedSegments.isEmpty()) {
+            return false;
+        }
+        List<Commit> unsaved = findUnsavedCommits();
+        if (unsaved == null) {
+            return false;
+        }
+        Commit saved = unsaved.remove(unsaved.size() - 1);
+        SavedSegment parent = savedSegments.get(saved.getCommitNumber());
+        Commit changes = parent.getChanges(saved);
+        if (unsaved.isEmpty() && changes == null) {
+            return true;
+        }
+        if (changes == null) {
+            // the segment has to end with the changes to the commit it continues on from, even if there are none
+            changes = new Commit(saved.getCommitNumber(), saved.getMessage(), new ArrayList<>(),
+                    new ArrayList<>(), new ArrayList<>());
+        }
+        HistoryFile.Writer writer = new HistoryFile.Writer(ids, modelState);
+        for (Commit commit : unsaved) {
+            writer.write(commit);
+        }
+        writer.write(changes);
+        writer.finish(out, nextSegmentId, parent.getId(), head.getMessage());
+        savedSegments.put(head.getCommitNumber(), new SavedSegment(nextSegmentId, head));
+        nextSegmentId++;
+        return true;
+    }
+
+    /**
+     * Finds the commits that have been made since the history was last saved, by going back from the head
+     * until a commit that a saved segment starts with is found. Commits that were written to disk are only
+     * read back if they are newer than that commit.
+     * @return the commits, newest first, ending with the commit a saved segment starts with, or null if none
+     * of the commits that can be reverted to does.
+     * @throws IOException if commits that were written to disk cannot be read back.
+     */
+    private List<Commit> findUnsavedCommits() throws IOException {
+        List<Commit> unsaved = new ArrayList<>();
+        unsaved.add(head);
+        if (savedSegments.containsKey(head.getCommitNumber())) {
+            return unsaved;
+        }
+        for (Commit commit : revertStack) {
+            unsaved.add(commit);
+            if (savedSegments.containsKey(commit.getCommitNumber())) {
+                return unsaved;
+            }
+        }
+        List<Commit> spilled = spilledHistory.readNewest(savedSegments::containsKey);
+        if (spilled == null) {
+            return null;
+        }
+        unsaved.addAll(spilled);
+        return unsaved;
+    }
+
+    /**
+     * Marks the model as saved in its current state, see hasUnsavedChanges.
+     */
+    public void markSaved() {
+        markSaved(head);
+    }
+
+    /**
+     * Marks the model as saved in the state it was in at a commit, see hasUnsavedChanges. This is used when
+     * the model is saved in the background, as it may have changed again by the time the save finishes.
+     * @param commit the head commit when the state of the model that was saved was captured.
+     */
+    public void markSaved(final Commit commit) {
+        savedCommitNumber = getCommitNumber(commit);
+        recoveredChanges = false;
+        notifyListeners(ChangeState.Save);
+    }
+
+    /**
+     * Gets the number of a commit.
+     * @param commit the commit, may be null.
+     * @return the number of the commit, or -1 if it is null.
+     */
+    private static long getCommitNumber(final Commit commit) {
+        if (commit == null) {
+            return -1;
+        }
+        return commit.getCommitNumber();
+    }
+
+    /**
+     * Checks if the model has changed since it was last saved (or opened).
+     * @return true if the model is not in the state it was last saved in.
+     */
+    public boolean hasUnsavedChanges() {
+        if (recoveredChanges) {
+            return true;
+        }
+        if (savedCommitNumber < 0) {
+            return canRevert();
+        }
+        return getCommitNumber(head) != savedCommitNumber;
+    }
+
+    /**
+     * Reverts (or remakes) the model to the state it was last saved (or opened) in. If that state can no
+     * longer be reached, the model is reverted as far as possible.
+     * @throws Exception if an internal error occurs during the operation.
+     */
+    public void revertToSaved() throws Exception {
+        if (!hasUnsavedChanges()) {
+            return;
+        }
+        if (savedCommitNumber < 0) {
+            revert(0);
+        }
+        else if (remakeStack.stream().anyMatch(commit -> commit.getCommitNumber() == savedCommitNumber)) {
+            remake(savedCommitNumber);
+        }
+        else {
+            revert(savedCommitNumber);
+        }
+    }
+
+    /**
+     * Installs the history that was saved alongside the model that has just been imported, if it was saved
+     * alongside the file the model was loaded from. Only the headers of its segments are read.
+     * @param history the history.
+     */
+    private void installSavedHistory(final HistorySource history) {
+        HistoryFile.Segment newest;
+        try (InputStream in = new BufferedInputStream(history.open())) {
+            newest = HistoryFile.findNewest(in, history.getStamp());
+        }
+        catch (IOException e) {
+            // the history belongs to another file (or is not readable), so there is nothing to revert to
+            return;
+        }
+        head.modifyMessage(newest.getMessage());
+        // changes are saved on top of the history, the commit it was imported at standing in for its newest commit
+        savedSegments.put(head.getCommitNumber(), new SavedSegment(newest.getId(), head));
+        nextSegmentId = newest.getId() + 1;
+        savedHistory = history;
+        savedHistoryBase = head;
+        savedHistoryState = new IdentityHashMap<>();
+        modelState.forEach((object, pairs) -> savedHistoryState.put(object, new ArrayList<>(pairs)));
+        notifyListeners(ChangeState.Commit);
+    }
+
+    /**
+     * Reads the saved history, adding its commits to the revert stack after the commit the model was imported
+     * at, which is merged with the newest of them as they represent the same state of the model.
+     * If the history cannot be read it is discarded.
+     */
+    private void readSavedHistory() {
+        HistorySource history = savedHistory;
+        // loads the models that have not been loaded yet, which adds their fields to the saved state
+        StableIds ids = history.getIds();
+        Commit base = savedHistoryBase;
+        Map<TrackableObject, List<FieldValuePair>> state = savedHistoryState;
+        discardSavedHistory();
+
+        List<Commit> commits;
+        try (InputStream in = new BufferedInputStream(history.open())) {
+            commits = HistoryFile.read(in, history.getStamp(), ids, state);
+        }
+        catch (IOException e) {
+            ErrorReporter.get().reportError(e, "Could not read the saved undo history, so it has been forgotten");
+            // nothing can be saved on top of it
+            savedSegments.clear();
+            notifyListeners(ChangeState.Forget);
+            return;
+        }
+
+        boolean baseIsHead = base == head;
+        if (!baseIsHead) {
+            historySize -= base.getEstimatedSize();
+        }
+        Commit saved = commits.get(0);
+        saved.getPairs().forEach(base::addPairIfAbsent);
+        base.getAddedFields().addAll(saved.getAddedFields());
+        base.getRemovedFields().addAll(saved.getRemovedFields());
+        if (!baseIsHead) {
+            historySize += base.getEstimatedSize();
+        }
+        for (int i = 1; i < commits.size(); i++) {
+            Commit commit = commits.get(i);
+            // older than every commit made since the model was imported, so numbered below them
+            commit.renumber(-i);
+            revertStack.addLast(commit);
+            historySize += commit.getEstimatedSize();
+        }
+        while (maximumCommits >= 0 && revertStack.size() > maximumCommits) {
+            dropOldestCommit();
+        }
+    }
+
+    /**
+     * Forgets about the saved history of the imported model.
+     */
+    private void discardSavedHistory() {
+        savedHistory = null;
+        savedHistoryBase = null;
+        savedHistoryState = null;
+    }
+
+    /**
+     * Starts tracking models that were loaded into an organisation after it was imported.
+     * Loading models does not change the organisation, so they are tracked as they are without
+     * making a commit. Nothing is done if the organisation is not being tracked.
+     * @param model the organisation the models were loaded into.
+     * @param types the types of model that were loaded.
+     */
+    public void importLoaded(final Organisation model, final Collection<ModelType> types) {
+        List<FieldValuePair> organisationFields = modelState.get(model);
+        if (organisationFields == null) {
+            return;
+        }
+
+        List<TrackableObject> found = new ArrayList<>();
+        types.forEach(type -> findTrackable(model, type, found));
+        for (TrackableObject object : found) {
+            List<FieldValuePair> loadedPairs = new ArrayList<>();
+            for (FieldAccessor field : object.getTrackedFields()) {
+                try {
+                    Map.Entry<TrackableObject, FieldValuePair> loadedField
+                            = new SimpleEntry<>(object, new FieldValuePair(field, object));
+                    trackPair(loadedField);
+                    loadedPairs.add(loadedField.getValue());
+                }
+                catch (Exception e) {
+                    ErrorReporter.get().reportError(e, "Could not get the field of an object when loading it");
+                }
+            }
+            if (savedHistoryState != null) {
+                savedHistoryState.put(object, loadedPairs);
+            }
+        }
+        // the lists of loaded models are now part of the current state rather than a change to it
+        organisationFields.forEach(FieldValuePair::update);
+    }
+
+    /**
+     * Finds the trackable objects that belong to the models of a type in an organisation.
+     * @param model the organisation.
+     * @param type the type of model.
+     * @param found list to add the trackable objects to.
+     */
+    private static void findTrackable(final Organisation model, final ModelType type,
+                                      final List<TrackableObject> found) {
+        switch (type) {
+            case Person:
+                found.addAll(model.getPeople());
+                break;
+            case Team:
+                found.addAll(model.getTeams());
+                break;
+            case Skill:
+                found.addAll(model.getSkills());
+                break;
+            case Project:
+                found.addAll(model.getProjects());
+                break;
+            case Release:
+                found.addAll(model.getReleases());
+                break;
+            case Story:
+                model.getStories().forEach(s -> {
+                    found.add(s);
+                    found.addAll(s.getAcceptanceCriteria());
+                    s.getTasks().forEach(t -> {
+                        found.add(t);
+                        found.add(t.getEstimateInfo());
+                    });
+                });
+                break;
+            case Backlog:
+                found.addAll(model.getBacklogs());
+                break;
+            case Sprint:
+                found.addAll(model.getSprints());
+                break;
+            default:
+                throw new UnsupportedOperationException("Tracking of " + type + " has not been implemented.");
+        }
     }
 }
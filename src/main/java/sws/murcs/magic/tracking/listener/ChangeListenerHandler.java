@@ -2,6 +2,7 @@ package sws.murcs.magic.tracking.listener;
 
 import sws.murcs.debug.errorreporting.ErrorReporter;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 
 /**
@@ -32,20 +33,51 @@ public class ChangeListenerHandler extends WeakReference<UndoRedoChangeListener>
         super(referent);
     }
 
+    /**
+     * Creates a new ChangeListenerHandler which manages
+     * change listeners for the Undo and Redo manager.
+     * @param referent the listener to track.
+     * @param queue the queue the handler is put on once the listener has been garbage collected, so that
+     * it can be removed without checking every handler.
+     */
+    public ChangeListenerHandler(final UndoRedoChangeListener referent,
+                                 final ReferenceQueue<? super UndoRedoChangeListener> queue) {
+        super(referent, queue);
+    }
+
     /**
      * Notifies the listener if it still exists of the status change.
      * @param status the status.
      * @return true if the notification was successful and it still exists, false otherwise.
      */
     public final boolean eventNotification(final ChangeState status) {
+        return eventNotification(status, ChangeSet.EMPTY);
+    }
+
+    /**
+     * Notifies the listener if it still exists of the status change, and what it touched.
+     * @param status the status.
+     * @param changes the objects and fields that were touched.
+     * @return true if the notification was successful and it still exists, false otherwise.
+     */
+    public final boolean eventNotification(final ChangeState status, final ChangeSet changes) {
         UndoRedoChangeListener changeListener = get();
         if (changeListener != null && !isEnqueued()) {
-            changeListener.undoRedoNotification(status);
+            changeListener.undoRedoNotification(status, changes);
             return true;
         }
         return false;
     }
 
+    /**
+     * Checks if the listener still exists and its notifications can be deferred.
+     * @return true if notifications to the listener can be deferred.
+     */
+    public final boolean isDeferrable() {
+        UndoRedoChangeListener changeListener = get();
+        return changeListener != null && changeListener.isDeferrable();
+    }
+
     @Override
     public final boolean equals(final Object other) {
         if (other == null) {
@@ -0,0 +1,173 @@
+package sws.murcs.magic.tracking.listener;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The objects and fields touched by one or more undo/redo operations, so that listeners can ignore the operations
+ * that do not touch anything they show. Objects are compared by identity. Objects that were added or removed
+ * count as having had every field touched.
+ */
+public final class ChangeSet {
+
+    /**
+     * A change set that touches nothing.
+     */
+    public static final ChangeSet EMPTY = new ChangeSet(Collections.emptyMap());
+
+    /**
+     * The names of the fields touched in each object, or null for objects that had every field touched.
+     */
+    private final Map<Object, Set<String>> fields;
+
+    /**
+     * Builds up a change set.
+     */
+    public static final class Builder {
+
+        /**
+         * The names of the fields touched in each object so far, or null for objects that had every field touched.
+         */
+        private Map<Object, Set<String>> fields = new IdentityHashMap<>();
+
+        /**
+         * Creates a new builder, for a change set that touches nothing yet.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Adds a field that was touched.
+         * @param object the object.
+         * @param field the name of the field.
+         * @return this builder.
+         */
+        public Builder add(final Object object, final String field) {
+            if (!fields.containsKey(object)) {
+                fields.put(object, new HashSet<>());
+            }
+            Set<String> names = fields.get(object);
+            if (names != null) {
+                names.add(field);
+            }
+            return this;
+        }
+
+        /**
+         * Adds an object that had every field touched, e.g. because it was added or removed.
+         * @param object the object.
+         * @return this builder.
+         */
+        public Builder addObject(final Object object) {
+            fields.put(object, null);
+            return this;
+        }
+
+        /**
+         * Adds everything another change set touched.
+         * @param other the other change set.
+         * @return this builder.
+         */
+        public Builder addAll(final ChangeSet other) {
+            for (Map.Entry<Object, Set<String>> entry : other.fields.entrySet()) {
+                if (entry.getValue() == null) {
+                    addObject(entry.getKey());
+                }
+                else {
+                    entry.getValue().forEach(field -> add(entry.getKey(), field));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Builds the change set. The builder cannot be used afterwards.
+         * @return the change set.
+         */
+        public ChangeSet build() {
+            ChangeSet changes = new ChangeSet(fields);
+            fields = null;
+            return changes;
+        }
+    }
+
+    /**
+     * Creates a new change set.
+     * @param touched the names of the fields touched in each object, or null for objects that had every field touched.
+     */
+    private ChangeSet(final Map<Object, Set<String>> touched) {
+        fields = touched;
+    }
+
+    /**
+     * Checks if nothing was touched.
+     * @return true if no object was touched.
+     */
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    /**
+     * Gets the objects that were touched.
+     * @return the objects, which are compared by identity.
+     */
+    public Set<Object> getObjects() {
+        return Collections.unmodifiableSet(fields.keySet());
+    }
+
+    /**
+     * Checks if an object was touched.
+     * @param object the object.
+     * @return true if any field of the object was touched.
+     */
+    public boolean contains(final Object object) {
+        return fields.containsKey(object);
+    }
+
+    /**
+     * Checks if a field of an object was touched.
+     * @param object the object.
+     * @param field the name of the field.
+     * @return true if the field was touched.
+     */
+    public boolean contains(final Object object, final String field) {
+        if (!fields.containsKey(object)) {
+            return false;
+        }
+        Set<String> names = fields.get(object);
+        return names == null || names.contains(field);
+    }
+
+    /**
+     * Gets the names of the fields of an object that were touched.
+     * @param object the object.
+     * @return the names of the fields, empty if the object was not touched or null if every field was touched.
+     */
+    public Set<String> getFields(final Object object) {
+        if (!fields.containsKey(object)) {
+            return Collections.emptySet();
+        }
+        Set<String> names = fields.get(object);
+        if (names == null) {
+            return null;
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Checks if any object of a type was touched.
+     * @param type the type.
+     * @return true if an object that is an instance of the type was touched.
+     */
+    public boolean containsType(final Class<?> type) {
+        for (Object object : fields.keySet()) {
+            if (type.isInstance(object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
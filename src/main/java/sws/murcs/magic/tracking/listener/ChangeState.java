@@ -23,5 +23,9 @@ public enum ChangeState {
     /**
      * An assimilate operation occurred.
      */
-    Assimilate
+    Assimilate,
+    /**
+     * The model was saved.
+     */
+    Save
 }
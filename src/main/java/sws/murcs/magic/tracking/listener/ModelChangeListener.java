@@ -0,0 +1,31 @@
+package sws.murcs.magic.tracking.listener;
+
+import sws.murcs.magic.tracking.TrackableObject;
+
+import java.util.Collection;
+
+/**
+ * Listener that is told which objects were changed by a commit, revert or remake.
+ * Unlike UndoRedoChangeListeners these are not weakly referenced, so they must be removed when they
+ * are no longer needed.
+ */
+public interface ModelChangeListener {
+    /**
+     * Notifies a listener that objects have changed.
+     * @param state the operation that changed the objects.
+     * @param changedObjects the objects that had a tracked value change or started being tracked.
+     */
+    void modelChanged(ChangeState state, Collection<TrackableObject> changedObjects);
+
+    /**
+     * Notifies a listener that objects have changed, and which of their fields changed.
+     * Listeners that only need the objects do not have to override this.
+     * @param state the operation that changed the objects.
+     * @param changedObjects the objects that had a tracked value change or started being tracked.
+     * @param changes the objects and fields that were touched.
+     */
+    default void modelChanged(final ChangeState state, final Collection<TrackableObject> changedObjects,
+                              final ChangeSet changes) {
+        modelChanged(state, changedObjects);
+    }
+}
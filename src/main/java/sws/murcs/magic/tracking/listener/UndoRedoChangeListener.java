@@ -9,4 +9,25 @@ public interface UndoRedoChangeListener {
      * @param param event arguments.
      */
     void undoRedoNotification(ChangeState param);
+
+    /**
+     * Notifies a listener about an event, with the objects and fields it touched, so that listeners can skip
+     * events that do not touch anything they show. By default the listener is notified as if it was not told
+     * what was touched.
+     * @param param event arguments.
+     * @param changes the objects and fields that were touched.
+     */
+    default void undoRedoNotification(final ChangeState param, final ChangeSet changes) {
+        undoRedoNotification(param);
+    }
+
+    /**
+     * Checks if the listener can be notified later than the change happened, through the UndoRedoManager's
+     * notification scheduler, with the changes made in the meantime merged together. Listeners that only
+     * update what is shown (e.g. editors) can be, listeners that act on each change must not be.
+     * @return true if notifications to the listener can be deferred, false to always notify it straight away.
+     */
+    default boolean isDeferrable() {
+        return false;
+    }
 }
@@ -278,18 +278,22 @@ public class Backlog extends Model {
             return;
         }
 
-        startAssimilation();
-
-        EstimateType oldEstimateType = this.estimateType;
-        this.estimateType = newEstimateType;
-        commit("edit backlog");
-
-        for (Story story : getAllStories()) {
-            String newEstimate = oldEstimateType.convert(newEstimateType, story.getEstimate());
-            story.setEstimate(newEstimate);
+        beginTransaction();
+        try {
+            EstimateType oldEstimateType = this.estimateType;
+            this.estimateType = newEstimateType;
+            commit("edit backlog");
+
+            for (Story story : getAllStories()) {
+                String newEstimate = oldEstimateType.convert(newEstimateType, story.getEstimate());
+                story.setEstimate(newEstimate);
+            }
         }
-
-        endAssimilation("edit backlog");
+        catch (RuntimeException e) {
+            rollbackTransaction();
+            throw e;
+        }
+        commitTransaction("edit backlog");
     }
 
     @Override
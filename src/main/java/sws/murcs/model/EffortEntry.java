@@ -1,6 +1,7 @@
 package sws.murcs.model;
 
 import sws.murcs.magic.tracking.TrackableObject;
+import sws.murcs.model.helpers.InterningHelper;
 import sws.murcs.reporting.adapters.LocalDateAdapter;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -134,7 +135,7 @@ public class EffortEntry extends TrackableObject implements Serializable, Person
      * @param theDate The date this effort should be logged for.
      */
     public void setDate(final LocalDate theDate) {
-        date = theDate;
+        date = InterningHelper.intern(theDate);
     }
 
     /**
@@ -2,6 +2,7 @@ package sws.murcs.model;
 
 import sws.murcs.magic.tracking.TrackableObject;
 import sws.murcs.magic.tracking.TrackableValue;
+import sws.murcs.model.helpers.InterningHelper;
 import sws.murcs.reporting.adapters.EstimateXMLRepresentation;
 import sws.murcs.reporting.adapters.EstimateMapAdapter;
 
@@ -113,14 +114,14 @@ public class EstimateInfo extends TrackableObject implements Serializable {
         }
 
         //Either update the estimate or add in the new estimate
-        estimates.put(day, newEstimate);
+        estimates.put(InterningHelper.intern(day), InterningHelper.intern(newEstimate));
 
         //Update all the estimates after our new one
         for (LocalDate estimateDate : estimates.keySet()) {
             if (estimateDate.isAfter(day)) {
                 float currentEstimate = estimates.get(estimateDate);
                 //Make sure we only have positive or zero estimates
-                estimates.put(estimateDate, Math.max(0, currentEstimate + difference));
+                estimates.put(estimateDate, InterningHelper.intern(Math.max(0, currentEstimate + difference)));
             }
         }
 
@@ -12,6 +12,8 @@ import sws.murcs.magic.tracking.UndoRedoManager;
 import sws.murcs.model.observable.ModelObservableArrayList;
 import sws.murcs.search.Searchable;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -118,6 +120,11 @@ public class Organisation extends TrackableObject implements Serializable {
      */
     private boolean usingGeneratedData = false;
 
+    /**
+     * Loads the models of a type the first time they are needed, null if every model has been loaded.
+     */
+    private transient OrganisationLoader loader;
+
     /**
      * Sets up a new organisation.
      */
@@ -174,6 +181,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return The projects
      */
     public final List<Project> getProjects() {
+        load(Project.class);
         return projects;
     }
 
@@ -182,6 +190,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return The releases
      */
     public final List<Release> getReleases() {
+        load(Release.class);
         return releases;
     }
 
@@ -190,6 +199,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return A list of allocations
      */
     public final List<WorkAllocation> getAllocations() {
+        load(WorkAllocation.class);
         return allocations;
     }
 
@@ -198,6 +208,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return The teams
      */
     public final List<Team> getTeams() {
+        load(Team.class);
         return teams;
     }
 
@@ -206,6 +217,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return The people
      */
     public final List<Person> getPeople() {
+        load(Person.class);
         return people;
     }
 
@@ -214,6 +226,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return The skills
      */
     public final List<Skill> getSkills() {
+        load(Skill.class);
         return skills;
     }
 
@@ -222,6 +235,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return The backlogs
      */
     public final List<Backlog> getBacklogs() {
+        load(Backlog.class);
         return backlogs;
     }
 
@@ -230,6 +244,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return The sprints
      */
     public final List<Sprint> getSprints() {
+        load(Sprint.class);
         return sprints;
     }
 
@@ -238,9 +253,61 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return The stories
      */
     public final List<Story> getStories() {
+        load(Story.class);
         return stories;
     }
 
+    /**
+     * Sets the loader used to load models that were left out when the organisation was loaded.
+     * Until a type of model has been loaded the list of that type is empty, it is loaded the first
+     * time the list is asked for.
+     * @param organisationLoader the loader, or null if every model has been loaded.
+     */
+    public final void setLoader(final OrganisationLoader organisationLoader) {
+        loader = organisationLoader;
+    }
+
+    /**
+     * Gets whether the models of a type have been loaded, without loading them.
+     * @param type the class of the models (e.g. Story or WorkAllocation).
+     * @return true if the models have been loaded.
+     */
+    public final boolean isLoaded(final Class<?> type) {
+        return loader == null || loader.isLoaded(type);
+    }
+
+    /**
+     * Loads any models that have not been loaded yet. This needs to be done before the organisation
+     * is changed or written out as a whole.
+     */
+    public final void loadAll() {
+        if (loader != null) {
+            loader.loadAll();
+            loader = null;
+        }
+    }
+
+    /**
+     * Loads any models that have not been loaded yet before the organisation is serialized,
+     * as serialization reads the lists of models directly.
+     * @param out the object stream to write to.
+     * @throws IOException if serialization fails.
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        loadAll();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Loads the models of a type if they have not been loaded yet.
+     * @param type the class of the models.
+     */
+    private void load(final Class<?> type) {
+        if (loader != null && !loader.isLoaded(type)) {
+            loader.load(type);
+        }
+    }
+
     /**
      * Adds a new project.
      * @param project The new project.
@@ -379,9 +446,9 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return the unassigned teams.
      */
     public final List<Team> getUnassignedTeams() {
-        return teams
+        return getTeams()
                 .stream()
-                .filter(team -> !allocations
+                .filter(team -> !getAllocations()
                         .stream()
                         .filter(a -> a.getTeam().equals(team)).findAny()
                         .isPresent())
@@ -444,6 +511,7 @@ public class Organisation extends TrackableObject implements Serializable {
         if (workAllocation == null) {
             throw new InvalidParameterException("{NullWorkAllocation}");
         }
+        loadAll();
 
         Team team = workAllocation.getTeam();
         LocalDate startDate = workAllocation.getStartDate();
@@ -496,18 +564,17 @@ public class Organisation extends TrackableObject implements Serializable {
      * @throws Exception when adding the allocations failed.
      */
     public final void addAllocations(final List<WorkAllocation> allocationsToAdd) throws Exception {
-        long commitNumber;
-        if (UndoRedoManager.get().getHead() == null) {
-            commitNumber = 0;
-        }
-        else {
-            commitNumber = UndoRedoManager.get().getHead().getCommitNumber();
+        beginTransaction();
+        try {
+            for (WorkAllocation allocation : allocationsToAdd) {
+                addAllocation(allocation);
+            }
         }
-        for (WorkAllocation allocation : allocationsToAdd) {
-            addAllocation(allocation);
+        catch (Exception e) {
+            rollbackTransaction();
+            throw e;
         }
-        UndoRedoManager.get().assimilate(commitNumber);
-        commit("edit project");
+        commitTransaction("edit project");
     }
 
     /**
@@ -515,6 +582,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @param allocation The work allocation to remove.
      */
     public final void removeAllocation(final WorkAllocation allocation) {
+        loadAll();
         if (allocations.contains(allocation)) {
             allocations.remove(allocation);
         }
@@ -527,7 +595,7 @@ public class Organisation extends TrackableObject implements Serializable {
      * @return A list of work allocations
      */
     public final List<WorkAllocation> getProjectsAllocations(final Project project) {
-        return allocations.stream().filter(a -> a.getProject().equals(project)).collect(Collectors.toList());
+        return getAllocations().stream().filter(a -> a.getProject().equals(project)).collect(Collectors.toList());
     }
 
     /**
@@ -580,7 +648,7 @@ public class Organisation extends TrackableObject implements Serializable {
 
             return s1.getShortName().compareTo(s2.getShortName());
         });
-        allSkills.addAll(skills);
+        allSkills.addAll(getSkills());
         allSkills.removeAll(assignedSkills);
         return Collections.unmodifiableCollection(allSkills);
     }
@@ -652,14 +720,27 @@ public class Organisation extends TrackableObject implements Serializable {
         if (model.getShortName() == null || model.getShortName().equals("")) {
             throw new InvalidParameterException("Model objects must have a name before being added.");
         }
+        loadAll();
 
-        long commitNumber;
-        if (UndoRedoManager.get().getHead() == null) {
-            commitNumber = 0;
+        beginTransaction();
+        try {
+            addModel(type, model);
         }
-        else {
-            commitNumber = UndoRedoManager.get().getHead().getCommitNumber();
+        catch (DuplicateObjectException | RuntimeException e) {
+            rollbackTransaction();
+            throw e;
         }
+        UndoRedoManager.get().add(model);
+        commitTransaction("create " + type.toString().toLowerCase());
+    }
+
+    /**
+     * Adds an object to the list of objects of its type.
+     * @param type the type of the object.
+     * @param model the object to add.
+     * @throws DuplicateObjectException because you tried to add an object that already exists.
+     */
+    private void addModel(final ModelType type, final Model model) throws DuplicateObjectException {
         switch (type) {
             case Project:
                 addProject((Project) model);
@@ -688,16 +769,6 @@ public class Organisation extends TrackableObject implements Serializable {
             default:
                 throw new UnsupportedOperationException("Adding of this model type has not yet been implemented.");
         }
-
-        try {
-            UndoRedoManager.get().assimilate(commitNumber);
-        }
-        catch (Exception e) {
-            // This will never happen  because we have called commit before calling assimilate
-            ErrorReporter.get().reportError(e, "Could not assimilate while adding");
-        }
-        UndoRedoManager.get().add(model);
-        commit("create " + type.toString().toLowerCase());
     }
 
     /**
@@ -706,14 +777,25 @@ public class Organisation extends TrackableObject implements Serializable {
      */
     public final void remove(final Model model) {
         ModelType type = ModelType.getModelType(model);
-        long commitNumber;
-        if (UndoRedoManager.get().getHead() == null) {
-            commitNumber = 0;
+        loadAll();
+        beginTransaction();
+        try {
+            removeModel(type, model);
         }
-        else {
-            commitNumber = UndoRedoManager.get().getHead().getCommitNumber();
+        catch (RuntimeException e) {
+            rollbackTransaction();
+            throw e;
         }
+        UndoRedoManager.get().remove(model);
+        commitTransaction("remove " + type.toString().toLowerCase());
+    }
 
+    /**
+     * Removes an object from the list of objects of its type.
+     * @param type the type of the object.
+     * @param model the object to remove.
+     */
+    private void removeModel(final ModelType type, final Model model) {
         switch (type) {
             case Project:
                 removeProject((Project) model);
@@ -744,15 +826,6 @@ public class Organisation extends TrackableObject implements Serializable {
                         + model.getClass().getName()
                         + ") in organisation. You should fix this");
         }
-
-        try {
-            UndoRedoManager.get().assimilate(commitNumber);
-        } catch (Exception e) {
-            // This should never happen  because we have called commit before calling assimilate
-            ErrorReporter.get().reportError(e, "Could not assimilate while removing");
-        }
-        UndoRedoManager.get().remove(model);
-        commit("remove " + type.toString().toLowerCase());
     }
 
     /**
@@ -0,0 +1,26 @@
+package sws.murcs.model;
+
+/**
+ * Loads the models of an organisation that were left out when it was loaded, so that large projects
+ * can be opened without reading every model up front.
+ */
+public interface OrganisationLoader {
+
+    /**
+     * Gets whether the models of a type have been loaded.
+     * @param type the class of the models (e.g. Story or WorkAllocation).
+     * @return true if the models have been loaded.
+     */
+    boolean isLoaded(Class<?> type);
+
+    /**
+     * Loads the models of a type, along with any models they refer to, and adds them to the organisation.
+     * @param type the class of the models.
+     */
+    void load(Class<?> type);
+
+    /**
+     * Loads every model that has not been loaded yet.
+     */
+    void loadAll();
+}
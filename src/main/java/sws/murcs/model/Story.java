@@ -102,6 +102,7 @@ public class Story extends Model {
      * Stories that must be complete before this story can be worked on.
      */
     @Searchable
+    @TrackableValue
     @XmlElementWrapper(name = "dependencies")
     @XmlElement(name = "dependence")
     @XmlIDREF
@@ -270,10 +271,16 @@ public class Story extends Model {
         }
         if (newEstimate.equals(EstimateType.INFINITE) || newEstimate.equals(EstimateType.NOT_ESTIMATED)) {
             // The story state must now be set to None.
-            startAssimilation();
-            setStoryState(StoryState.None);
-            estimate = newEstimate;
-            endAssimilation("edit story");
+            beginTransaction();
+            try {
+                setStoryState(StoryState.None);
+                estimate = newEstimate;
+            }
+            catch (RuntimeException e) {
+                rollbackTransaction();
+                throw e;
+            }
+            commitTransaction("edit story");
         }
         else {
             estimate = newEstimate;
@@ -160,6 +160,8 @@ public class Task extends TrackableObject implements Serializable, PersonMaintai
     @Deprecated
     public void setCompletedDate(final LocalDate date) {
         completedDate = date;
+        // not committed, but the next commit should still pick it up
+        UndoRedoManager.get().markChanged(this);
     }
 
     /**
@@ -205,6 +207,7 @@ public class Task extends TrackableObject implements Serializable, PersonMaintai
         });
         estimates.clear();
         estimates.putAll(newEstimates);
+        UndoRedoManager.get().markChanged(estimateInfo);
     }
 
     /**
@@ -132,15 +132,23 @@ public class Team extends Model {
     }
 
     /**
-     * Adds a list of people to the team.
+     * Adds a list of people to the team, as a single change.
      * @param membersToAdd Person to be added to the team
      * @throws DuplicateObjectException
-     * if a person is already in a team
+     * if a person is already in a team, in which case none of the people are added
      */
     public final void addMembers(final List<Person> membersToAdd) throws DuplicateObjectException {
-        for (Person member : membersToAdd) {
-            this.addMember(member);
+        beginTransaction();
+        try {
+            for (Person member : membersToAdd) {
+                this.addMember(member);
+            }
+        }
+        catch (DuplicateObjectException e) {
+            rollbackTransaction();
+            throw e;
         }
+        commitTransaction("edit team");
     }
 
     /**
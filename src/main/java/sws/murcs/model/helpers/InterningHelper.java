@@ -0,0 +1,256 @@
+package sws.murcs.model.helpers;
+
+import javafx.beans.Observable;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.persistence.binary.ClassLayout;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Helps to share immutable values (strings, dates and boxed numbers) between the models that use them.
+ * Organisations contain many equal values, e.g. the dates of every estimate and effort entry, or estimates like
+ * "Not Estimated", and without interning every one of them is a separate object. Interned values are held
+ * weakly, so values no longer used by any model can still be garbage collected.
+ * Values are interned as models are loaded and as they are edited, and the number of duplicates that have
+ * been replaced and an estimate of the memory they used is kept, to show how much interning saves.
+ */
+public final class InterningHelper {
+
+    /**
+     * Estimated size in bytes of a string, not counting its characters.
+     */
+    private static final int STRING_SIZE = 40;
+
+    /**
+     * Estimated size in bytes of a date.
+     */
+    private static final int DATE_SIZE = 24;
+
+    /**
+     * Estimated size in bytes of a boxed number.
+     */
+    private static final int BOXED_SIZE = 16;
+
+    /**
+     * The canonical instance of each value that has been interned, keyed by the value.
+     */
+    private static final Map<Object, WeakReference<Object>> CANONICAL = new WeakHashMap<>();
+
+    /**
+     * The number of duplicate values that have been replaced by their canonical instance.
+     */
+    private static long duplicatesReplaced;
+
+    /**
+     * Estimated number of bytes used by the duplicates that have been replaced.
+     */
+    private static long bytesSaved;
+
+    /**
+     * Empty private constructor as this is a utility class.
+     */
+    private InterningHelper() {
+    }
+
+    /**
+     * Checks if a value can be interned, i.e. it is an immutable value that is compared by equality.
+     * @param value the value.
+     * @return true if the value can be interned.
+     */
+    public static boolean isInternable(final Object value) {
+        return value instanceof String
+                || value instanceof LocalDate
+                || value instanceof Float
+                || value instanceof Double
+                || value instanceof Integer
+                || value instanceof Long;
+    }
+
+    /**
+     * Gets the canonical instance of a value. Values that cannot be interned are returned as they are.
+     * @param value the value.
+     * @param <T> the type of the value.
+     * @return the canonical instance, which is equal to the value.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T intern(final T value) {
+        if (!isInternable(value)) {
+            return value;
+        }
+        synchronized (CANONICAL) {
+            WeakReference<Object> reference = CANONICAL.get(value);
+            Object canonical = null;
+            if (reference != null) {
+                canonical = reference.get();
+            }
+            if (canonical == null) {
+                CANONICAL.put(value, new WeakReference<>(value));
+                return value;
+            }
+            if (canonical != value) {
+                duplicatesReplaced++;
+                bytesSaved += estimateSize(value);
+            }
+            return (T) canonical;
+        }
+    }
+
+    /**
+     * Interns the elements of a collection in place. Lists have their elements replaced, sets are left alone
+     * as replacing an element in them would mean removing and adding it.
+     * @param collection the collection.
+     */
+    @SuppressWarnings("unchecked")
+    public static void internElements(final Collection<?> collection) {
+        if (!(collection instanceof List)) {
+            return;
+        }
+        ListIterator<Object> iterator = ((List<Object>) collection).listIterator();
+        while (iterator.hasNext()) {
+            Object element = iterator.next();
+            Object canonical = intern(element);
+            if (canonical != element) {
+                iterator.set(canonical);
+            }
+        }
+    }
+
+    /**
+     * Interns the keys and values of a map in place. Observable maps are left alone, as their listeners
+     * would be told every entry had been replaced.
+     * @param map the map.
+     */
+    @SuppressWarnings("unchecked")
+    public static void internEntries(final Map<?, ?> map) {
+        if (map instanceof Observable) {
+            return;
+        }
+        Map<Object, Object> interned = new LinkedHashMap<>();
+        boolean changed = false;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object key = intern(entry.getKey());
+            Object value = intern(entry.getValue());
+            changed |= key != entry.getKey() || value != entry.getValue();
+            interned.put(key, value);
+        }
+        if (changed) {
+            // keys are only replaced if they are removed first, putting an equal key keeps the old one
+            Map<Object, Object> entries = (Map<Object, Object>) map;
+            entries.clear();
+            entries.putAll(interned);
+        }
+    }
+
+    /**
+     * Interns every value in an organisation, in place. This is used when the organisation was read
+     * by something that does not intern values as they are read, e.g. java serialization.
+     * @param organisation the organisation.
+     */
+    public static void internAll(final Organisation organisation) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Object> pending = new ArrayList<>();
+        pending.add(organisation);
+        visited.add(organisation);
+        while (!pending.isEmpty()) {
+            Object object = pending.remove(pending.size() - 1);
+            for (Field field : ClassLayout.of(object.getClass()).getFieldArray()) {
+                Object value = ClassLayout.getFieldValue(field, object);
+                if (isInternable(value)) {
+                    Object canonical = intern(value);
+                    if (canonical != value) {
+                        setField(field, object, canonical);
+                    }
+                }
+                else if (value instanceof Collection) {
+                    internElements((Collection<?>) value);
+                    addObjects((Collection<?>) value, visited, pending);
+                }
+                else if (value instanceof Map) {
+                    internEntries((Map<?, ?>) value);
+                    addObjects(((Map<?, ?>) value).keySet(), visited, pending);
+                    addObjects(((Map<?, ?>) value).values(), visited, pending);
+                }
+                else if (value != null && ClassLayout.isObject(value.getClass()) && visited.add(value)) {
+                    pending.add(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of duplicate values that have been replaced by their canonical instance.
+     * @return the number of duplicates.
+     */
+    public static long getDuplicatesReplaced() {
+        synchronized (CANONICAL) {
+            return duplicatesReplaced;
+        }
+    }
+
+    /**
+     * Gets an estimate of the memory used by the duplicate values that have been replaced,
+     * which can be freed once nothing else refers to them.
+     * @return the estimated number of bytes.
+     */
+    public static long getBytesSaved() {
+        synchronized (CANONICAL) {
+            return bytesSaved;
+        }
+    }
+
+    /**
+     * Adds the objects in a collection that have not been visited yet to the objects to visit.
+     * @param values the values in the collection.
+     * @param visited the objects that have been visited.
+     * @param pending the objects still to visit.
+     */
+    private static void addObjects(final Collection<?> values, final Set<Object> visited, final List<Object> pending) {
+        for (Object value : values) {
+            if (value != null && ClassLayout.isObject(value.getClass()) && visited.add(value)) {
+                pending.add(value);
+            }
+        }
+    }
+
+    /**
+     * Sets a field of an object to the canonical instance of its value.
+     * @param field the field, which is accessible.
+     * @param object the object.
+     * @param canonical the canonical value.
+     */
+    private static void setField(final Field field, final Object object, final Object canonical) {
+        try {
+            field.set(object, canonical);
+        }
+        catch (IllegalAccessException e) {
+            // the value is equal either way, so the duplicate is just kept
+        }
+    }
+
+    /**
+     * Estimates the memory used by a value.
+     * @param value the value.
+     * @return the estimated number of bytes.
+     */
+    private static long estimateSize(final Object value) {
+        if (value instanceof String) {
+            return STRING_SIZE + ((String) value).length();
+        }
+        if (value instanceof LocalDate) {
+            return DATE_SIZE;
+        }
+        return BOXED_SIZE;
+    }
+}
@@ -2,6 +2,8 @@ package sws.murcs.model.observable;
 
 import com.sun.javafx.collections.ObservableListWrapper;
 import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+import sws.murcs.magic.tracking.TrackableCollection;
 import sws.murcs.model.Model;
 
 import java.util.ArrayList;
@@ -12,13 +14,19 @@ import java.util.Collection;
  * Used to ensure changes to objects are instantly reflected in listeners.
  * @param <T> type of the list, expected to extend Model.
  */
-public class ObservableArrayList<T extends Model> extends ObservableListWrapper<T> {
+public class ObservableArrayList<T extends Model> extends ObservableListWrapper<T> implements TrackableCollection {
+
+    /**
+     * The number of times the list has changed, so undo/redo can skip comparing it when it has not.
+     */
+    private long modifications;
 
     /**
      * Creates a new empty ModelObservableArrayList with the default callback.
      */
     public ObservableArrayList() {
         super(new ArrayList<>(), param -> new Observable[] {param.getShortNameProperty()});
+        countModifications();
     }
 
     /**
@@ -28,5 +36,28 @@ public class ObservableArrayList<T extends Model> extends ObservableListWrapper<
      */
     public ObservableArrayList(final Collection c) {
         super(new ArrayList<>(c), param -> new Observable[] {param.getShortNameProperty()});
+        countModifications();
+    }
+
+    /**
+     * Counts every change to the contents or order of the list. Every way of changing an observable list
+     * notifies its listeners, so this catches changes made through sublists and iterators as well.
+     * Updates reported by the extractor (e.g. an element's short name changing) are not counted, as the
+     * list itself has not changed.
+     */
+    private void countModifications() {
+        addListener((ListChangeListener<T>) change -> {
+            while (change.next()) {
+                if (change.wasAdded() || change.wasRemoved() || change.wasReplaced() || change.wasPermutated()) {
+                    modifications++;
+                    return;
+                }
+            }
+        });
+    }
+
+    @Override
+    public final long getModificationCount() {
+        return modifications;
     }
 }
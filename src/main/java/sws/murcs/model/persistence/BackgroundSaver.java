@@ -0,0 +1,111 @@
+package sws.murcs.model.persistence;
+
+import sws.murcs.model.persistence.loaders.SaveTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs save tasks one at a time on a background thread.
+ * Saves are coalesced: if a save is requested while another is still waiting to start, the waiting
+ * one is replaced, as the newer save captured a later state of the model. The listeners of the
+ * replaced save are told when the newer save finishes.
+ */
+final class BackgroundSaver {
+
+    /**
+     * Lock guarding the waiting save.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Executor that saves run on.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Background save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The save waiting to start, null if there is none.
+     */
+    private SaveTask waitingTask;
+
+    /**
+     * The listeners to tell when the waiting save finishes.
+     */
+    private List<SaveListener> waitingListeners = new ArrayList<>();
+
+    /**
+     * The most recently submitted run of the executor.
+     */
+    private Future<?> lastRun;
+
+    /**
+     * Queues a save to run in the background, replacing any save that has not started yet.
+     * @param task the save to run.
+     * @param listener listener to tell about the progress of the save, may be null.
+     */
+    void submit(final SaveTask task, final SaveListener listener) {
+        synchronized (lock) {
+            boolean queued = waitingTask != null;
+            waitingTask = task;
+            if (listener != null) {
+                waitingListeners.add(listener);
+            }
+            if (!queued) {
+                lastRun = executor.submit(this::runWaiting);
+            }
+        }
+    }
+
+    /**
+     * Waits for all the saves that have been queued to finish.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    void await() throws InterruptedException {
+        Future<?> run;
+        synchronized (lock) {
+            run = lastRun;
+        }
+        if (run == null) {
+            return;
+        }
+        try {
+            run.get();
+        }
+        catch (ExecutionException e) {
+            // failures are reported to the listeners of the save
+        }
+    }
+
+    /**
+     * Runs the waiting save and tells its listeners when it finishes.
+     */
+    private void runWaiting() {
+        SaveTask task;
+        List<SaveListener> listeners;
+        synchronized (lock) {
+            task = waitingTask;
+            listeners = waitingListeners;
+            waitingTask = null;
+            waitingListeners = new ArrayList<>();
+        }
+
+        Exception error = null;
+        try {
+            task.write(fraction -> listeners.forEach(listener -> listener.saveProgressed(fraction)));
+        }
+        catch (Exception e) {
+            error = e;
+        }
+        for (SaveListener listener : listeners) {
+            listener.saveCompleted(error);
+        }
+    }
+}
@@ -39,6 +39,11 @@ public final class PersistenceManager {
      */
     private PersistenceLoader persistenceLoader;
 
+    /**
+     * Runs the saves that have been requested in the background.
+     */
+    private final BackgroundSaver backgroundSaver = new BackgroundSaver();
+
     /**
      * Instantiates a new persistence manager.
      * @param loader Loader to use to read and write persistences
@@ -93,6 +98,7 @@ public final class PersistenceManager {
      * @return The loaded persistence. Will be null if the model does not exist, is corrupt or could not be loaded.
      */
     public Organisation loadModel(final String persistenceName) {
+        awaitBackgroundSaves();
         // load the persistence using the default directory
         lastFile = persistenceName;
         Organisation model = persistenceLoader.loadModel(persistenceName);
@@ -128,10 +134,76 @@ public final class PersistenceManager {
      * @throws Exception When a model fails to save.
      */
     public void saveModel(final String name, final Organisation persistence) throws Exception {
+        // any saves in the background captured an older state, so they have to finish first
+        awaitBackgroundSaves();
         // saves the model using the default directory
         persistenceLoader.saveModel(name, persistence);
     }
 
+    /**
+     * Saves the changes made to the current model since it was last saved, if the persistence loader is able
+     * to save them on their own. Loaders that journal changes as they are made only have to mark them as
+     * saved, so this is cheap enough to do every few seconds (e.g. to autosave) however large the model is.
+     * @return true if the changes were saved, false if the current model has to be saved in full.
+     * @throws Exception when the changes fail to save.
+     */
+    public boolean saveChanges() throws Exception {
+        if (lastFile == null || currentModel == null) {
+            return false;
+        }
+        // any saves in the background captured an older state, so they have to finish first
+        awaitBackgroundSaves();
+        return persistenceLoader.saveChanges(lastFile, currentModel);
+    }
+
+    /**
+     * Forgets the changes made to the current model since it was last saved, e.g. because the user chose not to
+     * save them, so that the persistence loader does not recover them when the model is next loaded.
+     */
+    public void discardChanges() {
+        if (currentModel == null) {
+            return;
+        }
+        // saves in the background may still be writing the changes
+        awaitBackgroundSaves();
+        persistenceLoader.discardChanges(currentModel);
+    }
+
+    /**
+     * Saves the current model in the background.
+     * @param listener Listener to tell how the save is progressing, may be null.
+     * @throws Exception when the state of the model could not be captured.
+     */
+    public void saveInBackground(final SaveListener listener) throws Exception {
+        saveModelInBackground(lastFile, listener);
+    }
+
+    /**
+     * Saves the current model in the background. The state of the model is captured straight away on the
+     * calling thread, which must be the thread that changes the model, and is then written on a background
+     * thread. If a save is requested before the previous one has started, only the newer one is written.
+     * @param name name to save as
+     * @param listener Listener to tell how the save is progressing, may be null.
+     * @throws Exception when the state of the model could not be captured.
+     */
+    public void saveModelInBackground(final String name, final SaveListener listener) throws Exception {
+        backgroundSaver.submit(persistenceLoader.prepareSave(name, getCurrentModel()), listener);
+        lastFile = name;
+        App.setWindowTitle(name);
+    }
+
+    /**
+     * Waits for any saves running in the background to finish, e.g. before the application exits.
+     */
+    public void awaitBackgroundSaves() {
+        try {
+            backgroundSaver.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Checks to see if a model exists.
      * @param persistenceName The name of the model
@@ -0,0 +1,21 @@
+package sws.murcs.model.persistence;
+
+/**
+ * Listener that is told how a save running in the background is progressing.
+ * Listeners are called on the thread doing the save, so anything touching the UI must be
+ * passed to Platform.runLater.
+ */
+public interface SaveListener {
+    /**
+     * Notifies the listener of how much of the save has been completed.
+     * @param fraction the fraction of the save that has been completed, between 0 and 1.
+     */
+    void saveProgressed(double fraction);
+
+    /**
+     * Notifies the listener that the save has finished. If it was replaced by a newer save before it
+     * started, this is called once the newer save has finished.
+     * @param error the reason the save failed, or null if it succeeded.
+     */
+    void saveCompleted(Exception error);
+}
@@ -0,0 +1,307 @@
+package sws.murcs.model.persistence.binary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and primitive encoding helpers shared by the snapshot reader and writer.
+ *
+ * A snapshot is laid out as follows:
+ * <pre>
+ *     magic, version, stamp
+ *     index         (the next free id, the class names of the models and, for each section, its type,
+ *                   byte length, the sections it refers to and the id, class and short name of each model in it)
+ *     sections      (a class table, string table and object table for the objects in the section,
+ *                   followed by the id and fields of each of them)
+ * </pre>
+ * Each section can be decoded on its own, so a reader can start with the index and only load the sections it needs.
+ * Version 1 snapshots had a single class, string and object table before the sections and have to be read in full.
+ * A journal starts with its own magic, version and the stamp of the snapshot it belongs to, followed by entries.
+ * Each entry has a type and byte length. Change entries contain a class, string and object table for any new
+ * objects followed by the id and fields of every changed object, saved entries mark the point the user last saved.
+ * Integers are written as variable length quantities so that small ids and counts only take a single byte.
+ */
+public final class BinaryFormat {
+
+    /**
+     * Magic number at the start of every snapshot ("MURC").
+     */
+    public static final int MAGIC = 0x4D555243;
+
+    /**
+     * Current version of the snapshot format.
+     */
+    public static final short VERSION = 2;
+
+    /**
+     * Size of the buffers used when reading and writing snapshots.
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Magic number at the start of every journal ("MURJ").
+     */
+    public static final int JOURNAL_MAGIC = 0x4D55524A;
+
+    /**
+     * Magic number at the start of the index of a sharded project ("MURI").
+     */
+    public static final int INDEX_MAGIC = 0x4D555249;
+
+    /**
+     * Journal entry containing the complete state of changed objects, as written by older versions.
+     */
+    static final byte ENTRY_CHANGES = 1;
+
+    /**
+     * Journal entry marking that the model was saved.
+     */
+    static final byte ENTRY_SAVED = 2;
+
+    /**
+     * Journal entry containing the new values of the fields that changed in each changed object.
+     */
+    static final byte ENTRY_FIELDS = 3;
+
+    /**
+     * Length of the header at the start of a journal (magic, version and stamp).
+     */
+    public static final int JOURNAL_HEADER_LENGTH = Integer.BYTES + Short.BYTES + Long.BYTES;
+
+    /**
+     * Length of the type and length written before every journal entry.
+     */
+    static final int ENTRY_HEADER_LENGTH = Byte.BYTES + Integer.BYTES;
+
+    /**
+     * Tag for a null value.
+     */
+    static final byte TAG_NULL = 0;
+
+    /**
+     * Tag for a boolean true value.
+     */
+    static final byte TAG_TRUE = 1;
+
+    /**
+     * Tag for a boolean false value.
+     */
+    static final byte TAG_FALSE = 2;
+
+    /**
+     * Tag for an integer value.
+     */
+    static final byte TAG_INT = 3;
+
+    /**
+     * Tag for a long value.
+     */
+    static final byte TAG_LONG = 4;
+
+    /**
+     * Tag for a float value.
+     */
+    static final byte TAG_FLOAT = 5;
+
+    /**
+     * Tag for a double value.
+     */
+    static final byte TAG_DOUBLE = 6;
+
+    /**
+     * Tag for a string, stored as an index into the string table.
+     */
+    static final byte TAG_STRING = 7;
+
+    /**
+     * Tag for a date, stored as an epoch day.
+     */
+    static final byte TAG_DATE = 8;
+
+    /**
+     * Tag for an enum constant, stored as a class index and the constant name.
+     */
+    static final byte TAG_ENUM = 9;
+
+    /**
+     * Tag for a reference to another object in the object table.
+     */
+    static final byte TAG_REFERENCE = 10;
+
+    /**
+     * Tag for a collection, stored as a class index, size and elements.
+     */
+    static final byte TAG_COLLECTION = 11;
+
+    /**
+     * Tag for a map, stored as a class index, size and key/value pairs.
+     */
+    static final byte TAG_MAP = 12;
+
+    /**
+     * Tag for a value that has no compact representation and is stored using java serialization.
+     */
+    static final byte TAG_SERIALIZED = 13;
+
+    /**
+     * Field type code for fields that store objects, written as tagged values.
+     */
+    static final char FIELD_OBJECT = 'L';
+
+    /**
+     * Number of bits of a value stored in each byte of a variable length quantity.
+     */
+    private static final int VARINT_BITS = 7;
+
+    /**
+     * Mask of the value bits in each byte of a variable length quantity.
+     */
+    private static final int VARINT_MASK = 0x7F;
+
+    /**
+     * Flag indicating that more bytes follow in a variable length quantity.
+     */
+    private static final int VARINT_CONTINUE = 0x80;
+
+    /**
+     * Private constructor as this is a utility class.
+     */
+    private BinaryFormat() {
+    }
+
+    /**
+     * Gets the type code used in the class table for a field type.
+     * Primitive fields are written untagged, so their type has to be known in order to skip them
+     * when the field no longer exists. These codes match those of JVM type descriptors.
+     * @param type the type of the field.
+     * @return the type code.
+     */
+    static char getFieldTypeCode(final Class<?> type) {
+        if (type == boolean.class) {
+            return 'Z';
+        }
+        else if (type == byte.class) {
+            return 'B';
+        }
+        else if (type == short.class) {
+            return 'S';
+        }
+        else if (type == char.class) {
+            return 'C';
+        }
+        else if (type == int.class) {
+            return 'I';
+        }
+        else if (type == long.class) {
+            return 'J';
+        }
+        else if (type == float.class) {
+            return 'F';
+        }
+        else if (type == double.class) {
+            return 'D';
+        }
+        return FIELD_OBJECT;
+    }
+
+    /**
+     * Writes a non negative integer as a variable length quantity.
+     * @param out output to write to.
+     * @param value value to write.
+     * @throws IOException if writing fails.
+     */
+    public static void writeVarInt(final DataOutput out, final int value) throws IOException {
+        writeVarLong(out, Integer.toUnsignedLong(value));
+    }
+
+    /**
+     * Writes a non negative long as a variable length quantity.
+     * @param out output to write to.
+     * @param value value to write.
+     * @throws IOException if writing fails.
+     */
+    public static void writeVarLong(final DataOutput out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~VARINT_MASK) != 0) {
+            out.writeByte((int) (remaining & VARINT_MASK) | VARINT_CONTINUE);
+            remaining >>>= VARINT_BITS;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    /**
+     * Writes a signed long as a zig-zag encoded variable length quantity,
+     * so that small negative numbers are also compact.
+     * @param out output to write to.
+     * @param value value to write.
+     * @throws IOException if writing fails.
+     */
+    public static void writeSignedVarLong(final DataOutput out, final long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> (Long.SIZE - 1)));
+    }
+
+    /**
+     * Reads a non negative integer written by writeVarInt.
+     * @param in input to read from.
+     * @return the value.
+     * @throws IOException if reading fails.
+     */
+    public static int readVarInt(final DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    /**
+     * Reads a non negative long written by writeVarLong.
+     * @param in input to read from.
+     * @return the value.
+     * @throws IOException if reading fails or the value is malformed.
+     */
+    public static long readVarLong(final DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += VARINT_BITS) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & VARINT_MASK) << shift;
+            if ((b & VARINT_CONTINUE) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length quantity.");
+    }
+
+    /**
+     * Reads a signed long written by writeSignedVarLong.
+     * @param in input to read from.
+     * @return the value.
+     * @throws IOException if reading fails.
+     */
+    public static long readSignedVarLong(final DataInput in) throws IOException {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Writes a length prefixed UTF-8 string. Unlike DataOutput.writeUTF this has no length limit.
+     * @param out output to write to.
+     * @param value string to write.
+     * @throws IOException if writing fails.
+     */
+    public static void writeString(final DataOutput out, final String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     * @param in input to read from.
+     * @return the string.
+     * @throws IOException if reading fails.
+     */
+    public static String readString(final DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
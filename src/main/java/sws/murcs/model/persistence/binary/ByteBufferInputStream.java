@@ -0,0 +1,62 @@
+package sws.murcs.model.persistence.binary;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream that reads the remaining bytes of a byte buffer (e.g. a memory mapped file).
+ * Reading advances the position of the buffer.
+ */
+final class ByteBufferInputStream extends InputStream {
+
+    /**
+     * Mask used to read a byte as an unsigned value.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * The buffer being read.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a new stream reading from a buffer.
+     * @param source the buffer to read from.
+     */
+    ByteBufferInputStream(final ByteBuffer source) {
+        buffer = source;
+    }
+
+    @Override
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & BYTE_MASK;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(final long count) {
+        int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,233 @@
+package sws.murcs.model.persistence.binary;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes how objects of a class are persisted in a snapshot.
+ * The persisted fields follow the same rules as java serialization (non static, non transient
+ * fields of serializable classes) so that the binary format stores exactly what the old format did.
+ * Layouts are calculated once per class and cached. They are also used by the other formats that
+ * store the same fields (e.g. JSON), so that every format stores a model in the same way.
+ */
+public final class ClassLayout {
+
+    /**
+     * Cache of the layouts that have already been calculated.
+     */
+    private static final Map<Class<?>, ClassLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+    /**
+     * The class this layout describes.
+     */
+    private final Class<?> type;
+
+    /**
+     * The persisted fields, keyed by name.
+     */
+    private final Map<String, Field> fields;
+
+    /**
+     * The persisted fields, in the same order as the map.
+     */
+    private final Field[] fieldArray;
+
+    /**
+     * Constructor used to create new instances without running the constructors of the class.
+     */
+    private Constructor<?> constructor;
+
+    /**
+     * Creates a new layout.
+     * @param clazz the class to describe.
+     */
+    private ClassLayout(final Class<?> clazz) {
+        type = clazz;
+        List<Class<?>> hierarchy = new ArrayList<>();
+        Class<?> current = clazz;
+        while (current != null && Serializable.class.isAssignableFrom(current)) {
+            hierarchy.add(0, current);
+            current = current.getSuperclass();
+        }
+
+        Map<String, Field> persisted = new LinkedHashMap<>();
+        for (Class<?> level : hierarchy) {
+            for (Field field : level.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                // fields hidden by a subclass are stored under their qualified name
+                String name = field.getName();
+                if (persisted.containsKey(name)) {
+                    name = level.getName() + "." + name;
+                }
+                persisted.put(name, field);
+            }
+        }
+        fields = Collections.unmodifiableMap(persisted);
+        fieldArray = persisted.values().toArray(new Field[persisted.size()]);
+    }
+
+    /**
+     * Gets the layout of a class.
+     * @param clazz the class.
+     * @return the layout of the class.
+     */
+    public static ClassLayout of(final Class<?> clazz) {
+        return LAYOUTS.computeIfAbsent(clazz, ClassLayout::new);
+    }
+
+    /**
+     * Checks if objects of a class are stored as objects in the object table (rather than by value).
+     * @param clazz the class to check.
+     * @return true if the class is stored in the object table.
+     */
+    public static boolean isObject(final Class<?> clazz) {
+        return clazz.getName().startsWith("sws.murcs.")
+                && !clazz.isEnum()
+                && !Collection.class.isAssignableFrom(clazz)
+                && !Map.class.isAssignableFrom(clazz);
+    }
+
+    /**
+     * Gets the class this layout describes.
+     * @return the class.
+     */
+    Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Gets the persisted fields of the class, keyed by name.
+     * @return the persisted fields.
+     */
+    public Map<String, Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * Gets the persisted fields of the class, in the order they are written.
+     * The array is shared, so it must not be modified.
+     * @return the persisted fields.
+     */
+    public Field[] getFieldArray() {
+        return fieldArray;
+    }
+
+    /**
+     * Gets the index of a persisted field in the field array.
+     * @param name the name of the field.
+     * @return the index of the field, or -1 if the class does not persist a field with that name.
+     */
+    int indexOf(final String name) {
+        Field field = fields.get(name);
+        for (int i = 0; i < fieldArray.length; i++) {
+            if (fieldArray[i] == field) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a new instance of the class in the same way java serialization does. The constructors
+     * of the serializable classes in the hierarchy are skipped, and the no-arg constructor of the first
+     * non-serializable superclass is used instead. This avoids side effects such as objects committing to
+     * the undo/redo manager or validating themselves against the current organisation while loading.
+     * @return the new instance.
+     * @throws ReflectiveOperationException if an instance could not be created.
+     */
+    public Object newInstance() throws ReflectiveOperationException {
+        if (constructor == null) {
+            Class<?> base = type;
+            while (base != null && Serializable.class.isAssignableFrom(base)) {
+                base = base.getSuperclass();
+            }
+            if (base == null) {
+                base = Object.class;
+            }
+            // the reflection factory is looked up reflectively as it is not part of the public API
+            Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+            Object factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+            Method newConstructor = factoryClass.getMethod("newConstructorForSerialization", Class.class, Constructor.class);
+            constructor = (Constructor<?>) newConstructor.invoke(factory, type, base.getDeclaredConstructor());
+            constructor.setAccessible(true);
+        }
+        return constructor.newInstance();
+    }
+
+    /**
+     * Gets the value of a field.
+     * @param field the field.
+     * @param object the object to get the value from.
+     * @return the value of the field.
+     */
+    public static Object getFieldValue(final Field field, final Object object) {
+        try {
+            return field.get(object);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Persisted fields are always accessible.", e);
+        }
+    }
+
+    /**
+     * Gets the class a collection will be recreated as when it is read.
+     * Collections that cannot be created empty (e.g. unmodifiable views) are stored as a general purpose collection.
+     * @param collection the collection.
+     * @return the class to recreate it as.
+     */
+    public static Class<?> getCollectionClass(final Collection<?> collection) {
+        if (hasNoArgConstructor(collection.getClass())) {
+            return collection.getClass();
+        }
+        else if (collection instanceof Set) {
+            return LinkedHashSet.class;
+        }
+        return ArrayList.class;
+    }
+
+    /**
+     * Gets the class a map will be recreated as when it is read.
+     * @param map the map.
+     * @return the class to recreate it as.
+     */
+    public static Class<?> getMapClass(final Map<?, ?> map) {
+        if (hasNoArgConstructor(map.getClass())) {
+            return map.getClass();
+        }
+        return LinkedHashMap.class;
+    }
+
+    /**
+     * Checks if a class is public and has a public no-arg constructor.
+     * @param clazz the class to check.
+     * @return true if it has one.
+     */
+    private static boolean hasNoArgConstructor(final Class<?> clazz) {
+        if (!Modifier.isPublic(clazz.getModifiers())) {
+            return false;
+        }
+        try {
+            clazz.getConstructor();
+            return true;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package sws.murcs.model.persistence.binary;
+
+import sws.murcs.model.Organisation;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A point in time copy of the persisted state of an organisation, which a SnapshotWriter can write on
+ * another thread while the organisation continues to be edited.
+ * Freezing only copies the values of the persisted fields and the contents of any collections and maps,
+ * which is much cheaper than encoding them, so it can be done on the thread that edits the model.
+ * Other values (strings, dates, enums etc.) are immutable and are shared with the model.
+ */
+public final class FrozenModel {
+
+    /**
+     * The root objects of each section.
+     */
+    private final Map<SnapshotSection, List<Object>> roots = new EnumMap<>(SnapshotSection.class);
+
+    /**
+     * The frozen values of the persisted fields of every object reachable from the roots.
+     */
+    private final Map<Object, Object[]> values = new IdentityHashMap<>();
+
+    /**
+     * Private constructor, models are created by freezing an organisation.
+     */
+    private FrozenModel() {
+    }
+
+    /**
+     * Freezes the current state of an organisation. This must be called on the thread that edits the
+     * organisation, but the frozen model can be written on any thread.
+     * @param organisation the organisation to freeze.
+     * @return the frozen model.
+     */
+    public static FrozenModel freeze(final Organisation organisation) {
+        FrozenModel model = new FrozenModel();
+        List<Object> found = new ArrayList<>();
+        for (SnapshotSection section : SnapshotSection.values()) {
+            List<Object> sectionRoots = new ArrayList<>(section.getRoots(organisation));
+            model.roots.put(section, sectionRoots);
+            for (Object root : sectionRoots) {
+                model.add(root, found);
+            }
+        }
+        for (int i = 0; i < found.size(); i++) {
+            model.freezeObject(found.get(i), found);
+        }
+        return model;
+    }
+
+    /**
+     * Gets the number of objects in the frozen model.
+     * @return the number of objects.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Gets the organisation that was frozen.
+     * @return the organisation.
+     */
+    public Organisation getOrganisation() {
+        return (Organisation) roots.get(SnapshotSection.Organisation).get(0);
+    }
+
+    /**
+     * Gets the root objects of a section, as they were when the model was frozen.
+     * @param section the section.
+     * @return the root objects of the section.
+     */
+    List<Object> getRoots(final SnapshotSection section) {
+        return roots.get(section);
+    }
+
+    /**
+     * Gets the frozen values of the persisted fields of an object, in the order of its class layout.
+     * @param object the object.
+     * @return the values of its fields, or null if the object was not reachable when the model was frozen.
+     */
+    public Object[] getValues(final Object object) {
+        return values.get(object);
+    }
+
+    /**
+     * Adds an object to be frozen, if it has not been already.
+     * @param object the object.
+     * @param found list of the objects waiting to be frozen.
+     */
+    private void add(final Object object, final List<Object> found) {
+        if (!values.containsKey(object)) {
+            values.put(object, null);
+            found.add(object);
+        }
+    }
+
+    /**
+     * Copies the values of the persisted fields of an object.
+     * @param object the object.
+     * @param found list of the objects waiting to be frozen, any objects it references are added to this.
+     */
+    private void freezeObject(final Object object, final List<Object> found) {
+        Field[] fields = ClassLayout.of(object.getClass()).getFieldArray();
+        Object[] frozen = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            frozen[i] = freezeValue(ClassLayout.getFieldValue(fields[i], object), found);
+        }
+        values.put(object, frozen);
+    }
+
+    /**
+     * Freezes a value. Collections and maps are copied, references to other objects are kept as they are
+     * and the objects are added to be frozen.
+     * @param value the value.
+     * @param found list of the objects waiting to be frozen.
+     * @return the frozen value.
+     */
+    private Object freezeValue(final Object value, final List<Object> found) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            Object[] elements = collection.toArray();
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = freezeValue(elements[i], found);
+            }
+            return new Container(ClassLayout.getCollectionClass(collection), false, elements);
+        }
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Object[] elements = new Object[map.size() * 2];
+            int i = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                elements[i++] = freezeValue(entry.getKey(), found);
+                elements[i++] = freezeValue(entry.getValue(), found);
+            }
+            return new Container(ClassLayout.getMapClass(map), true, elements);
+        }
+        if (ClassLayout.isObject(value.getClass())) {
+            add(value, found);
+        }
+        return value;
+    }
+
+    /**
+     * A frozen copy of a collection or map.
+     */
+    public static final class Container {
+
+        /**
+         * The class the collection or map will be recreated as when it is read.
+         */
+        private final Class<?> type;
+
+        /**
+         * Whether this is a map.
+         */
+        private final boolean map;
+
+        /**
+         * The elements of the collection, or the keys and values of the map one after the other.
+         */
+        private final Object[] elements;
+
+        /**
+         * Creates a new container.
+         * @param containerType the class to recreate the collection or map as.
+         * @param isMap whether this is a map.
+         * @param containerElements the elements, or the keys and values of a map one after the other.
+         */
+        private Container(final Class<?> containerType, final boolean isMap, final Object[] containerElements) {
+            type = containerType;
+            map = isMap;
+            elements = containerElements;
+        }
+
+        /**
+         * Gets the class the collection or map will be recreated as when it is read.
+         * @return the class.
+         */
+        public Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * Gets whether this is a map.
+         * @return true if this is a map.
+         */
+        public boolean isMap() {
+            return map;
+        }
+
+        /**
+         * Gets the elements of the collection, or the keys and values of the map one after the other.
+         * The array is shared, so it must not be modified.
+         * @return the elements.
+         */
+        public Object[] getElements() {
+            return elements;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package sws.murcs.model.persistence.binary;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays the changes in a journal written by a JournalWriter onto the objects read from its snapshot.
+ */
+public final class JournalReader {
+
+    /**
+     * What was found when a journal was read.
+     */
+    public static final class Result {
+
+        /**
+         * The position after the last complete entry, or -1 if the journal does not belong to the snapshot.
+         */
+        private final long length;
+
+        /**
+         * The position after the last save, or -1 if the journal does not belong to the snapshot.
+         */
+        private final long savedLength;
+
+        /**
+         * If changes made after the last save were replayed.
+         */
+        private final boolean unsavedChanges;
+
+        /**
+         * Creates a new result.
+         * @param validLength the position after the last complete entry.
+         * @param lastSave the position after the last save.
+         * @param recovered if changes made after the last save were replayed.
+         */
+        private Result(final long validLength, final long lastSave, final boolean recovered) {
+            length = validLength;
+            savedLength = lastSave;
+            unsavedChanges = recovered;
+        }
+
+        /**
+         * Gets the position after the last complete entry, which is the length of the journal to keep.
+         * @return the position, or -1 if the journal does not belong to the snapshot.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Gets the position after the last save.
+         * @return the position, or -1 if the journal does not belong to the snapshot.
+         */
+        public long getSavedLength() {
+            return savedLength;
+        }
+
+        /**
+         * Checks if changes that were made after the last save were replayed, e.g. because the application
+         * exited unexpectedly before they were saved.
+         * @return true if unsaved changes were replayed.
+         */
+        public boolean hasUnsavedChanges() {
+            return unsavedChanges;
+        }
+    }
+
+    /**
+     * Private constructor as this is a utility class.
+     */
+    private JournalReader() {
+    }
+
+    /**
+     * Replays the changes in a journal that were made before the model was last saved.
+     * Changes after the last save are ignored, as are any incomplete entries (e.g. from a crash while writing).
+     * @param file the journal file.
+     * @param ids the ids of the objects read from the snapshot. New objects are added to these.
+     * @param stamp the stamp of the snapshot.
+     * @param limit the position in the journal to stop reading at.
+     * @return the position after the last save that was replayed, or -1 if the journal does not belong to the snapshot.
+     * @throws IOException if the journal could not be read.
+     */
+    public static long replay(final File file, final ObjectIds ids, final long stamp, final long limit)
+            throws IOException {
+        return read(file, ids, stamp, limit, false).getSavedLength();
+    }
+
+    /**
+     * Replays every change in a journal, including the changes made after the model was last saved, which
+     * are only in the journal if they were never saved or discarded (e.g. because the application exited
+     * unexpectedly). Any incomplete entries are ignored.
+     * @param file the journal file.
+     * @param ids the ids of the objects read from the snapshot. New objects are added to these.
+     * @param stamp the stamp of the snapshot.
+     * @return what was found in the journal.
+     * @throws IOException if the journal could not be read.
+     */
+    public static Result recover(final File file, final ObjectIds ids, final long stamp) throws IOException {
+        return read(file, ids, stamp, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * Replays the changes in a journal.
+     * @param file the journal file.
+     * @param ids the ids of the objects read from the snapshot. New objects are added to these.
+     * @param stamp the stamp of the snapshot.
+     * @param limit the position in the journal to stop reading at.
+     * @param replayUnsaved true to replay the changes after the last save as well.
+     * @return what was found in the journal.
+     * @throws IOException if the journal could not be read.
+     */
+    private static Result read(final File file, final ObjectIds ids, final long stamp, final long limit,
+                               final boolean replayUnsaved) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), BinaryFormat.BUFFER_SIZE))) {
+            try {
+                if (in.readInt() != BinaryFormat.JOURNAL_MAGIC
+                        || in.readShort() > BinaryFormat.VERSION
+                        || in.readLong() != stamp) {
+                    return new Result(-1, -1, false);
+                }
+            }
+            catch (EOFException e) {
+                return new Result(-1, -1, false);
+            }
+
+            long position = BinaryFormat.JOURNAL_HEADER_LENGTH;
+            long saved = position;
+            List<byte[]> unsaved = new ArrayList<>();
+            List<Byte> unsavedTypes = new ArrayList<>();
+            while (position + BinaryFormat.ENTRY_HEADER_LENGTH <= limit) {
+                byte type;
+                byte[] payload;
+                try {
+                    type = in.readByte();
+                    int length = in.readInt();
+                    if (length < 0 || position + BinaryFormat.ENTRY_HEADER_LENGTH + length > limit) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                if (type == BinaryFormat.ENTRY_SAVED) {
+                    for (int i = 0; i < unsaved.size(); i++) {
+                        apply(unsavedTypes.get(i), unsaved.get(i), ids);
+                    }
+                    unsaved.clear();
+                    unsavedTypes.clear();
+                    saved = position + BinaryFormat.ENTRY_HEADER_LENGTH + payload.length;
+                }
+                else if (type == BinaryFormat.ENTRY_CHANGES || type == BinaryFormat.ENTRY_FIELDS) {
+                    unsaved.add(payload);
+                    unsavedTypes.add(type);
+                }
+                else {
+                    break;
+                }
+                position += BinaryFormat.ENTRY_HEADER_LENGTH + payload.length;
+            }
+
+            if (!replayUnsaved || unsaved.isEmpty()) {
+                return new Result(saved, saved, false);
+            }
+            for (int i = 0; i < unsaved.size(); i++) {
+                apply(unsavedTypes.get(i), unsaved.get(i), ids);
+            }
+            return new Result(position, saved, true);
+        }
+    }
+
+    /**
+     * Applies a change entry.
+     * @param type the type of the entry.
+     * @param payload the contents of the entry.
+     * @param ids the ids of the objects in the model.
+     * @throws IOException if the entry is invalid.
+     */
+    private static void apply(final byte type, final byte[] payload, final ObjectIds ids) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        ObjectDecoder decoder = new ObjectDecoder(ids);
+        decoder.readHeader(in);
+        if (type == BinaryFormat.ENTRY_FIELDS) {
+            decoder.readChangedObjects(in);
+        }
+        else {
+            decoder.readObjects(in);
+        }
+        decoder.finish();
+    }
+}
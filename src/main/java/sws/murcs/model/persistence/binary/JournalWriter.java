@@ -0,0 +1,280 @@
+package sws.murcs.model.persistence.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Appends changes to the objects in a snapshot to a journal file next to it.
+ * Each entry contains the new values of the fields that changed in each changed object, and the complete
+ * state of any new objects they reference, so replaying an entry more than once has no further effect.
+ * This class is not thread safe.
+ */
+public final class JournalWriter implements Closeable {
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * Ids of the objects in the model the journal is for.
+     */
+    private final ObjectIds ids;
+
+    /**
+     * Stamp of the snapshot the journal belongs to.
+     */
+    private final long stamp;
+
+    /**
+     * Stream used to write to the journal file.
+     */
+    private FileOutputStream fileOut;
+
+    /**
+     * Buffered output to the journal file.
+     */
+    private DataOutputStream out;
+
+    /**
+     * The current length of the journal.
+     */
+    private long size;
+
+    /**
+     * The length of the journal up to the end of the last saved marker.
+     */
+    private long savedSize;
+
+    /**
+     * Opens a journal for writing.
+     * @param journalFile the journal file.
+     * @param objectIds ids of the objects in the model the journal is for. New objects are added to these.
+     * @param snapshotStamp stamp of the snapshot the journal belongs to.
+     * @param validLength length of the journal to keep, as found by JournalReader.
+     *                    If this is less than zero a new journal is started.
+     * @param savedLength length of the journal up to the end of the last saved marker, as found by JournalReader.
+     * @throws IOException if the journal could not be opened.
+     */
+    public JournalWriter(final File journalFile, final ObjectIds objectIds, final long snapshotStamp,
+                         final long validLength, final long savedLength) throws IOException {
+        file = journalFile;
+        ids = objectIds;
+        stamp = snapshotStamp;
+        if (validLength < BinaryFormat.JOURNAL_HEADER_LENGTH) {
+            writeHeader(file);
+            size = BinaryFormat.JOURNAL_HEADER_LENGTH;
+        }
+        else {
+            try (RandomAccessFile journal = new RandomAccessFile(file, "rw")) {
+                journal.setLength(validLength);
+            }
+            size = validLength;
+        }
+        savedSize = Math.min(Math.max(savedLength, BinaryFormat.JOURNAL_HEADER_LENGTH), size);
+        open();
+    }
+
+    /**
+     * Gets the current length of the journal.
+     * @return the length of the journal in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the length of the journal up to the end of the last saved marker.
+     * @return the length of the saved part of the journal in bytes.
+     */
+    public long getSavedSize() {
+        return savedSize;
+    }
+
+    /**
+     * Appends the complete state of changed objects to the journal.
+     * Objects that are not part of the model the journal is for are ignored.
+     * @param changedObjects the objects that changed.
+     * @return true if an entry was written.
+     * @throws IOException if the entry could not be written.
+     */
+    public boolean append(final Collection<?> changedObjects) throws IOException {
+        Map<Object, Collection<String>> changedFields = new IdentityHashMap<>();
+        for (Object object : changedObjects) {
+            changedFields.put(object, null);
+        }
+        return append(changedFields);
+    }
+
+    /**
+     * Appends the new values of the fields that changed in each changed object to the journal.
+     * The entry is handed to the operating system straight away, so it survives the application exiting.
+     * Objects that are not part of the model the journal is for are ignored.
+     * @param changedFields the names of the persisted fields to write for each object that changed,
+     *                      or null for objects that should be written in full.
+     * @return true if an entry was written.
+     * @throws IOException if the entry could not be written.
+     */
+    public boolean append(final Map<?, ? extends Collection<String>> changedFields) throws IOException {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Object> objects = new ArrayList<>();
+        List<Collection<String>> fieldNames = new ArrayList<>();
+        for (Map.Entry<?, ? extends Collection<String>> change : changedFields.entrySet()) {
+            if (ids.getId(change.getKey()) >= 0 && seen.add(change.getKey())) {
+                objects.add(change.getKey());
+                fieldNames.add(change.getValue());
+            }
+        }
+        if (objects.isEmpty()) {
+            return false;
+        }
+
+        // new objects are written in full, so that the journal does not depend on the live model
+        ObjectEncoder encoder = new ObjectEncoder(ids, null);
+        for (int i = 0; i < objects.size(); i++) {
+            encoder.discoverFields(objects.get(i), objects);
+        }
+        while (fieldNames.size() < objects.size()) {
+            fieldNames.add(null);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        BinaryFormat.writeVarInt(bodyOut, objects.size());
+        for (int i = 0; i < objects.size(); i++) {
+            encoder.writeFields(bodyOut, objects.get(i), fieldNames.get(i));
+        }
+
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        DataOutputStream entryOut = new DataOutputStream(entry);
+        encoder.writeHeader(entryOut);
+        body.writeTo(entryOut);
+        writeEntry(BinaryFormat.ENTRY_FIELDS, entry.toByteArray());
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Marks that the model has been saved. Only changes before the most recent save are replayed when
+     * the journal is read. The marker is handed to the operating system, but sync should be called to
+     * make sure it has reached the disk.
+     * @throws IOException if the journal could not be written.
+     */
+    public void markSaved() throws IOException {
+        writeEntry(BinaryFormat.ENTRY_SAVED, new byte[0]);
+        out.flush();
+        savedSize = size;
+    }
+
+    /**
+     * Removes the changes appended since the journal was last marked as saved, e.g. because they were discarded
+     * rather than saved, so that they are not replayed when the journal is read.
+     * @throws IOException if the journal could not be truncated.
+     */
+    public void discardUnsaved() throws IOException {
+        if (size == savedSize) {
+            return;
+        }
+        out.flush();
+        out.close();
+        try (RandomAccessFile journal = new RandomAccessFile(file, "rw")) {
+            journal.setLength(savedSize);
+        }
+        size = savedSize;
+        open();
+    }
+
+    /**
+     * Makes sure everything written to the journal has reached the disk.
+     * @throws IOException if the journal could not be written.
+     */
+    public void sync() throws IOException {
+        out.flush();
+        fileOut.getFD().sync();
+    }
+
+    /**
+     * Removes the entries before a position in the journal, once they have been compacted into the snapshot.
+     * @param position the position of the first entry to keep, which must be the end of an entry that was saved.
+     * @throws IOException if the journal could not be rewritten.
+     */
+    public void discardBefore(final long position) throws IOException {
+        out.flush();
+        out.close();
+        File temp = new File(file.getPath() + ".tmp");
+        writeHeader(temp);
+        byte[] remaining;
+        try (RandomAccessFile journal = new RandomAccessFile(file, "r")) {
+            journal.seek(position);
+            remaining = new byte[(int) (size - position)];
+            journal.readFully(remaining);
+        }
+        try (FileOutputStream tempOut = new FileOutputStream(temp, true)) {
+            tempOut.write(remaining);
+            tempOut.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        size = BinaryFormat.JOURNAL_HEADER_LENGTH + remaining.length;
+        savedSize = BinaryFormat.JOURNAL_HEADER_LENGTH + savedSize - position;
+        open();
+    }
+
+    /**
+     * Closes the journal.
+     * @throws IOException if the journal could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Opens the journal file for appending.
+     * @throws IOException if the file could not be opened.
+     */
+    private void open() throws IOException {
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, BinaryFormat.BUFFER_SIZE));
+    }
+
+    /**
+     * Writes a new journal containing only a header.
+     * @param journalFile the file to write the header to.
+     * @throws IOException if the header could not be written.
+     */
+    private void writeHeader(final File journalFile) throws IOException {
+        try (DataOutputStream headerOut = new DataOutputStream(new FileOutputStream(journalFile))) {
+            headerOut.writeInt(BinaryFormat.JOURNAL_MAGIC);
+            headerOut.writeShort(BinaryFormat.VERSION);
+            headerOut.writeLong(stamp);
+        }
+    }
+
+    /**
+     * Writes an entry to the journal.
+     * @param type the type of the entry.
+     * @param payload the contents of the entry.
+     * @throws IOException if the entry could not be written.
+     */
+    private void writeEntry(final byte type, final byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        size += BinaryFormat.ENTRY_HEADER_LENGTH + payload.length;
+    }
+}
@@ -0,0 +1,487 @@
+package sws.murcs.model.persistence.binary;
+
+import sws.murcs.model.helpers.InterningHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a block of the binary format written by an ObjectEncoder.
+ * Decoding happens in three phases. First the header is read, creating any objects that were given an id
+ * in the block, then the fields of each object are read and finally collections are filled.
+ * Collections are filled last because hash based collections (e.g. the dependencies of a story)
+ * can only be filled once the objects in them have all of their fields set.
+ * Blocks that share ids can be decoded on different threads, as long as the objects created by each header
+ * are only added to the ids (see readTables and addObjects) while no other decoder is running.
+ */
+final class ObjectDecoder {
+
+    /**
+     * Ids of the objects in the model. Objects created by this decoder are added to these.
+     */
+    private final ObjectIds ids;
+
+    /**
+     * The classes in the class table.
+     */
+    private Class<?>[] classes;
+
+    /**
+     * Indexes of the classes in the class table.
+     */
+    private final Map<Class<?>, Integer> classIndexes = new HashMap<>();
+
+    /**
+     * The fields of each class in the class table, in the order they were written.
+     * An element is null if the field no longer exists.
+     */
+    private Field[][] classFields;
+
+    /**
+     * The type codes of the fields of each class in the class table, in the order they were written.
+     */
+    private char[][] classFieldTypes;
+
+    /**
+     * The string table.
+     */
+    private String[] strings;
+
+    /**
+     * The first object in the object table.
+     */
+    private Object firstObject;
+
+    /**
+     * The ids in the object table.
+     */
+    private int[] tableIds;
+
+    /**
+     * The objects in the object table, waiting to be added to the ids of the model.
+     */
+    private Object[] tableObjects;
+
+    /**
+     * The lowest id the model can give new objects once the objects in the table have been added.
+     */
+    private int tableNextId;
+
+    /**
+     * The canonical instance of each value read from the block, so that values are only interned once per block.
+     */
+    private final Map<Object, Object> canonicalValues = new HashMap<>();
+
+    /**
+     * Collections that still need to be filled, in the order they were read.
+     */
+    private final List<Runnable> linkUps = new ArrayList<>();
+
+    /**
+     * Creates a new decoder.
+     * @param objectIds the ids of the objects in the model.
+     */
+    ObjectDecoder(final ObjectIds objectIds) {
+        ids = objectIds;
+    }
+
+    /**
+     * Gets the first object in the object table of the block.
+     * @return the first object, or null if no objects were given an id in the block.
+     */
+    Object getFirstObject() {
+        return firstObject;
+    }
+
+    /**
+     * Reads the header of the block.
+     * @param in the input to read from.
+     * @throws IOException if the header is invalid.
+     */
+    void readHeader(final DataInput in) throws IOException {
+        readTables(in);
+        addObjects();
+    }
+
+    /**
+     * Reads the header of the block without adding the objects it creates to the ids of the model,
+     * which only reads the ids so can be done while other blocks are read.
+     * addObjects must be called before the objects of the block are read.
+     * @param in the input to read from.
+     * @throws IOException if the header is invalid.
+     */
+    void readTables(final DataInput in) throws IOException {
+        readClassTable(in);
+        readStringTable(in);
+        readObjectTable(in);
+    }
+
+    /**
+     * Adds the objects created by reading the header to the ids of the model.
+     */
+    void addObjects() {
+        ids.reserve(tableNextId);
+        for (int i = 0; i < tableIds.length; i++) {
+            if (ids.getObject(tableIds[i]) != tableObjects[i]) {
+                ids.put(tableIds[i], tableObjects[i]);
+            }
+        }
+        tableObjects = null;
+    }
+
+    /**
+     * Gets the ids of the objects that were given an id in the block, once the header has been read.
+     * @return the ids in the object table.
+     */
+    int[] getObjectIds() {
+        return tableIds;
+    }
+
+    /**
+     * Reads a list of objects.
+     * @param in the input to read from.
+     * @throws IOException if reading fails.
+     */
+    void readObjects(final DataInput in) throws IOException {
+        int count = BinaryFormat.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            readObject(in);
+        }
+    }
+
+    /**
+     * Reads a list of objects written with only some of their fields, leaving their other fields as they are.
+     * @param in the input to read from.
+     * @throws IOException if reading fails.
+     */
+    void readChangedObjects(final DataInput in) throws IOException {
+        int count = BinaryFormat.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            readChangedObject(in);
+        }
+    }
+
+    /**
+     * Fills the collections that were read. Must be called once every object has been read.
+     */
+    void finish() {
+        for (int i = linkUps.size() - 1; i >= 0; i--) {
+            linkUps.get(i).run();
+        }
+        linkUps.clear();
+    }
+
+    /**
+     * Reads the class table.
+     * @param in the input to read from.
+     * @throws IOException if a class no longer exists.
+     */
+    private void readClassTable(final DataInput in) throws IOException {
+        int count = BinaryFormat.readVarInt(in);
+        classes = new Class<?>[count];
+        classFields = new Field[count][];
+        classFieldTypes = new char[count][];
+        for (int i = 0; i < count; i++) {
+            String name = BinaryFormat.readString(in);
+            try {
+                classes[i] = Class.forName(name, false, ObjectDecoder.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException("Snapshot uses the unknown class " + name, e);
+            }
+            classIndexes.put(classes[i], i);
+
+            int fieldCount = BinaryFormat.readVarInt(in);
+            Map<String, Field> fields = null;
+            if (fieldCount > 0) {
+                fields = ClassLayout.of(classes[i]).getFields();
+            }
+            classFields[i] = new Field[fieldCount];
+            classFieldTypes[i] = new char[fieldCount];
+            for (int j = 0; j < fieldCount; j++) {
+                Field field = fields.get(BinaryFormat.readString(in));
+                char typeCode = (char) in.readUnsignedByte();
+                if (field != null && BinaryFormat.getFieldTypeCode(field.getType()) == typeCode) {
+                    classFields[i][j] = field;
+                }
+                classFieldTypes[i][j] = typeCode;
+            }
+        }
+    }
+
+    /**
+     * Reads the string table.
+     * @param in the input to read from.
+     * @throws IOException if reading fails.
+     */
+    private void readStringTable(final DataInput in) throws IOException {
+        strings = new String[BinaryFormat.readVarInt(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = InterningHelper.intern(BinaryFormat.readString(in));
+        }
+    }
+
+    /**
+     * Reads the object table, creating an empty instance of every object given an id in the block.
+     * Objects that already exist with the same id and class are reused. The objects are not added to the
+     * ids of the model until addObjects is called.
+     * @param in the input to read from.
+     * @throws IOException if an object could not be created.
+     */
+    private void readObjectTable(final DataInput in) throws IOException {
+        int count = BinaryFormat.readVarInt(in);
+        tableNextId = BinaryFormat.readVarInt(in);
+        tableIds = new int[count];
+        tableObjects = new Object[count];
+        for (int i = 0; i < count; i++) {
+            int id = BinaryFormat.readVarInt(in);
+            Class<?> clazz = classes[BinaryFormat.readVarInt(in)];
+            Object object = ids.getObject(id);
+            if (object == null || object.getClass() != clazz) {
+                try {
+                    object = ClassLayout.of(clazz).newInstance();
+                }
+                catch (ReflectiveOperationException e) {
+                    throw new IOException("Could not create an instance of " + clazz.getName(), e);
+                }
+            }
+            tableIds[i] = id;
+            tableObjects[i] = object;
+            if (i == 0) {
+                firstObject = object;
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of an object.
+     * @param in the input to read from.
+     * @throws IOException if reading fails.
+     */
+    private void readObject(final DataInput in) throws IOException {
+        int id = BinaryFormat.readVarInt(in);
+        Object object = getObject(id);
+        int classIndex = getClassIndex(id, object);
+        Field[] fields = classFields[classIndex];
+        char[] types = classFieldTypes[classIndex];
+        for (int j = 0; j < fields.length; j++) {
+            Object value = readField(in, types[j]);
+            if (fields[j] != null) {
+                setField(fields[j], object, value);
+            }
+        }
+    }
+
+    /**
+     * Reads some of the fields of an object, each of which is preceded by its index in the class table.
+     * @param in the input to read from.
+     * @throws IOException if reading fails.
+     */
+    private void readChangedObject(final DataInput in) throws IOException {
+        int id = BinaryFormat.readVarInt(in);
+        Object object = getObject(id);
+        int classIndex = getClassIndex(id, object);
+        Field[] fields = classFields[classIndex];
+        char[] types = classFieldTypes[classIndex];
+        int count = BinaryFormat.readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            int j = BinaryFormat.readVarInt(in);
+            if (j >= fields.length) {
+                throw new IOException("Object " + id + " does not have a field " + j + ".");
+            }
+            Object value = readField(in, types[j]);
+            if (fields[j] != null) {
+                setField(fields[j], object, value);
+            }
+        }
+    }
+
+    /**
+     * Gets an object in the model by its id.
+     * @param id the id of the object.
+     * @return the object.
+     * @throws IOException if there is no object with the id.
+     */
+    private Object getObject(final int id) throws IOException {
+        Object object = ids.getObject(id);
+        if (object == null) {
+            throw new IOException("Object " + id + " does not exist.");
+        }
+        return object;
+    }
+
+    /**
+     * Gets the index in the class table of the class of an object.
+     * @param id the id of the object.
+     * @param object the object.
+     * @return the index of its class.
+     * @throws IOException if the class is not in the class table.
+     */
+    private int getClassIndex(final int id, final Object object) throws IOException {
+        Integer classIndex = classIndexes.get(object.getClass());
+        if (classIndex == null) {
+            throw new IOException("Object " + id + " is not of a class in the class table.");
+        }
+        return classIndex;
+    }
+
+    /**
+     * Sets the value of a field.
+     * @param field the field.
+     * @param object the object to set the value on.
+     * @param value the value.
+     * @throws IOException if the value is not compatible with the field.
+     */
+    private static void setField(final Field field, final Object object, final Object value) throws IOException {
+        try {
+            field.set(object, value);
+        }
+        catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new IOException("Could not restore " + field.getDeclaringClass().getName() + "." + field.getName(), e);
+        }
+    }
+
+    /**
+     * Reads the value of a field.
+     * @param in the input to read from.
+     * @param typeCode the type code of the field.
+     * @return the value of the field.
+     * @throws IOException if reading fails.
+     */
+    private Object readField(final DataInput in, final char typeCode) throws IOException {
+        switch (typeCode) {
+            case 'Z':
+                return in.readBoolean();
+            case 'B':
+                return in.readByte();
+            case 'S':
+                return in.readShort();
+            case 'C':
+                return in.readChar();
+            case 'I':
+                return (int) BinaryFormat.readSignedVarLong(in);
+            case 'J':
+                return BinaryFormat.readSignedVarLong(in);
+            case 'F':
+                return in.readFloat();
+            case 'D':
+                return in.readDouble();
+            default:
+                return readValue(in);
+        }
+    }
+
+    /**
+     * Gets the canonical instance of a value read from the block, which is shared with the rest of the model.
+     * @param value the value.
+     * @return the canonical instance.
+     */
+    private Object canonical(final Object value) {
+        Object canonical = canonicalValues.get(value);
+        if (canonical == null) {
+            canonical = InterningHelper.intern(value);
+            canonicalValues.put(value, canonical);
+        }
+        return canonical;
+    }
+
+    /**
+     * Reads a tagged value.
+     * @param in the input to read from.
+     * @return the value.
+     * @throws IOException if reading fails or the value is malformed.
+     */
+    @SuppressWarnings("unchecked")
+    private Object readValue(final DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case BinaryFormat.TAG_NULL:
+                return null;
+            case BinaryFormat.TAG_TRUE:
+                return Boolean.TRUE;
+            case BinaryFormat.TAG_FALSE:
+                return Boolean.FALSE;
+            case BinaryFormat.TAG_INT:
+                return canonical((int) BinaryFormat.readSignedVarLong(in));
+            case BinaryFormat.TAG_LONG:
+                return canonical(BinaryFormat.readSignedVarLong(in));
+            case BinaryFormat.TAG_FLOAT:
+                return canonical(in.readFloat());
+            case BinaryFormat.TAG_DOUBLE:
+                return canonical(in.readDouble());
+            case BinaryFormat.TAG_STRING:
+                return strings[BinaryFormat.readVarInt(in)];
+            case BinaryFormat.TAG_DATE:
+                return canonical(LocalDate.ofEpochDay(BinaryFormat.readSignedVarLong(in)));
+            case BinaryFormat.TAG_ENUM:
+                Class enumClass = classes[BinaryFormat.readVarInt(in)];
+                return Enum.valueOf(enumClass, strings[BinaryFormat.readVarInt(in)]);
+            case BinaryFormat.TAG_REFERENCE:
+                int id = BinaryFormat.readVarInt(in);
+                Object reference = ids.getObject(id);
+                if (reference == null) {
+                    throw new IOException("Reference to object " + id + " which does not exist.");
+                }
+                return reference;
+            case BinaryFormat.TAG_COLLECTION:
+                Collection<Object> collection = (Collection<Object>) newContainer(classes[BinaryFormat.readVarInt(in)]);
+                Object[] elements = new Object[BinaryFormat.readVarInt(in)];
+                for (int i = 0; i < elements.length; i++) {
+                    elements[i] = readValue(in);
+                }
+                linkUps.add(() -> {
+                    for (Object element : elements) {
+                        collection.add(element);
+                    }
+                });
+                return collection;
+            case BinaryFormat.TAG_MAP:
+                Map<Object, Object> map = (Map<Object, Object>) newContainer(classes[BinaryFormat.readVarInt(in)]);
+                Object[] entries = new Object[BinaryFormat.readVarInt(in) * 2];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = readValue(in);
+                }
+                linkUps.add(() -> {
+                    for (int i = 0; i < entries.length; i += 2) {
+                        map.put(entries[i], entries[i + 1]);
+                    }
+                });
+                return map;
+            case BinaryFormat.TAG_SERIALIZED:
+                byte[] bytes = new byte[BinaryFormat.readVarInt(in)];
+                in.readFully(bytes);
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return objectIn.readObject();
+                }
+                catch (ClassNotFoundException e) {
+                    throw new IOException("Snapshot contains a value of an unknown class.", e);
+                }
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Creates a new empty collection or map.
+     * @param clazz the class of the collection or map.
+     * @return the new collection or map.
+     * @throws IOException if it could not be created.
+     */
+    private static Object newContainer(final Class<?> clazz) throws IOException {
+        try {
+            return clazz.getConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IOException("Could not create an instance of " + clazz.getName(), e);
+        }
+    }
+}
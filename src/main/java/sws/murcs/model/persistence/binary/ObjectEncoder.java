@@ -0,0 +1,498 @@
+package sws.murcs.model.persistence.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes objects for a block of the binary format (a snapshot or a journal entry).
+ * A block starts with a header containing the class table, string table and the objects that
+ * were given an id in the block, followed by the fields of the objects written in the block.
+ * As the header can only be written once every object has been encoded, objects should be written
+ * to a buffer first.
+ */
+final class ObjectEncoder {
+
+    /**
+     * Ids of the objects in the model.
+     */
+    private final ObjectIds ids;
+
+    /**
+     * Ids to reuse for objects that do not have an id yet, may be null.
+     */
+    private final ObjectIds preferredIds;
+
+    /**
+     * Objects that were given an id by this encoder.
+     */
+    private final List<Object> newObjects = new ArrayList<>();
+
+    /**
+     * Indexes of the classes in the class table.
+     */
+    private final Map<Class<?>, Integer> classIndexes = new HashMap<>();
+
+    /**
+     * The class table.
+     */
+    private final List<Class<?>> classes = new ArrayList<>();
+
+    /**
+     * Indexes of the strings in the string table.
+     */
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    /**
+     * The string table.
+     */
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * Frozen model to read the values of fields from, null to read them from the objects.
+     */
+    private FrozenModel frozenModel;
+
+    /**
+     * Ids of the objects referenced by the objects written so far.
+     */
+    private final BitSet referencedIds = new BitSet();
+
+    /**
+     * Creates a new encoder.
+     * @param objectIds the ids of the objects in the model. New objects are added to these.
+     * @param preferred ids to give new objects where possible, may be null.
+     */
+    ObjectEncoder(final ObjectIds objectIds, final ObjectIds preferred) {
+        ids = objectIds;
+        preferredIds = preferred;
+        if (preferred != null) {
+            ids.reserve(preferred.getNextId());
+        }
+    }
+
+    /**
+     * Sets a frozen model to read the values of fields from, instead of reading them from the objects.
+     * @param frozen the frozen model, or null to read the objects.
+     */
+    void setFrozenModel(final FrozenModel frozen) {
+        frozenModel = frozen;
+    }
+
+    /**
+     * Gives an object an id, if it does not already have one.
+     * @param object the object.
+     * @return true if the object was given a new id.
+     */
+    boolean define(final Object object) {
+        if (ids.getId(object) >= 0) {
+            return false;
+        }
+        int id = -1;
+        if (preferredIds != null) {
+            id = preferredIds.getId(object);
+        }
+        if (id < 0) {
+            ids.add(object);
+        }
+        else {
+            ids.put(id, object);
+        }
+        newObjects.add(object);
+        getClassIndex(object.getClass());
+        return true;
+    }
+
+    /**
+     * Gives any objects referenced by the fields of an object that do not have an id yet an id.
+     * @param object the object to search.
+     * @param found list to add the objects that were given an id to.
+     */
+    void discoverFields(final Object object, final List<Object> found) {
+        Field[] fields = ClassLayout.of(object.getClass()).getFieldArray();
+        Object[] frozen = getFrozenValues(object);
+        for (int i = 0; i < fields.length; i++) {
+            discover(getValue(fields, frozen, i, object), found);
+        }
+    }
+
+    /**
+     * Gives any objects referenced by a value that do not have an id yet an id.
+     * @param value the value to search.
+     * @param found list to add the objects that were given an id to.
+     */
+    private void discover(final Object value, final List<Object> found) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof FrozenModel.Container) {
+            for (Object element : ((FrozenModel.Container) value).getElements()) {
+                discover(element, found);
+            }
+        }
+        else if (ClassLayout.isObject(value.getClass())) {
+            if (define(value)) {
+                found.add(value);
+            }
+        }
+        else if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                discover(element, found);
+            }
+        }
+        else if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                discover(entry.getKey(), found);
+                discover(entry.getValue(), found);
+            }
+        }
+    }
+
+    /**
+     * Writes the id and fields of an object.
+     * @param out the output to write to.
+     * @param object the object, which must have an id.
+     * @throws IOException if the object could not be encoded.
+     */
+    void writeObject(final DataOutput out, final Object object) throws IOException {
+        BinaryFormat.writeVarInt(out, ids.getId(object));
+        getClassIndex(object.getClass());
+        Field[] fields = ClassLayout.of(object.getClass()).getFieldArray();
+        Object[] frozen = getFrozenValues(object);
+        for (int i = 0; i < fields.length; i++) {
+            writeField(out, fields[i].getType(), getValue(fields, frozen, i, object));
+        }
+    }
+
+    /**
+     * Writes the id of an object and some of its fields, each preceded by its index in the class table.
+     * @param out the output to write to.
+     * @param object the object, which must have an id.
+     * @param names the names of the fields to write, or null to write every field. Fields that are not persisted
+     *              are ignored.
+     * @throws IOException if the object could not be encoded.
+     */
+    void writeFields(final DataOutput out, final Object object, final Collection<String> names) throws IOException {
+        BinaryFormat.writeVarInt(out, ids.getId(object));
+        getClassIndex(object.getClass());
+        ClassLayout layout = ClassLayout.of(object.getClass());
+        Field[] fields = layout.getFieldArray();
+        List<Integer> indexes = new ArrayList<>();
+        if (names == null) {
+            for (int i = 0; i < fields.length; i++) {
+                indexes.add(i);
+            }
+        }
+        else {
+            for (String name : names) {
+                int index = layout.indexOf(name);
+                if (index >= 0) {
+                    indexes.add(index);
+                }
+            }
+        }
+        Object[] frozen = getFrozenValues(object);
+        BinaryFormat.writeVarInt(out, indexes.size());
+        for (int index : indexes) {
+            BinaryFormat.writeVarInt(out, index);
+            writeField(out, fields[index].getType(), getValue(fields, frozen, index, object));
+        }
+    }
+
+    /**
+     * Gets the value of a persisted field of an object, from the frozen model if one is being written.
+     * @param object the object.
+     * @param name the name of the field.
+     * @return the value of the field, or null if the object does not persist a field with that name.
+     */
+    Object getValue(final Object object, final String name) {
+        ClassLayout layout = ClassLayout.of(object.getClass());
+        int index = layout.indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+        return getValue(layout.getFieldArray(), getFrozenValues(object), index, object);
+    }
+
+    /**
+     * Gets the ids of the objects referenced by the objects written so far.
+     * @return the referenced ids.
+     */
+    BitSet getReferencedIds() {
+        return referencedIds;
+    }
+
+    /**
+     * Writes the header of the block, which contains the class table, string table and object table.
+     * @param out the output to write to.
+     * @throws IOException if writing fails.
+     */
+    void writeHeader(final DataOutput out) throws IOException {
+        writeClassTable(out);
+        writeStringTable(out);
+        writeObjectTable(out);
+    }
+
+    /**
+     * Writes the class table, which contains the names of all classes used and the fields persisted for them.
+     * @param out the output to write to.
+     * @throws IOException if writing fails.
+     */
+    private void writeClassTable(final DataOutput out) throws IOException {
+        BinaryFormat.writeVarInt(out, classes.size());
+        for (Class<?> clazz : classes) {
+            BinaryFormat.writeString(out, clazz.getName());
+            if (ClassLayout.isObject(clazz)) {
+                Map<String, Field> fields = ClassLayout.of(clazz).getFields();
+                BinaryFormat.writeVarInt(out, fields.size());
+                for (Map.Entry<String, Field> field : fields.entrySet()) {
+                    BinaryFormat.writeString(out, field.getKey());
+                    out.writeByte(BinaryFormat.getFieldTypeCode(field.getValue().getType()));
+                }
+            }
+            else {
+                BinaryFormat.writeVarInt(out, 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the string table.
+     * @param out the output to write to.
+     * @throws IOException if writing fails.
+     */
+    private void writeStringTable(final DataOutput out) throws IOException {
+        BinaryFormat.writeVarInt(out, strings.size());
+        for (String string : strings) {
+            BinaryFormat.writeString(out, string);
+        }
+    }
+
+    /**
+     * Writes the object table, which contains the id and class of every object that was given an id in this block.
+     * @param out the output to write to.
+     * @throws IOException if writing fails.
+     */
+    private void writeObjectTable(final DataOutput out) throws IOException {
+        BinaryFormat.writeVarInt(out, newObjects.size());
+        BinaryFormat.writeVarInt(out, ids.getNextId());
+        for (Object object : newObjects) {
+            BinaryFormat.writeVarInt(out, ids.getId(object));
+            BinaryFormat.writeVarInt(out, classIndexes.get(object.getClass()));
+        }
+    }
+
+    /**
+     * Gets the index of a class in the class table, adding it if it is not already there.
+     * @param clazz the class.
+     * @return the index of the class.
+     */
+    private int getClassIndex(final Class<?> clazz) {
+        Integer index = classIndexes.get(clazz);
+        if (index == null) {
+            index = classes.size();
+            classes.add(clazz);
+            classIndexes.put(clazz, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the index of a string in the string table, adding it if it is not already there.
+     * @param string the string.
+     * @return the index of the string.
+     */
+    private int getStringIndex(final String string) {
+        Integer index = stringIndexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndexes.put(string, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the frozen values of the fields of an object, if a frozen model is being written.
+     * @param object the object.
+     * @return the frozen values, or null if the values should be read from the object.
+     */
+    private Object[] getFrozenValues(final Object object) {
+        if (frozenModel == null) {
+            return null;
+        }
+        Object[] frozen = frozenModel.getValues(object);
+        if (frozen == null) {
+            throw new IllegalStateException("Object " + object + " was not part of the frozen model.");
+        }
+        return frozen;
+    }
+
+    /**
+     * Gets the value of a field, from the frozen values if there are any.
+     * @param fields the persisted fields of the object.
+     * @param frozen the frozen values of the fields, may be null.
+     * @param index the index of the field.
+     * @param object the object to get the value from if there are no frozen values.
+     * @return the value of the field.
+     */
+    private static Object getValue(final Field[] fields, final Object[] frozen, final int index, final Object object) {
+        if (frozen != null) {
+            return frozen[index];
+        }
+        return ClassLayout.getFieldValue(fields[index], object);
+    }
+
+    /**
+     * Writes the value of a field. Primitive fields are written without a tag.
+     * @param out the output to write to.
+     * @param type the type of the field.
+     * @param value the value of the field.
+     * @throws IOException if writing fails.
+     */
+    private void writeField(final DataOutput out, final Class<?> type, final Object value) throws IOException {
+        switch (BinaryFormat.getFieldTypeCode(type)) {
+            case 'Z':
+                out.writeBoolean((Boolean) value);
+                break;
+            case 'B':
+                out.writeByte((Byte) value);
+                break;
+            case 'S':
+                out.writeShort((Short) value);
+                break;
+            case 'C':
+                out.writeChar((Character) value);
+                break;
+            case 'I':
+                BinaryFormat.writeSignedVarLong(out, (Integer) value);
+                break;
+            case 'J':
+                BinaryFormat.writeSignedVarLong(out, (Long) value);
+                break;
+            case 'F':
+                out.writeFloat((Float) value);
+                break;
+            case 'D':
+                out.writeDouble((Double) value);
+                break;
+            default:
+                writeValue(out, value);
+                break;
+        }
+    }
+
+    /**
+     * Writes a tagged value.
+     * @param out the output to write to.
+     * @param value the value to write.
+     * @throws IOException if writing fails or the value cannot be persisted.
+     */
+    private void writeValue(final DataOutput out, final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(BinaryFormat.TAG_NULL);
+        }
+        else if (Boolean.TRUE.equals(value)) {
+            out.writeByte(BinaryFormat.TAG_TRUE);
+        }
+        else if (Boolean.FALSE.equals(value)) {
+            out.writeByte(BinaryFormat.TAG_FALSE);
+        }
+        else if (value instanceof Integer) {
+            out.writeByte(BinaryFormat.TAG_INT);
+            BinaryFormat.writeSignedVarLong(out, (Integer) value);
+        }
+        else if (value instanceof Long) {
+            out.writeByte(BinaryFormat.TAG_LONG);
+            BinaryFormat.writeSignedVarLong(out, (Long) value);
+        }
+        else if (value instanceof Float) {
+            out.writeByte(BinaryFormat.TAG_FLOAT);
+            out.writeFloat((Float) value);
+        }
+        else if (value instanceof Double) {
+            out.writeByte(BinaryFormat.TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        }
+        else if (value instanceof String) {
+            out.writeByte(BinaryFormat.TAG_STRING);
+            BinaryFormat.writeVarInt(out, getStringIndex((String) value));
+        }
+        else if (value instanceof LocalDate) {
+            out.writeByte(BinaryFormat.TAG_DATE);
+            BinaryFormat.writeSignedVarLong(out, ((LocalDate) value).toEpochDay());
+        }
+        else if (value instanceof Enum) {
+            out.writeByte(BinaryFormat.TAG_ENUM);
+            BinaryFormat.writeVarInt(out, getClassIndex(((Enum<?>) value).getDeclaringClass()));
+            BinaryFormat.writeVarInt(out, getStringIndex(((Enum<?>) value).name()));
+        }
+        else if (value instanceof FrozenModel.Container) {
+            FrozenModel.Container container = (FrozenModel.Container) value;
+            Object[] elements = container.getElements();
+            if (container.isMap()) {
+                out.writeByte(BinaryFormat.TAG_MAP);
+                BinaryFormat.writeVarInt(out, getClassIndex(container.getType()));
+                BinaryFormat.writeVarInt(out, elements.length / 2);
+            }
+            else {
+                out.writeByte(BinaryFormat.TAG_COLLECTION);
+                BinaryFormat.writeVarInt(out, getClassIndex(container.getType()));
+                BinaryFormat.writeVarInt(out, elements.length);
+            }
+            for (Object element : elements) {
+                writeValue(out, element);
+            }
+        }
+        else if (ClassLayout.isObject(value.getClass())) {
+            int id = ids.getId(value);
+            if (id < 0) {
+                throw new IOException("Object " + value + " was not found while assigning ids.");
+            }
+            out.writeByte(BinaryFormat.TAG_REFERENCE);
+            BinaryFormat.writeVarInt(out, id);
+            referencedIds.set(id);
+        }
+        else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            out.writeByte(BinaryFormat.TAG_COLLECTION);
+            BinaryFormat.writeVarInt(out, getClassIndex(ClassLayout.getCollectionClass(collection)));
+            BinaryFormat.writeVarInt(out, collection.size());
+            for (Object element : collection) {
+                writeValue(out, element);
+            }
+        }
+        else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(BinaryFormat.TAG_MAP);
+            BinaryFormat.writeVarInt(out, getClassIndex(ClassLayout.getMapClass(map)));
+            BinaryFormat.writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+        else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(value);
+            }
+            out.writeByte(BinaryFormat.TAG_SERIALIZED);
+            BinaryFormat.writeVarInt(out, bytes.size());
+            out.write(bytes.toByteArray());
+        }
+        else {
+            throw new IOException("Values of type " + value.getClass().getName() + " cannot be persisted.");
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package sws.murcs.model.persistence.binary;
+
+import sws.murcs.magic.tracking.StableIds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the ids given to objects in a snapshot.
+ * Ids are stable, an object keeps the same id for as long as it is part of the model so that later
+ * changes (e.g. in a journal) can refer to it. Ids are never reused.
+ * This class is not thread safe.
+ */
+public final class ObjectIds implements StableIds {
+
+    /**
+     * Ids of the objects, keyed by the object.
+     */
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+
+    /**
+     * Objects, indexed by their id. Elements are null for ids that are not in use.
+     */
+    private final List<Object> objects = new ArrayList<>();
+
+    /**
+     * Creates a new, empty set of ids.
+     */
+    public ObjectIds() {
+    }
+
+    /**
+     * Gets the id of an object.
+     * @param object the object.
+     * @return the id of the object, or -1 if it does not have one.
+     */
+    @Override
+    public int getId(final Object object) {
+        Integer id = ids.get(object);
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    /**
+     * Gets the object with an id.
+     * @param id the id.
+     * @return the object, or null if no object has the id.
+     */
+    @Override
+    public Object getObject(final int id) {
+        if (id < 0 || id >= objects.size()) {
+            return null;
+        }
+        return objects.get(id);
+    }
+
+    /**
+     * Gets the number of objects that have an id.
+     * @return the number of objects.
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Gets the id that will be given to the next new object. All ids in use are lower than this.
+     * @return the next id.
+     */
+    public int getNextId() {
+        return objects.size();
+    }
+
+    /**
+     * Gives an object a new id.
+     * @param object the object, which must not already have an id.
+     * @return the new id.
+     */
+    int add(final Object object) {
+        int id = objects.size();
+        ids.put(object, id);
+        objects.add(object);
+        return id;
+    }
+
+    /**
+     * Gives an object a specific id.
+     * @param id the id.
+     * @param object the object.
+     */
+    void put(final int id, final Object object) {
+        reserve(id + 1);
+        Object previous = objects.set(id, object);
+        if (previous != null) {
+            ids.remove(previous);
+        }
+        ids.put(object, id);
+    }
+
+    /**
+     * Makes sure no new object will be given an id lower than the one specified.
+     * @param nextId the lowest id new objects can be given.
+     */
+    void reserve(final int nextId) {
+        while (objects.size() < nextId) {
+            objects.add(null);
+        }
+    }
+
+    /**
+     * Removes the ids of objects that were not kept in a newer snapshot.
+     * Ids that were given out after the snapshot was started are kept.
+     * @param kept the ids of the objects in the newer snapshot.
+     * @return the objects whose ids were removed, keyed by the id they had.
+     */
+    public Map<Integer, Object> removeMissing(final ObjectIds kept) {
+        Map<Integer, Object> removed = new HashMap<>();
+        int limit = Math.min(kept.getNextId(), objects.size());
+        for (int id = 0; id < limit; id++) {
+            Object object = objects.get(id);
+            if (object != null && kept.getObject(id) == null) {
+                objects.set(id, null);
+                ids.remove(object);
+                removed.put(id, object);
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,691 @@
+package sws.murcs.model.persistence.binary;
+
+import sws.murcs.model.ModelType;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.OrganisationLoader;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * An organisation read from a binary snapshot, where each section is only decoded the first time it is needed.
+ * Opening a snapshot only reads its index (the ids, classes and short names of the models in each section)
+ * and the organisation itself, so the time it takes does not depend on the size of the organisation.
+ * Until a section is loaded the list of its models in the organisation is empty. The section is loaded when
+ * the list is asked for, along with any sections its objects refer to, so the loaded part of the organisation
+ * never refers to objects that have not been read.
+ * When several sections are loaded at once (e.g. when the whole organisation is needed) they are decoded
+ * in parallel, as every section has its own string and object tables and refers to the models of other
+ * sections by their id.
+ * Snapshots from before sections could be loaded separately are read in full when they are opened.
+ * A sharded project is loaded in the same way, except that each section is read from its own file and
+ * each story from a file of its own.
+ */
+public final class PartialSnapshot implements OrganisationLoader {
+
+    /**
+     * Ids of the objects in the snapshot. Objects are added as their section is loaded.
+     */
+    private final ObjectIds ids = new ObjectIds();
+
+    /**
+     * The shards each section is stored in.
+     */
+    private final Map<SnapshotSection, List<Shard>> sections = new EnumMap<>(SnapshotSection.class);
+
+    /**
+     * The sections the objects in each section refer to, as masks of section ordinals.
+     */
+    private final Map<SnapshotSection, Integer> dependencies = new EnumMap<>(SnapshotSection.class);
+
+    /**
+     * The sections that have been loaded.
+     */
+    private final Set<SnapshotSection> loaded = EnumSet.noneOf(SnapshotSection.class);
+
+    /**
+     * The directory the shards are stored in, null if the snapshot is a single file.
+     */
+    private File directory;
+
+    /**
+     * Stamp identifying the snapshot. In a sharded project this counts the times the project has been saved.
+     */
+    private long stamp;
+
+    /**
+     * The organisation read from the snapshot.
+     */
+    private Organisation organisation;
+
+    /**
+     * Object held while a section is loaded.
+     */
+    private Object lock = this;
+
+    /**
+     * Told the model types whose models have just been loaded, may be null.
+     */
+    private Consumer<Set<ModelType>> loadListener;
+
+    /**
+     * Private constructor, snapshots are opened using open or read.
+     */
+    private PartialSnapshot() {
+    }
+
+    /**
+     * Opens a snapshot file. The file is memory mapped, so only the parts of it that are loaded are read.
+     * The file should not be changed while any of it has still to be loaded.
+     * @param file the file to open.
+     * @return the opened snapshot.
+     * @throws IOException if the file is not a valid snapshot.
+     */
+    public static PartialSnapshot open(final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads a snapshot from a buffer. The buffer must not be changed while any of it has still to be loaded.
+     * @param source the buffer containing the snapshot, from its position to its limit.
+     * @return the snapshot.
+     * @throws IOException if the buffer does not contain a valid snapshot.
+     */
+    public static PartialSnapshot read(final ByteBuffer source) throws IOException {
+        PartialSnapshot snapshot = new PartialSnapshot();
+        ByteBuffer view = source.duplicate();
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(view));
+        if (in.readInt() != BinaryFormat.MAGIC) {
+            throw new IOException("Not a binary snapshot.");
+        }
+        short version = in.readShort();
+        if (version > BinaryFormat.VERSION) {
+            throw new IOException("Snapshot version " + version + " is newer than this version of the application.");
+        }
+        snapshot.stamp = in.readLong();
+        if (version < BinaryFormat.VERSION) {
+            snapshot.readUnsectioned(in);
+        }
+        else {
+            snapshot.readIndex(in, view);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Opens a sharded project. Only the index and the organisation are read, the shard files of
+     * each section are memory mapped and read when the section is loaded.
+     * @param projectDirectory the directory containing the project.
+     * @return the opened project.
+     * @throws IOException if the directory does not contain a valid project.
+     */
+    static PartialSnapshot openDirectory(final File projectDirectory) throws IOException {
+        PartialSnapshot snapshot = new PartialSnapshot();
+        snapshot.directory = projectDirectory;
+        File index = new File(projectDirectory, ShardedProject.INDEX_FILE_NAME);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(index.toPath())));
+        if (in.readInt() != BinaryFormat.INDEX_MAGIC) {
+            throw new IOException("Not the index of a sharded project.");
+        }
+        short version = in.readShort();
+        if (version > BinaryFormat.VERSION) {
+            throw new IOException("Project version " + version + " is newer than this version of the application.");
+        }
+        snapshot.stamp = in.readLong();
+        snapshot.readShardIndex(in);
+        return snapshot;
+    }
+
+    /**
+     * Creates a snapshot of an organisation that is already in memory, with every section loaded,
+     * so that it can be written as a sharded project.
+     * @param organisation the organisation, which must be fully loaded.
+     * @return the snapshot.
+     */
+    static PartialSnapshot of(final Organisation organisation) {
+        PartialSnapshot snapshot = new PartialSnapshot();
+        snapshot.organisation = organisation;
+        snapshot.loaded.addAll(EnumSet.allOf(SnapshotSection.class));
+        return snapshot;
+    }
+
+    /**
+     * Gets the organisation read from the snapshot. Sections that have not been loaded are loaded
+     * when the organisation's list of their models is asked for.
+     * @return the organisation.
+     */
+    public Organisation getOrganisation() {
+        return organisation;
+    }
+
+    /**
+     * Gets the ids of the objects in the snapshot. Objects are added as their section is loaded,
+     * and objects that are added to the organisation are never given an id that is in the snapshot.
+     * @return the ids of the objects.
+     */
+    public ObjectIds getIds() {
+        return ids;
+    }
+
+    /**
+     * Gets the stamp identifying the snapshot.
+     * @return the stamp.
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Gets the short names of the models of a type, without loading them.
+     * @param type the model type.
+     * @return the short names of the models in the snapshot, in the order they are stored.
+     */
+    public List<String> getShortNames(final ModelType type) {
+        List<Shard> shards = sections.get(SnapshotSection.fromModelType(type));
+        if (shards == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        for (Shard shard : shards) {
+            for (String name : shard.getShortNames()) {
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Sets the object held while a section is loaded. Loading adds to the ids of the snapshot, so when they are
+     * shared (e.g. with a journal) this should be the object held while they are used.
+     * @param loadLock the object to hold.
+     */
+    public void setLock(final Object loadLock) {
+        lock = loadLock;
+    }
+
+    /**
+     * Sets a listener that is told the model types whose models have just been loaded, once they have been
+     * added to the organisation. It is called on the thread that asked for the models.
+     * @param listener the listener, or null for none.
+     */
+    public void setLoadListener(final Consumer<Set<ModelType>> listener) {
+        loadListener = listener;
+    }
+
+    /**
+     * Gets the object held while a section is loaded.
+     * @return the object held.
+     */
+    Object getLock() {
+        return lock;
+    }
+
+    /**
+     * Checks if a section has been loaded. The lock must be held.
+     * @param section the section.
+     * @return true if the section has been loaded.
+     */
+    boolean isLoaded(final SnapshotSection section) {
+        return loaded.contains(section);
+    }
+
+    /**
+     * Gets the shards each section is stored in. The shards of sections that have been loaded
+     * are replaced when a sharded project is saved, and the lock must be held while they are used.
+     * @return the shards of each section.
+     */
+    Map<SnapshotSection, List<Shard>> getSections() {
+        return sections;
+    }
+
+    /**
+     * Sets the stamp identifying the snapshot.
+     * @param newStamp the stamp.
+     */
+    void setStamp(final long newStamp) {
+        stamp = newStamp;
+    }
+
+    @Override
+    public boolean isLoaded(final Class<?> type) {
+        synchronized (lock) {
+            return loaded.contains(SnapshotSection.fromRootType(type));
+        }
+    }
+
+    @Override
+    public void load(final Class<?> type) {
+        SnapshotSection requested = SnapshotSection.fromRootType(type);
+        Set<SnapshotSection> toLoad = EnumSet.noneOf(SnapshotSection.class);
+        synchronized (lock) {
+            addUnloaded(requested, toLoad);
+            load(toLoad);
+        }
+        notifyLoaded(toLoad);
+    }
+
+    @Override
+    public void loadAll() {
+        Set<SnapshotSection> toLoad = EnumSet.noneOf(SnapshotSection.class);
+        synchronized (lock) {
+            for (SnapshotSection section : SnapshotSection.values()) {
+                addUnloaded(section, toLoad);
+            }
+            load(toLoad);
+        }
+        notifyLoaded(toLoad);
+    }
+
+    /**
+     * Reads a snapshot written before sections could be loaded separately, which has to be read in full.
+     * @param in the input to read from, positioned after the stamp.
+     * @throws IOException if the snapshot is invalid.
+     */
+    private void readUnsectioned(final DataInputStream in) throws IOException {
+        ObjectDecoder decoder = new ObjectDecoder(ids);
+        decoder.readHeader(in);
+        int sectionCount = BinaryFormat.readVarInt(in);
+        for (int i = 0; i < sectionCount; i++) {
+            in.readUnsignedByte();
+            in.readInt();
+            decoder.readObjects(in);
+        }
+        decoder.finish();
+        organisation = asOrganisation(decoder.getFirstObject());
+        loaded.addAll(EnumSet.allOf(SnapshotSection.class));
+    }
+
+    /**
+     * Reads the index of the snapshot and the organisation. An empty instance of every model in the
+     * index is created, so that objects in the sections that are loaded can refer to them.
+     * @param in the input to read from, positioned after the stamp.
+     * @param view the buffer being read by the input.
+     * @throws IOException if the snapshot is invalid.
+     */
+    private void readIndex(final DataInputStream in, final ByteBuffer view) throws IOException {
+        ids.reserve(BinaryFormat.readVarInt(in));
+        Class<?>[] classes = readClasses(in);
+        int sectionCount = BinaryFormat.readVarInt(in);
+        Shard[] shards = new Shard[sectionCount];
+        int[] lengths = new int[sectionCount];
+        for (int i = 0; i < sectionCount; i++) {
+            SnapshotSection section = readSection(in);
+            lengths[i] = in.readInt();
+            int sectionDependencies = BinaryFormat.readVarInt(in);
+            shards[i] = readShard(in, classes, section.name(), sectionDependencies, null);
+            sections.put(section, Collections.singletonList(shards[i]));
+            dependencies.put(section, sectionDependencies);
+        }
+
+        // the sections follow the index, in the order they are listed
+        ByteBuffer blocks = view.slice();
+        int offset = 0;
+        for (int i = 0; i < sectionCount; i++) {
+            if (offset + lengths[i] > blocks.limit()) {
+                throw new IOException("The snapshot is incomplete.");
+            }
+            ByteBuffer block = blocks.duplicate();
+            block.position(offset);
+            block.limit(offset + lengths[i]);
+            shards[i].setBlock(block.slice());
+            offset += lengths[i];
+        }
+        readOrganisation();
+    }
+
+    /**
+     * Reads the index of a sharded project, which lists the shards of each section, and the organisation.
+     * An empty instance of every model in the index is created, as for a snapshot.
+     * @param in the input to read from, positioned after the stamp.
+     * @throws IOException if the project is invalid.
+     */
+    private void readShardIndex(final DataInputStream in) throws IOException {
+        ids.reserve(BinaryFormat.readVarInt(in));
+        Class<?>[] classes = readClasses(in);
+        int sectionCount = BinaryFormat.readVarInt(in);
+        for (int i = 0; i < sectionCount; i++) {
+            SnapshotSection section = readSection(in);
+            int sectionDependencies = BinaryFormat.readVarInt(in);
+            List<Shard> shards = new ArrayList<>();
+            int shardCount = BinaryFormat.readVarInt(in);
+            for (int j = 0; j < shardCount; j++) {
+                String key = BinaryFormat.readString(in);
+                String fileName = BinaryFormat.readString(in);
+                shards.add(readShard(in, classes, key, sectionDependencies, fileName));
+            }
+            sections.put(section, shards);
+            dependencies.put(section, sectionDependencies);
+        }
+        readOrganisation();
+    }
+
+    /**
+     * Reads the class table of an index.
+     * @param in the input to read from.
+     * @return the classes of the models in the index.
+     * @throws IOException if a class is unknown.
+     */
+    private static Class<?>[] readClasses(final DataInputStream in) throws IOException {
+        Class<?>[] classes = new Class<?>[BinaryFormat.readVarInt(in)];
+        for (int i = 0; i < classes.length; i++) {
+            String name = BinaryFormat.readString(in);
+            try {
+                classes[i] = Class.forName(name, false, PartialSnapshot.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException("Snapshot uses the unknown class " + name, e);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Reads the ordinal of a section.
+     * @param in the input to read from.
+     * @return the section.
+     * @throws IOException if the section is unknown.
+     */
+    private static SnapshotSection readSection(final DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= SnapshotSection.values().length) {
+            throw new IOException("Snapshot contains the unknown section " + ordinal);
+        }
+        return SnapshotSection.values()[ordinal];
+    }
+
+    /**
+     * Reads the roots of a shard from the index, creating an empty instance of each of them.
+     * @param in the input to read from.
+     * @param classes the classes of the models in the index.
+     * @param key the key of the shard.
+     * @param shardDependencies the sections the objects in the shard refer to.
+     * @param fileName the file the shard is stored in, null if it is part of the snapshot.
+     * @return the shard.
+     * @throws IOException if the index is invalid.
+     */
+    private Shard readShard(final DataInputStream in, final Class<?>[] classes, final String key,
+                            final int shardDependencies, final String fileName) throws IOException {
+        Object[] roots = new Object[BinaryFormat.readVarInt(in)];
+        String[] names = new String[roots.length];
+        for (int j = 0; j < roots.length; j++) {
+            int id = BinaryFormat.readVarInt(in);
+            Class<?> clazz = classes[BinaryFormat.readVarInt(in)];
+            try {
+                roots[j] = ClassLayout.of(clazz).newInstance();
+            }
+            catch (ReflectiveOperationException e) {
+                throw new IOException("Could not create an instance of " + clazz.getName(), e);
+            }
+            ids.put(id, roots[j]);
+            if (in.readBoolean()) {
+                names[j] = BinaryFormat.readString(in);
+            }
+        }
+        return new Shard(key, roots, names, shardDependencies, fileName);
+    }
+
+    /**
+     * Reads the organisation once the index has been read, and empties its lists of the models in sections
+     * that are not loaded yet. They are filled as each section is loaded.
+     * @throws IOException if the organisation is invalid.
+     */
+    private void readOrganisation() throws IOException {
+        for (SnapshotSection section : SnapshotSection.values()) {
+            if (getRoots(section).isEmpty()) {
+                loaded.add(section);
+                for (Shard shard : sections.getOrDefault(section, Collections.emptyList())) {
+                    shard.setBlock(null);
+                    shard.setObjectIds(new int[0]);
+                }
+            }
+        }
+        List<Shard> organisationShards = sections.get(SnapshotSection.Organisation);
+        if (organisationShards == null || organisationShards.size() != 1) {
+            throw new IOException("Snapshot does not contain an organisation.");
+        }
+
+        // the organisation's lists refer to every model, so its section is always loaded
+        loaded.add(SnapshotSection.Organisation);
+        Shard shard = organisationShards.get(0);
+        DataInputStream in = openShard(shard);
+        ObjectDecoder decoder = new ObjectDecoder(ids);
+        decoder.readHeader(in);
+        decoder.readObjects(in);
+        decoder.finish();
+        loadedShard(shard, decoder);
+        organisation = asOrganisation(decoder.getFirstObject());
+        for (SnapshotSection section : SnapshotSection.values()) {
+            if (!loaded.contains(section)) {
+                section.getRoots(organisation).clear();
+            }
+        }
+        if (loaded.size() < SnapshotSection.values().length) {
+            organisation.setLoader(this);
+        }
+    }
+
+    /**
+     * Adds a section to a set of sections to load, along with the sections it refers to, unless they
+     * have already been loaded.
+     * @param section the section.
+     * @param toLoad the sections to load.
+     */
+    private void addUnloaded(final SnapshotSection section, final Set<SnapshotSection> toLoad) {
+        if (loaded.contains(section) || !toLoad.add(section)) {
+            return;
+        }
+        int mask = dependencies.get(section);
+        for (SnapshotSection dependency : SnapshotSection.values()) {
+            if ((mask & (1 << dependency.ordinal())) != 0) {
+                addUnloaded(dependency, toLoad);
+            }
+        }
+    }
+
+    /**
+     * Loads a set of sections and adds their models to the organisation. Each shard is decoded on its own
+     * thread, then the collections of every shard are filled once every object in them has been read.
+     * @param toLoad the sections to load, none of which can have been loaded.
+     */
+    private void load(final Set<SnapshotSection> toLoad) {
+        if (toLoad.isEmpty()) {
+            return;
+        }
+        // marked as loaded first, so that asking for the models of a section while it is loaded does not load it twice
+        loaded.addAll(toLoad);
+        try {
+            List<Shard> order = new ArrayList<>();
+            for (SnapshotSection section : toLoad) {
+                order.addAll(sections.get(section));
+            }
+            DataInputStream[] inputs = new DataInputStream[order.size()];
+            ObjectDecoder[] decoders = new ObjectDecoder[order.size()];
+            forEachInParallel(order.size(), i -> {
+                inputs[i] = openShard(order.get(i));
+                decoders[i] = new ObjectDecoder(ids);
+                decoders[i].readTables(inputs[i]);
+            });
+            // the ids are only changed here, while none of the sections are being decoded
+            for (ObjectDecoder decoder : decoders) {
+                decoder.addObjects();
+            }
+            forEachInParallel(order.size(), i -> decoders[i].readObjects(inputs[i]));
+            // linking up is cheap compared to decoding, and collections can contain objects from other sections
+            for (int i = decoders.length - 1; i >= 0; i--) {
+                decoders[i].finish();
+                loadedShard(order.get(i), decoders[i]);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not load the " + toLoad + " from the snapshot.", e);
+        }
+        for (SnapshotSection section : toLoad) {
+            addRoots(section);
+        }
+    }
+
+    /**
+     * Adds the roots of a section that has been loaded to the organisation's list of them.
+     * @param section the section.
+     */
+    @SuppressWarnings("unchecked")
+    private void addRoots(final SnapshotSection section) {
+        Collection<Object> roots = (Collection<Object>) section.getRoots(organisation);
+        roots.addAll(getRoots(section));
+    }
+
+    /**
+     * Gets the roots of a section, from every one of its shards.
+     * @param section the section.
+     * @return the roots, in the order they are stored.
+     */
+    private List<Object> getRoots(final SnapshotSection section) {
+        List<Object> roots = new ArrayList<>();
+        for (Shard shard : sections.getOrDefault(section, Collections.emptyList())) {
+            roots.addAll(Arrays.asList(shard.getRoots()));
+        }
+        return roots;
+    }
+
+    /**
+     * Records that a shard has been loaded, which frees the part of the snapshot it was read from.
+     * @param shard the shard.
+     * @param decoder the decoder that read the shard.
+     */
+    private static void loadedShard(final Shard shard, final ObjectDecoder decoder) {
+        int[] objectIds = decoder.getObjectIds().clone();
+        Arrays.sort(objectIds);
+        shard.setObjectIds(objectIds);
+        shard.setBlock(null);
+    }
+
+    /**
+     * Creates an input that reads a shard. Each input has its own view of the snapshot, so shards
+     * can be read on different threads. Shards stored in files of their own are memory mapped.
+     * @param shard the shard.
+     * @return the input.
+     * @throws IOException if the shard could not be read.
+     */
+    private DataInputStream openShard(final Shard shard) throws IOException {
+        ByteBuffer block = shard.getBlock();
+        if (block != null) {
+            block = block.duplicate();
+        }
+        else {
+            File file = new File(directory, shard.getFileName());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                block = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        return new DataInputStream(new ByteBufferInputStream(block));
+    }
+
+    /**
+     * Runs a step of decoding for a number of shards, each on its own thread of the common fork join pool.
+     * Returns once the step has finished for every shard.
+     * @param count the number of shards.
+     * @param step the step, which is given the index of the shard.
+     * @throws IOException if the step failed for any of the shards.
+     */
+    private static void forEachInParallel(final int count, final SectionStep step) throws IOException {
+        if (count == 1) {
+            step.run(0);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                step.run(index);
+                return null;
+            });
+        }
+        for (Future<Void> task : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                task.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading the snapshot.");
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException("Could not load the snapshot.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Tells the load listener which model types have been loaded.
+     * @param sectionsLoaded the sections that were loaded.
+     */
+    private void notifyLoaded(final Set<SnapshotSection> sectionsLoaded) {
+        if (loadListener == null || sectionsLoaded.isEmpty()) {
+            return;
+        }
+        Set<ModelType> types = EnumSet.noneOf(ModelType.class);
+        for (SnapshotSection section : sectionsLoaded) {
+            if (section.getModelType() != null) {
+                types.add(section.getModelType());
+            }
+        }
+        loadListener.accept(types);
+    }
+
+    /**
+     * Checks that the first object of a snapshot is an organisation.
+     * @param object the first object.
+     * @return the organisation.
+     * @throws IOException if the object is not an organisation.
+     */
+    private static Organisation asOrganisation(final Object object) throws IOException {
+        if (!(object instanceof Organisation)) {
+            throw new IOException("Snapshot does not contain an organisation.");
+        }
+        return (Organisation) object;
+    }
+
+    /**
+     * A step of decoding that is run for each of a number of shards.
+     */
+    @FunctionalInterface
+    private interface SectionStep {
+
+        /**
+         * Runs the step for a shard.
+         * @param index the index of the shard.
+         * @throws IOException if the step failed.
+         */
+        void run(int index) throws IOException;
+    }
+}
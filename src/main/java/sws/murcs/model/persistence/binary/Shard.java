@@ -0,0 +1,135 @@
+package sws.murcs.model.persistence.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A block of objects that is loaded as a unit, along with the objects stored at its top level.
+ * A section of a snapshot file is a single shard, while a sharded project stores each section in its own
+ * file and each story in a file of its own.
+ */
+final class Shard {
+
+    /**
+     * Identifies the shard from one save to the next, e.g. the name of its section.
+     */
+    private final String key;
+
+    /**
+     * The objects stored at the top level of the shard, in the order they are stored.
+     */
+    private final Object[] roots;
+
+    /**
+     * The short names of the roots, null for roots that do not have one.
+     */
+    private final String[] shortNames;
+
+    /**
+     * The sections the objects in this shard refer to, as a mask of section ordinals.
+     */
+    private final int dependencies;
+
+    /**
+     * Name of the file the shard is stored in, null if it is part of a snapshot file.
+     */
+    private final String fileName;
+
+    /**
+     * The encoded shard, null if it is stored in a file of its own or has been loaded.
+     */
+    private ByteBuffer block;
+
+    /**
+     * The ids of the objects stored in the shard in ascending order, null until it has been loaded or written.
+     */
+    private int[] objectIds;
+
+    /**
+     * Creates a new shard.
+     * @param shardKey identifies the shard from one save to the next.
+     * @param shardRoots the objects stored at the top level of the shard.
+     * @param rootShortNames the short names of the roots.
+     * @param shardDependencies the sections the objects in this shard refer to.
+     * @param file name of the file the shard is stored in, null if it is part of a snapshot file.
+     */
+    Shard(final String shardKey, final Object[] shardRoots, final String[] rootShortNames,
+          final int shardDependencies, final String file) {
+        key = shardKey;
+        roots = shardRoots;
+        shortNames = rootShortNames;
+        dependencies = shardDependencies;
+        fileName = file;
+    }
+
+    /**
+     * Gets the key identifying the shard from one save to the next.
+     * @return the key.
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the objects stored at the top level of the shard.
+     * @return the roots, in the order they are stored.
+     */
+    Object[] getRoots() {
+        return roots;
+    }
+
+    /**
+     * Gets the short names of the roots.
+     * @return the short names, null for roots that do not have one.
+     */
+    String[] getShortNames() {
+        return shortNames;
+    }
+
+    /**
+     * Gets the sections the objects in this shard refer to.
+     * @return a mask of section ordinals.
+     */
+    int getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * Gets the name of the file the shard is stored in.
+     * @return the file name, or null if the shard is part of a snapshot file.
+     */
+    String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the encoded shard, if it is part of a snapshot file and has not been loaded.
+     * @return the encoded shard, or null.
+     */
+    ByteBuffer getBlock() {
+        return block;
+    }
+
+    /**
+     * Sets the encoded shard.
+     * @param encoded the encoded shard, or null once it has been loaded.
+     */
+    void setBlock(final ByteBuffer encoded) {
+        block = encoded;
+    }
+
+    /**
+     * Gets the ids of the objects stored in the shard.
+     * @return the ids in ascending order, or null if the shard has not been loaded or written.
+     */
+    int[] getObjectIds() {
+        return objectIds;
+    }
+
+    /**
+     * Sets the ids of the objects stored in the shard.
+     * @param sortedIds the ids in ascending order.
+     */
+    void setObjectIds(final int[] sortedIds) {
+        objectIds = sortedIds;
+    }
+}
@@ -0,0 +1,487 @@
+package sws.murcs.model.persistence.binary;
+
+import sws.murcs.model.Organisation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An organisation stored as a directory of shards: a file for each section (i.e. for each type of model),
+ * and a file for each story holding the story along with its tasks, acceptance criteria and effort.
+ * An index file lists the models stored in each shard, so opening a project only reads the index and the
+ * organisation, and each section is loaded the first time it is needed (see PartialSnapshot).
+ * Saving only rewrites the shards whose objects have changed. Shards are never overwritten, rewritten shards
+ * are written to new files which replace the old ones once the new index has been written, so the project
+ * on disk is complete even if saving fails part way through.
+ * This class is not thread safe, it should only be used on the thread that changes the organisation.
+ */
+public final class ShardedProject {
+
+    /**
+     * Name of the index file in the directory of a project.
+     */
+    public static final String INDEX_FILE_NAME = "index";
+
+    /**
+     * Extension of the shard files.
+     */
+    private static final String SHARD_EXTENSION = ".shard";
+
+    /**
+     * Start of the keys of the shards that store a single story.
+     */
+    private static final String STORY_KEY = "Story.";
+
+    /**
+     * The directory the project is stored in.
+     */
+    private final File directory;
+
+    /**
+     * The snapshot the organisation was loaded from, which keeps track of the shards of each section.
+     */
+    private final PartialSnapshot snapshot;
+
+    /**
+     * Creates a new project.
+     * @param projectDirectory the directory the project is stored in.
+     * @param projectSnapshot the snapshot the organisation was loaded from.
+     */
+    private ShardedProject(final File projectDirectory, final PartialSnapshot projectSnapshot) {
+        directory = projectDirectory;
+        snapshot = projectSnapshot;
+    }
+
+    /**
+     * Checks if a directory contains a sharded project.
+     * @param directory the directory.
+     * @return true if the directory contains the index of a project.
+     */
+    public static boolean isProject(final File directory) {
+        return new File(directory, INDEX_FILE_NAME).isFile();
+    }
+
+    /**
+     * Opens a project. Only the index and the organisation are read, the other sections
+     * are loaded when they are needed.
+     * @param directory the directory containing the project.
+     * @return the project.
+     * @throws IOException if the directory does not contain a valid project.
+     */
+    public static ShardedProject open(final File directory) throws IOException {
+        return new ShardedProject(directory, PartialSnapshot.openDirectory(directory));
+    }
+
+    /**
+     * Writes every shard of an organisation to a directory, replacing any project already stored there.
+     * @param directory the directory to store the project in, which is created if it does not exist yet.
+     * @param organisation the organisation.
+     * @return the project, which can be saved again to only write what has changed.
+     * @throws IOException if the project could not be written.
+     */
+    public static ShardedProject create(final File directory, final Organisation organisation) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdir()) {
+            throw new IOException("Could not create the directory " + directory);
+        }
+        organisation.loadAll();
+        ShardedProject project = new ShardedProject(directory, PartialSnapshot.of(organisation));
+        project.save(null);
+        project.deleteUnusedShards();
+        return project;
+    }
+
+    /**
+     * Gets the organisation stored in the project.
+     * @return the organisation.
+     */
+    public Organisation getOrganisation() {
+        return snapshot.getOrganisation();
+    }
+
+    /**
+     * Gets the snapshot the organisation was loaded from, e.g. to be told when sections are loaded.
+     * @return the snapshot.
+     */
+    public PartialSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Gets the directory the project is stored in.
+     * @return the directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Saves the project, rewriting the shards that contain changed objects or whose objects
+     * have changed (e.g. a task was added to a story). Objects are discovered from the roots of each shard
+     * so that new objects are stored alongside the models they belong to, but only the shards that
+     * are rewritten are encoded. Sections that have not been loaded cannot have changed, so are kept as they are.
+     * @param changed the objects that have changed since the project was last saved, compared by identity,
+     *                or null if it is not known what has changed and every shard should be written.
+     * @return the number of shards that were written.
+     * @throws IOException if the project could not be saved.
+     */
+    public int save(final Set<?> changed) throws IOException {
+        synchronized (snapshot.getLock()) {
+            ObjectIds walkIds = new ObjectIds();
+            Map<SnapshotSection, List<ShardContents>> layout = discover(walkIds);
+            int[] owners = new int[walkIds.getNextId()];
+            for (List<ShardContents> shards : layout.values()) {
+                for (ShardContents shard : shards) {
+                    for (Object object : shard.objects) {
+                        owners[walkIds.getId(object)] = shard.section.ordinal();
+                    }
+                }
+            }
+
+            ObjectIds ids = snapshot.getIds();
+            for (int id = 0; id < walkIds.getNextId(); id++) {
+                Object object = walkIds.getObject(id);
+                if (object != null && ids.getObject(id) != object) {
+                    ids.put(id, object);
+                }
+            }
+
+            Map<SnapshotSection, List<Shard>> sections = snapshot.getSections();
+            Map<String, Shard> previous = new HashMap<>();
+            Set<String> previousFiles = new HashSet<>();
+            for (SnapshotSection section : layout.keySet()) {
+                for (Shard shard : sections.getOrDefault(section, Collections.emptyList())) {
+                    previous.put(shard.getKey(), shard);
+                    previousFiles.add(shard.getFileName());
+                }
+            }
+
+            long generation = snapshot.getStamp() + 1;
+            int written = 0;
+            Map<SnapshotSection, List<Shard>> saved = new EnumMap<>(SnapshotSection.class);
+            for (Map.Entry<SnapshotSection, List<ShardContents>> section : layout.entrySet()) {
+                List<Shard> shards = new ArrayList<>();
+                for (ShardContents contents : section.getValue()) {
+                    Shard old = previous.get(contents.key);
+                    int[] objectIds = contents.getObjectIds();
+                    Shard shard;
+                    if (changed != null && old != null && Arrays.equals(old.getObjectIds(), objectIds)
+                            && !contents.containsAny(changed)) {
+                        shard = contents.toShard(old.getDependencies(), old.getFileName());
+                    }
+                    else {
+                        String fileName = contents.key + "." + generation + SHARD_EXTENSION;
+                        Files.write(new File(directory, fileName).toPath(), contents.encode());
+                        shard = contents.toShard(contents.getDependencies(owners), fileName);
+                        written++;
+                    }
+                    shard.setObjectIds(objectIds);
+                    shards.add(shard);
+                }
+                saved.put(section.getKey(), shards);
+            }
+            if (written == 0) {
+                return 0;
+            }
+
+            for (SnapshotSection section : SnapshotSection.values()) {
+                if (!saved.containsKey(section) && sections.containsKey(section)) {
+                    saved.put(section, sections.get(section));
+                }
+            }
+            writeIndex(saved, generation, Math.max(ids.getNextId(), walkIds.getNextId()));
+            sections.putAll(saved);
+            snapshot.setStamp(generation);
+
+            for (List<Shard> shards : saved.values()) {
+                for (Shard shard : shards) {
+                    previousFiles.remove(shard.getFileName());
+                }
+            }
+            for (String fileName : previousFiles) {
+                Files.deleteIfExists(new File(directory, fileName).toPath());
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Works out which shard each object in the loaded sections is stored in. Every root is given an id first,
+     * so that models are always stored in the shard of their section, then the objects reachable from
+     * the roots of each shard are stored alongside them, unless they are in an earlier shard.
+     * Objects keep the ids they were given when they were last loaded or saved.
+     * @param walkIds the ids to give the objects in the project.
+     * @return the contents of the shards of each loaded section.
+     */
+    private Map<SnapshotSection, List<ShardContents>> discover(final ObjectIds walkIds) {
+        Organisation organisation = snapshot.getOrganisation();
+        Map<SnapshotSection, List<ShardContents>> layout = new EnumMap<>(SnapshotSection.class);
+        for (SnapshotSection section : SnapshotSection.values()) {
+            if (!snapshot.isLoaded(section)) {
+                continue;
+            }
+            List<ShardContents> shards = new ArrayList<>();
+            if (section == SnapshotSection.Stories) {
+                for (Object story : section.getRoots(organisation)) {
+                    ShardContents shard = new ShardContents(section, walkIds, snapshot.getIds(), Collections.singletonList(story));
+                    if (!shard.objects.isEmpty()) {
+                        shard.key = STORY_KEY + walkIds.getId(story);
+                        shards.add(shard);
+                    }
+                }
+            }
+            else {
+                ShardContents shard = new ShardContents(section, walkIds, snapshot.getIds(), section.getRoots(organisation));
+                shard.key = section.name();
+                shards.add(shard);
+            }
+            layout.put(section, shards);
+        }
+
+        for (List<ShardContents> shards : layout.values()) {
+            for (ShardContents shard : shards) {
+                for (int i = 0; i < shard.objects.size(); i++) {
+                    shard.encoder.discoverFields(shard.objects.get(i), shard.objects);
+                }
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Writes the index, which lists the shards of each section and the roots stored in them. The index is
+     * written to a temporary file first and then moved into place, so the old index is kept if writing fails.
+     * @param sections the shards of each section.
+     * @param generation the number of times the project has been saved.
+     * @param nextId the lowest id that is not used by any object in the project.
+     * @throws IOException if the index could not be written.
+     */
+    private void writeIndex(final Map<SnapshotSection, List<Shard>> sections, final long generation,
+                            final int nextId) throws IOException {
+        ObjectIds ids = snapshot.getIds();
+        Map<Class<?>, Integer> classIndexes = new LinkedHashMap<>();
+        for (List<Shard> shards : sections.values()) {
+            for (Shard shard : shards) {
+                for (Object root : shard.getRoots()) {
+                    classIndexes.putIfAbsent(root.getClass(), classIndexes.size());
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BinaryFormat.INDEX_MAGIC);
+        out.writeShort(BinaryFormat.VERSION);
+        out.writeLong(generation);
+        BinaryFormat.writeVarInt(out, nextId);
+        BinaryFormat.writeVarInt(out, classIndexes.size());
+        for (Class<?> clazz : classIndexes.keySet()) {
+            BinaryFormat.writeString(out, clazz.getName());
+        }
+        BinaryFormat.writeVarInt(out, sections.size());
+        for (Map.Entry<SnapshotSection, List<Shard>> section : sections.entrySet()) {
+            int mask = 0;
+            for (Shard shard : section.getValue()) {
+                mask |= shard.getDependencies();
+            }
+            out.writeByte(section.getKey().ordinal());
+            BinaryFormat.writeVarInt(out, mask);
+            BinaryFormat.writeVarInt(out, section.getValue().size());
+            for (Shard shard : section.getValue()) {
+                BinaryFormat.writeString(out, shard.getKey());
+                BinaryFormat.writeString(out, shard.getFileName());
+                Object[] roots = shard.getRoots();
+                String[] shortNames = shard.getShortNames();
+                BinaryFormat.writeVarInt(out, roots.length);
+                for (int i = 0; i < roots.length; i++) {
+                    BinaryFormat.writeVarInt(out, ids.getId(roots[i]));
+                    BinaryFormat.writeVarInt(out, classIndexes.get(roots[i].getClass()));
+                    out.writeBoolean(shortNames[i] != null);
+                    if (shortNames[i] != null) {
+                        BinaryFormat.writeString(out, shortNames[i]);
+                    }
+                }
+            }
+        }
+        out.flush();
+
+        File index = new File(directory, INDEX_FILE_NAME);
+        File temp = new File(directory, INDEX_FILE_NAME + ".tmp");
+        Files.write(temp.toPath(), bytes.toByteArray());
+        Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes any shard files in the directory that are not listed in the index, e.g. those of a project
+     * that was stored in the directory before.
+     * @throws IOException if a file could not be deleted.
+     */
+    private void deleteUnusedShards() throws IOException {
+        Set<String> used = new HashSet<>();
+        for (List<Shard> shards : snapshot.getSections().values()) {
+            for (Shard shard : shards) {
+                used.add(shard.getFileName());
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(SHARD_EXTENSION) && !used.contains(file.getName())) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * The objects that are stored in a shard when the project is saved.
+     */
+    private static final class ShardContents {
+
+        /**
+         * The section the shard is part of.
+         */
+        private final SnapshotSection section;
+
+        /**
+         * Ids of the objects in the project as it is being saved.
+         */
+        private final ObjectIds ids;
+
+        /**
+         * Encoder that gives the objects in the shard their ids.
+         */
+        private final ObjectEncoder encoder;
+
+        /**
+         * The objects stored in the shard, starting with its roots.
+         */
+        private final List<Object> objects = new ArrayList<>();
+
+        /**
+         * The number of roots of the shard.
+         */
+        private final int rootCount;
+
+        /**
+         * Identifies the shard from one save to the next.
+         */
+        private String key;
+
+        /**
+         * Creates the contents of a shard and gives its roots their ids.
+         * @param shardSection the section the shard is part of.
+         * @param walkIds ids of the objects in the project as it is being saved.
+         * @param previousIds ids the objects were given when the project was last loaded or saved.
+         * @param roots the roots of the shard.
+         */
+        private ShardContents(final SnapshotSection shardSection, final ObjectIds walkIds,
+                              final ObjectIds previousIds, final Collection<?> roots) {
+            section = shardSection;
+            ids = walkIds;
+            encoder = new ObjectEncoder(walkIds, previousIds);
+            for (Object root : roots) {
+                if (encoder.define(root)) {
+                    objects.add(root);
+                }
+            }
+            rootCount = objects.size();
+        }
+
+        /**
+         * Gets the ids of the objects in the shard.
+         * @return the ids, in ascending order.
+         */
+        private int[] getObjectIds() {
+            int[] objectIds = new int[objects.size()];
+            for (int i = 0; i < objectIds.length; i++) {
+                objectIds[i] = ids.getId(objects.get(i));
+            }
+            Arrays.sort(objectIds);
+            return objectIds;
+        }
+
+        /**
+         * Checks if any of the objects in the shard have changed.
+         * @param changed the objects that have changed.
+         * @return true if the shard contains a changed object.
+         */
+        private boolean containsAny(final Set<?> changed) {
+            for (Object object : objects) {
+                if (changed.contains(object)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Encodes the objects in the shard as a block, starting with the class, string and object tables.
+         * @return the encoded shard.
+         * @throws IOException if an object could not be encoded.
+         */
+        private byte[] encode() throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bodyOut = new DataOutputStream(body);
+            BinaryFormat.writeVarInt(bodyOut, objects.size());
+            for (Object object : objects) {
+                encoder.writeObject(bodyOut, object);
+            }
+
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            DataOutputStream blockOut = new DataOutputStream(block);
+            encoder.writeHeader(blockOut);
+            body.writeTo(blockOut);
+            blockOut.flush();
+            return block.toByteArray();
+        }
+
+        /**
+         * Gets the sections referred to by the objects in the shard, once it has been encoded.
+         * @param owners the ordinal of the section each object is stored in, indexed by id.
+         * @return a mask of section ordinals.
+         */
+        private int getDependencies(final int[] owners) {
+            int mask = 0;
+            BitSet referenced = encoder.getReferencedIds();
+            for (int id = referenced.nextSetBit(0); id >= 0; id = referenced.nextSetBit(id + 1)) {
+                mask |= 1 << owners[id];
+            }
+            return mask & ~(1 << section.ordinal());
+        }
+
+        /**
+         * Creates the entry for the shard in the index.
+         * @param dependencies the sections referred to by the objects in the shard.
+         * @param fileName the file the shard is stored in.
+         * @return the shard.
+         */
+        private Shard toShard(final int dependencies, final String fileName) {
+            Object[] roots = objects.subList(0, rootCount).toArray();
+            String[] shortNames = new String[roots.length];
+            for (int i = 0; i < roots.length; i++) {
+                Object shortName = encoder.getValue(roots[i], SnapshotWriter.SHORT_NAME_FIELD);
+                if (shortName instanceof String) {
+                    shortNames[i] = (String) shortName;
+                }
+            }
+            return new Shard(key, roots, shortNames, dependencies, fileName);
+        }
+    }
+}
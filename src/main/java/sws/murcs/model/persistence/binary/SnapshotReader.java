@@ -0,0 +1,65 @@
+package sws.murcs.model.persistence.binary;
+
+import sws.murcs.model.Organisation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads an organisation from the binary snapshot format written by the SnapshotWriter.
+ * The whole snapshot is read into memory and every section is loaded.
+ * A reader should only be used to read a single snapshot.
+ */
+public final class SnapshotReader {
+
+    /**
+     * Ids of the objects in the snapshot.
+     */
+    private ObjectIds ids = new ObjectIds();
+
+    /**
+     * Stamp identifying the snapshot.
+     */
+    private long stamp;
+
+    /**
+     * Gets the ids of the objects in the snapshot. Only complete once the snapshot has been read.
+     * @return the ids of the objects.
+     */
+    public ObjectIds getIds() {
+        return ids;
+    }
+
+    /**
+     * Gets the stamp identifying the snapshot.
+     * @return the stamp.
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Reads an organisation from a stream. The stream is not closed.
+     * Every section of the snapshot is loaded, use a PartialSnapshot to only load sections as they are needed.
+     * @param stream the stream to read from.
+     * @return the organisation that was read.
+     * @throws IOException if the stream does not contain a valid snapshot.
+     */
+    public Organisation read(final InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[BinaryFormat.BUFFER_SIZE];
+        int count = stream.read(chunk);
+        while (count >= 0) {
+            bytes.write(chunk, 0, count);
+            count = stream.read(chunk);
+        }
+        PartialSnapshot snapshot = PartialSnapshot.read(ByteBuffer.wrap(bytes.toByteArray()));
+        Organisation organisation = snapshot.getOrganisation();
+        organisation.loadAll();
+        ids = snapshot.getIds();
+        stamp = snapshot.getStamp();
+        return organisation;
+    }
+}
@@ -0,0 +1,162 @@
+package sws.murcs.model.persistence.binary;
+
+import sws.murcs.model.ModelType;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.WorkAllocation;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * The sections that make up a snapshot. Each top level collection of the organisation is
+ * written to its own section, along with any objects that are only reachable from it
+ * (e.g. the tasks of a story are written to the story section).
+ */
+public enum SnapshotSection {
+
+    /**
+     * The organisation itself.
+     */
+    Organisation(null),
+
+    /**
+     * The skills in the organisation.
+     */
+    Skills(ModelType.Skill),
+
+    /**
+     * The people in the organisation.
+     */
+    People(ModelType.Person),
+
+    /**
+     * The teams in the organisation.
+     */
+    Teams(ModelType.Team),
+
+    /**
+     * The projects in the organisation.
+     */
+    Projects(ModelType.Project),
+
+    /**
+     * The releases in the organisation.
+     */
+    Releases(ModelType.Release),
+
+    /**
+     * The stories in the organisation, including their tasks and acceptance criteria.
+     */
+    Stories(ModelType.Story),
+
+    /**
+     * The backlogs in the organisation.
+     */
+    Backlogs(ModelType.Backlog),
+
+    /**
+     * The sprints in the organisation.
+     */
+    Sprints(ModelType.Sprint),
+
+    /**
+     * The work allocations in the organisation.
+     */
+    Allocations(null);
+
+    /**
+     * The model type stored in this section, null if this section does not store models.
+     */
+    private final ModelType modelType;
+
+    /**
+     * Creates a new section.
+     * @param type the model type stored in this section.
+     */
+    SnapshotSection(final ModelType type) {
+        modelType = type;
+    }
+
+    /**
+     * Gets the model type stored in this section.
+     * @return the model type, or null if this section does not store models.
+     */
+    public ModelType getModelType() {
+        return modelType;
+    }
+
+    /**
+     * Gets the section that stores a model type.
+     * @param type the model type.
+     * @return the section.
+     */
+    public static SnapshotSection fromModelType(final ModelType type) {
+        for (SnapshotSection section : values()) {
+            if (section.modelType == type) {
+                return section;
+            }
+        }
+        throw new IllegalArgumentException("No section stores " + type);
+    }
+
+    /**
+     * Gets the class of the objects stored at the top level of this section.
+     * @return the class of the root objects.
+     */
+    public Class<?> getRootType() {
+        switch (this) {
+            case Organisation:
+                return Organisation.class;
+            case Allocations:
+                return WorkAllocation.class;
+            default:
+                return ModelType.getTypeFromModel(modelType);
+        }
+    }
+
+    /**
+     * Gets the section that stores objects of a class at its top level.
+     * @param type the class of the root objects.
+     * @return the section.
+     */
+    public static SnapshotSection fromRootType(final Class<?> type) {
+        for (SnapshotSection section : values()) {
+            if (section.getRootType() == type) {
+                return section;
+            }
+        }
+        throw new IllegalArgumentException("No section stores " + type.getName());
+    }
+
+    /**
+     * Gets the objects in an organisation that are stored at the top level of this section.
+     * @param organisation the organisation.
+     * @return the root objects of this section.
+     */
+    public Collection<?> getRoots(final Organisation organisation) {
+        switch (this) {
+            case Organisation:
+                return Collections.singletonList(organisation);
+            case Skills:
+                return organisation.getSkills();
+            case People:
+                return organisation.getPeople();
+            case Teams:
+                return organisation.getTeams();
+            case Projects:
+                return organisation.getProjects();
+            case Releases:
+                return organisation.getReleases();
+            case Stories:
+                return organisation.getStories();
+            case Backlogs:
+                return organisation.getBacklogs();
+            case Sprints:
+                return organisation.getSprints();
+            case Allocations:
+                return organisation.getAllocations();
+            default:
+                throw new UnsupportedOperationException("Section " + this + " has no roots.");
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package sws.murcs.model.persistence.binary;
+
+import sws.murcs.model.Organisation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Writes an organisation out in the binary snapshot format.
+ * Every object in the organisation is given an id, and references between objects
+ * (e.g. the dependencies of a story or the product owner of a backlog) are written as ids.
+ * A writer should only be used to write a single snapshot.
+ */
+public final class SnapshotWriter {
+
+    /**
+     * Number of objects encoded between reports of progress.
+     */
+    private static final int PROGRESS_INTERVAL = 256;
+
+    /**
+     * Name of the field whose value is stored in the index for every root, so that models can be listed by name
+     * without being loaded.
+     */
+    static final String SHORT_NAME_FIELD = "shortName";
+
+    /**
+     * Ids of the objects in the snapshot.
+     */
+    private final ObjectIds ids = new ObjectIds();
+
+    /**
+     * Ids objects were given in an earlier snapshot, null if objects are given new ids.
+     */
+    private final ObjectIds previousIds;
+
+    /**
+     * Encoders used to write the objects in each section.
+     */
+    private final Map<SnapshotSection, ObjectEncoder> encoders = new EnumMap<>(SnapshotSection.class);
+
+    /**
+     * The frozen model being written, null if the organisation itself is being written.
+     */
+    private FrozenModel frozenModel;
+
+    /**
+     * Objects stored in each section.
+     */
+    private final Map<SnapshotSection, List<Object>> sections = new EnumMap<>(SnapshotSection.class);
+
+    /**
+     * Stamp identifying the snapshot.
+     */
+    private long stamp = ThreadLocalRandom.current().nextLong();
+
+    /**
+     * Told the fraction of the snapshot that has been written, may be null.
+     */
+    private DoubleConsumer progressListener;
+
+    /**
+     * The number of objects encoded so far.
+     */
+    private int encodedCount;
+
+    /**
+     * The total number of objects to encode.
+     */
+    private int totalCount;
+
+    /**
+     * Creates a new snapshot writer that gives objects new ids.
+     */
+    public SnapshotWriter() {
+        this(null);
+    }
+
+    /**
+     * Creates a new snapshot writer that keeps the ids objects were given in an earlier snapshot.
+     * @param previous the ids objects were given in the earlier snapshot, may be null.
+     */
+    public SnapshotWriter(final ObjectIds previous) {
+        previousIds = previous;
+    }
+
+    /**
+     * Gets the ids of the objects in the snapshot. Only complete once the snapshot has been written.
+     * @return the ids of the objects.
+     */
+    public ObjectIds getIds() {
+        return ids;
+    }
+
+    /**
+     * Gets the stamp identifying the snapshot. Journals written against a snapshot record its stamp.
+     * @return the stamp.
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Sets the stamp identifying the snapshot. By default a random stamp is used, this only needs to be
+     * set when the snapshot replaces an earlier one and any journal for the earlier one is still valid.
+     * @param newStamp the stamp.
+     */
+    public void setStamp(final long newStamp) {
+        stamp = newStamp;
+    }
+
+    /**
+     * Sets a listener that is told the fraction of the snapshot that has been written (between 0 and 1)
+     * as it is written. It is called on the thread that is writing the snapshot.
+     * @param listener the listener, or null to not report progress.
+     */
+    public void setProgressListener(final DoubleConsumer listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Writes an organisation to a stream. The stream is not closed.
+     * The organisation must not be changed while it is being written.
+     * @param organisation the organisation to write.
+     * @param stream the stream to write to.
+     * @throws IOException if the organisation could not be written.
+     */
+    public void write(final Organisation organisation, final OutputStream stream) throws IOException {
+        Map<SnapshotSection, Collection<?>> roots = new EnumMap<>(SnapshotSection.class);
+        for (SnapshotSection section : SnapshotSection.values()) {
+            roots.put(section, section.getRoots(organisation));
+        }
+        write(roots, stream);
+    }
+
+    /**
+     * Writes a frozen organisation to a stream. The stream is not closed.
+     * Unlike writing the organisation itself, this can be done on any thread while the organisation is changed.
+     * @param frozen the frozen organisation to write.
+     * @param stream the stream to write to.
+     * @throws IOException if the organisation could not be written.
+     */
+    public void write(final FrozenModel frozen, final OutputStream stream) throws IOException {
+        Map<SnapshotSection, Collection<?>> roots = new EnumMap<>(SnapshotSection.class);
+        for (SnapshotSection section : SnapshotSection.values()) {
+            roots.put(section, frozen.getRoots(section));
+        }
+        frozenModel = frozen;
+        write(roots, stream);
+    }
+
+    /**
+     * Writes the objects reachable from the roots of each section to a stream.
+     * @param roots the root objects of each section.
+     * @param stream the stream to write to.
+     * @throws IOException if the objects could not be written.
+     */
+    private void write(final Map<SnapshotSection, Collection<?>> roots, final OutputStream stream) throws IOException {
+        Map<SnapshotSection, Integer> rootCounts = new EnumMap<>(SnapshotSection.class);
+        for (SnapshotSection section : SnapshotSection.values()) {
+            ObjectEncoder encoder = new ObjectEncoder(ids, previousIds);
+            encoder.setFrozenModel(frozenModel);
+            encoders.put(section, encoder);
+            List<Object> sectionObjects = new ArrayList<>();
+            sections.put(section, sectionObjects);
+            for (Object root : roots.get(section)) {
+                if (encoder.define(root)) {
+                    sectionObjects.add(root);
+                }
+            }
+            rootCounts.put(section, sectionObjects.size());
+        }
+
+        // objects only reachable from a root are stored alongside that root
+        for (SnapshotSection section : SnapshotSection.values()) {
+            List<Object> sectionObjects = sections.get(section);
+            ObjectEncoder encoder = encoders.get(section);
+            for (int i = 0; i < sectionObjects.size(); i++) {
+                encoder.discoverFields(sectionObjects.get(i), sectionObjects);
+            }
+        }
+
+        int[] owners = new int[ids.getNextId()];
+        for (List<Object> sectionObjects : sections.values()) {
+            totalCount += sectionObjects.size();
+        }
+        for (Map.Entry<SnapshotSection, List<Object>> section : sections.entrySet()) {
+            for (Object object : section.getValue()) {
+                owners[ids.getId(object)] = section.getKey().ordinal();
+            }
+        }
+
+        Map<SnapshotSection, byte[]> blocks = new EnumMap<>(SnapshotSection.class);
+        Map<SnapshotSection, Integer> dependencies = new EnumMap<>(SnapshotSection.class);
+        for (SnapshotSection section : SnapshotSection.values()) {
+            ObjectEncoder encoder = encoders.get(section);
+            blocks.put(section, encodeSection(encoder, sections.get(section)));
+            int mask = 0;
+            BitSet referenced = encoder.getReferencedIds();
+            for (int id = referenced.nextSetBit(0); id >= 0; id = referenced.nextSetBit(id + 1)) {
+                mask |= 1 << owners[id];
+            }
+            dependencies.put(section, mask & ~(1 << section.ordinal()));
+        }
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(BinaryFormat.MAGIC);
+        out.writeShort(BinaryFormat.VERSION);
+        out.writeLong(stamp);
+        writeIndex(out, blocks, dependencies, rootCounts);
+        for (byte[] block : blocks.values()) {
+            out.write(block);
+        }
+        out.flush();
+        reportProgress(1);
+    }
+
+    /**
+     * Writes the index, which describes each section and lists the roots stored in it, so that a reader can
+     * find each section and the short names of the models in the snapshot without decoding any objects.
+     * @param out the output to write to.
+     * @param blocks the encoded sections.
+     * @param dependencies the sections each section references objects from, as a mask of section ordinals.
+     * @param rootCounts the number of roots stored in each section.
+     * @throws IOException if writing fails.
+     */
+    private void writeIndex(final DataOutputStream out, final Map<SnapshotSection, byte[]> blocks,
+                            final Map<SnapshotSection, Integer> dependencies,
+                            final Map<SnapshotSection, Integer> rootCounts) throws IOException {
+        Map<Class<?>, Integer> classIndexes = new LinkedHashMap<>();
+        for (Map.Entry<SnapshotSection, List<Object>> section : sections.entrySet()) {
+            for (Object root : section.getValue().subList(0, rootCounts.get(section.getKey()))) {
+                classIndexes.putIfAbsent(root.getClass(), classIndexes.size());
+            }
+        }
+
+        BinaryFormat.writeVarInt(out, ids.getNextId());
+        BinaryFormat.writeVarInt(out, classIndexes.size());
+        for (Class<?> clazz : classIndexes.keySet()) {
+            BinaryFormat.writeString(out, clazz.getName());
+        }
+        BinaryFormat.writeVarInt(out, blocks.size());
+        for (SnapshotSection section : blocks.keySet()) {
+            out.writeByte(section.ordinal());
+            out.writeInt(blocks.get(section).length);
+            BinaryFormat.writeVarInt(out, dependencies.get(section));
+            ObjectEncoder encoder = encoders.get(section);
+            List<Object> sectionRoots = sections.get(section).subList(0, rootCounts.get(section));
+            BinaryFormat.writeVarInt(out, sectionRoots.size());
+            for (Object root : sectionRoots) {
+                BinaryFormat.writeVarInt(out, ids.getId(root));
+                BinaryFormat.writeVarInt(out, classIndexes.get(root.getClass()));
+                Object shortName = encoder.getValue(root, SHORT_NAME_FIELD);
+                out.writeBoolean(shortName instanceof String);
+                if (shortName instanceof String) {
+                    BinaryFormat.writeString(out, (String) shortName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes the objects in a section as a block, starting with the class, string and object tables.
+     * @param encoder the encoder of the section.
+     * @param sectionObjects the objects in the section.
+     * @return the encoded section.
+     * @throws IOException if an object could not be encoded.
+     */
+    private byte[] encodeSection(final ObjectEncoder encoder, final List<Object> sectionObjects) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        BinaryFormat.writeVarInt(bodyOut, sectionObjects.size());
+        for (Object object : sectionObjects) {
+            encoder.writeObject(bodyOut, object);
+            encodedCount++;
+            if (encodedCount % PROGRESS_INTERVAL == 0) {
+                // the encoded sections still have to be written out, so encoding never reaches 100%
+                reportProgress((double) encodedCount / (totalCount + 1));
+            }
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream blockOut = new DataOutputStream(block);
+        encoder.writeHeader(blockOut);
+        body.writeTo(blockOut);
+        blockOut.flush();
+        return block.toByteArray();
+    }
+
+    /**
+     * Tells the progress listener, if there is one, how much of the snapshot has been written.
+     * @param fraction the fraction of the snapshot that has been written.
+     */
+    private void reportProgress(final double fraction) {
+        if (progressListener != null) {
+            progressListener.accept(fraction);
+        }
+    }
+}
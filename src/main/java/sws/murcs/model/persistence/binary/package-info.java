@@ -0,0 +1,5 @@
+/**
+ * This package contains the classes used to read and write
+ * organisations in the compact binary snapshot format.
+ */
+package sws.murcs.model.persistence.binary;
@@ -0,0 +1,240 @@
+package sws.murcs.model.persistence.json;
+
+import sws.murcs.model.persistence.binary.ClassLayout;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Constants and type helpers shared by the JSON reader and writer.
+ *
+ * A JSON file is laid out as follows:
+ * <pre>
+ *     {
+ *       "format": "murcs",
+ *       "version": 1,
+ *       "objects": [
+ *         {"id": 0, "class": "sws.murcs.model.Organisation", "fields": {"skills": [1, 2], ...}},
+ *         {"id": 1, "class": "sws.murcs.model.Skill", "fields": {"shortName": "PO", ...}},
+ *         ...
+ *       ]
+ *     }
+ * </pre>
+ * The first object is the organisation. Objects store the same fields as the binary format (see ClassLayout),
+ * and fields that are null are left out. References to other objects are written as their id, collections as
+ * arrays and maps as arrays of key/value pairs.
+ * Values are written as plain JSON whenever the declared type of the field says how to read them back
+ * (e.g. a string in an enum field is the name of a constant, a number in a Person field is the id of a person).
+ * Otherwise they are wrapped in an object that gives their class, {"class": ..., "value": ...}, or for values
+ * that have no JSON representation, {"class": ..., "serialized": base64 java serialization}.
+ */
+public final class JsonFormat {
+
+    /**
+     * Name of the format, stored in the format property.
+     */
+    public static final String FORMAT = "murcs";
+
+    /**
+     * Current version of the JSON format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Property giving the name of the format.
+     */
+    static final String FORMAT_PROPERTY = "format";
+
+    /**
+     * Property giving the version of the format.
+     */
+    static final String VERSION_PROPERTY = "version";
+
+    /**
+     * Property containing the array of objects.
+     */
+    static final String OBJECTS_PROPERTY = "objects";
+
+    /**
+     * Property giving the id of an object.
+     */
+    static final String ID_PROPERTY = "id";
+
+    /**
+     * Property giving the class of an object or a wrapped value.
+     */
+    static final String CLASS_PROPERTY = "class";
+
+    /**
+     * Property containing the fields of an object.
+     */
+    static final String FIELDS_PROPERTY = "fields";
+
+    /**
+     * Property containing a wrapped value.
+     */
+    static final String VALUE_PROPERTY = "value";
+
+    /**
+     * Property containing a wrapped value stored using java serialization.
+     */
+    static final String SERIALIZED_PROPERTY = "serialized";
+
+    /**
+     * Indent used to write the file, so that each value is on its own line and changes diff well.
+     */
+    static final String INDENT = "  ";
+
+    /**
+     * Private constructor, this class only has static members.
+     */
+    private JsonFormat() {
+    }
+
+    /**
+     * Gets the class of a declared type, ignoring any type arguments.
+     * @param type the declared type.
+     * @return the class, Object if it cannot be worked out.
+     */
+    static Class<?> getRawType(final Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return getRawType(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof WildcardType) {
+            return getRawType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        if (type instanceof TypeVariable) {
+            return getRawType(((TypeVariable<?>) type).getBounds()[0]);
+        }
+        if (type instanceof GenericArrayType) {
+            return Object[].class;
+        }
+        return Object.class;
+    }
+
+    /**
+     * Gets a type argument of a declared type, e.g. the element type of a collection or the key type of a map.
+     * @param type the declared type.
+     * @param index the index of the type argument.
+     * @return the type argument, Object if the type does not have it.
+     */
+    static Type getTypeArgument(final Type type, final int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * Gets the class a collection or map is read as when the declared type is all that is known.
+     * @param type the declared class.
+     * @return the class the collection or map is created as, or null if it has to be given.
+     */
+    static Class<?> getContainerClass(final Class<?> type) {
+        if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())
+                && (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type))) {
+            try {
+                type.getConstructor();
+                return type;
+            }
+            catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+        if (type.isAssignableFrom(ArrayList.class)) {
+            return ArrayList.class;
+        }
+        if (type.isAssignableFrom(LinkedHashSet.class)) {
+            return LinkedHashSet.class;
+        }
+        if (type.isAssignableFrom(LinkedHashMap.class)) {
+            return LinkedHashMap.class;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the boxed class of a primitive class.
+     * @param type the class.
+     * @return the boxed class, or the class itself if it is not primitive.
+     */
+    static Class<?> box(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        if (type == byte.class) {
+            return Byte.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        if (type == char.class) {
+            return Character.class;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        return type;
+    }
+
+    /**
+     * Checks if a simple value (i.e. not a reference, collection or map) can be written as plain JSON,
+     * because it would be read back as the same class when read as the declared type.
+     * @param type the declared class.
+     * @param value the value.
+     * @return true if the value can be written without its class.
+     */
+    static boolean isPlainSimpleValue(final Class<?> type, final Object value) {
+        if (value instanceof String) {
+            // strings are read as strings unless the declared type says otherwise
+            return type.isAssignableFrom(String.class);
+        }
+        if (value instanceof Enum) {
+            return type == ((Enum<?>) value).getDeclaringClass();
+        }
+        Class<?> clazz = value.getClass();
+        if (clazz == Boolean.class || clazz == Byte.class || clazz == Short.class || clazz == Character.class
+                || clazz == Integer.class || clazz == Long.class || clazz == Float.class || clazz == Double.class
+                || clazz == LocalDate.class) {
+            return box(type) == clazz;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a reference to an object can be written as plain JSON (i.e. just its id).
+     * @param type the declared class.
+     * @return true if a number read as the declared type is the id of an object.
+     */
+    static boolean isReferenceType(final Class<?> type) {
+        return ClassLayout.isObject(type);
+    }
+}
@@ -0,0 +1,454 @@
+package sws.murcs.model.persistence.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.helpers.InterningHelper;
+import sws.murcs.model.persistence.binary.ClassLayout;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads an organisation written by a JsonModelWriter in a single streaming pass, see JsonFormat for the layout.
+ * Objects are created as they are read. References to objects that come later in the file, and collections
+ * (which can only be filled once the objects in them have all of their fields set), are linked up once
+ * every object has been read.
+ * A reader should only be used to read a single organisation.
+ */
+public final class JsonModelReader {
+
+    /**
+     * The objects that have been read, keyed by their id.
+     */
+    private final Map<Integer, Object> objects = new HashMap<>();
+
+    /**
+     * Classes that have been looked up, keyed by name.
+     */
+    private final Map<String, Class<?>> classes = new HashMap<>();
+
+    /**
+     * Fields that refer to objects that had not been read yet when the field was.
+     */
+    private final List<LinkUp> fieldLinkUps = new ArrayList<>();
+
+    /**
+     * Collections and maps that still need to be filled, in the order they were read.
+     */
+    private final List<LinkUp> containerLinkUps = new ArrayList<>();
+
+    /**
+     * Reads an organisation from a stream. The stream is not closed.
+     * @param stream the stream to read from.
+     * @return the organisation that was read.
+     * @throws IOException if the stream does not contain a valid organisation.
+     */
+    public Organisation read(final InputStream stream) throws IOException {
+        JsonReader in = new JsonReader(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)));
+        in.setLenient(true);
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals(JsonFormat.FORMAT_PROPERTY)) {
+                if (!JsonFormat.FORMAT.equals(in.nextString())) {
+                    throw new IOException("Not an organisation.");
+                }
+            }
+            else if (name.equals(JsonFormat.VERSION_PROPERTY)) {
+                int version = in.nextInt();
+                if (version > JsonFormat.VERSION) {
+                    throw new IOException("Version " + version + " is newer than this version of the application.");
+                }
+            }
+            else if (name.equals(JsonFormat.OBJECTS_PROPERTY)) {
+                in.beginArray();
+                while (in.hasNext()) {
+                    readObject(in);
+                }
+                in.endArray();
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        for (LinkUp linkUp : fieldLinkUps) {
+            linkUp.run();
+        }
+        for (int i = containerLinkUps.size() - 1; i >= 0; i--) {
+            containerLinkUps.get(i).run();
+        }
+        Object organisation = objects.get(0);
+        if (!(organisation instanceof Organisation)) {
+            throw new IOException("Does not contain an organisation.");
+        }
+        return (Organisation) organisation;
+    }
+
+    /**
+     * Reads an object. The id and class must come before the fields.
+     * @param in the reader to read from.
+     * @throws IOException if the object is invalid.
+     */
+    private void readObject(final JsonReader in) throws IOException {
+        Integer id = null;
+        Object object = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals(JsonFormat.ID_PROPERTY)) {
+                id = in.nextInt();
+            }
+            else if (name.equals(JsonFormat.CLASS_PROPERTY)) {
+                object = newObject(id, getClass(in.nextString()));
+            }
+            else if (name.equals(JsonFormat.FIELDS_PROPERTY)) {
+                if (object == null) {
+                    throw new IOException("The id and class of an object must come before its fields.");
+                }
+                readFields(in, object);
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    /**
+     * Creates an empty instance of an object.
+     * @param id the id of the object.
+     * @param clazz the class of the object.
+     * @return the new object.
+     * @throws IOException if the object could not be created.
+     */
+    private Object newObject(final Integer id, final Class<?> clazz) throws IOException {
+        if (id == null) {
+            throw new IOException("The id of an object must come before its class.");
+        }
+        if (!ClassLayout.isObject(clazz)) {
+            throw new IOException(clazz.getName() + " is not a model class.");
+        }
+        if (objects.containsKey(id)) {
+            throw new IOException("There is more than one object with the id " + id);
+        }
+        try {
+            Object object = ClassLayout.of(clazz).newInstance();
+            objects.put(id, object);
+            return object;
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IOException("Could not create an instance of " + clazz.getName(), e);
+        }
+    }
+
+    /**
+     * Reads the fields of an object. Fields that no longer exist are skipped.
+     * @param in the reader to read from.
+     * @param object the object.
+     * @throws IOException if a value is invalid.
+     */
+    private void readFields(final JsonReader in, final Object object) throws IOException {
+        Map<String, Field> fields = ClassLayout.of(object.getClass()).getFields();
+        in.beginObject();
+        while (in.hasNext()) {
+            Field field = fields.get(in.nextName());
+            if (field == null) {
+                in.skipValue();
+                continue;
+            }
+            Object value = readValue(in, field.getGenericType());
+            if (value instanceof Reference) {
+                Reference reference = (Reference) value;
+                fieldLinkUps.add(() -> setField(field, object, resolve(reference)));
+            }
+            else if (value != null || !field.getType().isPrimitive()) {
+                setField(field, object, value);
+            }
+        }
+        in.endObject();
+    }
+
+    /**
+     * Sets the value of a field.
+     * @param field the field.
+     * @param object the object to set the value on.
+     * @param value the value.
+     * @throws IOException if the value is not compatible with the field.
+     */
+    private static void setField(final Field field, final Object object, final Object value) throws IOException {
+        try {
+            field.set(object, value);
+        }
+        catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new IOException("Could not restore " + field.getDeclaringClass().getName() + "." + field.getName(), e);
+        }
+    }
+
+    /**
+     * Reads a value. Plain JSON values are read as the declared type, wrapped values as the class they give.
+     * @param in the reader to read from.
+     * @param type the declared type of the value.
+     * @return the value, a Reference if it refers to an object that has not been read yet.
+     * @throws IOException if the value is invalid.
+     */
+    private Object readValue(final JsonReader in, final Type type) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token != JsonToken.BEGIN_OBJECT) {
+            return readPlainValue(in, JsonFormat.getRawType(type), type);
+        }
+        Class<?> clazz = null;
+        Object value = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals(JsonFormat.CLASS_PROPERTY)) {
+                clazz = getClass(in.nextString());
+            }
+            else if (name.equals(JsonFormat.VALUE_PROPERTY) && clazz != null) {
+                value = readPlainValue(in, clazz, type);
+            }
+            else if (name.equals(JsonFormat.SERIALIZED_PROPERTY)) {
+                value = deserialize(in.nextString());
+            }
+            else {
+                throw new IOException("Unexpected " + name + " in a wrapped value.");
+            }
+        }
+        in.endObject();
+        return value;
+    }
+
+    /**
+     * Reads a plain JSON value.
+     * @param in the reader to read from.
+     * @param clazz the class to read the value as.
+     * @param type the declared type of the value, which gives the types of the elements of collections and maps.
+     * @return the value, a Reference if it refers to an object that has not been read yet.
+     * @throws IOException if the value is invalid.
+     */
+    @SuppressWarnings("unchecked")
+    private Object readPlainValue(final JsonReader in, final Class<?> clazz, final Type type) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.BEGIN_ARRAY) {
+            return readContainer(in, clazz, type);
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return in.nextBoolean();
+        }
+        if (JsonFormat.isReferenceType(clazz)) {
+            int id = in.nextInt();
+            Object object = objects.get(id);
+            if (object == null) {
+                return new Reference(id);
+            }
+            return object;
+        }
+        // numbers are read from their text, so that floats are read exactly as they were written
+        String text = in.nextString();
+        Class<?> boxed = JsonFormat.box(clazz);
+        try {
+            if (boxed == Integer.class) {
+                return Integer.valueOf(text);
+            }
+            else if (boxed == Long.class) {
+                return Long.valueOf(text);
+            }
+            else if (boxed == Float.class) {
+                return InterningHelper.intern(Float.valueOf(text));
+            }
+            else if (boxed == Double.class) {
+                return Double.valueOf(text);
+            }
+            else if (boxed == Short.class) {
+                return Short.valueOf(text);
+            }
+            else if (boxed == Byte.class) {
+                return Byte.valueOf(text);
+            }
+            else if (boxed == Character.class && text.length() == 1) {
+                return text.charAt(0);
+            }
+            else if (clazz == LocalDate.class) {
+                return InterningHelper.intern(LocalDate.parse(text));
+            }
+            else if (clazz.isEnum()) {
+                return Enum.valueOf((Class) clazz, text);
+            }
+        }
+        catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IOException("Could not read " + text + " as a " + clazz.getName(), e);
+        }
+        if (!clazz.isAssignableFrom(String.class)) {
+            throw new IOException("Could not read " + text + " as a " + clazz.getName());
+        }
+        return InterningHelper.intern(text);
+    }
+
+    /**
+     * Reads a collection, or a map stored as an array of key/value pairs. It is filled once every object has been read.
+     * @param in the reader to read from.
+     * @param clazz the class to read the value as.
+     * @param type the declared type of the collection or map.
+     * @return the empty collection or map.
+     * @throws IOException if the value is invalid.
+     */
+    @SuppressWarnings("unchecked")
+    private Object readContainer(final JsonReader in, final Class<?> clazz, final Type type) throws IOException {
+        Class<?> containerClass = JsonFormat.getContainerClass(clazz);
+        if (containerClass == null) {
+            throw new IOException("Could not read an array as a " + clazz.getName());
+        }
+        Object container;
+        try {
+            container = containerClass.getConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IOException("Could not create an instance of " + containerClass.getName(), e);
+        }
+        Type elementType = JsonFormat.getTypeArgument(type, 0);
+        List<Object> elements = new ArrayList<>();
+        in.beginArray();
+        if (container instanceof Map) {
+            Type valueType = JsonFormat.getTypeArgument(type, 1);
+            while (in.hasNext()) {
+                in.beginArray();
+                elements.add(readValue(in, elementType));
+                elements.add(readValue(in, valueType));
+                in.endArray();
+            }
+            Map<Object, Object> map = (Map<Object, Object>) container;
+            containerLinkUps.add(() -> {
+                for (int i = 0; i < elements.size(); i += 2) {
+                    map.put(resolve(elements.get(i)), resolve(elements.get(i + 1)));
+                }
+            });
+        }
+        else {
+            while (in.hasNext()) {
+                elements.add(readValue(in, elementType));
+            }
+            Collection<Object> collection = (Collection<Object>) container;
+            containerLinkUps.add(() -> {
+                for (Object element : elements) {
+                    collection.add(resolve(element));
+                }
+            });
+        }
+        in.endArray();
+        return container;
+    }
+
+    /**
+     * Resolves a reference to an object, once every object has been read.
+     * @param value the value, which may be a reference.
+     * @return the object referred to, or the value itself if it is not a reference.
+     * @throws IOException if the reference is to an object that does not exist.
+     */
+    private Object resolve(final Object value) throws IOException {
+        if (!(value instanceof Reference)) {
+            return value;
+        }
+        int id = ((Reference) value).id;
+        Object object = objects.get(id);
+        if (object == null) {
+            throw new IOException("Reference to object " + id + " which does not exist.");
+        }
+        return object;
+    }
+
+    /**
+     * Reads a value stored using java serialization.
+     * @param base64 the serialized value.
+     * @return the value.
+     * @throws IOException if the value is invalid.
+     */
+    private static Object deserialize(final String base64) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(base64);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("Serialized value is not valid base64.", e);
+        }
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objectIn.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("Contains a value of an unknown class.", e);
+        }
+    }
+
+    /**
+     * Looks up a class by name.
+     * @param name the name of the class.
+     * @return the class.
+     * @throws IOException if the class no longer exists.
+     */
+    private Class<?> getClass(final String name) throws IOException {
+        Class<?> clazz = classes.get(name);
+        if (clazz == null) {
+            try {
+                clazz = Class.forName(name, false, JsonModelReader.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e) {
+                throw new IOException("Uses the unknown class " + name, e);
+            }
+            classes.put(name, clazz);
+        }
+        return clazz;
+    }
+
+    /**
+     * A reference to an object that had not been read yet.
+     */
+    private static final class Reference {
+
+        /**
+         * The id of the object.
+         */
+        private final int id;
+
+        /**
+         * Creates a new reference.
+         * @param objectId the id of the object.
+         */
+        private Reference(final int objectId) {
+            id = objectId;
+        }
+    }
+
+    /**
+     * Part of the model that can only be linked up once every object has been read.
+     */
+    @FunctionalInterface
+    private interface LinkUp {
+
+        /**
+         * Links up the part of the model.
+         * @throws IOException if it refers to an object that does not exist.
+         */
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,327 @@
+package sws.murcs.model.persistence.json;
+
+import com.google.gson.stream.JsonWriter;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.persistence.binary.ClassLayout;
+import sws.murcs.model.persistence.binary.FrozenModel;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an organisation as JSON in a single streaming pass, see JsonFormat for the layout.
+ * Objects are given an id the first time they are referred to and written in the order of their ids, so
+ * nothing is buffered apart from the ids themselves.
+ * A writer should only be used to write a single organisation.
+ */
+public final class JsonModelWriter {
+
+    /**
+     * Ids of the objects that have been referred to, keyed by the object.
+     */
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+
+    /**
+     * Objects that have been given an id, indexed by their id.
+     */
+    private final List<Object> objects = new ArrayList<>();
+
+    /**
+     * The frozen model being written, null if the organisation is read directly.
+     */
+    private FrozenModel frozenModel;
+
+    /**
+     * Writes an organisation to a stream. The stream is not closed.
+     * This reads the organisation, so it must be called on the thread that changes it.
+     * @param organisation the organisation to write.
+     * @param stream the stream to write to.
+     * @throws IOException if writing fails or the organisation contains a value that cannot be persisted.
+     */
+    public void write(final Organisation organisation, final OutputStream stream) throws IOException {
+        organisation.loadAll();
+        writeModel(organisation, stream);
+    }
+
+    /**
+     * Writes a frozen model to a stream, so that it can be written on another thread while the
+     * organisation continues to be edited. The stream is not closed.
+     * @param frozen the frozen model to write.
+     * @param stream the stream to write to.
+     * @throws IOException if writing fails or the model contains a value that cannot be persisted.
+     */
+    public void write(final FrozenModel frozen, final OutputStream stream) throws IOException {
+        frozenModel = frozen;
+        writeModel(frozen.getOrganisation(), stream);
+    }
+
+    /**
+     * Writes the organisation and every object it refers to.
+     * @param organisation the organisation.
+     * @param stream the stream to write to.
+     * @throws IOException if writing fails.
+     */
+    private void writeModel(final Organisation organisation, final OutputStream stream) throws IOException {
+        JsonWriter out = new JsonWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8)));
+        out.setIndent(JsonFormat.INDENT);
+        // NaN and infinite floats are written as they are, rather than failing the save
+        out.setLenient(true);
+        out.beginObject();
+        out.name(JsonFormat.FORMAT_PROPERTY).value(JsonFormat.FORMAT);
+        out.name(JsonFormat.VERSION_PROPERTY).value(JsonFormat.VERSION);
+        out.name(JsonFormat.OBJECTS_PROPERTY).beginArray();
+        getId(organisation);
+        // objects referred to while writing are added to the end of the list
+        for (int id = 0; id < objects.size(); id++) {
+            writeObject(out, id, objects.get(id));
+        }
+        out.endArray();
+        out.endObject();
+        out.flush();
+    }
+
+    /**
+     * Writes an object and the values of its fields.
+     * @param out the writer to write to.
+     * @param id the id of the object.
+     * @param object the object.
+     * @throws IOException if writing fails.
+     */
+    private void writeObject(final JsonWriter out, final int id, final Object object) throws IOException {
+        ClassLayout layout = ClassLayout.of(object.getClass());
+        Field[] fields = layout.getFieldArray();
+        Object[] values = getValues(object, fields);
+        out.beginObject();
+        out.name(JsonFormat.ID_PROPERTY).value(id);
+        out.name(JsonFormat.CLASS_PROPERTY).value(object.getClass().getName());
+        out.name(JsonFormat.FIELDS_PROPERTY).beginObject();
+        // the names are in the same order as the field array
+        int i = 0;
+        for (String name : layout.getFields().keySet()) {
+            if (values[i] != null) {
+                out.name(name);
+                writeValue(out, fields[i].getGenericType(), values[i]);
+            }
+            i++;
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    /**
+     * Gets the values of the persisted fields of an object, from the frozen model if one is being written.
+     * @param object the object.
+     * @param fields the persisted fields of the object.
+     * @return the values of the fields.
+     */
+    private Object[] getValues(final Object object, final Field[] fields) {
+        if (frozenModel != null) {
+            Object[] frozen = frozenModel.getValues(object);
+            if (frozen == null) {
+                throw new IllegalStateException("Object " + object + " was not part of the frozen model.");
+            }
+            return frozen;
+        }
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = ClassLayout.getFieldValue(fields[i], object);
+        }
+        return values;
+    }
+
+    /**
+     * Gets the id of an object, giving it the next id if it does not have one yet.
+     * @param object the object.
+     * @return the id of the object.
+     */
+    private int getId(final Object object) {
+        Integer id = ids.get(object);
+        if (id == null) {
+            id = objects.size();
+            ids.put(object, id);
+            objects.add(object);
+        }
+        return id;
+    }
+
+    /**
+     * Writes a value, as plain JSON if its declared type says how to read it back, otherwise wrapped with its class.
+     * @param out the writer to write to.
+     * @param type the declared type of the value.
+     * @param value the value, which must not be null.
+     * @throws IOException if writing fails or the value cannot be persisted.
+     */
+    private void writeValue(final JsonWriter out, final Type type, final Object value) throws IOException {
+        Class<?> declared = JsonFormat.getRawType(type);
+        Class<?> actual = getPlainClass(value);
+        if (actual == null) {
+            if (!(value instanceof Serializable)) {
+                throw new IOException("Values of type " + value.getClass().getName() + " cannot be persisted.");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(value);
+            }
+            out.beginObject();
+            out.name(JsonFormat.CLASS_PROPERTY).value(value.getClass().getName());
+            out.name(JsonFormat.SERIALIZED_PROPERTY).value(Base64.getEncoder().encodeToString(bytes.toByteArray()));
+            out.endObject();
+        }
+        else if (isPlain(declared, actual, value)) {
+            writePlainValue(out, type, value);
+        }
+        else {
+            out.beginObject();
+            out.name(JsonFormat.CLASS_PROPERTY).value(actual.getName());
+            out.name(JsonFormat.VALUE_PROPERTY);
+            writePlainValue(out, type, value);
+            out.endObject();
+        }
+    }
+
+    /**
+     * Gets the class a value is read back as when it is written as plain JSON.
+     * @param value the value.
+     * @return the class, or null if the value has no JSON representation.
+     */
+    private static Class<?> getPlainClass(final Object value) {
+        if (value instanceof FrozenModel.Container) {
+            return ((FrozenModel.Container) value).getType();
+        }
+        if (value instanceof Collection) {
+            return ClassLayout.getCollectionClass((Collection<?>) value);
+        }
+        if (value instanceof Map) {
+            return ClassLayout.getMapClass((Map<?, ?>) value);
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).getDeclaringClass();
+        }
+        if (ClassLayout.isObject(value.getClass()) || JsonFormat.isPlainSimpleValue(value.getClass(), value)) {
+            return value.getClass();
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a value can be written without its class.
+     * @param declared the declared class of the value.
+     * @param actual the class the value is read back as.
+     * @param value the value.
+     * @return true if reading the plain value as the declared class gives the same class.
+     */
+    private static boolean isPlain(final Class<?> declared, final Class<?> actual, final Object value) {
+        if (ClassLayout.isObject(actual)) {
+            return JsonFormat.isReferenceType(declared);
+        }
+        if (value instanceof FrozenModel.Container || value instanceof Collection || value instanceof Map) {
+            return JsonFormat.getContainerClass(declared) == actual;
+        }
+        return JsonFormat.isPlainSimpleValue(declared, value);
+    }
+
+    /**
+     * Writes a value as plain JSON.
+     * @param out the writer to write to.
+     * @param type the declared type of the value, which gives the types of the elements of collections and maps.
+     * @param value the value.
+     * @throws IOException if writing fails.
+     */
+    private void writePlainValue(final JsonWriter out, final Type type, final Object value) throws IOException {
+        if (value instanceof Boolean) {
+            out.value((boolean) (Boolean) value);
+        }
+        else if (value instanceof Number) {
+            out.value((Number) value);
+        }
+        else if (value instanceof String) {
+            out.value((String) value);
+        }
+        else if (value instanceof Enum) {
+            out.value(((Enum<?>) value).name());
+        }
+        else if (value instanceof Character || value instanceof LocalDate) {
+            out.value(value.toString());
+        }
+        else if (value instanceof FrozenModel.Container) {
+            FrozenModel.Container container = (FrozenModel.Container) value;
+            writeElements(out, type, container.isMap(), container.getElements());
+        }
+        else if (value instanceof Collection) {
+            writeElements(out, type, false, ((Collection<?>) value).toArray());
+        }
+        else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Object[] elements = new Object[map.size() * 2];
+            int i = 0;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                elements[i++] = entry.getKey();
+                elements[i++] = entry.getValue();
+            }
+            writeElements(out, type, true, elements);
+        }
+        else {
+            out.value(getId(value));
+        }
+    }
+
+    /**
+     * Writes the elements of a collection, or the key/value pairs of a map, as an array.
+     * @param out the writer to write to.
+     * @param type the declared type of the collection or map.
+     * @param isMap whether this is a map.
+     * @param elements the elements, or the keys and values of a map one after the other.
+     * @throws IOException if writing fails.
+     */
+    private void writeElements(final JsonWriter out, final Type type, final boolean isMap, final Object[] elements)
+            throws IOException {
+        Type elementType = JsonFormat.getTypeArgument(type, 0);
+        out.beginArray();
+        if (isMap) {
+            Type valueType = JsonFormat.getTypeArgument(type, 1);
+            for (int i = 0; i < elements.length; i += 2) {
+                out.beginArray();
+                writeNullable(out, elementType, elements[i]);
+                writeNullable(out, valueType, elements[i + 1]);
+                out.endArray();
+            }
+        }
+        else {
+            for (Object element : elements) {
+                writeNullable(out, elementType, element);
+            }
+        }
+        out.endArray();
+    }
+
+    /**
+     * Writes a value that may be null.
+     * @param out the writer to write to.
+     * @param type the declared type of the value.
+     * @param value the value.
+     * @throws IOException if writing fails.
+     */
+    private void writeNullable(final JsonWriter out, final Type type, final Object value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        }
+        else {
+            writeValue(out, type, value);
+        }
+    }
+}
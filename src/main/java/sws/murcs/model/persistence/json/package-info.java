@@ -0,0 +1,5 @@
+/**
+ * This package contains the classes used to read and write
+ * organisations as streamed JSON.
+ */
+package sws.murcs.model.persistence.json;
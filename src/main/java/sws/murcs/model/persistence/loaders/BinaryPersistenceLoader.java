@@ -0,0 +1,214 @@
+package sws.murcs.model.persistence.loaders;
+
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.persistence.binary.BinaryFormat;
+import sws.murcs.model.persistence.binary.FrozenModel;
+import sws.murcs.model.persistence.binary.PartialSnapshot;
+import sws.murcs.model.persistence.binary.SnapshotReader;
+import sws.murcs.model.persistence.binary.SnapshotWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Manages loading persistent data from the local HD using the compact binary snapshot format.
+ * Files saved by the FilePersistenceLoader (using java serialization) can still be loaded, and
+ * will be written in the binary format the next time they are saved.
+ */
+public class BinaryPersistenceLoader extends FilePersistenceLoader {
+
+    /**
+     * Instantiates a new BinaryPersistenceLoader, defaulting to the current working directory.
+     */
+    public BinaryPersistenceLoader() {
+        super();
+    }
+
+    /**
+     * Instantiates a new BinaryPersistenceLoader.
+     * @param directory Directory to use persistent data in.
+     */
+    public BinaryPersistenceLoader(final String directory) {
+        super(directory);
+    }
+
+    /**
+     * Loads a model from the disk. Falls back to java serialization if the file is from an older version.
+     * @param persistenceName The name of the persistent file to load
+     * @param directory The directory to load the persistent file from.
+     * @return The loaded model.
+     */
+    @Override
+    public Organisation loadModel(final String persistenceName, final String directory) {
+        try {
+            File file = new File(directory + File.separator + persistenceName);
+            if (isLegacyFile(file)) {
+                return super.loadModel(persistenceName, directory);
+            }
+            return readModel(file);
+        }
+        catch (Exception e) {
+            System.err.println("An error occured while loading the persistent file:\n" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves a model out to a file.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @throws Exception when the persistent file could not be saved.
+     */
+    @Override
+    public void saveModel(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        try {
+            writeSnapshot(new File(directory + File.separator + name), persistent, new SnapshotWriter());
+        }
+        catch (Exception e) {
+            System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+            throw new Exception("Persistent file not saved.", e);
+        }
+    }
+
+    /**
+     * Captures the current state of a model so that it can be saved on another thread.
+     * The model is frozen, which only copies the values of its fields, and encoding and writing
+     * the snapshot is left for the task.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @return the task that writes the captured model.
+     * @throws Exception when the model could not be captured.
+     */
+    @Override
+    public SaveTask prepareSave(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        File file = new File(directory + File.separator + name);
+        FrozenModel frozen = FrozenModel.freeze(persistent);
+        return progress -> {
+            SnapshotWriter writer = new SnapshotWriter();
+            writer.setProgressListener(progress);
+            try {
+                writeSnapshot(file, frozen, writer);
+            }
+            catch (Exception e) {
+                System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+                throw new Exception("Persistent file not saved.", e);
+            }
+        };
+    }
+
+    /**
+     * Reads a model saved in the binary format. Only the organisation and the index of the models in it
+     * are read straight away, each type of model is read the first time it is needed.
+     * @param file the file to read.
+     * @return the model.
+     * @throws IOException if the file could not be read.
+     */
+    protected Organisation readModel(final File file) throws IOException {
+        return openSnapshot(file).getOrganisation();
+    }
+
+    /**
+     * Opens a snapshot file, so that its models are read as they are needed.
+     * Models read after the organisation has been imported into the UndoRedoManager are tracked by it.
+     * @param file the file to open.
+     * @return the opened snapshot.
+     * @throws IOException if the file could not be read.
+     */
+    protected static PartialSnapshot openSnapshot(final File file) throws IOException {
+        PartialSnapshot snapshot = PartialSnapshot.open(file);
+        snapshot.setLoadListener(types -> UndoRedoManager.get().importLoaded(snapshot.getOrganisation(), types));
+        return snapshot;
+    }
+
+    /**
+     * Reads a snapshot from a file.
+     * @param file the file to read.
+     * @param reader the reader to use.
+     * @return the model.
+     * @throws IOException if the file could not be read.
+     */
+    protected static Organisation readSnapshot(final File file, final SnapshotReader reader) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BinaryFormat.BUFFER_SIZE)) {
+            return reader.read(in);
+        }
+    }
+
+    /**
+     * Writes a snapshot to a file. The snapshot is written to a temporary file first and then moved
+     * into place, so the existing file is not lost if writing fails part way through.
+     * @param file the file to write.
+     * @param organisation the model to write.
+     * @param writer the writer to use.
+     * @throws IOException if the file could not be written.
+     */
+    protected static void writeSnapshot(final File file, final Organisation organisation, final SnapshotWriter writer)
+            throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BinaryFormat.BUFFER_SIZE)) {
+            writer.write(organisation, out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes a frozen model to a file, in the same way as writing the model itself.
+     * @param file the file to write.
+     * @param frozen the frozen model to write.
+     * @param writer the writer to use.
+     * @throws IOException if the file could not be written.
+     */
+    protected static void writeSnapshot(final File file, final FrozenModel frozen, final SnapshotWriter writer)
+            throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BinaryFormat.BUFFER_SIZE)) {
+            writer.write(frozen, out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Converts a file saved by the FilePersistenceLoader to the binary format, in place.
+     * @param persistenceName The name of the persistent file to convert.
+     * @return true if the file was converted, false if it was already in the binary format.
+     * @throws Exception if the file could not be converted.
+     */
+    public final boolean convertLegacyModel(final String persistenceName) throws Exception {
+        String directory = getCurrentWorkingDirectory();
+        if (!isLegacyFile(new File(directory + File.separator + persistenceName))) {
+            return false;
+        }
+        Organisation organisation = super.loadModel(persistenceName, directory);
+        if (organisation == null) {
+            throw new Exception("Could not load " + persistenceName + " to convert it.");
+        }
+        saveModel(persistenceName, organisation, directory);
+        return true;
+    }
+
+    /**
+     * Checks if a file was written using java serialization.
+     * @param file the file to check.
+     * @return true if the file is a java serialization stream.
+     * @throws IOException if the file could not be read.
+     */
+    protected static boolean isLegacyFile(final File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readShort() == ObjectStreamConstants.STREAM_MAGIC;
+        }
+    }
+}
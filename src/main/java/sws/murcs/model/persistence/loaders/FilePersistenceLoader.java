@@ -1,7 +1,9 @@
 package sws.murcs.model.persistence.loaders;
 
 import sws.murcs.model.Organisation;
+import sws.murcs.model.helpers.InterningHelper;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -70,7 +72,7 @@ public class FilePersistenceLoader implements PersistenceLoader {
      * @param directory The directory to load the persistent file from.
      * @return The loaded model.
      */
-    public final Organisation loadModel(final String persistenceName, final String directory) {
+    public Organisation loadModel(final String persistenceName, final String directory) {
         try {
             // Open the model file
             String persistentFileLocation = directory + File.separator + persistenceName;
@@ -80,6 +82,8 @@ public class FilePersistenceLoader implements PersistenceLoader {
             Organisation input = (Organisation) in.readObject();
             // Close input stream
             in.close();
+            // Serialization reads every value separately, so share the equal ones
+            InterningHelper.internAll(input);
             return input;
         }
         catch (Exception e) {
@@ -108,7 +112,7 @@ public class FilePersistenceLoader implements PersistenceLoader {
      * @param directory Directory to save the organisation in.
      * @throws Exception when the persistent file could not be loaded.
      */
-    public final void saveModel(final String name, final Organisation persistent, final String directory)
+    public void saveModel(final String name, final Organisation persistent, final String directory)
             throws Exception {
         try {
             // Open the persistent file
@@ -127,6 +131,78 @@ public class FilePersistenceLoader implements PersistenceLoader {
         }
     }
 
+    /**
+     * Saves only the changes made to a model since it was last saved or loaded, to the default directory.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @return true if the changes were saved, false if the model has to be saved in full.
+     * @throws Exception when the changes could not be saved.
+     */
+    @Override
+    public final boolean saveChanges(final String name, final Organisation persistent) throws Exception {
+        return saveChanges(name, persistent, getCurrentWorkingDirectory());
+    }
+
+    /**
+     * Saves only the changes made to a model since it was last saved or loaded.
+     * Java serialization can only write a model in full, so nothing is saved.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @return true if the changes were saved, false if the model has to be saved in full.
+     * @throws Exception when the changes could not be saved.
+     */
+    public boolean saveChanges(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        return false;
+    }
+
+    /**
+     * Captures the current state of a model so that it can be saved to the default directory on another thread.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @return the task that writes the captured model.
+     * @throws Exception when the model could not be captured.
+     */
+    @Override
+    public final SaveTask prepareSave(final String name, final Organisation persistent) throws Exception {
+        return prepareSave(name, persistent, getCurrentWorkingDirectory());
+    }
+
+    /**
+     * Captures the current state of a model so that it can be saved on another thread.
+     * Java serialization has to walk the whole model anyway, so the model is serialized straight away
+     * and only writing it to the disk is left for the task.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @return the task that writes the captured model.
+     * @throws Exception when the model could not be captured.
+     */
+    public SaveTask prepareSave(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(persistent);
+        }
+        File file = new File(directory + File.separator + name);
+        return progress -> {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                bytes.writeTo(out);
+            }
+            progress.accept(1);
+        };
+    }
+
+    /**
+     * Forgets the changes made to a model since it was last saved.
+     * Java serialization only writes a model when it is saved, so there is nothing to forget.
+     * @param persistent Organisation whose changes are being discarded.
+     */
+    @Override
+    public void discardChanges(final Organisation persistent) {
+    }
+
     /**
      * Gets a list of organisations that exist, are in the current working directory and have the default extension.
      * @return List of models.
@@ -183,6 +259,13 @@ public class FilePersistenceLoader implements PersistenceLoader {
     public final boolean deletePersistence(final String persistentName, final String directory) {
         try {
             File persistenceFile = new File(directory + File.separator + persistentName);
+            File[] contents = persistenceFile.listFiles();
+            if (contents != null) {
+                // projects saved as a directory of files
+                for (File content : contents) {
+                    content.delete();
+                }
+            }
 
             if (persistenceFile.delete()) {
                 return true;
@@ -0,0 +1,1032 @@
+package sws.murcs.model.persistence.loaders;
+
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.FieldAccessor;
+import sws.murcs.magic.tracking.HistoryFile;
+import sws.murcs.magic.tracking.HistorySource;
+import sws.murcs.magic.tracking.StableIds;
+import sws.murcs.magic.tracking.TrackableObject;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.magic.tracking.listener.ChangeSet;
+import sws.murcs.magic.tracking.listener.ChangeState;
+import sws.murcs.magic.tracking.listener.ModelChangeListener;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.persistence.binary.BinaryFormat;
+import sws.murcs.model.persistence.binary.ClassLayout;
+import sws.murcs.model.persistence.binary.FrozenModel;
+import sws.murcs.model.persistence.binary.JournalReader;
+import sws.murcs.model.persistence.binary.JournalWriter;
+import sws.murcs.model.persistence.binary.ObjectIds;
+import sws.murcs.model.persistence.binary.PartialSnapshot;
+import sws.murcs.model.persistence.binary.SnapshotReader;
+import sws.murcs.model.persistence.binary.SnapshotWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Manages loading persistent data from the local HD using a binary snapshot and an append only journal.
+ * Once a model has been loaded or saved, every commit, undo and redo appends the fields it changed to a
+ * journal next to the snapshot as it happens. Saving the same model again only has to mark the journal as
+ * saved, so the cost of saving depends on how much has changed rather than on the size of the organisation.
+ * Changes after the last saved marker were never saved, so they are only in the journal if the application
+ * exited without saving or discarding them. They are replayed when the model is loaded, and the model is
+ * marked as having unsaved changes, so at most the commit being written is lost.
+ * When the journal grows past a threshold its saved changes are compacted into a new snapshot in the background.
+ * Changes that are not tracked by the UndoRedoManager cannot be journaled, so while it is disabled
+ * models are always saved in full. Fields that are not tracked are journaled whenever their object changes.
+ * When a new snapshot is written in the background, the objects changed while it is written are journaled
+ * in full by the first commit or save after the snapshot is in place.
+ * The undo history is saved next to the snapshot whenever the journal is, referring to objects by their ids
+ * in the snapshot, and is given to the UndoRedoManager when the model is loaded so that it can still be
+ * undone after the application is restarted. Like the journal, only the commits made since the last save are
+ * added to the end of it, and the objects compaction removes from the snapshot are added to it so that the
+ * history saved before can still refer to them.
+ */
+public class JournalPersistenceLoader extends BinaryPersistenceLoader implements ModelChangeListener {
+
+    /**
+     * Extension added to the name of a snapshot to get the name of its journal.
+     */
+    public static final String JOURNAL_EXTENSION = ".journal";
+
+    /**
+     * Extension added to the name of a snapshot to get the name of its undo history.
+     */
+    public static final String HISTORY_EXTENSION = ".history";
+
+    /**
+     * Default size in bytes the journal can grow to before it is compacted.
+     */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 1 << 20;
+
+    /**
+     * Extension used for the snapshot being written while compacting.
+     */
+    private static final String COMPACTION_EXTENSION = ".compact";
+
+    /**
+     * Lock used to synchronise writing to the journal with compaction.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Size in bytes the journal can grow to before it is compacted.
+     */
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /**
+     * The model currently being journaled.
+     */
+    private Organisation model;
+
+    /**
+     * The snapshot of the model currently being journaled.
+     */
+    private File snapshotFile;
+
+    /**
+     * Ids of the objects in the model currently being journaled.
+     */
+    private ObjectIds ids;
+
+    /**
+     * Stamp of the snapshot of the model currently being journaled.
+     */
+    private long snapshotStamp;
+
+    /**
+     * Objects changed since the model was frozen for a snapshot that is being written in the background,
+     * which are journaled by the next commit or save once it is in place. Null if changes are not being tracked.
+     */
+    private Set<Object> dirtyObjects;
+
+    /**
+     * The names of the persisted fields of each class that are not tracked, or null for classes whose objects
+     * are always journaled in full.
+     */
+    private final Map<Class<?>, Set<String>> untrackedFields = new HashMap<>();
+
+    /**
+     * The journal being written to, null if changes are not being journaled.
+     */
+    private JournalWriter journal;
+
+    /**
+     * Incremented every time the journaled model changes, so that compaction of an old model can be discarded.
+     */
+    private long generation;
+
+    /**
+     * Undo history captured by saves that has not been written to the history file yet, in the order it was
+     * captured, so that a background save that is replaced by a newer one before it runs does not lose it.
+     */
+    private final ByteArrayOutputStream unwrittenHistory = new ByteArrayOutputStream();
+
+    /**
+     * If the unwritten history replaces the history file rather than being added to the end of it. Replacing it
+     * with nothing deletes it.
+     */
+    private boolean replaceHistory;
+
+    /**
+     * The history file the unwritten history is for, null if there is no unwritten history.
+     */
+    private File unwrittenHistoryFile;
+
+    /**
+     * The length of the history file of the model being journaled when it was last written, -1 if not known.
+     */
+    private long historyLength = -1;
+
+    /**
+     * If the history file of the model being journaled (once the unwritten history is written) has history that
+     * the UndoRedoManager can add the changes to its history to, rather than saving it in full.
+     */
+    private boolean historyAppendable;
+
+    /**
+     * The objects of the model being journaled that were removed from it when it was compacted, keyed by the id
+     * they had, as the saved history that has not been read yet can still refer to them.
+     */
+    private final Map<Integer, Object> droppedObjects = new HashMap<>();
+
+    /**
+     * Executor that compaction runs on.
+     */
+    private ExecutorService compactor;
+
+    /**
+     * The most recent compaction.
+     */
+    private Future<?> compaction;
+
+    /**
+     * Instantiates a new JournalPersistenceLoader, defaulting to the current working directory.
+     */
+    public JournalPersistenceLoader() {
+        super();
+    }
+
+    /**
+     * Instantiates a new JournalPersistenceLoader.
+     * @param directory Directory to use persistent data in.
+     */
+    public JournalPersistenceLoader(final String directory) {
+        super(directory);
+    }
+
+    /**
+     * Gets the size in bytes the journal can grow to before it is compacted.
+     * @return the compaction threshold.
+     */
+    public final long getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Sets the size in bytes the journal can grow to before it is compacted.
+     * @param threshold the new compaction threshold.
+     */
+    public final void setCompactionThreshold(final long threshold) {
+        compactionThreshold = threshold;
+    }
+
+    /**
+     * Loads a model from the disk, replaying the changes in its journal.
+     * @param persistenceName The name of the persistent file to load
+     * @param directory The directory to load the persistent file from.
+     * @return The loaded model.
+     */
+    @Override
+    public final Organisation loadModel(final String persistenceName, final String directory) {
+        detach();
+        return super.loadModel(persistenceName, directory);
+    }
+
+    /**
+     * Reads a snapshot and replays its journal, then starts journaling changes to the model.
+     * If changes that were never saved are recovered from the journal, the UndoRedoManager is told so that the
+     * model has unsaved changes once it is imported. The saved undo history does not lead up to them, so it
+     * is not used.
+     * @param file the file to read.
+     * @return the model.
+     * @throws IOException if the file could not be read.
+     */
+    @Override
+    protected final Organisation readModel(final File file) throws IOException {
+        PartialSnapshot snapshot = openSnapshot(file);
+        // loading a model adds to the ids being journaled against, which compaction can be using
+        snapshot.setLock(lock);
+        Organisation organisation = snapshot.getOrganisation();
+        File journalFile = getJournalFile(file);
+        long validLength = -1;
+        long savedLength = -1;
+        boolean recovered = false;
+        if (journalFile.exists()) {
+            if (journalFile.length() > BinaryFormat.JOURNAL_HEADER_LENGTH) {
+                // changes are replayed by id, so every object they could refer to has to be loaded
+                organisation.loadAll();
+            }
+            JournalReader.Result journaled = JournalReader.recover(journalFile, snapshot.getIds(), snapshot.getStamp());
+            validLength = journaled.getLength();
+            savedLength = journaled.getSavedLength();
+            recovered = journaled.hasUnsavedChanges();
+        }
+        attach(file, organisation, snapshot.getIds(), snapshot.getStamp(), validLength, savedLength);
+        File historyFile = getHistoryFile(file);
+        if (recovered) {
+            UndoRedoManager.get().setRecoveredChanges(organisation);
+        }
+        else if (historyFile.exists()) {
+            UndoRedoManager.get().setSavedHistory(organisation,
+                    new SavedHistory(historyFile, organisation, snapshot.getIds(), snapshot.getStamp()));
+            synchronized (lock) {
+                historyAppendable = true;
+            }
+        }
+        synchronized (lock) {
+            if (journal != null && journal.getSavedSize() > BinaryFormat.JOURNAL_HEADER_LENGTH) {
+                // folding the journal into the snapshot means the model can be loaded partially next time
+                startCompaction();
+            }
+        }
+        return organisation;
+    }
+
+    /**
+     * Saves a model out to a file. If the model is the one being journaled only the journal is updated,
+     * otherwise a new snapshot is written.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @throws Exception when the persistent file could not be saved.
+     */
+    @Override
+    public final void saveModel(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        File file = new File(directory + File.separator + name);
+        try {
+            if (appendChanges(file, persistent)) {
+                return;
+            }
+            detach();
+            SnapshotWriter writer = new SnapshotWriter();
+            writeSnapshot(file, persistent, writer);
+            attach(file, persistent, writer.getIds(), writer.getStamp(), -1, -1);
+            synchronized (lock) {
+                captureHistory(file, persistent);
+                flushHistory();
+            }
+        }
+        catch (Exception e) {
+            detach();
+            System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+            throw new Exception("Persistent file not saved.", e);
+        }
+    }
+
+    /**
+     * Saves only the changes made to a model since it was last saved, which have already been journaled,
+     * by marking its journal as saved. This is only possible if the model is the one being journaled.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @return true if the changes were saved, false if the model has to be saved in full.
+     * @throws Exception when the changes could not be saved.
+     */
+    @Override
+    public final boolean saveChanges(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        try {
+            return appendChanges(new File(directory + File.separator + name), persistent);
+        }
+        catch (IOException e) {
+            detach();
+            System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+            throw new Exception("Persistent file not saved.", e);
+        }
+    }
+
+    /**
+     * Captures the current state of a model so that it can be saved on another thread.
+     * If the model is the one being journaled the journal is marked as saved straight away, and the task
+     * only has to make sure it reaches the disk. Otherwise the model is frozen, and the task writes it
+     * to a new snapshot and starts journaling changes against it.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @return the task that writes the captured model.
+     * @throws Exception when the model could not be captured.
+     */
+    @Override
+    public final SaveTask prepareSave(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        File file = new File(directory + File.separator + name);
+        synchronized (lock) {
+            if (canAppend(file, persistent)) {
+                try {
+                    appendDirtyObjects();
+                    journal.markSaved();
+                }
+                catch (IOException e) {
+                    closeJournal();
+                    System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+                    throw new Exception("Persistent file not saved.", e);
+                }
+                JournalWriter saved = journal;
+                captureHistory(file, persistent);
+                return progress -> {
+                    syncJournal(saved);
+                    synchronized (lock) {
+                        flushHistory();
+                    }
+                    progress.accept(1);
+                };
+            }
+        }
+
+        detach();
+        FrozenModel frozen = FrozenModel.freeze(persistent);
+        long saveGeneration;
+        synchronized (lock) {
+            saveGeneration = generation;
+            dirtyObjects = newObjectSet();
+        }
+        // changes made while the snapshot is written are remembered, so that they can be journaled later
+        UndoRedoManager.get().addModelChangeListener(this);
+        return progress -> writeFrozen(file, persistent, frozen, saveGeneration, progress);
+    }
+
+    /**
+     * Forgets the changes made to a model since it was last saved, which have been journaled as they were made,
+     * so that they are not recovered when it is next loaded. The model stops being journaled, so the next save
+     * writes a new snapshot. Nothing is done if the model is not the one being journaled.
+     * @param persistent the model whose changes are being discarded.
+     */
+    @Override
+    public final void discardChanges(final Organisation persistent) {
+        synchronized (lock) {
+            if (model != persistent) {
+                return;
+            }
+            if (journal != null) {
+                try {
+                    journal.discardUnsaved();
+                }
+                catch (IOException e) {
+                    System.err.println("Could not discard the unsaved changes in the journal:\n" + e.getMessage());
+                }
+            }
+        }
+        detach();
+    }
+
+    /**
+     * Journals the objects changed by a commit, undo or redo in full, as it is not known which of their
+     * fields changed.
+     * @param state the operation that changed the objects.
+     * @param changedObjects the objects that changed.
+     */
+    @Override
+    public final void modelChanged(final ChangeState state, final Collection<TrackableObject> changedObjects) {
+        modelChanged(state, changedObjects, null);
+    }
+
+    /**
+     * Journals the fields changed by a commit, undo or redo straight away, so that they can be recovered if the
+     * application exits before they are saved. While a snapshot is being written in the background, the objects
+     * are remembered instead so that they can be journaled once it is in place.
+     * @param state the operation that changed the objects.
+     * @param changedObjects the objects that changed.
+     * @param changes the objects and fields that were touched, or null if they are not known.
+     */
+    @Override
+    public final void modelChanged(final ChangeState state, final Collection<TrackableObject> changedObjects,
+                                   final ChangeSet changes) {
+        synchronized (lock) {
+            if (journal == null) {
+                if (dirtyObjects != null) {
+                    dirtyObjects.addAll(changedObjects);
+                }
+                return;
+            }
+            try {
+                appendDirtyObjects();
+                journal.append(getChangedFields(changedObjects, changes));
+            }
+            catch (IOException e) {
+                System.err.println("Could not write to the journal, the next save will be a full save:\n"
+                        + e.getMessage());
+                closeJournal();
+            }
+        }
+    }
+
+    /**
+     * Waits for any compaction that is running to finish, e.g. before the application exits.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public final void awaitCompaction() throws InterruptedException {
+        Future<?> running;
+        synchronized (lock) {
+            running = compaction;
+        }
+        if (running == null) {
+            return;
+        }
+        try {
+            running.get();
+        }
+        catch (ExecutionException e) {
+            System.err.println("Compacting the journal failed:\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the journal file for a snapshot.
+     * @param file the snapshot.
+     * @return the journal file.
+     */
+    public static File getJournalFile(final File file) {
+        return new File(file.getPath() + JOURNAL_EXTENSION);
+    }
+
+    /**
+     * Gets the undo history file for a snapshot.
+     * @param file the snapshot.
+     * @return the history file.
+     */
+    public static File getHistoryFile(final File file) {
+        return new File(file.getPath() + HISTORY_EXTENSION);
+    }
+
+    /**
+     * Checks if a model can be saved by only marking the journal as saved.
+     * @param file the file the model is being saved to.
+     * @param persistent the model being saved.
+     * @return true if the journal can be used.
+     */
+    private boolean canAppend(final File file, final Organisation persistent) {
+        return journal != null
+                && model == persistent
+                && snapshotFile.equals(file)
+                && file.exists()
+                && !UndoRedoManager.get().getDisable();
+    }
+
+    /**
+     * Starts journaling changes to a model.
+     * @param file the snapshot of the model.
+     * @param organisation the model.
+     * @param objectIds the ids of the objects in the model.
+     * @param stamp the stamp of the snapshot.
+     * @param validLength the length of the existing journal to keep, or -1 to start a new journal.
+     * @param savedLength the length of the existing journal up to its last saved marker, or -1.
+     */
+    private void attach(final File file, final Organisation organisation, final ObjectIds objectIds,
+                        final long stamp, final long validLength, final long savedLength) {
+        synchronized (lock) {
+            if (!openJournal(file, organisation, objectIds, stamp, validLength, savedLength)) {
+                return;
+            }
+            dirtyObjects = newObjectSet();
+        }
+        UndoRedoManager.get().addModelChangeListener(this);
+    }
+
+    /**
+     * Opens the journal for a model. The lock must be held while calling this.
+     * @param file the snapshot of the model.
+     * @param organisation the model.
+     * @param objectIds the ids of the objects in the model.
+     * @param stamp the stamp of the snapshot.
+     * @param validLength the length of the existing journal to keep, or -1 to start a new journal.
+     * @param savedLength the length of the existing journal up to its last saved marker, or -1.
+     * @return true if the journal was opened.
+     */
+    private boolean openJournal(final File file, final Organisation organisation, final ObjectIds objectIds,
+                                final long stamp, final long validLength, final long savedLength) {
+        try {
+            journal = new JournalWriter(getJournalFile(file), objectIds, stamp, validLength, savedLength);
+        }
+        catch (IOException e) {
+            System.err.println("Could not open the journal, changes will be saved in full:\n" + e.getMessage());
+            return false;
+        }
+        generation++;
+        model = organisation;
+        snapshotFile = file;
+        ids = objectIds;
+        snapshotStamp = stamp;
+        historyLength = -1;
+        historyAppendable = false;
+        droppedObjects.clear();
+        return true;
+    }
+
+    /**
+     * Stops journaling changes to the current model.
+     */
+    private void detach() {
+        UndoRedoManager.get().removeModelChangeListener(this);
+        synchronized (lock) {
+            generation++;
+            flushHistory();
+            closeJournal();
+            model = null;
+            snapshotFile = null;
+            ids = null;
+            dirtyObjects = null;
+        }
+    }
+
+    /**
+     * Saves a model by marking its journal as saved, if it is the model being journaled.
+     * @param file the file the model is being saved to.
+     * @param persistent the model being saved.
+     * @return true if the changes were saved, false if the model has to be saved in full.
+     * @throws IOException if the changes could not be written.
+     */
+    private boolean appendChanges(final File file, final Organisation persistent) throws IOException {
+        synchronized (lock) {
+            if (!canAppend(file, persistent)) {
+                return false;
+            }
+            appendDirtyObjects();
+            journal.markSaved();
+            journal.sync();
+            captureHistory(file, persistent);
+            flushHistory();
+            if (journal.getSize() > compactionThreshold) {
+                startCompaction();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Journals the objects that changed while a snapshot was being written in the background, in full.
+     * This reads the objects, so it must be called on the thread that changes the model, with the lock held.
+     * @throws IOException if the changes could not be written.
+     */
+    private void appendDirtyObjects() throws IOException {
+        if (dirtyObjects.isEmpty()) {
+            return;
+        }
+        journal.append(dirtyObjects);
+        dirtyObjects = newObjectSet();
+    }
+
+    /**
+     * Finds the persisted fields to journal for each changed object. These are the tracked fields that changed,
+     * and every field that is not tracked, as changes to those cannot be seen.
+     * This must be called with the lock held.
+     * @param changedObjects the objects that changed.
+     * @param changes the objects and fields that were touched, or null if they are not known.
+     * @return the names of the fields to journal for each object, or null for objects to journal in full.
+     */
+    private Map<Object, Collection<String>> getChangedFields(final Collection<TrackableObject> changedObjects,
+                                                             final ChangeSet changes) {
+        Map<Object, Collection<String>> changedFields = new IdentityHashMap<>();
+        for (TrackableObject object : changedObjects) {
+            Set<String> touched = null;
+            if (changes != null) {
+                touched = changes.getFields(object);
+            }
+            Set<String> untracked = getUntrackedFields(object.getClass());
+            if (touched == null || touched.isEmpty() || untracked == null) {
+                changedFields.put(object, null);
+            }
+            else {
+                Set<String> names = new HashSet<>(untracked);
+                names.addAll(touched);
+                changedFields.put(object, names);
+            }
+        }
+        return changedFields;
+    }
+
+    /**
+     * Gets the names of the persisted fields of a class that are not tracked by the UndoRedoManager.
+     * This must be called with the lock held.
+     * @param clazz the class.
+     * @return the names of the fields, or null if a tracked field is not persisted under its own name (e.g. it
+     * is hidden by a field of a subclass), in which case objects of the class are journaled in full.
+     */
+    private Set<String> getUntrackedFields(final Class<?> clazz) {
+        if (untrackedFields.containsKey(clazz)) {
+            return untrackedFields.get(clazz);
+        }
+        Map<String, Field> persisted = ClassLayout.of(clazz).getFields();
+        Set<String> untracked = new HashSet<>(persisted.keySet());
+        for (FieldAccessor tracked : ClassMetadata.of(clazz).getTrackedFields()) {
+            Field field = persisted.get(tracked.getName());
+            if (field != null && !field.equals(tracked.getField())) {
+                untracked = null;
+                break;
+            }
+            untracked.remove(tracked.getName());
+        }
+        untrackedFields.put(clazz, untracked);
+        return untracked;
+    }
+
+    /**
+     * Creates a set of objects that compares its elements by identity, as models can be equal without
+     * being the same object.
+     * @return the new set.
+     */
+    private static Set<Object> newObjectSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * Makes sure a journal that was marked as saved has reached the disk, and compacts it if it is too big.
+     * @param saved the journal that was marked as saved.
+     * @throws Exception if the journal could not be written.
+     */
+    private void syncJournal(final JournalWriter saved) throws Exception {
+        synchronized (lock) {
+            if (journal != saved) {
+                // the journal was closed and its marker has already been flushed, there is nothing left to do
+                return;
+            }
+            try {
+                journal.sync();
+            }
+            catch (IOException e) {
+                closeJournal();
+                System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+                throw new Exception("Persistent file not saved.", e);
+            }
+            if (journal.getSize() > compactionThreshold) {
+                startCompaction();
+            }
+        }
+    }
+
+    /**
+     * Writes a frozen model to a new snapshot, then starts journaling changes against it if nothing else
+     * has been saved or loaded in the meantime. The objects that changed while the snapshot was being
+     * written can only be read on the thread that changes the model, so they are journaled by the next save.
+     * @param file the file to write.
+     * @param persistent the model that was frozen.
+     * @param frozen the frozen model.
+     * @param saveGeneration the generation the model was frozen in.
+     * @param progress told the fraction of the snapshot that has been written.
+     * @throws Exception if the snapshot could not be written.
+     */
+    private void writeFrozen(final File file, final Organisation persistent, final FrozenModel frozen,
+                             final long saveGeneration, final DoubleConsumer progress) throws Exception {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            SnapshotWriter writer = new SnapshotWriter();
+            writer.setProgressListener(progress);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BinaryFormat.BUFFER_SIZE)) {
+                writer.write(frozen, out);
+            }
+            synchronized (lock) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                // the history refers to the ids of the old snapshot, it is saved again by the next save
+                Files.deleteIfExists(getHistoryFile(file).toPath());
+                if (saveGeneration == generation
+                        && !openJournal(file, persistent, writer.getIds(), writer.getStamp(), -1, -1)) {
+                    dirtyObjects = null;
+                }
+            }
+        }
+        catch (Exception e) {
+            temp.delete();
+            synchronized (lock) {
+                if (saveGeneration == generation) {
+                    dirtyObjects = null;
+                }
+            }
+            System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+            throw new Exception("Persistent file not saved.", e);
+        }
+    }
+
+    /**
+     * Captures the changes to the undo history of the model being journaled since it was last saved, so that
+     * they can be added to the history saved next to its snapshot. The history is saved in full if it cannot be
+     * added to (e.g. the snapshot is new). This reads the history, so it must be called on the thread that changes
+     * the model, with the lock held, after the objects that changed have been journaled (so that every object in
+     * the model has an id). The history is written by flushHistory.
+     * @param file the snapshot.
+     * @param persistent the model being saved.
+     */
+    private void captureHistory(final File file, final Organisation persistent) {
+        UndoRedoManager manager = UndoRedoManager.get();
+        File historyFile = getHistoryFile(file);
+        if (journal == null || manager.getDisable() || !manager.hasHistory(persistent)) {
+            // the old history no longer leads up to the saved model
+            queueHistory(historyFile, new byte[0], true);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            if (historyAppendable && manager.saveHistoryChanges(bytes, ids)) {
+                queueHistory(historyFile, bytes.toByteArray(), false);
+                return;
+            }
+            bytes.reset();
+            manager.saveHistory(bytes, ids, snapshotStamp);
+            queueHistory(historyFile, bytes.toByteArray(), true);
+        }
+        catch (IOException e) {
+            System.err.println("Could not save the undo history:\n" + e.getMessage());
+            queueHistory(historyFile, new byte[0], true);
+        }
+    }
+
+    /**
+     * Adds history to the history that has not been written yet. This must be called with the lock held.
+     * @param historyFile the history file the history is for.
+     * @param history the history.
+     * @param replace true if the history replaces the history file, false if it is added to the end of it.
+     */
+    private void queueHistory(final File historyFile, final byte[] history, final boolean replace) {
+        if (unwrittenHistoryFile != null && !unwrittenHistoryFile.equals(historyFile)) {
+            flushHistory();
+        }
+        unwrittenHistoryFile = historyFile;
+        if (replace) {
+            unwrittenHistory.reset();
+            replaceHistory = true;
+            historyAppendable = history.length > 0;
+        }
+        unwrittenHistory.write(history, 0, history.length);
+    }
+
+    /**
+     * Writes the history that has not been written yet to the history file. If it cannot be written the history
+     * file is deleted, and the history is saved in full by the next save. This must be called with the lock held.
+     */
+    private void flushHistory() {
+        File historyFile = unwrittenHistoryFile;
+        if (historyFile == null) {
+            return;
+        }
+        byte[] history = unwrittenHistory.toByteArray();
+        boolean replace = replaceHistory;
+        unwrittenHistory.reset();
+        replaceHistory = false;
+        unwrittenHistoryFile = null;
+        try {
+            if (replace) {
+                writeHistory(historyFile, history);
+            }
+            else {
+                appendHistory(historyFile, history);
+            }
+        }
+        catch (IOException e) {
+            historyFile.delete();
+            historyLength = -1;
+            historyAppendable = false;
+            System.err.println("Could not save the undo history:\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the history file, or deletes it if there is no history.
+     * @param historyFile the history file.
+     * @param history the history.
+     * @throws IOException if the history could not be written.
+     */
+    private void writeHistory(final File historyFile, final byte[] history) throws IOException {
+        historyLength = -1;
+        if (history.length == 0) {
+            historyFile.delete();
+            return;
+        }
+        File temp = new File(historyFile.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(), history);
+            Files.move(temp.toPath(), historyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        historyLength = history.length;
+    }
+
+    /**
+     * Adds history to the end of the history file, after the segments that were written completely.
+     * @param historyFile the history file.
+     * @param history the history.
+     * @throws IOException if the history could not be written, or the history file is not valid.
+     */
+    private void appendHistory(final File historyFile, final byte[] history) throws IOException {
+        if (history.length == 0) {
+            return;
+        }
+        try (RandomAccessFile data = new RandomAccessFile(historyFile, "rw")) {
+            if (historyLength < 0 || data.length() != historyLength) {
+                // not written by this loader, or only partly written, so find where the complete segments end
+                try (InputStream in = new BufferedInputStream(new FileInputStream(historyFile))) {
+                    historyLength = HistoryFile.findLength(in, snapshotStamp);
+                }
+            }
+            data.setLength(historyLength);
+            data.seek(historyLength);
+            data.write(history);
+            historyLength += history.length;
+        }
+    }
+
+    /**
+     * Closes the journal, so that the next save will write a new snapshot.
+     */
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        }
+        catch (IOException e) {
+            System.err.println("Could not close the journal:\n" + e.getMessage());
+        }
+        journal = null;
+    }
+
+    /**
+     * Starts compacting the saved part of the journal into a new snapshot in the background, unless a compaction
+     * is already running. Changes after the last saved marker are left in the journal, as they were never saved.
+     */
+    private void startCompaction() {
+        if (compaction != null && !compaction.isDone()) {
+            return;
+        }
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Journal compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        File file = snapshotFile;
+        long position = journal.getSavedSize();
+        long compactGeneration = generation;
+        compaction = compactor.submit(() -> compact(file, position, compactGeneration));
+    }
+
+    /**
+     * Compacts the journal into a new snapshot. The new snapshot is built by replaying the journal onto a
+     * separate copy of the model read from the disk, so the model being edited is never touched.
+     * The new snapshot keeps the stamp and object ids of the old one, so changes journaled while compacting
+     * (and the old journal, if the application exits before it is replaced) still apply to it.
+     * @param file the snapshot to compact.
+     * @param position the position in the journal to compact up to, which is the end of a saved marker.
+     * @param compactGeneration the generation the compaction was started in.
+     */
+    private void compact(final File file, final long position, final long compactGeneration) {
+        File temp = new File(file.getPath() + COMPACTION_EXTENSION);
+        try {
+            SnapshotReader reader = new SnapshotReader();
+            Organisation copy = readSnapshot(file, reader);
+            JournalReader.replay(getJournalFile(file), reader.getIds(), reader.getStamp(), position);
+
+            SnapshotWriter writer = new SnapshotWriter(reader.getIds());
+            writer.setStamp(reader.getStamp());
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BinaryFormat.BUFFER_SIZE)) {
+                writer.write(copy, out);
+            }
+            // the objects that are not in the new snapshot are written from the copy, as they were when removed
+            Map<Integer, Object> dropped = reader.getIds().removeMissing(writer.getIds());
+            ByteArrayOutputStream droppedHistory = new ByteArrayOutputStream();
+            if (!dropped.isEmpty()) {
+                HistoryFile.writeDropped(droppedHistory, dropped, reader.getIds());
+            }
+
+            synchronized (lock) {
+                if (compactGeneration != generation || journal == null) {
+                    Files.deleteIfExists(temp.toPath());
+                    return;
+                }
+                if (historyAppendable && droppedHistory.size() > 0) {
+                    // written before the snapshot is replaced, so the history never refers to ids it does not have
+                    queueHistory(getHistoryFile(file), droppedHistory.toByteArray(), false);
+                    flushHistory();
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                try {
+                    journal.discardBefore(position);
+                }
+                catch (IOException e) {
+                    closeJournal();
+                    throw e;
+                }
+                droppedObjects.putAll(ids.removeMissing(writer.getIds()));
+            }
+        }
+        catch (Exception e) {
+            System.err.println("Compacting the journal failed:\n" + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    /**
+     * Undo history saved next to a snapshot, which is read the first time it is needed.
+     */
+    private final class SavedHistory implements HistorySource, StableIds {
+
+        /**
+         * The history file.
+         */
+        private final File historyFile;
+
+        /**
+         * The model loaded from the snapshot.
+         */
+        private final Organisation organisation;
+
+        /**
+         * The ids of the objects in the model.
+         */
+        private final ObjectIds objectIds;
+
+        /**
+         * The stamp of the snapshot.
+         */
+        private final long stamp;
+
+        /**
+         * Creates a new saved history.
+         * @param file the history file.
+         * @param loaded the model loaded from the snapshot.
+         * @param loadedIds the ids of the objects in the model.
+         * @param snapshotStamp the stamp of the snapshot.
+         */
+        private SavedHistory(final File file, final Organisation loaded, final ObjectIds loadedIds,
+                             final long snapshotStamp) {
+            historyFile = file;
+            organisation = loaded;
+            objectIds = loadedIds;
+            stamp = snapshotStamp;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return new FileInputStream(historyFile);
+        }
+
+        @Override
+        public long getStamp() {
+            return stamp;
+        }
+
+        @Override
+        public StableIds getIds() {
+            // the history can refer to any object by id
+            organisation.loadAll();
+            return this;
+        }
+
+        @Override
+        public int getId(final Object object) {
+            synchronized (lock) {
+                return objectIds.getId(object);
+            }
+        }
+
+        @Override
+        public Object getObject(final int id) {
+            synchronized (lock) {
+                Object object = objectIds.getObject(id);
+                if (object == null && objectIds == ids) {
+                    // removed from the model when it was compacted, after the history was saved
+                    object = droppedObjects.get(id);
+                }
+                return object;
+            }
+        }
+    }
+}
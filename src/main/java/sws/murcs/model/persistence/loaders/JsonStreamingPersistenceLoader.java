@@ -0,0 +1,155 @@
+package sws.murcs.model.persistence.loaders;
+
+import sws.murcs.model.Organisation;
+import sws.murcs.model.persistence.binary.BinaryFormat;
+import sws.murcs.model.persistence.binary.FrozenModel;
+import sws.murcs.model.persistence.json.JsonModelReader;
+import sws.murcs.model.persistence.json.JsonModelWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Manages loading persistent data from the local HD as JSON, which is easy to diff and to use from other tools
+ * (e.g. to import or export organisations). Files are read and written in a single streaming pass, so no
+ * tree of the JSON is ever built and organisations of any size can be read and written.
+ * Files saved by the FilePersistenceLoader (using java serialization) can still be loaded.
+ */
+public class JsonStreamingPersistenceLoader extends FilePersistenceLoader {
+
+    /**
+     * Instantiates a new JsonStreamingPersistenceLoader, defaulting to the current working directory.
+     */
+    public JsonStreamingPersistenceLoader() {
+        super();
+    }
+
+    /**
+     * Instantiates a new JsonStreamingPersistenceLoader.
+     * @param directory Directory to use persistent data in.
+     */
+    public JsonStreamingPersistenceLoader(final String directory) {
+        super(directory);
+    }
+
+    /**
+     * Loads a model from the disk. Falls back to java serialization if the file is not JSON.
+     * @param persistenceName The name of the persistent file to load
+     * @param directory The directory to load the persistent file from.
+     * @return The loaded model.
+     */
+    @Override
+    public Organisation loadModel(final String persistenceName, final String directory) {
+        try {
+            File file = new File(directory + File.separator + persistenceName);
+            if (!isJsonFile(file)) {
+                return super.loadModel(persistenceName, directory);
+            }
+            try (InputStream in = new FileInputStream(file)) {
+                return new JsonModelReader().read(in);
+            }
+        }
+        catch (Exception e) {
+            System.err.println("An error occured while loading the persistent file:\n" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves a model out to a file.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @throws Exception when the persistent file could not be saved.
+     */
+    @Override
+    public void saveModel(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        try {
+            writeJson(new File(directory + File.separator + name), persistent);
+        }
+        catch (Exception e) {
+            System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+            throw new Exception("Persistent file not saved.", e);
+        }
+    }
+
+    /**
+     * Captures the current state of a model so that it can be saved on another thread.
+     * The model is frozen, which only copies the values of its fields, and writing the JSON is left for the task.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @return the task that writes the captured model.
+     * @throws Exception when the model could not be captured.
+     */
+    @Override
+    public SaveTask prepareSave(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        File file = new File(directory + File.separator + name);
+        FrozenModel frozen = FrozenModel.freeze(persistent);
+        return progress -> {
+            try {
+                writeJson(file, frozen);
+            }
+            catch (Exception e) {
+                System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+                throw new Exception("Persistent file not saved.", e);
+            }
+            progress.accept(1);
+        };
+    }
+
+    /**
+     * Writes a model to a file as JSON. The JSON is written to a temporary file first and then moved
+     * into place, so the existing file is not lost if writing fails part way through.
+     * @param file the file to write.
+     * @param organisation the model to write.
+     * @throws IOException if the file could not be written.
+     */
+    protected static void writeJson(final File file, final Organisation organisation) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BinaryFormat.BUFFER_SIZE)) {
+            new JsonModelWriter().write(organisation, out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes a frozen model to a file as JSON, in the same way as writing the model itself.
+     * @param file the file to write.
+     * @param frozen the frozen model to write.
+     * @throws IOException if the file could not be written.
+     */
+    protected static void writeJson(final File file, final FrozenModel frozen) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BinaryFormat.BUFFER_SIZE)) {
+            new JsonModelWriter().write(frozen, out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Checks if a file contains JSON, i.e. starts with an object.
+     * @param file the file to check.
+     * @return true if the first character that is not whitespace starts an object.
+     * @throws IOException if the file could not be read.
+     */
+    protected static boolean isJsonFile(final File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            int next = in.read();
+            while (next >= 0 && Character.isWhitespace(next)) {
+                next = in.read();
+            }
+            return next == '{';
+        }
+    }
+}
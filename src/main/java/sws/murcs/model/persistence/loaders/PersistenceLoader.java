@@ -24,6 +24,36 @@ public interface PersistenceLoader {
      */
     void saveModel(String saveName, Organisation persistent) throws Exception;
 
+    /**
+     * Saves only the changes made to a model since it was last saved or loaded, to the default directory.
+     * This is only possible if the loader has been keeping track of the model since then. Loaders that write
+     * changes as they are made only mark them as saved, as they are already on disk.
+     * @param saveName name to save as.
+     * @param persistent Model to save.
+     * @return true if the changes were saved, false if nothing was written as the model has to be saved in full.
+     * @throws Exception When the changes fail to save.
+     */
+    boolean saveChanges(String saveName, Organisation persistent) throws Exception;
+
+    /**
+     * Captures the current state of a model so that it can be saved to the default directory on another thread.
+     * This must be called on the thread that changes the model, and should be quick, as the model
+     * cannot be changed while it runs. The returned task can then be run on any thread.
+     * @param saveName name to save as.
+     * @param persistent Model to save.
+     * @return the task that writes the captured model.
+     * @throws Exception When the model could not be captured.
+     */
+    SaveTask prepareSave(String saveName, Organisation persistent) throws Exception;
+
+    /**
+     * Forgets the changes made to a model since it was last saved, e.g. because the user chose not to save them.
+     * Loaders that write changes as they are made, so that they can be recovered if the application exits
+     * unexpectedly, remove them so that they are not recovered when the model is next loaded.
+     * @param persistent Model whose changes are being discarded.
+     */
+    void discardChanges(Organisation persistent);
+
     /**
      * Gets a list of models that exist.
      * @return List of models.
@@ -0,0 +1,16 @@
+package sws.murcs.model.persistence.loaders;
+
+import java.util.function.DoubleConsumer;
+
+/**
+ * The part of a save that can run on a background thread, created by PersistenceLoader.prepareSave
+ * once the state of the model to save has been captured.
+ */
+public interface SaveTask {
+    /**
+     * Writes the captured model to the disk.
+     * @param progress told the fraction of the save that has been completed (between 0 and 1).
+     * @throws Exception when the model could not be saved.
+     */
+    void write(DoubleConsumer progress) throws Exception;
+}
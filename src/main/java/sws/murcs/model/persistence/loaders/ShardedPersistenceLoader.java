@@ -0,0 +1,216 @@
+package sws.murcs.model.persistence.loaders;
+
+import sws.murcs.magic.tracking.TrackableObject;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.magic.tracking.listener.ChangeState;
+import sws.murcs.magic.tracking.listener.ModelChangeListener;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.persistence.binary.PartialSnapshot;
+import sws.murcs.model.persistence.binary.ShardedProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Manages loading persistent data from the local HD, where each project is a directory with a file for each
+ * type of model and a file for each story holding its tasks and effort (see ShardedProject).
+ * Projects are loaded on demand, a type of model is only read the first time it is needed.
+ * Once a project has been loaded or saved, the objects changed by every commit, undo and redo are remembered,
+ * and saving it again only rewrites the files containing them. Changes that are not tracked by the
+ * UndoRedoManager cannot be remembered, so while it is disabled every file is rewritten.
+ * Files saved by the BinaryPersistenceLoader or FilePersistenceLoader can still be loaded, and are
+ * replaced by a project directory the next time they are saved.
+ */
+public class ShardedPersistenceLoader extends BinaryPersistenceLoader implements ModelChangeListener {
+
+    /**
+     * The project currently being saved to, null if there is none.
+     */
+    private ShardedProject project;
+
+    /**
+     * Objects changed since the project was last saved. Null if changes are not being tracked.
+     */
+    private Set<Object> dirtyObjects;
+
+    /**
+     * Instantiates a new ShardedPersistenceLoader, defaulting to the current working directory.
+     */
+    public ShardedPersistenceLoader() {
+        super();
+    }
+
+    /**
+     * Instantiates a new ShardedPersistenceLoader.
+     * @param directory Directory to use persistent data in.
+     */
+    public ShardedPersistenceLoader(final String directory) {
+        super(directory);
+    }
+
+    /**
+     * Loads a model from the disk. Only the organisation and the index of the models in it are read straight
+     * away, each type of model is read the first time it is needed. Falls back to the binary snapshot format
+     * and java serialization if the model is a single file.
+     * @param persistenceName The name of the persistent file to load
+     * @param directory The directory to load the persistent file from.
+     * @return The loaded model.
+     */
+    @Override
+    public final Organisation loadModel(final String persistenceName, final String directory) {
+        detach();
+        File file = new File(directory + File.separator + persistenceName);
+        if (!file.isDirectory()) {
+            return super.loadModel(persistenceName, directory);
+        }
+        try {
+            ShardedProject opened = ShardedProject.open(file);
+            PartialSnapshot snapshot = opened.getSnapshot();
+            snapshot.setLoadListener(types -> UndoRedoManager.get().importLoaded(snapshot.getOrganisation(), types));
+            attach(opened);
+            return opened.getOrganisation();
+        }
+        catch (Exception e) {
+            System.err.println("An error occured while loading the persistent file:\n" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves a model out to a project directory. If the model is the project being tracked only the files
+     * containing changed objects are rewritten, otherwise every file is written.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @throws Exception when the persistent file could not be saved.
+     */
+    @Override
+    public final void saveModel(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        File file = new File(directory + File.separator + name);
+        try {
+            if (saveShards(file, persistent)) {
+                return;
+            }
+            detach();
+            if (file.isFile()) {
+                Files.delete(file.toPath());
+            }
+            attach(ShardedProject.create(file, persistent));
+        }
+        catch (Exception e) {
+            detach();
+            System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+            throw new Exception("Persistent file not saved.", e);
+        }
+    }
+
+    /**
+     * Saves only the files containing objects that have changed since a model was last saved.
+     * This is only possible if the model is the project being tracked.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @return true if the changes were saved, false if the model has to be saved in full.
+     * @throws Exception when the changes could not be saved.
+     */
+    @Override
+    public final boolean saveChanges(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        try {
+            return saveShards(new File(directory + File.separator + name), persistent);
+        }
+        catch (IOException e) {
+            detach();
+            System.err.println("An error occured while saving the persistent file:\n" + e.getMessage());
+            throw new Exception("Persistent file not saved.", e);
+        }
+    }
+
+    /**
+     * Saves a model straight away, as only the files containing changed objects are written, and returns
+     * a task that has nothing left to do. Saving a model that is not the project being tracked writes every file.
+     * @param name name to save as.
+     * @param persistent Organisation to save.
+     * @param directory Directory to save the organisation in.
+     * @return the task, which only reports that the model has been saved.
+     * @throws Exception when the model could not be saved.
+     */
+    @Override
+    public final SaveTask prepareSave(final String name, final Organisation persistent, final String directory)
+            throws Exception {
+        saveModel(name, persistent, directory);
+        return progress -> progress.accept(1);
+    }
+
+    /**
+     * Remembers the objects changed by a commit, undo or redo, so that the next save rewrites the files
+     * containing them.
+     * @param state the operation that changed the objects.
+     * @param changedObjects the objects that changed.
+     */
+    @Override
+    public final void modelChanged(final ChangeState state, final Collection<TrackableObject> changedObjects) {
+        if (dirtyObjects != null) {
+            dirtyObjects.addAll(changedObjects);
+        }
+    }
+
+    /**
+     * Saves a model by rewriting the files containing objects that have changed, if it is the project
+     * being tracked.
+     * @param file the directory the model is being saved to.
+     * @param persistent the model being saved.
+     * @return true if the model was saved, false if it has to be saved in full.
+     * @throws IOException if the changes could not be written.
+     */
+    private boolean saveShards(final File file, final Organisation persistent) throws IOException {
+        if (project == null
+                || project.getOrganisation() != persistent
+                || !project.getDirectory().equals(file)
+                || !ShardedProject.isProject(file)) {
+            return false;
+        }
+        if (UndoRedoManager.get().getDisable()) {
+            project.save(null);
+        }
+        else {
+            project.save(dirtyObjects);
+        }
+        dirtyObjects = newObjectSet();
+        return true;
+    }
+
+    /**
+     * Starts tracking changes to a project.
+     * @param opened the project.
+     */
+    private void attach(final ShardedProject opened) {
+        project = opened;
+        dirtyObjects = newObjectSet();
+        UndoRedoManager.get().addModelChangeListener(this);
+    }
+
+    /**
+     * Stops tracking changes to the current project.
+     */
+    private void detach() {
+        UndoRedoManager.get().removeModelChangeListener(this);
+        project = null;
+        dirtyObjects = null;
+    }
+
+    /**
+     * Creates a set of objects that compares its elements by identity, as models can be equal without
+     * being the same object.
+     * @return the new set.
+     */
+    private static Set<Object> newObjectSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
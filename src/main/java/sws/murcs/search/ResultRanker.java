@@ -0,0 +1,71 @@
+package sws.murcs.search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the best of the search results it is given, up to a limit, so that results that would never be
+ * shown are not kept or sorted. Results are ranked by the search result comparator.
+ * This class is not thread safe.
+ */
+final class ResultRanker {
+
+    /**
+     * The order of the results, best first.
+     */
+    private static final Comparator<SearchResult> ORDER = SearchResult.getComparator();
+
+    /**
+     * The most results that are kept.
+     */
+    private final int limit;
+
+    /**
+     * The results kept, worst first so that it can be replaced when a better one is found.
+     */
+    private final PriorityQueue<SearchResult> best = new PriorityQueue<>(ORDER.reversed());
+
+    /**
+     * Creates a new ranker, which has not been given any results yet.
+     * @param maxResults the most results that are kept.
+     */
+    ResultRanker(final int maxResults) {
+        limit = maxResults;
+    }
+
+    /**
+     * Adds a result, if it is better than the worst result kept or fewer than the limit are kept.
+     * @param result the result.
+     */
+    void add(final SearchResult result) {
+        if (best.size() < limit) {
+            best.add(result);
+        }
+        else if (limit > 0 && ORDER.compare(result, best.peek()) < 0) {
+            best.poll();
+            best.add(result);
+        }
+    }
+
+    /**
+     * Adds the results kept by another ranker.
+     * @param other the other ranker.
+     */
+    void addAll(final ResultRanker other) {
+        for (SearchResult result : other.best) {
+            add(result);
+        }
+    }
+
+    /**
+     * Gets the results kept.
+     * @return the results, best first.
+     */
+    List<SearchResult> getResults() {
+        List<SearchResult> results = new ArrayList<>(best);
+        results.sort(ORDER);
+        return results;
+    }
+}
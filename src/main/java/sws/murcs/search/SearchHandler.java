@@ -1,64 +1,188 @@
 package sws.murcs.search;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.SortedList;
+import sws.murcs.model.Model;
 import sws.murcs.model.ModelType;
-import sws.murcs.model.Organisation;
-import sws.murcs.model.persistence.PersistenceManager;
 import sws.murcs.search.tokens.Token;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Object to handle the performing of searches.
- * This includes creating and handling search threads and
- * collating search results into a single useful collection.
+ * This includes running search tasks and collating search
+ * results into a single useful collection. Only the best results of each
+ * pass of a search are kept, and they are added to the collection in
+ * batches at a fixed interval, so that broad searches do not flood the
+ * GUI thread with results that will never be looked at.
  */
 public  class SearchHandler {
     /**
-     * Threads on which to perform searching.
+     * The types of model that are searched.
      */
-    private SearchThread[] searchThreads;
+    private static final ModelType[] SEARCH_TYPES = {
+            ModelType.Backlog,
+            ModelType.Person,
+            ModelType.Project,
+            ModelType.Release,
+            ModelType.Skill,
+            ModelType.Story,
+            ModelType.Team,
+            ModelType.Sprint
+    };
+
+    /**
+     * The pool that searches run on, which is shared by every handler. Its threads are daemon threads,
+     * so that searching does not keep the application running.
+     */
+    private static final ForkJoinPool SEARCH_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The most results kept from each pass of a search of each type of model.
+     */
+    private static final int MAX_RESULTS_PER_PASS = 50;
+
+    /**
+     * The time between batches of results being added to the results list, in milliseconds.
+     */
+    private static final long BATCH_INTERVAL = 50;
+
+    /**
+     * Schedules the adding of batches of results, on a daemon thread.
+     */
+    private static final ScheduledExecutorService BATCH_SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(SearchHandler::newBatchThread);
+
+    /**
+     * Results found by a search that have not been added to the results list yet.
+     */
+    private static final class Batch {
+
+        /**
+         * The generation of the search they were found by.
+         */
+        private final long generation;
+
+        /**
+         * The results.
+         */
+        private final Collection<SearchResult> found;
+
+        /**
+         * Creates a new batch.
+         * @param searchGeneration the generation of the search they were found by.
+         * @param results the results.
+         */
+        private Batch(final long searchGeneration, final Collection<SearchResult> results) {
+            generation = searchGeneration;
+            found = results;
+        }
+    }
+
+    /**
+     * The generation of the current search, which is moved on whenever a search starts so that older
+     * searches stop and their results are thrown away.
+     */
+    private final AtomicLong generation = new AtomicLong();
 
     /**
      * Results found from the search.
      */
     private ObservableList<SearchResult> results;
 
+    /**
+     * Results that have been found but not added to the results list yet.
+     */
+    private final Queue<Batch> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether the pending results are due to be added.
+     */
+    private final AtomicBoolean batchScheduled = new AtomicBoolean();
+
+    /**
+     * The token of the last search, or null if nothing has been searched for yet.
+     */
+    private Token lastToken;
+
+    /**
+     * The maximum search priority of the last search.
+     */
+    private SearchPriority lastPriority;
+
+    /**
+     * The version of the search index the last search was made in.
+     */
+    private long lastVersion;
+
+    /**
+     * The models of each type the last search matched, for the types it has finished searching.
+     * Only used on the GUI thread.
+     */
+    private Map<ModelType, Set<Model>> matchedModels = new EnumMap<>(ModelType.class);
+
+    /**
+     * The types of model the last search has finished searching.
+     * Only used on the GUI thread.
+     */
+    private Set<ModelType> finishedTypes = EnumSet.noneOf(ModelType.class);
+
     /**
      * Creates a new search handler.
      */
     public SearchHandler() {
-        Organisation organisation = PersistenceManager.getCurrent().getCurrentModel();
         results = FXCollections.observableArrayList();
-        searchThreads = new SearchThread[] {
-                new SearchThread<>(results, ModelType.Backlog, organisation.getBacklogs()),
-                new SearchThread<>(results, ModelType.Person, organisation.getPeople()),
-                new SearchThread<>(results, ModelType.Project, organisation.getProjects()),
-                new SearchThread<>(results, ModelType.Release, organisation.getReleases()),
-                new SearchThread<>(results, ModelType.Skill, organisation.getSkills()),
-                new SearchThread<>(results, ModelType.Story, organisation.getStories()),
-                new SearchThread<>(results, ModelType.Team, organisation.getTeams()),
-                new SearchThread<>(results, ModelType.Sprint, organisation.getSprints())
-        };
     }
 
     /**
      * Cancels any existing searches an begins a search for the provided query.
      * This will result in any existing results being cleared from the provided
-     * results list.
+     * results list. Only the models of the current organisation that the search
+     * index finds could match are searched. When the query refines the last one
+     * (e.g. as it is typed), only the models the last search matched are searched
+     * again, for each type it finished searching.
+     * Must be called on the GUI thread.
      * @param query the query to search for.
      */
     public final void searchFor(final String query) {
         // abort current search
-        for (SearchThread thread : searchThreads) {
-            thread.stop();
-        }
+        long searchGeneration = generation.incrementAndGet();
+        pending.clear();
         results.clear();
 
         // parse query
         Token token = Token.parse(query);
+        SearchPriority priority = Token.getMaxSearchPriority();
+        long version = SearchIndex.get().getVersion();
+
+        // the last search found every match of a refinement, as long as no model has changed since
+        boolean refining = lastToken != null && version == lastVersion
+                && priority.compareTo(lastPriority) <= 0 && token.refines(lastToken);
+        Map<ModelType, Set<Model>> lastMatches = matchedModels;
+        Set<ModelType> lastFinished = finishedTypes;
+        lastToken = token;
+        lastPriority = priority;
+        lastVersion = version;
+        matchedModels = new EnumMap<>(ModelType.class);
+        finishedTypes = EnumSet.noneOf(ModelType.class);
 
         if (token.isEmpty()) {
             // nothing to search for
@@ -67,12 +191,129 @@ public  class SearchHandler {
 
         // begin new search
         Collection<ModelType> types = Token.getSearchTypes();
-        for (SearchThread thread : searchThreads) {
-            if (types.size() != 0 && !types.contains(thread.getSearchType())) {
+        for (ModelType type : SEARCH_TYPES) {
+            if (types.size() != 0 && !types.contains(type)) {
                 continue;
             }
-            thread.start(token);
+            List<Model> candidates;
+            if (refining && lastFinished.contains(type)) {
+                candidates = refineCandidates(type, lastMatches.get(type));
+            }
+            else {
+                candidates = findCandidates(token, type);
+            }
+            if (candidates.isEmpty()) {
+                matchedModels.put(type, Collections.newSetFromMap(new IdentityHashMap<>()));
+                finishedTypes.add(type);
+                continue;
+            }
+            SearchTask task = new SearchTask(token, candidates, type, generation,
+                    found -> publish(found, searchGeneration), MAX_RESULTS_PER_PASS);
+            SEARCH_POOL.execute(() -> {
+                task.invoke();
+                finish(type, searchGeneration, task.getMatchedModels());
+            });
+        }
+    }
+
+    /**
+     * Queues the results of a pass of a search to be added to the results list with the next batch,
+     * scheduling the next batch if it is not already.
+     * @param found the results of the pass.
+     * @param searchGeneration the generation of the search they were found by.
+     */
+    private void publish(final Collection<SearchResult> found, final long searchGeneration) {
+        pending.add(new Batch(searchGeneration, found));
+        if (batchScheduled.compareAndSet(false, true)) {
+            BATCH_SCHEDULER.schedule(() -> Platform.runLater(this::addPending), BATCH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds the pending results to the results list, in one go, leaving out those found by searches that
+     * are no longer current. Must be called on the GUI thread.
+     */
+    private void addPending() {
+        batchScheduled.set(false);
+        List<SearchResult> batch = new ArrayList<>();
+        Batch next = pending.poll();
+        while (next != null) {
+            if (next.generation == generation.get()) {
+                batch.addAll(next.found);
+            }
+            next = pending.poll();
+        }
+        if (!batch.isEmpty()) {
+            results.addAll(batch);
+        }
+    }
+
+    /**
+     * Records that a search has finished searching a type of model on the GUI thread, unless a newer search
+     * has started by then.
+     * @param type the type of model searched.
+     * @param searchGeneration the generation of the search.
+     * @param matched the models that matched, including those whose results were not kept.
+     */
+    private void finish(final ModelType type, final long searchGeneration, final Set<Model> matched) {
+        Platform.runLater(() -> {
+            if (generation.get() == searchGeneration) {
+                matchedModels.put(type, matched);
+                finishedTypes.add(type);
+            }
+        });
+    }
+
+    /**
+     * Creates the daemon thread that batches of results are scheduled on.
+     * @param runnable what the thread runs.
+     * @return the thread.
+     */
+    private static Thread newBatchThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, "Search results");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Finds the models of a type that could match a token that refines the last search, which are those the
+     * last search matched. Their searchable fields are all tracked, so none can have changed since then
+     * without the version changing.
+     * @param type the type of model.
+     * @param lastMatches the models the last search matched.
+     * @return the models, in the order they are in the organisation.
+     */
+    private static List<Model> refineCandidates(final ModelType type, final Set<Model> lastMatches) {
+        List<Model> found = new ArrayList<>(lastMatches.size());
+        for (Model model : SearchIndex.get().getModels(type)) {
+            if (lastMatches.contains(model)) {
+                found.add(model);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the models of a type that could match a token.
+     * @param token the token.
+     * @param type the type of model.
+     * @return the models, in the order they are in the organisation.
+     */
+    private static List<Model> findCandidates(final Token token, final ModelType type) {
+        SearchIndex searchIndex = SearchIndex.get();
+        Set<Model> candidates = token.findCandidates(searchIndex, type);
+        List<Model> models = searchIndex.getModels(type);
+        if (candidates == null) {
+            return models;
+        }
+        // results are found in the same order as when every model is searched
+        List<Model> found = new ArrayList<>(candidates.size());
+        for (Model model : models) {
+            if (candidates.contains(model)) {
+                found.add(model);
+            }
         }
+        return found;
     }
 
     /**
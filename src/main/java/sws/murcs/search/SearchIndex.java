@@ -0,0 +1,517 @@
+package sws.murcs.search;
+
+import sws.murcs.internationalization.InternationalizationHelper;
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.FieldAccessor;
+import sws.murcs.magic.tracking.TrackableObject;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.magic.tracking.listener.ChangeState;
+import sws.murcs.magic.tracking.listener.ModelChangeListener;
+import sws.murcs.model.Model;
+import sws.murcs.model.ModelType;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.persistence.PersistenceManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index of the words in the searchable fields of the models in the current organisation,
+ * so that searches only have to check the models that contain the words being searched for.
+ * Words are the runs of letters and digits in the text of a field (as it is searched), case folded.
+ * The trigrams in the text are indexed too, so that substrings, wildcards and regular expressions
+ * only have to be checked against the models that contain the strings they require.
+ * The index is kept up to date from the objects changed by each commit, revert and remake, and the
+ * changes are applied when the index is next used. It is built the first time it is used for an organisation.
+ * Searchable fields of models must be tracked, as changes to them would not be seen.
+ */
+public final class SearchIndex implements ModelChangeListener {
+
+    /**
+     * The number of characters in the trigrams that are indexed. Shorter strings can only be looked up by word.
+     */
+    public static final int TRIGRAM_LENGTH = TrigramIndex.LENGTH;
+
+    /**
+     * The index.
+     */
+    private static SearchIndex index;
+
+    /**
+     * The organisation that is indexed, or null if nothing has been indexed yet.
+     */
+    private Organisation organisation;
+
+    /**
+     * The language the index was built in, as it changes the text of some fields.
+     */
+    private String language;
+
+    /**
+     * The models of each type that are indexed.
+     */
+    private final Map<ModelType, Set<Model>> members = new EnumMap<>(ModelType.class);
+
+    /**
+     * The models of each type that contain each word.
+     */
+    private final Map<ModelType, Map<String, Set<Model>>> postings = new EnumMap<>(ModelType.class);
+
+    /**
+     * The words in the postings of each type that contain each string of up to TRIGRAM_LENGTH characters,
+     * so that the words containing part of a word can be found without looking at every word.
+     */
+    private final Map<ModelType, Map<String, Set<String>>> wordParts = new EnumMap<>(ModelType.class);
+
+    /**
+     * The trigrams in the text of the models of each type.
+     */
+    private final Map<ModelType, TrigramIndex> trigrams = new EnumMap<>(ModelType.class);
+
+    /**
+     * The words each indexed model contains.
+     */
+    private final Map<Model, Set<String>> words = new IdentityHashMap<>();
+
+    /**
+     * The objects whose text is part of the text of each indexed model.
+     */
+    private final Map<Model, Set<Object>> dependencies = new IdentityHashMap<>();
+
+    /**
+     * The indexed models whose text includes the text of each object.
+     */
+    private final Map<Object, Set<Model>> referrers = new IdentityHashMap<>();
+
+    /**
+     * The indexed models that have changed since they were indexed.
+     */
+    private final Set<Model> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Whether the models in the organisation may have changed since they were indexed.
+     */
+    private boolean membersChanged;
+
+    /**
+     * Moved on whenever the searchable text of the models may have changed.
+     */
+    private long version;
+
+    /**
+     * Creates a new index, which listens for changes to the models.
+     */
+    private SearchIndex() {
+        UndoRedoManager.get().addModelChangeListener(this);
+    }
+
+    /**
+     * Gets the index.
+     * @return the index.
+     */
+    public static SearchIndex get() {
+        if (index == null) {
+            index = new SearchIndex();
+        }
+        return index;
+    }
+
+    /**
+     * Splits text into the words it is indexed by.
+     * @param text the text.
+     * @return the words, case folded, in the order they appear.
+     */
+    public static List<String> getWords(final String text) {
+        List<String> found = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                word.append(fold(text.charAt(i)));
+            }
+            else if (word.length() > 0) {
+                found.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Folds the case of a character, so that characters that are matched when case is ignored are the same.
+     * Characters are folded one at a time (unlike String.toLowerCase), as that is how they are matched.
+     * @param character the character.
+     * @return the folded character.
+     */
+    static char fold(final char character) {
+        return Character.toLowerCase(Character.toUpperCase(character));
+    }
+
+    /**
+     * Gets all of the models of a type in the current organisation.
+     * @param type the type of model.
+     * @return the models, or an empty list if there is no organisation.
+     */
+    public synchronized List<Model> getModels(final ModelType type) {
+        if (!update()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(getMembers(organisation, type));
+    }
+
+    /**
+     * Finds the models of a type in the current organisation that contain a word, in any part of it,
+     * in the text of any of their searchable fields. The word must be case folded, and contain only
+     * letters and digits. Text that contains the word in any case is found, along with any text
+     * that contains a word that contains it.
+     * @param type the type of model.
+     * @param word the word.
+     * @return the models that contain the word.
+     */
+    public synchronized Set<Model> find(final ModelType type, final String word) {
+        Set<Model> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (!update()) {
+            return found;
+        }
+        Map<String, Set<Model>> typePostings = postings.get(type);
+        Set<Model> exact = typePostings.get(word);
+        if (exact != null) {
+            found.addAll(exact);
+        }
+        for (String containing : findWordsContaining(type, word)) {
+            if (!containing.equals(word)) {
+                found.addAll(typePostings.get(containing));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the models of a type in the current organisation whose searchable fields could match a regular
+     * expression, which are those that contain the strings the expression requires (in any case).
+     * @param type the type of model.
+     * @param pattern the regular expression.
+     * @return the models that could match, or null if the expression does not require any strings that
+     * can be looked up, so any model could match.
+     */
+    public synchronized Set<Model> findPattern(final ModelType type, final Pattern pattern) {
+        TrigramQuery query = TrigramQuery.parse(pattern.pattern());
+        if (query == null || !update()) {
+            return null;
+        }
+        int[] ids = query.find(trigrams.get(type));
+        if (ids == null) {
+            return null;
+        }
+        return trigrams.get(type).getModels(ids);
+    }
+
+    /**
+     * Gets the version of the text of the models in the current organisation, which changes whenever any of
+     * their searchable fields may have changed, so that things found from it can be reused until then.
+     * @return the version.
+     */
+    public synchronized long getVersion() {
+        update();
+        return version;
+    }
+
+    /**
+     * Finds the indexed words of a type of model that contain a word. Words of up to TRIGRAM_LENGTH characters
+     * are looked up directly, while longer words are checked against the indexed words that contain the
+     * least common of their trigrams.
+     * @param type the type of model.
+     * @param word the word.
+     * @return the words that contain it.
+     */
+    private Collection<String> findWordsContaining(final ModelType type, final String word) {
+        Map<String, Set<String>> typeParts = wordParts.get(type);
+        if (word.length() <= TRIGRAM_LENGTH) {
+            Set<String> containing = typeParts.get(word);
+            if (containing == null) {
+                return Collections.emptyList();
+            }
+            return containing;
+        }
+        Set<String> candidates = null;
+        for (int i = 0; i + TRIGRAM_LENGTH <= word.length(); i++) {
+            Set<String> containing = typeParts.get(word.substring(i, i + TRIGRAM_LENGTH));
+            if (containing == null) {
+                return Collections.emptyList();
+            }
+            if (candidates == null || containing.size() < candidates.size()) {
+                candidates = containing;
+            }
+        }
+        List<String> found = new ArrayList<>();
+        for (String candidate : candidates) {
+            if (candidate.contains(word)) {
+                found.add(candidate);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds (or removes) a word to the index of the parts of the words of a type of model.
+     * @param type the type of model.
+     * @param word the word.
+     * @param add true to add the word, false to remove it.
+     */
+    private void updateWordParts(final ModelType type, final String word, final boolean add) {
+        Map<String, Set<String>> typeParts = wordParts.get(type);
+        for (int length = 1; length <= TRIGRAM_LENGTH; length++) {
+            for (int i = 0; i + length <= word.length(); i++) {
+                String part = word.substring(i, i + length);
+                Set<String> containing = typeParts.get(part);
+                if (add) {
+                    if (containing == null) {
+                        containing = new HashSet<>();
+                        typeParts.put(part, containing);
+                    }
+                    containing.add(word);
+                }
+                else if (containing != null) {
+                    containing.remove(word);
+                    if (containing.isEmpty()) {
+                        typeParts.remove(part);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void modelChanged(final ChangeState state, final Collection<TrackableObject> changedObjects) {
+        version++;
+        if (organisation == null) {
+            return;
+        }
+        for (TrackableObject object : changedObjects) {
+            if (object == organisation) {
+                membersChanged = true;
+            }
+            else if (words.containsKey(object)) {
+                changed.add((Model) object);
+            }
+            Set<Model> referring = referrers.get(object);
+            if (referring != null) {
+                changed.addAll(referring);
+            }
+        }
+    }
+
+    /**
+     * Brings the index up to date with the current organisation, rebuilding it if the organisation or
+     * the language has changed since it was built.
+     * @return false if there is no organisation to index.
+     */
+    private boolean update() {
+        Organisation current = null;
+        if (PersistenceManager.getCurrent() != null) {
+            current = PersistenceManager.getCurrent().getCurrentModel();
+        }
+        if (current == null) {
+            return false;
+        }
+
+        String currentLanguage = InternationalizationHelper.getCurrentLanguage();
+        if (current != organisation || !Objects.equals(currentLanguage, language)) {
+            clear();
+            organisation = current;
+            language = currentLanguage;
+            membersChanged = true;
+            version++;
+        }
+
+        if (membersChanged) {
+            for (ModelType type : ModelType.values()) {
+                updateMembers(type);
+            }
+            membersChanged = false;
+        }
+        for (Model model : new ArrayList<>(changed)) {
+            unindex(model);
+            addToIndex(model, ModelType.getModelType(model));
+        }
+        changed.clear();
+        return true;
+    }
+
+    /**
+     * Adds the models of a type that have been added to the organisation since it was indexed,
+     * and removes those that have been removed from it.
+     * @param type the type of model.
+     */
+    private void updateMembers(final ModelType type) {
+        Set<Model> current = Collections.newSetFromMap(new IdentityHashMap<>());
+        current.addAll(getMembers(organisation, type));
+        Set<Model> indexed = members.get(type);
+        for (Model model : new ArrayList<>(indexed)) {
+            if (!current.contains(model)) {
+                unindex(model);
+                changed.remove(model);
+            }
+        }
+        for (Model model : current) {
+            if (!indexed.contains(model)) {
+                addToIndex(model, type);
+            }
+        }
+    }
+
+    /**
+     * Adds a model to the index.
+     * @param model the model.
+     * @param type the type of the model.
+     */
+    private void addToIndex(final Model model, final ModelType type) {
+        Set<String> found = new HashSet<>();
+        List<String> texts = new ArrayList<>();
+        Set<Object> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (FieldAccessor field : ClassMetadata.of(model.getClass()).getSearchableFields()) {
+            Object value = field.get(model);
+            if (value instanceof Collection) {
+                for (Object item : (Collection<?>) value) {
+                    addText(item, texts, referenced);
+                }
+            }
+            else {
+                addText(value, texts, referenced);
+            }
+        }
+        texts.forEach(text -> found.addAll(getWords(text)));
+
+        members.get(type).add(model);
+        trigrams.get(type).add(model, texts);
+        words.put(model, found);
+        dependencies.put(model, referenced);
+        Map<String, Set<Model>> typePostings = postings.get(type);
+        for (String word : found) {
+            if (!typePostings.containsKey(word)) {
+                typePostings.put(word, Collections.newSetFromMap(new IdentityHashMap<>()));
+                updateWordParts(type, word, true);
+            }
+            typePostings.get(word).add(model);
+        }
+        for (Object object : referenced) {
+            if (!referrers.containsKey(object)) {
+                referrers.put(object, Collections.newSetFromMap(new IdentityHashMap<>()));
+            }
+            referrers.get(object).add(model);
+        }
+    }
+
+    /**
+     * Removes a model from the index.
+     * @param model the model.
+     */
+    private void unindex(final Model model) {
+        Set<String> found = words.remove(model);
+        if (found == null) {
+            return;
+        }
+        ModelType type = ModelType.getModelType(model);
+        members.get(type).remove(model);
+        trigrams.get(type).remove(model);
+        Map<String, Set<Model>> typePostings = postings.get(type);
+        for (String word : found) {
+            Set<Model> posting = typePostings.get(word);
+            posting.remove(model);
+            if (posting.isEmpty()) {
+                typePostings.remove(word);
+                updateWordParts(type, word, false);
+            }
+        }
+        for (Object object : dependencies.remove(model)) {
+            Set<Model> referring = referrers.get(object);
+            referring.remove(model);
+            if (referring.isEmpty()) {
+                referrers.remove(object);
+            }
+        }
+    }
+
+    /**
+     * Adds the text of a value of a searchable field, and the objects its text depends on.
+     * The text of a tracked object that is not a model may depend on the objects in its tracked fields,
+     * while the text of a model is only its short name.
+     * @param value the value.
+     * @param texts the text found so far.
+     * @param referenced the objects found so far.
+     */
+    private static void addText(final Object value, final List<String> texts, final Set<Object> referenced) {
+        if (value == null) {
+            return;
+        }
+        texts.add(value.toString());
+        addReferenced(value, referenced);
+    }
+
+    /**
+     * Adds the tracked objects that the text of a value depends on.
+     * @param value the value.
+     * @param referenced the objects found so far.
+     */
+    private static void addReferenced(final Object value, final Set<Object> referenced) {
+        if (!(value instanceof TrackableObject) || !referenced.add(value) || value instanceof Model) {
+            return;
+        }
+        for (FieldAccessor field : ClassMetadata.of(value.getClass()).getTrackedFields()) {
+            Object fieldValue = field.get(value);
+            if (fieldValue instanceof Collection) {
+                for (Object item : (Collection<?>) fieldValue) {
+                    addReferenced(item, referenced);
+                }
+            }
+            else {
+                addReferenced(fieldValue, referenced);
+            }
+        }
+    }
+
+    /**
+     * Forgets everything in the index.
+     */
+    private void clear() {
+        for (ModelType type : ModelType.values()) {
+            members.put(type, Collections.newSetFromMap(new IdentityHashMap<>()));
+            postings.put(type, new HashMap<>());
+            wordParts.put(type, new HashMap<>());
+            trigrams.put(type, new TrigramIndex());
+        }
+        words.clear();
+        dependencies.clear();
+        referrers.clear();
+        changed.clear();
+    }
+
+    /**
+     * Gets the models of a type in an organisation.
+     * @param model the organisation.
+     * @param type the type of model.
+     * @return the models.
+     */
+    private static List<? extends Model> getMembers(final Organisation model, final ModelType type) {
+        switch (type) {
+            case Backlog: return model.getBacklogs();
+            case Person: return model.getPeople();
+            case Project: return model.getProjects();
+            case Release: return model.getReleases();
+            case Skill: return model.getSkills();
+            case Story: return model.getStories();
+            case Team: return model.getTeams();
+            case Sprint: return model.getSprints();
+            default: throw new UnsupportedOperationException("This type of model is unsupported (fixme!).");
+        }
+    }
+}
@@ -8,9 +8,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Object that represents a SearchResult.
+ * The text shown for a result (its context and title cased names) is only worked out when it is asked
+ * for, as most results that are found are never shown.
  */
 public class SearchResult {
 
@@ -19,6 +22,12 @@ public class SearchResult {
      */
     private static final int SEARCH_RESULT_MAX_LENGTH = 35;
 
+    /**
+     * The positions in programmatic case names at which words start.
+     */
+    private static final Pattern WORD_BOUNDARY =
+            Pattern.compile("(?<=[A-Z])(?=[A-Z][a-z])|(?<=[^A-Z])(?=[A-Z])|(?<=[A-Za-z])(?=[^A-Za-z])");
+
     /**
      * Model object that this search result points to.
      */
@@ -35,22 +44,37 @@ public class SearchResult {
     private List<Integer> matchIndexes;
 
     /**
-     * The text before a match.
+     * The text the match was found in.
+     */
+    private String text;
+
+    /**
+     * The index of the start of the match within the text.
+     */
+    private int matchStart;
+
+    /**
+     * The index of the end of the match within the text.
+     */
+    private int matchEnd;
+
+    /**
+     * The index of the start of the context shown around the match within the text.
      */
-    private String contextBefore;
+    private int contextStart;
 
     /**
-     * The text after the match.
+     * The index of the end of the context shown around the match within the text.
      */
-    private String contextAfter;
+    private int contextEnd;
 
     /**
-     * The type of model this match occurred on.
+     * The type of model this match occurred on, in programmatic case.
      */
     private String modelType;
 
     /**
-     * The name of the field that the match occurred on.
+     * The name of the field that the match occurred on, in programmatic case.
      */
     private String fieldName;
 
@@ -81,8 +105,8 @@ public class SearchResult {
      */
     public final void setModel(final Model theModel, final String theFieldName, final SearchPriority searchPriority) {
         model = theModel;
-        modelType = toTitleCase(model.getClass().getSimpleName());
-        fieldName = toTitleCase(theFieldName);
+        modelType = model.getClass().getSimpleName();
+        fieldName = theFieldName;
         priority = searchPriority;
     }
 
@@ -105,7 +129,7 @@ public class SearchResult {
      * @return the text before the match.
      */
     public final String selectionBefore() {
-        return contextBefore;
+        return text.substring(contextStart, matchStart);
     }
 
     /**
@@ -114,7 +138,7 @@ public class SearchResult {
      * @return the text after the match.
      */
     public final String selectionAfter() {
-        return contextAfter;
+        return text.substring(matchEnd, contextEnd);
     }
 
     /**
@@ -122,7 +146,7 @@ public class SearchResult {
      * @return the model type.
      */
     public final String getModelType() {
-        return modelType;
+        return toTitleCase(modelType);
     }
 
     /**
@@ -130,7 +154,7 @@ public class SearchResult {
      * @return the name of the field.
      */
     public final String getFieldName() {
-        return fieldName;
+        return toTitleCase(fieldName);
     }
 
     /**
@@ -216,8 +240,7 @@ public class SearchResult {
      * @return Title Case String.
      */
     private String toTitleCase(final String input) {
-        String result =
-                input.replaceAll("(?<=[A-Z])(?=[A-Z][a-z])|(?<=[^A-Z])(?=[A-Z])|(?<=[A-Za-z])(?=[^A-Za-z])", " ");
+        String result = WORD_BOUNDARY.matcher(input).replaceAll(" ");
         if (Character.isLowerCase(result.charAt(0)) && input.length() > 1) {
             result = Character.toUpperCase(result.charAt(0)) + result.substring(1);
         }
@@ -225,14 +248,18 @@ public class SearchResult {
     }
 
     /**
-     * Gets data from an input match for this search result.
+     * Gets data from an input match for this search result. Only the bounds of the context
+     * around the match are worked out, the text of it is taken when it is shown.
      * @param start start index of the match.
      * @param end end index of the match.
      * @param input input that match occurred in.
      */
     private void fromQuery(final int start, final int end, final String input) {
-        contextBefore = "";
-        contextAfter = "";
+        text = input;
+        matchStart = start;
+        matchEnd = end;
+        contextStart = start;
+        contextEnd = end;
         if (end - start < SEARCH_RESULT_MAX_LENGTH) {
             int newStart = start, newEnd = end;
             int difference = SEARCH_RESULT_MAX_LENGTH - (newEnd - newStart);
@@ -262,11 +289,19 @@ public class SearchResult {
                 }
                 newEnd = input.length();
             }
-            contextBefore = input.substring(newStart, start);
-            contextAfter = input.substring(end, newEnd);
+            contextStart = newStart;
+            contextEnd = newEnd;
         }
     }
 
+    /**
+     * Gets the length of the context shown around the match, not including the match.
+     * @return the length of the text before and after the match.
+     */
+    private int getContextLength() {
+        return contextEnd - contextStart - (matchEnd - matchStart);
+    }
+
     /**
      * Comparator that compares two SearchResults.
      */
@@ -277,8 +312,7 @@ public class SearchResult {
         int sp = sr1.priority.compareTo(sr2.priority);
         // fallback 1: maximum % of string match
         if (sp == 0) {
-            sp = Integer.compare(sr1.contextAfter.length() + sr1.contextBefore.length(),
-                    sr2.contextAfter.length() + sr2.contextBefore.length());
+            sp = Integer.compare(sr1.getContextLength(), sr2.getContextLength());
         }
         // fallback 2: maximum # of matches
         if (sp == 0) {
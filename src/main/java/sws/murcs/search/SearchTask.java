@@ -0,0 +1,253 @@
+package sws.murcs.search;
+
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.FieldAccessor;
+import sws.murcs.model.Model;
+import sws.murcs.model.ModelType;
+import sws.murcs.search.tokens.Token;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Searches the models of a particular type for matches, on a fork join pool.
+ * The fields of the models are searched in passes, from the highest search priority to the lowest, and the
+ * best results of each pass, up to a limit, are published as a group once it has finished, as sorting and
+ * showing the results has a large overhead. Every model that matched is still recorded. Each pass splits
+ * the models into chunks so that a large number of models is searched on every thread of the pool, rather
+ * than on one thread while the others are idle.
+ * A task is cancelled by moving the search generation on, which it checks for before each model.
+ */
+public final class SearchTask extends RecursiveAction {
+
+    /**
+     * The largest number of models searched as a single chunk, rather than being split further.
+     */
+    private static final int CHUNK_SIZE = 64;
+
+    /**
+     * The search priority of the fields searched in each pass, in order.
+     */
+    private static final SearchPriority[] PASSES = {
+            SearchPriority.Ultra, SearchPriority.High, SearchPriority.Medium, SearchPriority.Low
+    };
+
+    /**
+     * Token that will be used to validate each object.
+     */
+    private final Token searchValidator;
+
+    /**
+     * The models to search, in the order their results should be found in.
+     */
+    private final List<Model> models;
+
+    /**
+     * The metadata of the type of model searched.
+     */
+    private final ClassMetadata metadata;
+
+    /**
+     * The current search generation, which is moved on when a new search starts.
+     */
+    private final AtomicLong currentGeneration;
+
+    /**
+     * The generation of this search.
+     */
+    private final long searchGeneration;
+
+    /**
+     * Publishes the results of each pass.
+     */
+    private final Consumer<Collection<SearchResult>> publisher;
+
+    /**
+     * The most results published for each pass.
+     */
+    private final int resultLimit;
+
+    /**
+     * The models that have matched so far, in any pass.
+     */
+    private final Set<Model> matchedModels = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    /**
+     * Creates a new task which searches models of a particular type.
+     * @param theSearchValidator the search validator to be used when checking for matches.
+     * @param searchableModels the models to search for matches, which are not changed while searching.
+     * @param modelType the type of model searched.
+     * @param generation the current search generation, which is moved on when a new search starts.
+     * @param resultPublisher publishes the results of each pass, best first, which it is given on a thread of the pool.
+     * @param maxResults the most results published for each pass.
+     */
+    public SearchTask(final Token theSearchValidator, final List<Model> searchableModels, final ModelType modelType,
+                      final AtomicLong generation, final Consumer<Collection<SearchResult>> resultPublisher,
+                      final int maxResults) {
+        searchValidator = theSearchValidator;
+        models = searchableModels;
+        metadata = ClassMetadata.of(ModelType.getTypeFromModel(modelType));
+        currentGeneration = generation;
+        searchGeneration = generation.get();
+        publisher = resultPublisher;
+        resultLimit = maxResults;
+    }
+
+    /**
+     * Gets the models that matched in any pass, including those whose results were not published.
+     * Only complete once the task has finished.
+     * @return the models.
+     */
+    public Set<Model> getMatchedModels() {
+        return matchedModels;
+    }
+
+    /**
+     * Checks if a newer search has started since this one did.
+     * @return true if the search should stop.
+     */
+    private boolean isStale() {
+        return currentGeneration.get() != searchGeneration;
+    }
+
+    @Override
+    protected void compute() {
+        SearchPriority maxPriority = Token.getMaxSearchPriority();
+        for (SearchPriority priority : PASSES) {
+            Collection<FieldAccessor> fields = metadata.getSearchableFields(priority);
+            List<SearchResult> results = new Chunk(fields, 0, models.size()).invoke().getResults();
+            if (isStale()) {
+                return;
+            }
+            if (!results.isEmpty()) {
+                publisher.accept(results);
+            }
+            if (priority.equals(maxPriority)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A range of the models, which are searched using one pass's fields.
+     */
+    private final class Chunk extends RecursiveTask<ResultRanker> {
+
+        /**
+         * Fields to search within the models.
+         */
+        private final Collection<FieldAccessor> passFields;
+
+        /**
+         * The index of the first model in the range.
+         */
+        private final int start;
+
+        /**
+         * The index after the last model in the range.
+         */
+        private final int end;
+
+        /**
+         * Creates a new chunk.
+         * @param fields fields to search within the models.
+         * @param first the index of the first model in the range.
+         * @param last the index after the last model in the range.
+         */
+        private Chunk(final Collection<FieldAccessor> fields, final int first, final int last) {
+            passFields = fields;
+            start = first;
+            end = last;
+        }
+
+        @Override
+        protected ResultRanker compute() {
+            if (end - start > CHUNK_SIZE) {
+                int middle = (start + end) >>> 1;
+                Chunk second = new Chunk(passFields, middle, end);
+                second.fork();
+                ResultRanker ranker = new Chunk(passFields, start, middle).compute();
+                ranker.addAll(second.join());
+                return ranker;
+            }
+
+            ResultRanker ranker = new ResultRanker(resultLimit);
+            if (passFields.isEmpty()) {
+                return ranker;
+            }
+            List<Model> matched = new ArrayList<>();
+            for (int i = start; i < end; i++) {
+                if (isStale()) {
+                    break;
+                }
+                SearchResult result = search(models.get(i));
+                if (result != null) {
+                    ranker.add(result);
+                    matched.add(result.getModel());
+                }
+            }
+            matchedModels.addAll(matched);
+            return ranker;
+        }
+
+        /**
+         * Searches the fields of a model, stopping at the first match.
+         * @param model the model to search.
+         * @return the first match, or null if there was none.
+         */
+        private SearchResult search(final Model model) {
+            for (FieldAccessor f : passFields) {
+                Object val = f.get(model);
+                if (val == null) {
+                    continue;
+                }
+                if (val instanceof Collection) {
+                    for (Object object : (Collection) val) {
+                        SearchResult result = find(model, f, object);
+                        if (result != null) {
+                            return result;
+                        }
+                    }
+                }
+                else {
+                    SearchResult result = find(model, f, val);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Searches a model for a match.
+         * @param model the model to search.
+         * @param f the field to search.
+         * @param o the object to search.
+         * @return the match, or null if there was none.
+         */
+        private SearchResult find(final Model model, final FieldAccessor f, final Object o) {
+            SearchResult result = searchValidator.matches(o.toString());
+            if (result == null) {
+                return null;
+            }
+
+            Searchable searchable = f.getSearchable();
+            String fieldName = searchable.fieldName();
+            if (fieldName.equals("")) {
+                fieldName = f.getName();
+            }
+
+            result.setModel(model, fieldName, searchable.value());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package sws.murcs.search;
+
+import sws.murcs.model.Model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the trigrams (sequences of three characters) in the text of some models, so that the models
+ * whose text could contain a string can be found without looking at their text. Characters are case folded,
+ * so text that contains a string in any case is found.
+ * Each model is given a number, and the models that contain each trigram are kept as a sorted array of their
+ * numbers, as there are far more trigrams than words.
+ * This class is not thread safe.
+ */
+final class TrigramIndex {
+
+    /**
+     * The number of characters in a trigram.
+     */
+    static final int LENGTH = 3;
+
+    /**
+     * The number of bits each character of a trigram takes up in its code.
+     */
+    private static final int CHAR_BITS = 16;
+
+    /**
+     * The numbers of the models that contain a trigram, in ascending order.
+     */
+    private static final class Postings {
+
+        /**
+         * The numbers, followed by unused space.
+         */
+        private int[] ids = new int[1];
+
+        /**
+         * The number of numbers.
+         */
+        private int size;
+
+        /**
+         * Adds a number, if it is not already there.
+         * @param id the number.
+         */
+        private void add(final int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        /**
+         * Removes a number, if it is there.
+         * @param id the number.
+         */
+        private void remove(final int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) {
+                return;
+            }
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        }
+    }
+
+    /**
+     * The models that contain each trigram, keyed by the code of the trigram.
+     */
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    /**
+     * The codes of the trigrams each model contains, in ascending order, indexed by the number of the model.
+     */
+    private final List<long[]> trigrams = new ArrayList<>();
+
+    /**
+     * The models, indexed by their number. Numbers that are not in use are null.
+     */
+    private final List<Model> models = new ArrayList<>();
+
+    /**
+     * The number of each model.
+     */
+    private final Map<Model, Integer> ids = new IdentityHashMap<>();
+
+    /**
+     * Numbers that are no longer in use, which are used again before new numbers are.
+     */
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+
+    /**
+     * Creates a new, empty index.
+     */
+    TrigramIndex() {
+    }
+
+    /**
+     * Adds a model to the index. It must not already be in the index.
+     * @param model the model.
+     * @param texts the text of each of the searchable values of the model.
+     */
+    void add(final Model model, final Collection<String> texts) {
+        int id;
+        if (freeIds.isEmpty()) {
+            id = models.size();
+            models.add(model);
+            trigrams.add(null);
+        }
+        else {
+            id = freeIds.pop();
+            models.set(id, model);
+        }
+        ids.put(model, id);
+
+        long[] codes = getTrigrams(texts);
+        trigrams.set(id, codes);
+        for (long code : codes) {
+            if (!postings.containsKey(code)) {
+                postings.put(code, new Postings());
+            }
+            postings.get(code).add(id);
+        }
+    }
+
+    /**
+     * Removes a model from the index, if it is in it.
+     * @param model the model.
+     */
+    void remove(final Model model) {
+        Integer id = ids.remove(model);
+        if (id == null) {
+            return;
+        }
+        for (long code : trigrams.get(id)) {
+            Postings posting = postings.get(code);
+            posting.remove(id);
+            if (posting.size == 0) {
+                postings.remove(code);
+            }
+        }
+        trigrams.set(id, null);
+        models.set(id, null);
+        freeIds.push(id);
+    }
+
+    /**
+     * Removes every model from the index.
+     */
+    void clear() {
+        postings.clear();
+        trigrams.clear();
+        models.clear();
+        ids.clear();
+        freeIds.clear();
+    }
+
+    /**
+     * Finds the models whose text could contain a string, which are those that contain all of its trigrams.
+     * @param literal the string.
+     * @return the numbers of the models in ascending order, or null if the string is too short to have trigrams.
+     */
+    int[] find(final String literal) {
+        if (literal.length() < LENGTH) {
+            return null;
+        }
+        int[] found = null;
+        for (long code : getTrigrams(Collections.singletonList(literal))) {
+            Postings posting = postings.get(code);
+            if (posting == null) {
+                return new int[0];
+            }
+            found = intersect(found, Arrays.copyOf(posting.ids, posting.size));
+        }
+        return found;
+    }
+
+    /**
+     * Gets the models with some numbers.
+     * @param found the numbers of the models.
+     * @return the models.
+     */
+    Set<Model> getModels(final int[] found) {
+        Set<Model> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int id : found) {
+            result.add(models.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * Intersects two sorted arrays of numbers.
+     * @param first the first array, or null for every number.
+     * @param second the second array, or null for every number.
+     * @return the numbers in both arrays, or null if both were null.
+     */
+    static int[] intersect(final int[] first, final int[] second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        int[] result = new int[Math.min(first.length, second.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            }
+            else if (first[i] > second[j]) {
+                j++;
+            }
+            else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Unites two sorted arrays of numbers.
+     * @param first the first array, or null for every number.
+     * @param second the second array, or null for every number.
+     * @return the numbers in either array, or null if either was null.
+     */
+    static int[] union(final int[] first, final int[] second) {
+        if (first == null || second == null) {
+            return null;
+        }
+        int[] result = new int[first.length + second.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length || j < second.length) {
+            if (j == second.length || i < first.length && first[i] < second[j]) {
+                result[size++] = first[i];
+                i++;
+            }
+            else if (i == first.length || second[j] < first[i]) {
+                result[size++] = second[j];
+                j++;
+            }
+            else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Gets the codes of the trigrams in some text. Trigrams do not span from one text to the next.
+     * @param texts the text.
+     * @return the codes, in ascending order without duplicates.
+     */
+    private static long[] getTrigrams(final Collection<String> texts) {
+        int count = 0;
+        for (String text : texts) {
+            count += Math.max(0, text.length() - LENGTH + 1);
+        }
+        long[] codes = new long[count];
+        int size = 0;
+        for (String text : texts) {
+            for (int i = 0; i + LENGTH <= text.length(); i++) {
+                long code = 0;
+                for (int j = 0; j < LENGTH; j++) {
+                    code = code << CHAR_BITS | SearchIndex.fold(text.charAt(i + j));
+                }
+                codes[size++] = code;
+            }
+        }
+        Arrays.sort(codes);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || codes[unique - 1] != codes[i]) {
+                codes[unique++] = codes[i];
+            }
+        }
+        return Arrays.copyOf(codes, unique);
+    }
+}
@@ -0,0 +1,427 @@
+package sws.murcs.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The strings that text must contain for a regular expression to match it, found from the expression,
+ * so that a trigram index can find the text that could match without running the expression.
+ * A query is either a string, or all of or any of a list of queries. Only strings of at least
+ * three characters are kept, as shorter ones have no trigrams.
+ * Expressions that use anything that is not understood are not analysed, so no text is ruled out.
+ */
+final class TrigramQuery {
+
+    /**
+     * The characters that can follow a backslash to match a class of characters or a position, rather than
+     * a literal character.
+     */
+    private static final String CLASS_ESCAPES = "dDwWsSbBAGZzhHvVRXntrfae";
+
+    /**
+     * Returned when there is no quantifier after an atom.
+     */
+    private static final int NO_QUANTIFIER = -1;
+
+    /**
+     * Thrown when an expression uses something that is not understood.
+     */
+    private static final class NotUnderstoodException extends Exception {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 0L;
+    }
+
+    /**
+     * The string that text must contain, or null if this query is made up of other queries.
+     */
+    private final String literal;
+
+    /**
+     * The queries this is made up of, or null if this query is a string.
+     */
+    private final List<TrigramQuery> parts;
+
+    /**
+     * Whether text must match all of the parts, rather than any of them.
+     */
+    private final boolean all;
+
+    /**
+     * Creates a new query.
+     * @param queryLiteral the string that text must contain, or null.
+     * @param queryParts the queries this is made up of, or null.
+     * @param matchAll whether text must match all of the parts, rather than any of them.
+     */
+    private TrigramQuery(final String queryLiteral, final List<TrigramQuery> queryParts, final boolean matchAll) {
+        literal = queryLiteral;
+        parts = queryParts;
+        all = matchAll;
+    }
+
+    /**
+     * Finds the strings that text must contain for a regular expression to match it.
+     * The expression must be valid.
+     * @param regex the regular expression.
+     * @return the query, or null if the expression uses something that is not understood.
+     */
+    static TrigramQuery parse(final String regex) {
+        Parser parser = new Parser(regex);
+        try {
+            TrigramQuery query = parser.parseAlternation();
+            if (parser.position != regex.length()) {
+                return null;
+            }
+            return query;
+        }
+        catch (NotUnderstoodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the models in a trigram index whose text could match this query.
+     * @param index the index.
+     * @return the numbers of the models in ascending order, or null if any model could match.
+     */
+    int[] find(final TrigramIndex index) {
+        if (literal != null) {
+            return index.find(literal);
+        }
+        int[] found = null;
+        boolean first = true;
+        for (TrigramQuery part : parts) {
+            int[] partFound = part.find(index);
+            if (all) {
+                found = TrigramIndex.intersect(found, partFound);
+            }
+            else if (first) {
+                found = partFound;
+            }
+            else {
+                found = TrigramIndex.union(found, partFound);
+            }
+            first = false;
+            if (!all && found == null) {
+                return null;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads a regular expression, keeping track of where it is up to.
+     */
+    private static final class Parser {
+
+        /**
+         * The expression.
+         */
+        private final String regex;
+
+        /**
+         * The position of the next character to read.
+         */
+        private int position;
+
+        /**
+         * Creates a new parser.
+         * @param expression the expression.
+         */
+        private Parser(final String expression) {
+            regex = expression;
+        }
+
+        /**
+         * Reads alternatives, up to the end of the expression or the end of the group they are in.
+         * @return the query that text must match for any of the alternatives to match it.
+         * @throws NotUnderstoodException if the alternatives use something that is not understood.
+         */
+        private TrigramQuery parseAlternation() throws NotUnderstoodException {
+            List<TrigramQuery> alternatives = new ArrayList<>();
+            alternatives.add(parseSequence());
+            while (position < regex.length() && regex.charAt(position) == '|') {
+                position++;
+                alternatives.add(parseSequence());
+            }
+            if (alternatives.size() == 1) {
+                return alternatives.get(0);
+            }
+            return new TrigramQuery(null, alternatives, false);
+        }
+
+        /**
+         * Reads a sequence of atoms, up to the next alternative or the end of the group it is in.
+         * Each run of literal characters that must all be matched is a string the text must contain.
+         * @return the query that text must match for the sequence to match it.
+         * @throws NotUnderstoodException if the sequence uses something that is not understood.
+         */
+        private TrigramQuery parseSequence() throws NotUnderstoodException {
+            List<TrigramQuery> required = new ArrayList<>();
+            StringBuilder run = new StringBuilder();
+            while (position < regex.length()) {
+                char next = regex.charAt(position);
+                if (next == '|' || next == ')') {
+                    break;
+                }
+                position++;
+                if (next == '\\' && position < regex.length() && regex.charAt(position) == 'Q') {
+                    position++;
+                    int end = regex.indexOf("\\E", position);
+                    if (end < 0) {
+                        end = regex.length();
+                    }
+                    run.append(regex, position, end);
+                    position = Math.min(end + 2, regex.length());
+                    if (run.length() > 0) {
+                        addLiteralAtom(run, required);
+                    }
+                }
+                else if (next == '\\') {
+                    parseEscape(run, required);
+                }
+                else if (next == '(') {
+                    flush(run, required);
+                    TrigramQuery group = parseGroup();
+                    if (parseQuantifier() != 0 && group != null) {
+                        required.add(group);
+                    }
+                }
+                else if (next == '[') {
+                    flush(run, required);
+                    skipClass();
+                    parseQuantifier();
+                }
+                else if (next == '.' || next == '^' || next == '$') {
+                    flush(run, required);
+                    parseQuantifier();
+                }
+                else if (next == '{') {
+                    // a brace that does not follow an atom is accepted, but is not matched literally
+                    throw new NotUnderstoodException();
+                }
+                else {
+                    run.append(next);
+                    addLiteralAtom(run, required);
+                }
+            }
+            flush(run, required);
+            return new TrigramQuery(null, required, true);
+        }
+
+        /**
+         * Reads the rest of an escape, which starts after the backslash.
+         * @param run the current run of literal characters.
+         * @param required the strings the text must contain so far.
+         * @throws NotUnderstoodException if the escape is not understood.
+         */
+        private void parseEscape(final StringBuilder run, final List<TrigramQuery> required)
+                throws NotUnderstoodException {
+            if (position >= regex.length()) {
+                throw new NotUnderstoodException();
+            }
+            char escaped = regex.charAt(position);
+            position++;
+            if (!Character.isLetterOrDigit(escaped)) {
+                run.append(escaped);
+                addLiteralAtom(run, required);
+            }
+            else if (CLASS_ESCAPES.indexOf(escaped) >= 0) {
+                flush(run, required);
+                parseQuantifier();
+            }
+            else {
+                // e.g. code points, properties and back references, which take up more than one character
+                throw new NotUnderstoodException();
+            }
+        }
+
+        /**
+         * Reads a group, which starts after the opening bracket, up to and including its closing bracket.
+         * @return the query that text must match for the group to match it, or null if it is zero width.
+         * @throws NotUnderstoodException if the group uses something that is not understood.
+         */
+        private TrigramQuery parseGroup() throws NotUnderstoodException {
+            boolean lookaround = false;
+            if (regex.startsWith("?", position)) {
+                position++;
+                if (regex.startsWith(":", position) || regex.startsWith(">", position)) {
+                    position++;
+                }
+                else if (regex.startsWith("=", position) || regex.startsWith("!", position)) {
+                    position++;
+                    lookaround = true;
+                }
+                else if (regex.startsWith("<=", position) || regex.startsWith("<!", position)) {
+                    position += 2;
+                    lookaround = true;
+                }
+                else if (regex.startsWith("<", position)) {
+                    position = regex.indexOf('>', position) + 1;
+                }
+                else if (parseFlags()) {
+                    // the flags apply to the rest of the enclosing group, rather than a group of their own
+                    return null;
+                }
+            }
+            TrigramQuery group = parseAlternation();
+            if (!regex.startsWith(")", position)) {
+                throw new NotUnderstoodException();
+            }
+            position++;
+            if (lookaround) {
+                return null;
+            }
+            return group;
+        }
+
+        /**
+         * Reads the flags of a group, which start after the question mark.
+         * @return true if the flags are a group of their own, false if they are followed by a group.
+         * @throws NotUnderstoodException if comments are turned on, as white space is then not matched.
+         */
+        private boolean parseFlags() throws NotUnderstoodException {
+            boolean on = true;
+            while (position < regex.length() && Character.isLetter(regex.charAt(position))
+                    || regex.startsWith("-", position)) {
+                char flag = regex.charAt(position);
+                if (flag == '-') {
+                    on = false;
+                }
+                else if (flag == 'x' && on) {
+                    throw new NotUnderstoodException();
+                }
+                position++;
+            }
+            if (regex.startsWith(")", position)) {
+                position++;
+                return true;
+            }
+            if (regex.startsWith(":", position)) {
+                position++;
+                return false;
+            }
+            throw new NotUnderstoodException();
+        }
+
+        /**
+         * Skips a character class, which starts after the opening bracket, up to and including its closing
+         * bracket.
+         * @throws NotUnderstoodException if the class quotes characters, as they may include a bracket.
+         */
+        private void skipClass() throws NotUnderstoodException {
+            int depth = 1;
+            if (regex.startsWith("^", position)) {
+                position++;
+            }
+            if (regex.startsWith("]", position)) {
+                position++;
+            }
+            while (position < regex.length() && depth > 0) {
+                char next = regex.charAt(position);
+                if (next == '\\' && regex.startsWith("Q", position + 1)) {
+                    throw new NotUnderstoodException();
+                }
+                if (next == '\\') {
+                    position++;
+                }
+                else if (next == '[') {
+                    depth++;
+                }
+                else if (next == ']') {
+                    depth--;
+                }
+                position++;
+            }
+        }
+
+        /**
+         * Reads the quantifier after an atom, if there is one.
+         * @return the least number of times the atom must be matched, or NO_QUANTIFIER if there is no quantifier.
+         * @throws NotUnderstoodException if the quantifier is not understood.
+         */
+        private int parseQuantifier() throws NotUnderstoodException {
+            if (position >= regex.length()) {
+                return NO_QUANTIFIER;
+            }
+            int minimum;
+            char next = regex.charAt(position);
+            if (next == '?' || next == '*') {
+                minimum = 0;
+                position++;
+            }
+            else if (next == '+') {
+                minimum = 1;
+                position++;
+            }
+            else if (next == '{') {
+                int end = regex.indexOf('}', position);
+                if (end < 0) {
+                    throw new NotUnderstoodException();
+                }
+                String bounds = regex.substring(position + 1, end).split(",", -1)[0].trim();
+                try {
+                    minimum = Integer.parseInt(bounds);
+                }
+                catch (NumberFormatException e) {
+                    throw new NotUnderstoodException();
+                }
+                position = end + 1;
+            }
+            else {
+                return NO_QUANTIFIER;
+            }
+            // lazy and possessive quantifiers match the same text
+            if (regex.startsWith("?", position) || regex.startsWith("+", position)) {
+                position++;
+            }
+            return minimum;
+        }
+
+        /**
+         * Reads the quantifier after the literal atom at the end of the current run, if there is one.
+         * The atom is one character, or two if it is a surrogate pair.
+         * @param run the current run of literal characters.
+         * @param required the strings the text must contain so far.
+         * @throws NotUnderstoodException if the quantifier is not understood.
+         */
+        private void addLiteralAtom(final StringBuilder run, final List<TrigramQuery> required)
+                throws NotUnderstoodException {
+            int minimum = parseQuantifier();
+            if (minimum == NO_QUANTIFIER) {
+                return;
+            }
+            int atomLength = 1;
+            int last = run.length() - 1;
+            if (last > 0 && Character.isLowSurrogate(run.charAt(last)) && Character.isHighSurrogate(run.charAt(last - 1))) {
+                atomLength = 2;
+            }
+            String atom = run.substring(run.length() - atomLength);
+            run.setLength(run.length() - atomLength);
+            if (minimum == 0) {
+                flush(run, required);
+            }
+            else {
+                // the atom is repeated, so the run ends after its first repetition and starts again at its last
+                run.append(atom);
+                flush(run, required);
+                run.append(atom);
+            }
+        }
+
+        /**
+         * Ends the current run of literal characters, keeping it as a string the text must contain if it is
+         * long enough.
+         * @param run the current run of literal characters.
+         * @param required the strings the text must contain so far.
+         */
+        private void flush(final StringBuilder run, final List<TrigramQuery> required) {
+            if (run.length() >= TrigramIndex.LENGTH) {
+                required.add(new TrigramQuery(run.toString(), null, true));
+            }
+            run.setLength(0);
+        }
+    }
+}
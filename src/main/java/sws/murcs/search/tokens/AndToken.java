@@ -1,9 +1,13 @@
 package sws.murcs.search.tokens;
 
+import sws.murcs.model.Model;
+import sws.murcs.model.ModelType;
+import sws.murcs.search.SearchIndex;
 import sws.murcs.search.SearchResult;
 
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.Set;
 
 /**
  * An object representing the "&amp;&amp;" connection
@@ -49,4 +53,41 @@ public class AndToken extends Token {
         }
         return first;
     }
+
+    @Override
+    public final boolean refines(final Token previous) {
+        if (!(previous instanceof AndToken)) {
+            return false;
+        }
+        // every term that had to match must still have to, though more terms can have been added
+        for (Token previousToken : ((AndToken) previous).tokenCollection) {
+            boolean refined = false;
+            for (Token token : tokenCollection) {
+                if (token.refines(previousToken)) {
+                    refined = true;
+                    break;
+                }
+            }
+            if (!refined) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public final Set<Model> findCandidates(final SearchIndex searchIndex, final ModelType type) {
+        // a model can only match if it could match every token
+        Set<Model> candidates = null;
+        for (Token token : tokenCollection) {
+            Set<Model> tokenCandidates = token.findCandidates(searchIndex, type);
+            if (candidates == null) {
+                candidates = tokenCandidates;
+            }
+            else if (tokenCandidates != null) {
+                candidates.retainAll(tokenCandidates);
+            }
+        }
+        return candidates;
+    }
 }
@@ -1,7 +1,13 @@
 package sws.murcs.search.tokens;
 
+import sws.murcs.model.Model;
+import sws.murcs.model.ModelType;
+import sws.murcs.search.SearchIndex;
 import sws.murcs.search.SearchResult;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * A token that represents an empty query.
  */
@@ -12,6 +18,11 @@ public class BlankToken extends Token {
         return null;
     }
 
+    @Override
+    public final Set<Model> findCandidates(final SearchIndex searchIndex, final ModelType type) {
+        return Collections.emptySet();
+    }
+
     @Override
     public final boolean isEmpty() {
         return true;
@@ -1,9 +1,15 @@
 package sws.murcs.search.tokens;
 
+import sws.murcs.model.Model;
+import sws.murcs.model.ModelType;
+import sws.murcs.search.SearchIndex;
 import sws.murcs.search.SearchResult;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.Set;
 
 /**
  * An object representing the logical or operation
@@ -47,4 +53,39 @@ public class OrToken extends Token {
         }
         return searchResults;
     }
+
+    @Override
+    public final boolean refines(final Token previous) {
+        if (!(previous instanceof OrToken)) {
+            return false;
+        }
+        // each alternative must only match what one of the previous alternatives matched
+        for (Token token : tokenCollection) {
+            boolean refined = false;
+            for (Token previousToken : ((OrToken) previous).tokenCollection) {
+                if (token.refines(previousToken)) {
+                    refined = true;
+                    break;
+                }
+            }
+            if (!refined) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public final Set<Model> findCandidates(final SearchIndex searchIndex, final ModelType type) {
+        // a model can match if it could match any token
+        Set<Model> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Token token : tokenCollection) {
+            Set<Model> tokenCandidates = token.findCandidates(searchIndex, type);
+            if (tokenCandidates == null) {
+                return null;
+            }
+            candidates.addAll(tokenCandidates);
+        }
+        return candidates;
+    }
 }
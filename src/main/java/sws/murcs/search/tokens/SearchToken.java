@@ -1,7 +1,12 @@
 package sws.murcs.search.tokens;
 
+import sws.murcs.model.Model;
+import sws.murcs.model.ModelType;
+import sws.murcs.search.SearchIndex;
 import sws.murcs.search.SearchResult;
 
+import java.util.List;
+import java.util.Set;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -32,6 +37,16 @@ public class SearchToken extends Token {
      */
     private Pattern searchRegex;
 
+    /**
+     * The words that text must contain to match, or null if it is not known which words it must contain.
+     */
+    private List<String> searchWords;
+
+    /**
+     * The wildcard expression that was searched for, or null if a regular expression was searched for.
+     */
+    private String searchWildcard;
+
     /**
      * Creates a new search token with the specified query.
      * @param searchTerm The term to search for.
@@ -43,6 +58,9 @@ public class SearchToken extends Token {
         }
         else {
             regexExp = wildcardToRegex(searchTerm);
+            searchWildcard = searchTerm;
+            // wildcards are not letters or digits, so the words in between them are still whole words of the term
+            searchWords = SearchIndex.getWords(searchTerm);
         }
 
         int flags = Pattern.MULTILINE | Pattern.DOTALL;
@@ -106,4 +124,54 @@ public class SearchToken extends Token {
         }
         return null;
     }
+
+    @Override
+    public final boolean refines(final Token previous) {
+        if (!(previous instanceof SearchToken)) {
+            return false;
+        }
+        SearchToken previousToken = (SearchToken) previous;
+        // regular expressions do not match less as they get longer, e.g. "a|" becomes "a|b"
+        if (searchWildcard == null || previousToken.searchWildcard == null
+                || searchRegex.flags() != previousToken.searchRegex.flags()) {
+            return false;
+        }
+        String previousTerm = previousToken.searchWildcard;
+        if (searchWildcard.indexOf('\\') >= 0 || previousTerm.indexOf('\\') >= 0
+                || previousTerm.indexOf('*') >= 0 || previousTerm.indexOf('?') >= 0) {
+            return false;
+        }
+        // the text between wildcards must be matched as it is, so if the previous term is part of it,
+        // the previous term is matched too
+        for (String literal : searchWildcard.split("[*?]")) {
+            if (literal.contains(previousTerm)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public final Set<Model> findCandidates(final SearchIndex searchIndex, final ModelType type) {
+        // the strings the expression requires are looked up by their trigrams
+        Set<Model> candidates = searchIndex.findPattern(type, searchRegex);
+        if (searchWords == null) {
+            return candidates;
+        }
+        // the letters and digits that match a word of the term are part of a single word of the text,
+        // which narrows things down further for words that are too short to have trigrams
+        for (String word : searchWords) {
+            if (candidates != null && word.length() >= SearchIndex.TRIGRAM_LENGTH) {
+                continue;
+            }
+            Set<Model> found = searchIndex.find(type, word);
+            if (candidates == null) {
+                candidates = found;
+            }
+            else {
+                candidates.retainAll(found);
+            }
+        }
+        return candidates;
+    }
 }
@@ -3,7 +3,10 @@ package sws.murcs.search.tokens;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Set;
+import sws.murcs.model.Model;
 import sws.murcs.model.ModelType;
+import sws.murcs.search.SearchIndex;
 import sws.murcs.search.SearchPriority;
 import sws.murcs.search.SearchResult;
 import sws.murcs.view.App;
@@ -90,6 +93,15 @@ public abstract class Token {
      */
     public abstract SearchResult matches(final String query);
 
+    /**
+     * Finds the models of a type that could match the token, using the search index.
+     * Every model that matches is found, but not every model found will match.
+     * @param searchIndex the search index.
+     * @param type the type of model.
+     * @return the models that could match, or null if any model could match.
+     */
+    public abstract Set<Model> findCandidates(final SearchIndex searchIndex, final ModelType type);
+
     /**
      * Pareses input into a Token that can be used for search queries.
      * @param input the input string to be parsed.
@@ -126,6 +138,18 @@ public abstract class Token {
         return orToken;
     }
 
+    /**
+     * Checks if the token refines another, so that any text it matches is also matched by the other token.
+     * Only simple refinements are found, e.g. a term that has been typed further or an extra term that has
+     * been added with "&amp;&amp;", so a token that does refine another may not be found to.
+     * @param previous the other token.
+     * @return true if the token is known to only match text the other token matches.
+     */
+    @SuppressWarnings("checkstyle:designforextension")
+    public boolean refines(final Token previous) {
+        return false;
+    }
+
     /**
      * Determines if the token is empty (no search query).
      * @return if the entered search query was empty.
@@ -29,7 +29,8 @@ import sws.murcs.listeners.AppClosingListener;
 import sws.murcs.magic.tracking.UndoRedoManager;
 import sws.murcs.model.Organisation;
 import sws.murcs.model.persistence.PersistenceManager;
-import sws.murcs.model.persistence.loaders.FilePersistenceLoader;
+import sws.murcs.model.persistence.loaders.BinaryPersistenceLoader;
+import sws.murcs.model.persistence.loaders.JournalPersistenceLoader;
 
 /**
  * The main app class.
@@ -230,6 +231,8 @@ public class App extends Application {
     public final void start(final Stage primaryStage) throws Exception {
         primaryStage.setTitle(DEFAULT_WINDOW_TITLE);
         setStage(primaryStage);
+        // listeners that opt in (e.g. editors) are notified once per pulse, however many changes are made during it
+        UndoRedoManager.get().setNotificationScheduler(Platform::runLater);
         mainController = createWindow(primaryStage);
         if (vader) {
             invade();
@@ -254,6 +257,17 @@ public class App extends Application {
         }
     }
 
+    /**
+     * Called when the application exits. Waits for any saves still running in the background to finish,
+     * as they run on daemon threads.
+     */
+    @Override
+    public final void stop() {
+        if (PersistenceManager.currentPersistenceManagerExists()) {
+            PersistenceManager.getCurrent().awaitBackgroundSaves();
+        }
+    }
+
     /**
      * Invades the application with beautiful music.
      */
@@ -284,7 +298,7 @@ public class App extends Application {
     public static MainController createWindow(final Stage window) {
         String language = "English";
         if (!PersistenceManager.currentPersistenceManagerExists()) {
-            FilePersistenceLoader loader = new FilePersistenceLoader();
+            JournalPersistenceLoader loader = new JournalPersistenceLoader();
             PersistenceManager.setCurrent(new PersistenceManager(loader));
         }
         else {
@@ -413,6 +427,33 @@ public class App extends Application {
         System.exit(0);
     }
 
+    /**
+     * Converts projects in the current directory that were saved by an older version to the binary format.
+     * @param values the names of the project files to convert.
+     * @throws Exception when no projects were specified.
+     */
+    private static void convertProjects(final List<String> values) throws Exception {
+        if (values.size() == 0) {
+            throw new Exception("Invalid use of the convert option.");
+        }
+
+        BinaryPersistenceLoader loader = new BinaryPersistenceLoader();
+        for (String fileLocation : values) {
+            try {
+                if (loader.convertLegacyModel(fileLocation)) {
+                    System.out.println("Converted " + fileLocation);
+                }
+                else {
+                    System.out.println(fileLocation + " is already up to date.");
+                }
+            }
+            catch (Exception e) {
+                System.err.println("Could not convert " + fileLocation + ".");
+            }
+        }
+        System.exit(0);
+    }
+
     /**
      * Main function for starting the app.
      * @param args Arguments passed into the main function (they're irrelevant currently)
@@ -420,7 +461,7 @@ public class App extends Application {
     public static void main(final String[] args) {
         System.setProperty("prism.lcdtext", "false");
         System.setProperty("glass.accessible.force", "false");
-        PersistenceManager.setCurrent(new PersistenceManager(new FilePersistenceLoader()));
+        PersistenceManager.setCurrent(new PersistenceManager(new JournalPersistenceLoader()));
         UndoRedoManager.get().setDisabled(true);
 
         ArgumentsManager.get().registerArgument("d", "debug", "Generates sample data for use while debugging.\n\t"
@@ -429,6 +470,8 @@ public class App extends Application {
                 + "generated model types.", v -> OrganisationGenerator.isNumbering(true));
         ArgumentsManager.get().registerArgument("s", "sample", "Generates a sample file for use while testing.",
                 App::saveSample);
+        ArgumentsManager.get().registerArgument("c", "convert", "Converts project files saved by older versions to the "
+                + "current format.", App::convertProjects);
         ArgumentsManager.get().registerArgument("v", "vader", "Enables Dion Vader mode.", opts -> { vader = true; });
         ArgumentsManager.get().parseArguments(args);
 
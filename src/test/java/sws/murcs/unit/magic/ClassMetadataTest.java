@@ -0,0 +1,61 @@
+package sws.murcs.unit.magic;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.FieldAccessor;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.Skill;
+import sws.murcs.search.SearchPriority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ClassMetadataTest {
+
+    private List<String> names(List<FieldAccessor> accessors) {
+        return accessors.stream().map(FieldAccessor::getName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void metadataSharedTest() {
+        Assert.assertSame(ClassMetadata.of(Skill.class), ClassMetadata.of(Skill.class));
+    }
+
+    @Test
+    public void trackedFieldsTest() {
+        List<String> tracked = names(ClassMetadata.of(Skill.class).getTrackedFields());
+        Assert.assertTrue(tracked.contains("shortName"));
+        Assert.assertTrue(tracked.contains("longName"));
+        Assert.assertTrue(tracked.contains("description"));
+    }
+
+    @Test
+    public void searchableFieldsTest() {
+        ClassMetadata metadata = ClassMetadata.of(Skill.class);
+        Assert.assertEquals("shortName", names(metadata.getSearchableFields(SearchPriority.Ultra)).get(0));
+        Assert.assertTrue(names(metadata.getSearchableFields(SearchPriority.High)).contains("longName"));
+        Assert.assertFalse(names(metadata.getSearchableFields(SearchPriority.Low)).contains("shortName"));
+    }
+
+    @Test
+    public void getAndSetTest() {
+        Skill skill = new Skill();
+        FieldAccessor shortName = ClassMetadata.of(Skill.class).getTrackedFields().stream()
+                .filter(a -> a.getName().equals("shortName")).findFirst().get();
+        shortName.set(skill, "Skill A");
+        Assert.assertEquals("Skill A", skill.getShortName());
+        Assert.assertEquals("Skill A", shortName.get(skill));
+    }
+
+    @Test
+    public void setFinalFieldTest() {
+        Organisation organisation = new Organisation();
+        FieldAccessor allocations = ClassMetadata.of(Organisation.class).getTrackedFields().stream()
+                .filter(a -> a.getName().equals("allocations")).findFirst().get();
+        List<Object> newAllocations = new ArrayList<>();
+        allocations.set(organisation, newAllocations);
+        Assert.assertSame(newAllocations, allocations.get(organisation));
+    }
+}
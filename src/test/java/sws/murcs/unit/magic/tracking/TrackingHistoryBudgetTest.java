@@ -0,0 +1,240 @@
+package sws.murcs.unit.magic.tracking;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import sws.murcs.magic.tracking.Commit;
+import sws.murcs.magic.tracking.TrackableObject;
+import sws.murcs.magic.tracking.TrackableValue;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.magic.tracking.listener.ChangeListenerHandler;
+
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Map;
+
+public class TrackingHistoryBudgetTest {
+    public class TestObject extends TrackableObject {
+        public TestObject() throws Exception {
+            UndoRedoManager.get().add(this);
+            commit("initial state");
+        }
+
+        @TrackableValue
+        private String testString;
+
+        @TrackableValue
+        private LocalDate testDate;
+
+        @TrackableValue
+        private ArrayList<TestObject> testList = new ArrayList<>();
+
+        public String getTestString() {
+            return testString;
+        }
+
+        public void setTestString(String testString) throws Exception {
+            this.testString = testString;
+            commit("test desc.");
+        }
+
+        public LocalDate getTestDate() {
+            return testDate;
+        }
+
+        public void setTestDate(LocalDate testDate) throws Exception {
+            this.testDate = testDate;
+            commit("test desc.");
+        }
+
+        public ArrayList<TestObject> getTestList() {
+            return testList;
+        }
+
+        public void addToList(TestObject object) throws Exception {
+            testList.add(object);
+            commit("test desc.");
+        }
+    }
+
+    private static Field listenersField;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        listenersField = UndoRedoManager.class.getDeclaredField("changeListeners");
+        listenersField.setAccessible(true);
+        UndoRedoManager.get().setDisabled(false);
+    }
+
+    @Before
+    public void setup() throws IllegalAccessException {
+        UndoRedoManager.get().forget(true);
+        listenersField.set(UndoRedoManager.get(), new ArrayList<ChangeListenerHandler>());
+        UndoRedoManager.get().setMaximumCommits(-1);
+        UndoRedoManager.get().setHistoryBudget(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UndoRedoManager.get().setHistoryBudget(UndoRedoManager.DEFAULT_HISTORY_BUDGET);
+        UndoRedoManager.get().forget(true);
+    }
+
+    @Test
+    public void revertSpilledValuesTest() throws Exception {
+        TestObject object = new TestObject();
+        for (int i = 0; i < 10; i++) {
+            object.setTestString("value " + i);
+            object.setTestDate(LocalDate.of(2015, 1, i + 1));
+        }
+        for (int i = 9; i > 0; i--) {
+            UndoRedoManager.get().revert();
+            Assert.assertEquals(LocalDate.of(2015, 1, i), object.getTestDate());
+            UndoRedoManager.get().revert();
+            Assert.assertEquals("value " + (i - 1), object.getTestString());
+        }
+        UndoRedoManager.get().revert();
+        UndoRedoManager.get().revert();
+        Assert.assertNull(object.getTestString());
+        Assert.assertNull(object.getTestDate());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+
+    @Test
+    public void remakeSpilledValuesTest() throws Exception {
+        TestObject object = new TestObject();
+        for (int i = 0; i < 10; i++) {
+            object.setTestString("value " + i);
+        }
+        UndoRedoManager.get().revert(0);
+        Assert.assertNull(object.getTestString());
+        for (int i = 0; i < 10; i++) {
+            UndoRedoManager.get().remake();
+            Assert.assertEquals("value " + i, object.getTestString());
+        }
+        Assert.assertFalse(UndoRedoManager.get().canRemake());
+    }
+
+    @Test
+    public void spilledObjectsKeepIdentityTest() throws Exception {
+        TestObject parent = new TestObject();
+        TestObject first = new TestObject();
+        TestObject second = new TestObject();
+        parent.addToList(first);
+        parent.addToList(second);
+        parent.setTestString("changed");
+        UndoRedoManager.get().revert();
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(1, parent.getTestList().size());
+        Assert.assertSame(first, parent.getTestList().get(0));
+
+        UndoRedoManager.get().revert();
+        Assert.assertTrue(parent.getTestList().isEmpty());
+        UndoRedoManager.get().remake();
+        parent.addToList(second);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(1, parent.getTestList().size());
+        Assert.assertSame(first, parent.getTestList().get(0));
+    }
+
+    @Test
+    public void maximumCommitsWithSpilledHistoryTest() throws Exception {
+        UndoRedoManager.get().setMaximumCommits(3);
+        TestObject object = new TestObject();
+        for (int i = 0; i < 10; i++) {
+            object.setTestString("value " + i);
+        }
+        UndoRedoManager.get().revert();
+        UndoRedoManager.get().revert();
+        UndoRedoManager.get().revert();
+        Assert.assertEquals("value 6", object.getTestString());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+
+    @Test
+    public void unlimitedBudgetTest() throws Exception {
+        UndoRedoManager.get().setHistoryBudget(-1);
+        TestObject object = new TestObject();
+        for (int i = 0; i < 10; i++) {
+            object.setTestString("value " + i);
+        }
+        UndoRedoManager.get().revert(0);
+        Assert.assertNull(object.getTestString());
+    }
+
+    @Test
+    public void savedCommitSpilledTest() throws Exception {
+        TestObject object = new TestObject();
+        object.setTestString("saved");
+        UndoRedoManager.get().markSaved();
+        for (int i = 0; i < 5; i++) {
+            object.setTestString("value " + i);
+        }
+        Assert.assertTrue(UndoRedoManager.get().hasUnsavedChanges());
+        for (int i = 0; i < 5; i++) {
+            UndoRedoManager.get().revert();
+        }
+        Assert.assertEquals("saved", object.getTestString());
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+
+        object.setTestString("changed");
+        UndoRedoManager.get().revertToSaved();
+        Assert.assertEquals("saved", object.getTestString());
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+    }
+
+    @Test
+    public void markSavedAtEarlierCommitTest() throws Exception {
+        TestObject object = new TestObject();
+        object.setTestString("saving");
+        Commit saving = UndoRedoManager.get().getHead();
+        object.setTestString("changed while saving");
+        UndoRedoManager.get().markSaved(saving);
+        Assert.assertTrue(UndoRedoManager.get().hasUnsavedChanges());
+        UndoRedoManager.get().revert();
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+    }
+
+    @Test
+    public void droppedCommitsReleaseObjectsTest() throws Exception {
+        UndoRedoManager.get().setMaximumCommits(3);
+        for (int i = 0; i < 20; i++) {
+            TestObject object = new TestObject();
+            object.setTestString("value " + i);
+        }
+        Field spilledField = UndoRedoManager.class.getDeclaredField("spilledHistory");
+        spilledField.setAccessible(true);
+        Object spilled = spilledField.get(UndoRedoManager.get());
+        Field anchorsField = spilled.getClass().getDeclaredField("anchors");
+        anchorsField.setAccessible(true);
+        Map<?, ?> anchors = (Map<?, ?>) anchorsField.get(spilled);
+        Assert.assertTrue("Objects of forgotten commits are still kept, " + anchors.size(), anchors.size() < 20);
+    }
+
+    @Test
+    public void droppedCommitsCompactedTest() throws Exception {
+        UndoRedoManager.get().setMaximumCommits(3);
+        TestObject object = new TestObject();
+        char[] padding = new char[10000];
+        for (int i = 0; i < 30; i++) {
+            padding[0] = (char) ('a' + i);
+            object.setTestString(new String(padding));
+        }
+        Field spilledField = UndoRedoManager.class.getDeclaredField("spilledHistory");
+        spilledField.setAccessible(true);
+        Object spilled = spilledField.get(UndoRedoManager.get());
+        Field dataField = spilled.getClass().getDeclaredField("data");
+        dataField.setAccessible(true);
+        Assert.assertTrue(((RandomAccessFile) dataField.get(spilled)).length() < 200000);
+
+        for (int i = 28; i > 25; i--) {
+            UndoRedoManager.get().revert();
+            Assert.assertEquals((char) ('a' + i), object.getTestString().charAt(0));
+        }
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+}
@@ -9,11 +9,13 @@ import sws.murcs.magic.tracking.TrackableObject;
 import sws.murcs.magic.tracking.TrackableValue;
 import sws.murcs.magic.tracking.UndoRedoManager;
 import sws.murcs.magic.tracking.listener.ChangeListenerHandler;
+import sws.murcs.magic.tracking.listener.ChangeSet;
 import sws.murcs.magic.tracking.listener.ChangeState;
 import sws.murcs.magic.tracking.listener.UndoRedoChangeListener;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.List;
 
 public class TrackingListenerTest {
     public class TestInteger extends TrackableObject {
@@ -33,6 +35,27 @@ public class TrackingListenerTest {
     public class TestListener implements UndoRedoChangeListener {
         private boolean listenerCalled;
         private ChangeState stateProvided;
+        private List<ChangeSet> changesProvided = new ArrayList<>();
+        private boolean deferrable;
+
+        @Override
+        public boolean isDeferrable() {
+            return deferrable;
+        }
+
+        public void setDeferrable(boolean isDeferrable) {
+            deferrable = isDeferrable;
+        }
+
+        @Override
+        public void undoRedoNotification(ChangeState param, ChangeSet changes) {
+            changesProvided.add(changes);
+            undoRedoNotification(param);
+        }
+
+        public List<ChangeSet> getChanges() {
+            return changesProvided;
+        }
 
         @Override
         public void undoRedoNotification(ChangeState param) {
@@ -51,6 +74,7 @@ public class TrackingListenerTest {
         public void reset() {
             listenerCalled = false;
             stateProvided = null;
+            changesProvided.clear();
         }
 
         public TestListener() {
@@ -74,6 +98,7 @@ public class TrackingListenerTest {
 
     @After
     public void tearDown() throws Exception {
+        UndoRedoManager.get().setNotificationScheduler(null);
         UndoRedoManager.get().forget(true);
         listenersField.set(UndoRedoManager.get(), new ArrayList<ChangeListenerHandler>());
     }
@@ -166,4 +191,88 @@ public class TrackingListenerTest {
         UndoRedoManager.get().commit("test commit");
         Assert.assertFalse(listener.getCalled());
     }
+
+    @Test
+    public void changeSetTest() throws Exception {
+        TestListener listener = new TestListener();
+        TestInteger changed = new TestInteger();
+        TestInteger unchanged = new TestInteger();
+        UndoRedoManager.get().add(changed);
+        UndoRedoManager.get().add(unchanged);
+        UndoRedoManager.get().commit("test commit");
+        changed.setTestInteger(1);
+        UndoRedoManager.get().addChangeListener(listener);
+
+        changed.setTestInteger(42);
+        ChangeSet changes = listener.getChanges().get(0);
+        Assert.assertTrue(changes.contains(changed));
+        Assert.assertTrue(changes.contains(changed, "testInteger"));
+        Assert.assertFalse(changes.contains(changed, "somethingElse"));
+        Assert.assertFalse(changes.contains(unchanged));
+
+        listener.reset();
+        UndoRedoManager.get().revert();
+        changes = listener.getChanges().get(0);
+        Assert.assertEquals(ChangeState.Revert, listener.getState());
+        Assert.assertTrue(changes.contains(changed, "testInteger"));
+        Assert.assertFalse(changes.contains(unchanged));
+    }
+
+    @Test
+    public void coalescedNotificationsTest() throws Exception {
+        List<Runnable> scheduled = new ArrayList<>();
+        UndoRedoManager.get().setNotificationScheduler(scheduled::add);
+        TestListener listener = new TestListener();
+        listener.setDeferrable(true);
+        TestInteger first = new TestInteger();
+        TestInteger second = new TestInteger();
+        UndoRedoManager.get().add(first);
+        UndoRedoManager.get().add(second);
+        UndoRedoManager.get().commit("test commit");
+        UndoRedoManager.get().addChangeListener(listener);
+
+        first.setTestInteger(1);
+        second.setTestInteger(2);
+        first.setTestInteger(3);
+        Assert.assertFalse(listener.getCalled());
+        Assert.assertEquals(1, scheduled.size());
+
+        scheduled.remove(0).run();
+        Assert.assertEquals(1, listener.getChanges().size());
+        Assert.assertEquals(ChangeState.Commit, listener.getState());
+        ChangeSet changes = listener.getChanges().get(0);
+        Assert.assertTrue(changes.contains(first, "testInteger"));
+        Assert.assertTrue(changes.contains(second, "testInteger"));
+
+        listener.reset();
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(1, scheduled.size());
+        scheduled.remove(0).run();
+        Assert.assertEquals(ChangeState.Revert, listener.getState());
+        Assert.assertTrue(listener.getChanges().get(0).contains(first));
+    }
+
+    @Test
+    public void undeferrableListenerNotifiedStraightAwayTest() throws Exception {
+        List<Runnable> scheduled = new ArrayList<>();
+        UndoRedoManager.get().setNotificationScheduler(scheduled::add);
+        TestListener immediate = new TestListener();
+        TestListener deferred = new TestListener();
+        deferred.setDeferrable(true);
+        TestInteger object = new TestInteger();
+        UndoRedoManager.get().add(object);
+        UndoRedoManager.get().commit("test commit");
+        UndoRedoManager.get().addChangeListener(immediate);
+        UndoRedoManager.get().addChangeListener(deferred);
+
+        object.setTestInteger(1);
+        Assert.assertTrue(immediate.getCalled());
+        Assert.assertEquals(ChangeState.Commit, immediate.getState());
+        Assert.assertFalse(deferred.getCalled());
+
+        immediate.reset();
+        scheduled.remove(0).run();
+        Assert.assertFalse(immediate.getCalled());
+        Assert.assertTrue(deferred.getCalled());
+    }
 }
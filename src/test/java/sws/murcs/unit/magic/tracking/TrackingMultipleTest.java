@@ -252,4 +252,90 @@ public class TrackingMultipleTest {
         Assert.assertEquals("Assimilate failed", "0", b.getTestString());
         Assert.assertEquals("Assimilate failed", 2, a.getTestInteger());
     }
+
+    @Test
+    public void stopTrackingOneObjectTest() throws Exception {
+        TestInteger a = new TestInteger();
+        TestInteger b = new TestInteger();
+        a.setTestInteger(1);
+        b.setTestInteger(1);
+        a.stopTracking();
+        a.setTestInteger(2);
+        b.setTestInteger(2);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(2, a.getTestInteger());
+        Assert.assertEquals(1, b.getTestInteger());
+    }
+
+    @Test
+    public void assimilateManyEditsTest() throws Exception {
+        TestInteger a = new TestInteger();
+        TestString b = new TestString();
+        a.setTestInteger(1);
+        b.setTestString("1");
+        long commitNumber = UndoRedoManager.get().getHead().getCommitNumber();
+        for (int i = 2; i < 200; i++) {
+            a.setTestInteger(i);
+            b.setTestString(Integer.toString(i));
+        }
+        UndoRedoManager.get().assimilate(commitNumber);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(1, a.getTestInteger());
+        Assert.assertEquals("1", b.getTestString());
+        UndoRedoManager.get().remake();
+        Assert.assertEquals(199, a.getTestInteger());
+        Assert.assertEquals("199", b.getTestString());
+    }
+
+    @Test
+    public void jumpRevertRemakeTest() throws Exception {
+        TestInteger a = new TestInteger();
+        TestString b = new TestString();
+        long start = UndoRedoManager.get().getHead().getCommitNumber();
+        a.setTestInteger(1);
+        b.setTestString("1");
+        long middle = UndoRedoManager.get().getHead().getCommitNumber();
+        for (int i = 2; i < 50; i++) {
+            a.setTestInteger(i);
+            if (i % 3 == 0) {
+                b.setTestString(Integer.toString(i));
+            }
+        }
+        long end = UndoRedoManager.get().getHead().getCommitNumber();
+
+        UndoRedoManager.get().revert(middle);
+        Assert.assertEquals(1, a.getTestInteger());
+        Assert.assertEquals("1", b.getTestString());
+        UndoRedoManager.get().revert(start);
+        Assert.assertEquals(0, a.getTestInteger());
+        Assert.assertEquals(null, b.getTestString());
+        UndoRedoManager.get().remake(end);
+        Assert.assertEquals(49, a.getTestInteger());
+        Assert.assertEquals("48", b.getTestString());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(48, a.getTestInteger());
+        Assert.assertEquals("48", b.getTestString());
+    }
+
+    @Test
+    public void revertToSavedTest() throws Exception {
+        TestInteger a = new TestInteger();
+        a.setTestInteger(1);
+        UndoRedoManager.get().markSaved();
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+        Assert.assertTrue(UndoRedoManager.get().canRevert());
+
+        a.setTestInteger(2);
+        a.setTestInteger(3);
+        Assert.assertTrue(UndoRedoManager.get().hasUnsavedChanges());
+        UndoRedoManager.get().revertToSaved();
+        Assert.assertEquals(1, a.getTestInteger());
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(0, a.getTestInteger());
+        Assert.assertTrue(UndoRedoManager.get().hasUnsavedChanges());
+        UndoRedoManager.get().revertToSaved();
+        Assert.assertEquals(1, a.getTestInteger());
+    }
 }
@@ -36,6 +36,15 @@ public class TrackingObservableListTest {
             commit("test desc.");
         }
 
+        public void setLastValue(int value) throws Exception {
+            testArrayList.set(testArrayList.size() - 1, new TestClass(value));
+            commit("test desc.");
+        }
+
+        public long getModificationCount() {
+            return testArrayList.getModificationCount();
+        }
+
         private class TestClass extends Model {
             private int a;
             public TestClass(int newA) { setA(newA); }
@@ -125,4 +134,48 @@ public class TrackingObservableListTest {
 
         UndoRedoManager.get().remake();
     }
+
+    @Test
+    public void modificationCountTest() throws Exception {
+        TestArrayList a = new TestArrayList();
+        long count = a.getModificationCount();
+        a.addValue(1);
+        Assert.assertNotEquals(count, a.getModificationCount());
+        count = a.getModificationCount();
+        a.setLastValue(2);
+        Assert.assertNotEquals(count, a.getModificationCount());
+    }
+
+    @Test
+    public void undoReplacedValueTest() throws Exception {
+        TestArrayList a = new TestArrayList();
+        a.addValue(1);
+        a.setLastValue(2);
+        a.setLastValue(3);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(2, a.getLastValue());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(1, a.getLastValue());
+        UndoRedoManager.get().remake();
+        Assert.assertEquals(2, a.getLastValue());
+    }
+
+    @Test
+    public void jumpSetsListOnceTest() throws Exception {
+        TestArrayList a = new TestArrayList();
+        long commitNumber = UndoRedoManager.get().getHead().getCommitNumber();
+        for (int i = 1; i <= 20; i++) {
+            a.addValue(i);
+        }
+        long count = a.getModificationCount();
+        UndoRedoManager.get().revert(commitNumber);
+        Assert.assertEquals(0, a.getLastValue());
+        Assert.assertTrue(a.getModificationCount() - count <= 2);
+
+        count = a.getModificationCount();
+        UndoRedoManager.get().remake(UndoRedoManager.get().getHead().getCommitNumber() + 20);
+        Assert.assertEquals(20, a.getLastValue());
+        Assert.assertTrue(a.getModificationCount() - count <= 2);
+        Assert.assertFalse(UndoRedoManager.get().canRemake());
+    }
 }
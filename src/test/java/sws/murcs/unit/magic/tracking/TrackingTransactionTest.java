@@ -0,0 +1,153 @@
+package sws.murcs.unit.magic.tracking;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import sws.murcs.magic.tracking.TrackableObject;
+import sws.murcs.magic.tracking.TrackableValue;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.magic.tracking.listener.ChangeListenerHandler;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+public class TrackingTransactionTest {
+    public class TestInteger extends TrackableObject {
+        public TestInteger() throws Exception {
+            UndoRedoManager.get().add(this);
+            commit("initial state");
+        }
+
+        @TrackableValue
+        private int testInteger = 0;
+
+        public int getTestInteger() {
+            return testInteger;
+        }
+
+        public void setTestInteger(int testInteger) throws Exception {
+            this.testInteger = testInteger;
+            commit("test desc.");
+        }
+    }
+
+    private static Field listenersField;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        listenersField = UndoRedoManager.class.getDeclaredField("changeListeners");
+        listenersField.setAccessible(true);
+        UndoRedoManager.get().setDisabled(false);
+    }
+
+    @Before
+    public void setup() throws IllegalAccessException {
+        UndoRedoManager.get().forget(true);
+        listenersField.set(UndoRedoManager.get(), new ArrayList<ChangeListenerHandler>());
+        UndoRedoManager.get().setMaximumCommits(-1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UndoRedoManager.get().forget(true);
+    }
+
+    @Test
+    public void singleCommitTest() throws Exception {
+        TestInteger a = new TestInteger();
+        TestInteger b = new TestInteger();
+        UndoRedoManager.get().beginTransaction();
+        a.setTestInteger(1);
+        b.setTestInteger(2);
+        a.setTestInteger(3);
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+        UndoRedoManager.get().commitTransaction("transaction desc.");
+        Assert.assertFalse(UndoRedoManager.get().isInTransaction());
+        Assert.assertEquals("transaction desc.", UndoRedoManager.get().getRevertMessage());
+
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(0, a.getTestInteger());
+        Assert.assertEquals(0, b.getTestInteger());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+        UndoRedoManager.get().remake();
+        Assert.assertEquals(3, a.getTestInteger());
+        Assert.assertEquals(2, b.getTestInteger());
+    }
+
+    @Test
+    public void nestedCommitTest() throws Exception {
+        TestInteger a = new TestInteger();
+        UndoRedoManager.get().beginTransaction();
+        a.setTestInteger(1);
+        UndoRedoManager.get().beginTransaction();
+        a.setTestInteger(2);
+        Assert.assertEquals(-1, UndoRedoManager.get().commitTransaction("inner desc."));
+        Assert.assertTrue(UndoRedoManager.get().isInTransaction());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+        UndoRedoManager.get().commitTransaction("outer desc.");
+
+        Assert.assertEquals("outer desc.", UndoRedoManager.get().getRevertMessage());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(0, a.getTestInteger());
+    }
+
+    @Test
+    public void rollbackTest() throws Exception {
+        TestInteger a = new TestInteger();
+        a.setTestInteger(1);
+        UndoRedoManager.get().beginTransaction();
+        a.setTestInteger(2);
+        a.setTestInteger(3);
+        UndoRedoManager.get().rollbackTransaction();
+        Assert.assertEquals(1, a.getTestInteger());
+        Assert.assertFalse(UndoRedoManager.get().isInTransaction());
+
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(0, a.getTestInteger());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+
+    @Test
+    public void rollbackAddedObjectTest() throws Exception {
+        TestInteger a = new TestInteger();
+        UndoRedoManager.get().beginTransaction();
+        a.setTestInteger(1);
+        TestInteger b = new TestInteger();
+        b.setTestInteger(2);
+        UndoRedoManager.get().rollbackTransaction();
+        Assert.assertEquals(0, a.getTestInteger());
+
+        b.setTestInteger(3);
+        a.setTestInteger(4);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(0, a.getTestInteger());
+        Assert.assertEquals(3, b.getTestInteger());
+    }
+
+    @Test
+    public void nestedRollbackTest() throws Exception {
+        TestInteger a = new TestInteger();
+        UndoRedoManager.get().beginTransaction();
+        a.setTestInteger(1);
+        UndoRedoManager.get().beginTransaction();
+        a.setTestInteger(2);
+        UndoRedoManager.get().rollbackTransaction();
+        Assert.assertEquals(2, a.getTestInteger());
+        try {
+            UndoRedoManager.get().commitTransaction("outer desc.");
+            Assert.fail("The transaction should have been rolled back");
+        }
+        catch (Exception e) {
+            Assert.assertFalse(UndoRedoManager.get().isInTransaction());
+        }
+        Assert.assertEquals(0, a.getTestInteger());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+
+    @Test(expected = Exception.class)
+    public void commitWithoutTransactionTest() throws Exception {
+        UndoRedoManager.get().commitTransaction("test desc.");
+    }
+}
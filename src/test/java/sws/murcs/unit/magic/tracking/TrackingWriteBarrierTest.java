@@ -0,0 +1,98 @@
+package sws.murcs.unit.magic.tracking;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import sws.murcs.magic.tracking.TrackableObject;
+import sws.murcs.magic.tracking.TrackableValue;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.magic.tracking.listener.ChangeListenerHandler;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+public class TrackingWriteBarrierTest {
+    public class TestInteger extends TrackableObject {
+        public TestInteger() throws Exception {
+            UndoRedoManager.get().add(this);
+            commit("initial state");
+        }
+
+        @TrackableValue
+        private int testInteger = 0;
+
+        public int getTestInteger() {
+            return testInteger;
+        }
+
+        public void setTestInteger(int testInteger) throws Exception {
+            this.testInteger = testInteger;
+            commit("test desc.");
+        }
+
+        public void setTestIntegerWithoutCommit(int testInteger) {
+            this.testInteger = testInteger;
+        }
+    }
+
+    private static Field listenersField;
+
+    @BeforeClass
+    public static void setupClass() throws Exception {
+        listenersField = UndoRedoManager.class.getDeclaredField("changeListeners");
+        listenersField.setAccessible(true);
+        UndoRedoManager.get().setDisabled(false);
+    }
+
+    @Before
+    public void setup() throws IllegalAccessException {
+        UndoRedoManager.get().forget(true);
+        listenersField.set(UndoRedoManager.get(), new ArrayList<ChangeListenerHandler>());
+        UndoRedoManager.get().setMaximumCommits(-1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UndoRedoManager.get().forget(true);
+    }
+
+    @Test
+    public void unmarkedChangeNotCommittedTest() throws Exception {
+        TestInteger a = new TestInteger();
+        TestInteger b = new TestInteger();
+        a.setTestInteger(1);
+        b.setTestIntegerWithoutCommit(2);
+        a.setTestInteger(3);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(1, a.getTestInteger());
+        Assert.assertEquals(2, b.getTestInteger());
+    }
+
+    @Test
+    public void markedChangeCommittedTest() throws Exception {
+        TestInteger a = new TestInteger();
+        TestInteger b = new TestInteger();
+        a.setTestInteger(1);
+        b.setTestIntegerWithoutCommit(2);
+        UndoRedoManager.get().markChanged(b);
+        a.setTestInteger(3);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(1, a.getTestInteger());
+        Assert.assertEquals(0, b.getTestInteger());
+    }
+
+    @Test
+    public void markedChangeAfterRevertTest() throws Exception {
+        TestInteger a = new TestInteger();
+        a.setTestInteger(1);
+        a.setTestInteger(2);
+        UndoRedoManager.get().revert();
+        a.setTestInteger(3);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(1, a.getTestInteger());
+        UndoRedoManager.get().remake();
+        Assert.assertEquals(3, a.getTestInteger());
+    }
+}
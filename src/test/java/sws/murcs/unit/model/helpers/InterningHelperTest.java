@@ -0,0 +1,94 @@
+package sws.murcs.unit.model.helpers;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sws.murcs.model.EffortEntry;
+import sws.murcs.model.EstimateInfo;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.Story;
+import sws.murcs.model.helpers.InterningHelper;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class InterningHelperTest {
+
+    @Test
+    public void testInternReturnsCanonicalInstance() {
+        String first = new String("Not Estimated");
+        String second = new String("Not Estimated");
+        Assert.assertSame(InterningHelper.intern(first), InterningHelper.intern(second));
+        Assert.assertSame(InterningHelper.intern(LocalDate.of(2015, 7, 1)), InterningHelper.intern(LocalDate.of(2015, 7, 1)));
+    }
+
+    @Test
+    public void testInternCountsDuplicates() {
+        String value = "interning test " + System.nanoTime();
+        InterningHelper.intern(value);
+        long duplicates = InterningHelper.getDuplicatesReplaced();
+        long bytes = InterningHelper.getBytesSaved();
+        InterningHelper.intern(new String(value));
+        Assert.assertEquals(duplicates + 1, InterningHelper.getDuplicatesReplaced());
+        Assert.assertTrue(InterningHelper.getBytesSaved() > bytes);
+    }
+
+    @Test
+    public void testInternIgnoresModels() {
+        Story story = new Story();
+        Assert.assertSame(story, InterningHelper.intern(story));
+        Assert.assertFalse(InterningHelper.isInternable(story));
+    }
+
+    @Test
+    public void testInternEntriesReplacesKeys() {
+        LocalDate canonical = InterningHelper.intern(LocalDate.of(2015, 8, 2));
+        Map<LocalDate, Float> estimates = new HashMap<>();
+        estimates.put(LocalDate.of(2015, 8, 2), 1f);
+        InterningHelper.internEntries(estimates);
+        Assert.assertSame(canonical, estimates.keySet().iterator().next());
+    }
+
+    @Test
+    public void testInternElementsReplacesListElements() {
+        String canonical = InterningHelper.intern("interned element");
+        List<String> list = new ArrayList<>();
+        list.add(new String("interned element"));
+        InterningHelper.internElements(list);
+        Assert.assertSame(canonical, list.get(0));
+    }
+
+    @Test
+    public void testInternAllSharesValues() throws Exception {
+        Organisation organisation = new Organisation();
+        Story first = new Story();
+        first.setShortName("first");
+        Story second = new Story();
+        second.setShortName("second");
+        first.setDescription(new String("shared description"));
+        second.setDescription(new String("shared description"));
+        organisation.add(first);
+        organisation.add(second);
+
+        InterningHelper.internAll(organisation);
+        Assert.assertSame(first.getDescription(), second.getDescription());
+    }
+
+    @Test
+    public void testEditsAreInterned() {
+        EffortEntry first = new EffortEntry();
+        EffortEntry second = new EffortEntry();
+        first.setDate(LocalDate.of(2015, 9, 3));
+        second.setDate(LocalDate.of(2015, 9, 3));
+        Assert.assertSame(first.getDate(), second.getDate());
+
+        EstimateInfo firstEstimate = new EstimateInfo();
+        EstimateInfo secondEstimate = new EstimateInfo();
+        firstEstimate.setEstimateForDay(2, LocalDate.of(2015, 9, 4));
+        secondEstimate.setEstimateForDay(2, LocalDate.of(2015, 9, 4));
+        Assert.assertSame(firstEstimate.getEstimates().keySet().iterator().next(),
+                secondEstimate.getEstimates().keySet().iterator().next());
+    }
+}
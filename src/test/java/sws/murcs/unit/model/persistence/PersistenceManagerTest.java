@@ -7,11 +7,17 @@ import sws.murcs.debug.sampledata.OrganisationGenerator;
 import sws.murcs.magic.tracking.UndoRedoManager;
 import sws.murcs.model.Organisation;
 import sws.murcs.model.persistence.PersistenceManager;
+import sws.murcs.model.persistence.SaveListener;
 import sws.murcs.model.persistence.loaders.PersistenceLoader;
+import sws.murcs.model.persistence.loaders.SaveTask;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 public class PersistenceManagerTest {
 
@@ -19,6 +25,9 @@ public class PersistenceManagerTest {
 
         private HashMap<String, Organisation> modelMap = new HashMap<String, Organisation>();
         private String workingDirectory;
+        private List<String> written = Collections.synchronizedList(new ArrayList<>());
+        private CountDownLatch started;
+        private CountDownLatch gate;
 
         @Override
         public Organisation loadModel(String persistenceName) {
@@ -30,6 +39,30 @@ public class PersistenceManagerTest {
             modelMap.put(saveName, persistent);
         }
 
+        @Override
+        public boolean saveChanges(String saveName, Organisation persistent) throws Exception {
+            return false;
+        }
+
+        @Override
+        public void discardChanges(Organisation persistent) {
+        }
+
+        @Override
+        public SaveTask prepareSave(String saveName, Organisation persistent) throws Exception {
+            CountDownLatch taskStarted = started;
+            CountDownLatch taskGate = gate;
+            return progress -> {
+                if (taskGate != null) {
+                    taskStarted.countDown();
+                    taskGate.await();
+                }
+                modelMap.put(saveName, persistent);
+                written.add(saveName);
+                progress.accept(1);
+            };
+        }
+
         @Override
         public ArrayList<String> getModelList() {
             return new ArrayList<>(modelMap.keySet());
@@ -58,12 +91,14 @@ public class PersistenceManagerTest {
     }
 
     private PersistenceManager manager;
+    private TestLoader loader;
     private OrganisationGenerator generator;
 
     @Before
     public void setUp() throws Exception {
         PersistenceManager.setCurrent(null);
-        manager = new PersistenceManager(new TestLoader());
+        loader = new TestLoader();
+        manager = new PersistenceManager(loader);
         PersistenceManager.setCurrent(manager);
         generator = new OrganisationGenerator(OrganisationGenerator.Stress.Low);
         UndoRedoManager.get().setDisabled(true);
@@ -98,6 +133,63 @@ public class PersistenceManagerTest {
         Assert.assertEquals(curr, manager.loadModel("current"));
     }
 
+    @Test
+    public void testSaveInBackground() throws Exception {
+        Organisation model = generator.generate();
+        manager.setCurrentModel(model);
+        List<Double> progress = Collections.synchronizedList(new ArrayList<>());
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        manager.saveModelInBackground("background", new SaveListener() {
+            @Override
+            public void saveProgressed(double fraction) {
+                progress.add(fraction);
+            }
+
+            @Override
+            public void saveCompleted(Exception error) {
+                errors.add(error);
+            }
+        });
+        manager.awaitBackgroundSaves();
+        Assert.assertEquals("background", manager.getLastFile());
+        Assert.assertEquals(model, manager.loadModel("background"));
+        Assert.assertEquals(Collections.singletonList(1.0), progress);
+        Assert.assertEquals(Collections.singletonList(null), errors);
+    }
+
+    @Test
+    public void testSaveInBackgroundCoalesces() throws Exception {
+        manager.setCurrentModel(generator.generate());
+        CountDownLatch gate = new CountDownLatch(1);
+        loader.started = new CountDownLatch(1);
+        loader.gate = gate;
+        List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        manager.saveModelInBackground("first", completionListener(completed, "first"));
+        loader.started.await();
+        loader.gate = null;
+        manager.saveModelInBackground("second", completionListener(completed, "second"));
+        manager.saveModelInBackground("third", completionListener(completed, "third"));
+        Assert.assertTrue(loader.written.isEmpty());
+
+        gate.countDown();
+        manager.awaitBackgroundSaves();
+        Assert.assertEquals(Arrays.asList("first", "third"), loader.written);
+        Assert.assertEquals(Arrays.asList("first", "second", "third"), completed);
+    }
+
+    private SaveListener completionListener(List<String> completed, String name) {
+        return new SaveListener() {
+            @Override
+            public void saveProgressed(double fraction) {
+            }
+
+            @Override
+            public void saveCompleted(Exception error) {
+                completed.add(name);
+            }
+        };
+    }
+
     @Test
     public void testModelExists() throws Exception {
         Assert.assertFalse(manager.modelExists("none"));
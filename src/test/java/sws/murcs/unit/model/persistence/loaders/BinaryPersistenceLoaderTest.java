@@ -0,0 +1,256 @@
+package sws.murcs.unit.model.persistence.loaders;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import sws.murcs.debug.sampledata.OrganisationGenerator;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.ModelType;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.Skill;
+import sws.murcs.model.Story;
+import sws.murcs.model.persistence.PersistenceManager;
+import sws.murcs.model.persistence.binary.PartialSnapshot;
+import sws.murcs.model.persistence.loaders.BinaryPersistenceLoader;
+import sws.murcs.model.persistence.loaders.FilePersistenceLoader;
+import sws.murcs.model.persistence.loaders.SaveTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class BinaryPersistenceLoaderTest {
+
+    private Random random;
+    private ArrayList<String> files;
+    private BinaryPersistenceLoader loader;
+    private FilePersistenceLoader legacyLoader;
+    private OrganisationGenerator generator;
+    private final String testExtension = ".testProject";
+    private PrintStream systemErr;
+
+    @Before
+    public void setup() throws Exception {
+        systemErr = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+            }
+        }));
+        File file = new File(System.getProperty("user.dir"));
+        loader = new BinaryPersistenceLoader(file.getAbsolutePath());
+        legacyLoader = new FilePersistenceLoader(file.getAbsolutePath());
+        generator = new OrganisationGenerator(OrganisationGenerator.Stress.Low);
+        files = new ArrayList<>();
+        random = new Random();
+        UndoRedoManager.get().setDisabled(true);
+        if (PersistenceManager.getCurrent() != null) {
+            PersistenceManager.getCurrent().setCurrentModel(null);
+        }
+        else {
+            PersistenceManager.setCurrent(new PersistenceManager(loader));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        files.forEach(file -> new File(file).delete());
+        System.setErr(systemErr);
+    }
+
+    private String getNewTestFile() throws Exception {
+        while (true) {
+            String tempFile = "binaryPersistenceLoaderTest" + random.nextInt() + testExtension;
+            if (files.stream().filter(f -> f.equals(tempFile)).findAny().isPresent()) continue;
+            files.add(tempFile);
+            return tempFile;
+        }
+    }
+
+    private void assertSameOrganisation(Organisation expected, Organisation actual) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.getProjects().size(), actual.getProjects().size());
+        Assert.assertEquals(expected.getPeople().size(), actual.getPeople().size());
+        Assert.assertEquals(expected.getTeams().size(), actual.getTeams().size());
+        Assert.assertEquals(expected.getAllocations().size(), actual.getAllocations().size());
+        Assert.assertEquals(expected.getStories().size(), actual.getStories().size());
+        for (int i = 0; i < expected.getStories().size(); i++) {
+            Story expectedStory = expected.getStories().get(i);
+            Story actualStory = actual.getStories().get(i);
+            Assert.assertEquals(expectedStory.getShortName(), actualStory.getShortName());
+            Assert.assertEquals(expectedStory.getTasks().size(), actualStory.getTasks().size());
+            Assert.assertEquals(expectedStory.getDependencies().size(), actualStory.getDependencies().size());
+        }
+    }
+
+    @Test
+    public void testLoadModel() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        assertSameOrganisation(model, loader.loadModel(testFile));
+    }
+
+    @Test
+    public void testLoadModelKeepsReferences() throws Exception {
+        String testFile = getNewTestFile();
+        loader.saveModel(testFile, generator.generate());
+        Organisation loadModel = loader.loadModel(testFile);
+        Assert.assertNotNull(loadModel);
+        loadModel.getStories().stream()
+                .filter(s -> s.getCreator() != null)
+                .forEach(s -> Assert.assertTrue(loadModel.getPeople().stream().anyMatch(p -> p == s.getCreator())));
+    }
+
+    @Test
+    public void testLoadModelFail() throws Exception {
+        Organisation model = loader.loadModel(getNewTestFile());
+        Assert.assertNull(model);
+        model = loader.loadModel(null);
+        Assert.assertNull(model);
+    }
+
+    @Test
+    public void testSmallerThanLegacy() throws Exception {
+        String testFile = getNewTestFile();
+        String legacyFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        legacyLoader.saveModel(legacyFile, model);
+        Assert.assertTrue(new File(testFile).length() < new File(legacyFile).length());
+    }
+
+    @Test
+    public void testLoadLegacyModel() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        legacyLoader.saveModel(testFile, model);
+        assertSameOrganisation(model, loader.loadModel(testFile));
+    }
+
+    @Test
+    public void testConvertLegacyModel() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        legacyLoader.saveModel(testFile, model);
+        Assert.assertTrue(loader.convertLegacyModel(testFile));
+        Assert.assertNull(legacyLoader.loadModel(testFile));
+        assertSameOrganisation(model, loader.loadModel(testFile));
+        Assert.assertFalse(loader.convertLegacyModel(testFile));
+    }
+
+    @Test
+    public void testPrepareSaveCapturesModel() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        int skills = model.getSkills().size();
+        String description = model.getStories().get(0).getDescription();
+        SaveTask task = loader.prepareSave(testFile, model);
+
+        Skill skill = new Skill();
+        skill.setShortName("added after prepare");
+        model.add(skill);
+        model.getStories().get(0).setDescription("changed after prepare");
+        double[] progress = new double[1];
+        task.write(fraction -> progress[0] = fraction);
+
+        Assert.assertEquals(1, progress[0], 0);
+        Organisation loaded = loader.loadModel(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(skills, loaded.getSkills().size());
+        Assert.assertEquals(description, loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testStoriesLoadedWhenNeeded() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        Organisation loaded = loader.loadModel(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertFalse(loaded.isLoaded(Story.class));
+        Assert.assertEquals(model.getStories().size(), loaded.getStories().size());
+        Assert.assertTrue(loaded.isLoaded(Story.class));
+        assertSameOrganisation(model, loaded);
+    }
+
+    @Test
+    public void testShortNamesReadWithoutLoading() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        PartialSnapshot snapshot = PartialSnapshot.open(new File(testFile));
+        List<String> expected = model.getStories().stream().map(Story::getShortName).collect(Collectors.toList());
+        Assert.assertEquals(expected, snapshot.getShortNames(ModelType.Story));
+        Assert.assertFalse(snapshot.isLoaded(Story.class));
+        Assert.assertEquals(expected.size(), snapshot.getOrganisation().getStories().size());
+    }
+
+    @Test
+    public void testLoadAllKeepsReferencesBetweenSections() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        PartialSnapshot snapshot = PartialSnapshot.open(new File(testFile));
+        snapshot.loadAll();
+        Organisation loaded = snapshot.getOrganisation();
+        assertSameOrganisation(model, loaded);
+        loaded.getAllocations().forEach(a -> {
+            Assert.assertTrue(loaded.getTeams().stream().anyMatch(t -> t == a.getTeam()));
+            Assert.assertTrue(loaded.getProjects().stream().anyMatch(p -> p == a.getProject()));
+        });
+    }
+
+    @Test
+    public void testSaveAfterPartialLoad() throws Exception {
+        String testFile = getNewTestFile();
+        String copyFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        Organisation loaded = loader.loadModel(testFile);
+        loader.saveModel(copyFile, loaded);
+        assertSameOrganisation(model, loader.loadModel(copyFile));
+        loader.saveModel(testFile, loaded);
+        assertSameOrganisation(model, loader.loadModel(testFile));
+    }
+
+    @Test
+    public void testLoadingIsNotAChange() throws Exception {
+        String testFile = getNewTestFile();
+        loader.saveModel(testFile, generator.generate());
+        Organisation loaded = loader.loadModel(testFile);
+        UndoRedoManager.get().setDisabled(false);
+        try {
+            UndoRedoManager.get().importModel(loaded);
+            Story story = loaded.getStories().get(0);
+            UndoRedoManager.get().commit("load stories");
+            Assert.assertFalse(UndoRedoManager.get().canRevert());
+
+            String description = story.getDescription();
+            story.setDescription("changed after loading");
+            Assert.assertTrue(UndoRedoManager.get().canRevert());
+            UndoRedoManager.get().revert();
+            Assert.assertEquals(description, story.getDescription());
+        }
+        finally {
+            UndoRedoManager.get().setDisabled(true);
+            UndoRedoManager.get().forget(true);
+        }
+    }
+
+    /**
+     * Tests saving using an invalid file name.
+     * @throws Exception if the test passes
+     */
+    @Test(expected = Exception.class)
+    public void testInvalidSaveModel() throws Exception {
+        String testFile = "test1234/?%\\:*+5678";
+        loader.saveModel(testFile, generator.generate());
+    }
+}
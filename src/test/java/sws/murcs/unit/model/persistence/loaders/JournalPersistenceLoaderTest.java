@@ -0,0 +1,541 @@
+package sws.murcs.unit.model.persistence.loaders;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import sws.murcs.debug.sampledata.OrganisationGenerator;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.Skill;
+import sws.murcs.model.Story;
+import sws.murcs.model.persistence.PersistenceManager;
+import sws.murcs.model.persistence.loaders.JournalPersistenceLoader;
+import sws.murcs.model.persistence.loaders.SaveTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class JournalPersistenceLoaderTest {
+
+    private Random random;
+    private ArrayList<String> files;
+    private JournalPersistenceLoader loader;
+    private OrganisationGenerator generator;
+    private final String testExtension = ".testProject";
+    private PrintStream systemErr;
+
+    @Before
+    public void setup() throws Exception {
+        systemErr = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+            }
+        }));
+        File file = new File(System.getProperty("user.dir"));
+        loader = new JournalPersistenceLoader(file.getAbsolutePath());
+        generator = new OrganisationGenerator(OrganisationGenerator.Stress.Low);
+        files = new ArrayList<>();
+        random = new Random();
+        UndoRedoManager.get().setDisabled(true);
+        if (PersistenceManager.getCurrent() != null) {
+            PersistenceManager.getCurrent().setCurrentModel(null);
+        }
+        else {
+            PersistenceManager.setCurrent(new PersistenceManager(loader));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loader.awaitCompaction();
+        loader.loadModel(null);
+        UndoRedoManager.get().forget(true);
+        UndoRedoManager.get().setDisabled(true);
+        files.forEach(file -> {
+            new File(file).delete();
+            JournalPersistenceLoader.getJournalFile(new File(file)).delete();
+            JournalPersistenceLoader.getHistoryFile(new File(file)).delete();
+        });
+        System.setErr(systemErr);
+    }
+
+    private String getNewTestFile() throws Exception {
+        while (true) {
+            String tempFile = "journalPersistenceLoaderTest" + random.nextInt() + testExtension;
+            if (files.stream().filter(f -> f.equals(tempFile)).findAny().isPresent()) continue;
+            files.add(tempFile);
+            return tempFile;
+        }
+    }
+
+    private Organisation generateTrackedModel() throws Exception {
+        Organisation model = generator.generate();
+        UndoRedoManager.get().setDisabled(false);
+        UndoRedoManager.get().importModel(model);
+        return model;
+    }
+
+    private Organisation loadWithNewLoader(String testFile) {
+        return new JournalPersistenceLoader(loader.getCurrentWorkingDirectory()).loadModel(testFile);
+    }
+
+    @Test
+    public void testSaveOnlyWritesJournal() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        loader.saveModel(testFile, model);
+        byte[] snapshot = Files.readAllBytes(new File(testFile).toPath());
+        long journalLength = JournalPersistenceLoader.getJournalFile(new File(testFile)).length();
+
+        model.getStories().get(0).setDescription("journaled description");
+        loader.saveModel(testFile, model);
+
+        Assert.assertTrue(Arrays.equals(snapshot, Files.readAllBytes(new File(testFile).toPath())));
+        Assert.assertTrue(JournalPersistenceLoader.getJournalFile(new File(testFile)).length() > journalLength);
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("journaled description", loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testCommitsJournaledAsTheyHappen() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        loader.saveModel(testFile, model);
+        File journalFile = JournalPersistenceLoader.getJournalFile(new File(testFile));
+        long journalLength = journalFile.length();
+
+        Story story = model.getStories().get(0);
+        story.setDescription("first description");
+        long firstLength = journalFile.length();
+        Assert.assertTrue(firstLength > journalLength);
+        story.setDescription("second description");
+        long secondLength = journalFile.length();
+        Assert.assertTrue(secondLength > firstLength);
+
+        Assert.assertTrue(loader.saveChanges(testFile, model));
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("second description", loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testOnlyChangedFieldsJournaled() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        Story story = model.getStories().get(0);
+        char[] longName = new char[1000];
+        Arrays.fill(longName, 'a');
+        story.setLongName(new String(longName));
+        loader.saveModel(testFile, model);
+        File journalFile = JournalPersistenceLoader.getJournalFile(new File(testFile));
+
+        long journalLength = journalFile.length();
+        story.setDescription("journaled description");
+        // the entry holds the new description rather than the whole story
+        Assert.assertTrue(journalFile.length() - journalLength < longName.length);
+        loader.saveChanges(testFile, model);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(new String(longName), loaded.getStories().get(0).getLongName());
+        Assert.assertEquals("journaled description", loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testSaveChangesNeedsFullSave() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        Assert.assertFalse(loader.saveChanges(testFile, model));
+        Assert.assertFalse(new File(testFile).exists());
+
+        loader.saveModel(testFile, model);
+        Assert.assertFalse(loader.saveChanges(testFile, generator.generate()));
+    }
+
+    @Test
+    public void testUnsavedChangesRecovered() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        int skills = model.getSkills().size();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("saved description");
+        loader.saveModel(testFile, model);
+
+        // the application exits without saving or discarding these
+        model.getStories().get(0).setDescription("unsaved description");
+        Skill skill = new Skill();
+        skill.setShortName("unsaved skill");
+        model.add(skill);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("unsaved description", loaded.getStories().get(0).getDescription());
+        Assert.assertEquals(skills + 1, loaded.getSkills().size());
+        UndoRedoManager.get().importModel(loaded);
+        Assert.assertTrue(UndoRedoManager.get().hasUnsavedChanges());
+        // the saved history does not lead up to the recovered changes
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+        UndoRedoManager.get().markSaved();
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+    }
+
+    @Test
+    public void testRecoveredChangesKeptUntilSaved() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("unsaved description");
+
+        JournalPersistenceLoader secondLoader = new JournalPersistenceLoader(loader.getCurrentWorkingDirectory());
+        Organisation loaded = secondLoader.loadModel(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        loaded.getStories().get(0).setLongName("unsaved name");
+        Organisation recovered = loadWithNewLoader(testFile);
+        Assert.assertEquals("unsaved description", recovered.getStories().get(0).getDescription());
+        Assert.assertEquals("unsaved name", recovered.getStories().get(0).getLongName());
+
+        UndoRedoManager.get().importModel(loaded);
+        secondLoader.saveModel(testFile, loaded);
+        UndoRedoManager.get().markSaved();
+        secondLoader.awaitCompaction();
+        loaded = loadWithNewLoader(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+        Assert.assertEquals("unsaved description", loaded.getStories().get(0).getDescription());
+        Assert.assertEquals("unsaved name", loaded.getStories().get(0).getLongName());
+    }
+
+    @Test
+    public void testDiscardedChangesNotRecovered() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        String description = model.getStories().get(0).getDescription();
+        loader.saveModel(testFile, model);
+
+        model.getStories().get(0).setDescription("discarded description");
+        loader.discardChanges(model);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(description, loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().importModel(loaded);
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+    }
+
+    @Test
+    public void testUndoIsJournaled() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        String description = model.getPeople().get(0).getDescription();
+        loader.saveModel(testFile, model);
+
+        model.getPeople().get(0).setDescription("undone description");
+        UndoRedoManager.get().revert();
+        loader.saveModel(testFile, model);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(description, loaded.getPeople().get(0).getDescription());
+    }
+
+    @Test
+    public void testNewObjectsJournaled() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        int skills = model.getSkills().size();
+        loader.saveModel(testFile, model);
+
+        Skill skill = new Skill();
+        skill.setShortName("journaled skill");
+        model.add(skill);
+        loader.saveModel(testFile, model);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(skills + 1, loaded.getSkills().size());
+        Assert.assertTrue(loaded.getSkills().stream().anyMatch(s -> s.getShortName().equals("journaled skill")));
+    }
+
+    @Test
+    public void testHistorySurvivesReopening() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        String description = model.getStories().get(0).getDescription();
+        int skills = model.getSkills().size();
+        loader.saveModel(testFile, model);
+
+        model.getStories().get(0).setDescription("first description");
+        Skill skill = model.getSkills().get(skills - 1);
+        model.remove(skill);
+        loader.saveModel(testFile, model);
+        Assert.assertTrue(JournalPersistenceLoader.getHistoryFile(new File(testFile)).exists());
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        Assert.assertTrue(UndoRedoManager.get().canRevert());
+        Assert.assertFalse(UndoRedoManager.get().hasUnsavedChanges());
+        Assert.assertEquals("remove skill", UndoRedoManager.get().getRevertMessage());
+
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(skills, loaded.getSkills().size());
+        Assert.assertEquals(skill.getShortName(), loaded.getSkills().get(skills - 1).getShortName());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(description, loaded.getStories().get(0).getDescription());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+        UndoRedoManager.get().remake();
+        Assert.assertEquals("first description", loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testHistorySavedAgainAfterReopening() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        String description = model.getStories().get(0).getDescription();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("first description");
+        loader.saveModel(testFile, model);
+
+        JournalPersistenceLoader secondLoader = new JournalPersistenceLoader(loader.getCurrentWorkingDirectory());
+        Organisation loaded = secondLoader.loadModel(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        loaded.getStories().get(0).setDescription("second description");
+        secondLoader.saveModel(testFile, loaded);
+        secondLoader.awaitCompaction();
+
+        loaded = loadWithNewLoader(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        Assert.assertEquals("second description", loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals("first description", loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(description, loaded.getStories().get(0).getDescription());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+
+    @Test
+    public void testHistoryIgnoredForOtherSnapshot() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("first description");
+        loader.saveModel(testFile, model);
+        File historyFile = JournalPersistenceLoader.getHistoryFile(new File(testFile));
+        byte[] history = Files.readAllBytes(historyFile.toPath());
+
+        // a new snapshot of the same model has new ids, so the old history cannot be used with it
+        new JournalPersistenceLoader(loader.getCurrentWorkingDirectory()).saveModel(testFile, model);
+        Files.write(historyFile.toPath(), history);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+
+    @Test
+    public void testHistoryAppendedOnSave() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        String description = model.getStories().get(0).getDescription();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("first description");
+        loader.saveModel(testFile, model);
+        File historyFile = JournalPersistenceLoader.getHistoryFile(new File(testFile));
+        byte[] history = Files.readAllBytes(historyFile.toPath());
+
+        model.getStories().get(0).setDescription("second description");
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("third description");
+        loader.saveModel(testFile, model);
+
+        // only the commits made since the last save are added to the end
+        byte[] appended = Files.readAllBytes(historyFile.toPath());
+        Assert.assertTrue(appended.length > history.length);
+        Assert.assertTrue(Arrays.equals(history, Arrays.copyOf(appended, history.length)));
+        Organisation loaded = loadWithNewLoader(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals("second description", loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals("first description", loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(description, loaded.getStories().get(0).getDescription());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+
+    @Test
+    public void testHistoryAppendedAfterUndo() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        String description = model.getStories().get(0).getDescription();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("first description");
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("abandoned description");
+        loader.saveModel(testFile, model);
+
+        UndoRedoManager.get().revert();
+        model.getStories().get(0).setLongName("new name");
+        loader.saveModel(testFile, model);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        Assert.assertEquals("first description", loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals("first description", loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(description, loaded.getStories().get(0).getDescription());
+        Assert.assertFalse(UndoRedoManager.get().canRevert());
+    }
+
+    @Test
+    public void testHistoryAppendedByBackgroundSave() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        String description = model.getStories().get(0).getDescription();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("first description");
+        loader.saveModel(testFile, model);
+        File historyFile = JournalPersistenceLoader.getHistoryFile(new File(testFile));
+        long historyLength = historyFile.length();
+
+        model.getStories().get(0).setDescription("saved in the background");
+        SaveTask task = loader.prepareSave(testFile, model);
+        task.write(fraction -> { });
+
+        Assert.assertTrue(historyFile.length() > historyLength);
+        Organisation loaded = loadWithNewLoader(testFile);
+        UndoRedoManager.get().importModel(loaded);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals("first description", loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(description, loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testHistoryKeepsObjectsRemovedByCompaction() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        int skills = model.getSkills().size();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("first description");
+        loader.saveModel(testFile, model);
+
+        loader.setCompactionThreshold(0);
+        Skill skill = model.getSkills().get(skills - 1);
+        model.remove(skill);
+        loader.saveModel(testFile, model);
+        loader.awaitCompaction();
+        model.getStories().get(0).setDescription("second description");
+        loader.saveModel(testFile, model);
+        loader.awaitCompaction();
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertEquals(skills - 1, loaded.getSkills().size());
+        UndoRedoManager.get().importModel(loaded);
+        UndoRedoManager.get().revert();
+        Assert.assertEquals("first description", loaded.getStories().get(0).getDescription());
+        UndoRedoManager.get().revert();
+        Assert.assertEquals(skills, loaded.getSkills().size());
+        Assert.assertEquals(skill.getShortName(), loaded.getSkills().get(skills - 1).getShortName());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        loader.setCompactionThreshold(0);
+        loader.saveModel(testFile, model);
+        File journalFile = JournalPersistenceLoader.getJournalFile(new File(testFile));
+        long emptyJournalLength = journalFile.length();
+
+        Story story = model.getStories().get(0);
+        story.setDescription("compacted description");
+        loader.saveModel(testFile, model);
+        loader.awaitCompaction();
+        Assert.assertEquals(emptyJournalLength, journalFile.length());
+
+        story.setLongName("journaled after compaction");
+        loader.saveModel(testFile, model);
+        loader.awaitCompaction();
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("compacted description", loaded.getStories().get(0).getDescription());
+        Assert.assertEquals("journaled after compaction", loaded.getStories().get(0).getLongName());
+    }
+
+    @Test
+    public void testJournalFromOtherSnapshotIgnored() throws Exception {
+        String testFile = getNewTestFile();
+        File journalFile = JournalPersistenceLoader.getJournalFile(new File(testFile));
+        Organisation model = generateTrackedModel();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("old journal");
+        loader.saveModel(testFile, model);
+        byte[] oldJournal = Files.readAllBytes(journalFile.toPath());
+
+        Organisation other = generator.generate();
+        String description = other.getStories().get(0).getDescription();
+        loader.saveModel(testFile, other);
+        Files.write(journalFile.toPath(), oldJournal);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(description, loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testBackgroundSaveJournalsLaterChanges() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        String description = model.getStories().get(0).getDescription();
+        SaveTask task = loader.prepareSave(testFile, model);
+        model.getStories().get(0).setDescription("changed while saving");
+        task.write(fraction -> { });
+
+        Assert.assertEquals(description, loadWithNewLoader(testFile).getStories().get(0).getDescription());
+        loader.saveModel(testFile, model);
+        Assert.assertEquals("changed while saving", loadWithNewLoader(testFile).getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testBackgroundSaveOnlyWritesJournal() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        loader.saveModel(testFile, model);
+        byte[] snapshot = Files.readAllBytes(new File(testFile).toPath());
+
+        model.getStories().get(0).setDescription("saved in the background");
+        SaveTask task = loader.prepareSave(testFile, model);
+        model.getStories().get(0).setDescription("not saved");
+        task.write(fraction -> { });
+
+        Assert.assertTrue(Arrays.equals(snapshot, Files.readAllBytes(new File(testFile).toPath())));
+        loader.discardChanges(model);
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("saved in the background", loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testFullSaveWhenUndoRedoDisabled() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        model.getStories().get(0).setDescription("untracked description");
+        loader.saveModel(testFile, model);
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("untracked description", loaded.getStories().get(0).getDescription());
+    }
+}
@@ -0,0 +1,212 @@
+package sws.murcs.unit.model.persistence.loaders;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import sws.murcs.debug.sampledata.OrganisationGenerator;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.Skill;
+import sws.murcs.model.Story;
+import sws.murcs.model.persistence.PersistenceManager;
+import sws.murcs.model.persistence.binary.ShardedProject;
+import sws.murcs.model.persistence.loaders.BinaryPersistenceLoader;
+import sws.murcs.model.persistence.loaders.ShardedPersistenceLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class ShardedPersistenceLoaderTest {
+
+    private static final int SECTION_SHARDS = 9;
+
+    private Random random;
+    private ArrayList<String> files;
+    private ShardedPersistenceLoader loader;
+    private OrganisationGenerator generator;
+    private final String testExtension = ".testProject";
+    private PrintStream systemErr;
+
+    @Before
+    public void setup() throws Exception {
+        systemErr = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+            }
+        }));
+        File file = new File(System.getProperty("user.dir"));
+        loader = new ShardedPersistenceLoader(file.getAbsolutePath());
+        generator = new OrganisationGenerator(OrganisationGenerator.Stress.Low);
+        files = new ArrayList<>();
+        random = new Random();
+        UndoRedoManager.get().setDisabled(true);
+        if (PersistenceManager.getCurrent() != null) {
+            PersistenceManager.getCurrent().setCurrentModel(null);
+        }
+        else {
+            PersistenceManager.setCurrent(new PersistenceManager(loader));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loader.loadModel(null);
+        UndoRedoManager.get().forget(true);
+        UndoRedoManager.get().setDisabled(true);
+        files.forEach(file -> loader.deleteModel(file));
+        System.setErr(systemErr);
+    }
+
+    private String getNewTestFile() throws Exception {
+        while (true) {
+            String tempFile = "shardedPersistenceLoaderTest" + random.nextInt() + testExtension;
+            if (files.stream().filter(f -> f.equals(tempFile)).findAny().isPresent()) continue;
+            files.add(tempFile);
+            return tempFile;
+        }
+    }
+
+    private Organisation generateTrackedModel() throws Exception {
+        Organisation model = generator.generate();
+        UndoRedoManager.get().setDisabled(false);
+        UndoRedoManager.get().importModel(model);
+        return model;
+    }
+
+    private Organisation loadWithNewLoader(String testFile) {
+        return new ShardedPersistenceLoader(loader.getCurrentWorkingDirectory()).loadModel(testFile);
+    }
+
+    private Set<String> getShardFiles(String testFile) {
+        return new HashSet<>(Arrays.asList(new File(testFile).list((dir, name) -> name.endsWith(".shard"))));
+    }
+
+    @Test
+    public void testLoadModel() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        Assert.assertTrue(ShardedProject.isProject(new File(testFile)));
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(model.getPeople().size(), loaded.getPeople().size());
+        Assert.assertEquals(model.getAllocations().size(), loaded.getAllocations().size());
+        Assert.assertEquals(model.getStories().size(), loaded.getStories().size());
+        for (int i = 0; i < model.getStories().size(); i++) {
+            Story expected = model.getStories().get(i);
+            Story actual = loaded.getStories().get(i);
+            Assert.assertEquals(expected.getShortName(), actual.getShortName());
+            Assert.assertEquals(expected.getTasks().size(), actual.getTasks().size());
+            Assert.assertEquals(expected.getAcceptanceCriteria().size(), actual.getAcceptanceCriteria().size());
+        }
+    }
+
+    @Test
+    public void testStoriesLoadedOnDemand() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        loader.saveModel(testFile, model);
+        Assert.assertEquals(model.getStories().size() + SECTION_SHARDS, getShardFiles(testFile).size());
+
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertFalse(loaded.isLoaded(Story.class));
+        Assert.assertEquals(model.getStories().size(), loaded.getStories().size());
+        Assert.assertTrue(loaded.isLoaded(Story.class));
+    }
+
+    @Test
+    public void testSaveOnlyRewritesChangedShards() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        loader.saveModel(testFile, model);
+        Set<String> before = getShardFiles(testFile);
+
+        model.getStories().get(0).setDescription("sharded description");
+        Assert.assertTrue(loader.saveChanges(testFile, model));
+
+        Set<String> after = getShardFiles(testFile);
+        Assert.assertEquals(before.size(), after.size());
+        after.removeAll(before);
+        Assert.assertEquals(1, after.size());
+        Assert.assertTrue(after.iterator().next().startsWith("Story."));
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("sharded description", loaded.getStories().get(0).getDescription());
+    }
+
+    @Test
+    public void testSaveAfterLoadKeepsUnloadedShards() throws Exception {
+        String testFile = getNewTestFile();
+        loader.saveModel(testFile, generator.generate());
+        Organisation model = loader.loadModel(testFile);
+        Assert.assertNotNull(model);
+        UndoRedoManager.get().setDisabled(false);
+        UndoRedoManager.get().importModel(model);
+        int stories = getShardFiles(testFile).size() - SECTION_SHARDS;
+
+        Skill skill = new Skill();
+        skill.setShortName("added skill");
+        model.add(skill);
+        loader.saveModel(testFile, model);
+
+        Assert.assertEquals(stories + SECTION_SHARDS, getShardFiles(testFile).size());
+        Organisation loaded = loadWithNewLoader(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertTrue(loaded.getSkills().stream().anyMatch(s -> s.getShortName().equals("added skill")));
+        Assert.assertEquals(stories, loaded.getStories().size());
+    }
+
+    @Test
+    public void testSaveChangesNeedsFullSave() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generateTrackedModel();
+        Assert.assertFalse(loader.saveChanges(testFile, model));
+        Assert.assertFalse(new File(testFile).exists());
+
+        loader.saveModel(testFile, model);
+        Assert.assertFalse(loader.saveChanges(testFile, generator.generate()));
+    }
+
+    @Test
+    public void testLoadSingleFileModel() throws Exception {
+        String testFile = getNewTestFile();
+        Organisation model = generator.generate();
+        new BinaryPersistenceLoader(loader.getCurrentWorkingDirectory()).saveModel(testFile, model);
+        Organisation loaded = loader.loadModel(testFile);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(model.getStories().size(), loaded.getStories().size());
+
+        loader.saveModel(testFile, loaded);
+        Assert.assertTrue(ShardedProject.isProject(new File(testFile)));
+        Assert.assertEquals(model.getStories().size(), loadWithNewLoader(testFile).getStories().size());
+    }
+
+    @Test
+    public void testDeleteModel() throws Exception {
+        String testFile = getNewTestFile();
+        loader.saveModel(testFile, generator.generate());
+        Assert.assertTrue(loader.deleteModel(testFile));
+        Assert.assertFalse(new File(testFile).exists());
+    }
+
+    /**
+     * Tests saving using an invalid file name.
+     * @throws Exception if the test passes
+     */
+    @Test(expected = Exception.class)
+    public void testInvalidSaveModel() throws Exception {
+        String testFile = "test1234/?%\\:*+5678";
+        loader.saveModel(testFile, generator.generate());
+    }
+}
@@ -0,0 +1,221 @@
+package sws.murcs.unit.search;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import sws.murcs.magic.ClassMetadata;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.AcceptanceCondition;
+import sws.murcs.model.Backlog;
+import sws.murcs.model.Model;
+import sws.murcs.model.ModelType;
+import sws.murcs.model.Organisation;
+import sws.murcs.model.Person;
+import sws.murcs.model.Story;
+import sws.murcs.model.persistence.PersistenceManager;
+import sws.murcs.model.persistence.loaders.FilePersistenceLoader;
+import sws.murcs.search.SearchIndex;
+import sws.murcs.search.tokens.Token;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class SearchIndexTest {
+    private Organisation organisation;
+    private Story login;
+    private Story logout;
+    private Person person;
+
+    @BeforeClass
+    public static void beforeClass() {
+        PersistenceManager.setCurrent(new PersistenceManager(new FilePersistenceLoader()));
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        PersistenceManager.setCurrent(null);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        UndoRedoManager.get().setDisabled(true);
+        organisation = new Organisation();
+        login = new Story();
+        login.setShortName("Login page");
+        login.setDescription("Users can sign in with their e-mail address");
+        logout = new Story();
+        logout.setShortName("Logout button");
+        person = new Person();
+        person.setShortName("Alice");
+        organisation.add(login);
+        organisation.add(logout);
+        organisation.add(person);
+        PersistenceManager.getCurrent().setCurrentModel(organisation);
+        UndoRedoManager.get().setDisabled(false);
+        UndoRedoManager.get().importModel(organisation);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UndoRedoManager.get().forget(true);
+        UndoRedoManager.get().setDisabled(true);
+        PersistenceManager.getCurrent().setCurrentModel(null);
+    }
+
+    @Test
+    public void findWordTest() {
+        Assert.assertEquals(2, SearchIndex.get().find(ModelType.Story, "log").size());
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "page").contains(login));
+        Assert.assertFalse(SearchIndex.get().find(ModelType.Story, "page").contains(logout));
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "mail").contains(login));
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "alice").isEmpty());
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Person, "alice").contains(person));
+    }
+
+    @Test
+    public void findPartOfWordTest() throws Exception {
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "gi").contains(login));
+        Assert.assertFalse(SearchIndex.get().find(ModelType.Story, "gi").contains(logout));
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "gout").contains(logout));
+        Assert.assertFalse(SearchIndex.get().find(ModelType.Story, "gout").contains(login));
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "gouts").isEmpty());
+
+        logout.setShortName("Sign out");
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "gout").isEmpty());
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "ign").contains(logout));
+    }
+
+    @Test
+    public void getWordsTest() {
+        Assert.assertEquals(Arrays.asList("log", "in", "e", "mail"), SearchIndex.getWords(" Log-in (E-mail)"));
+        Assert.assertTrue(SearchIndex.getWords("*?&&").isEmpty());
+    }
+
+    @Test
+    public void changedModelTest() throws Exception {
+        SearchIndex.get().find(ModelType.Story, "log");
+        login.setShortName("Signup page");
+        Assert.assertFalse(SearchIndex.get().find(ModelType.Story, "login").contains(login));
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "signup").contains(login));
+
+        UndoRedoManager.get().revert();
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "login").contains(login));
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "signup").isEmpty());
+    }
+
+    @Test
+    public void addedAndRemovedModelsTest() throws Exception {
+        SearchIndex.get().find(ModelType.Story, "log");
+        Story story = new Story();
+        story.setShortName("Password reset");
+        organisation.add(story);
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "password").contains(story));
+
+        organisation.remove(login);
+        Assert.assertFalse(SearchIndex.get().find(ModelType.Story, "log").contains(login));
+        Assert.assertFalse(SearchIndex.get().getModels(ModelType.Story).contains(login));
+    }
+
+    @Test
+    public void referencedObjectChangedTest() throws Exception {
+        AcceptanceCondition condition = new AcceptanceCondition();
+        condition.setCondition("Loads quickly");
+        login.addAcceptanceCondition(condition);
+        Backlog backlog = new Backlog();
+        backlog.setShortName("Main");
+        backlog.setAssignedPO(person);
+        organisation.add(backlog);
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "quick").contains(login));
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Backlog, "alice").contains(backlog));
+
+        condition.setCondition("Loads slowly");
+        person.setShortName("Bob");
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "quick").isEmpty());
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "slow").contains(login));
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Backlog, "alice").isEmpty());
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Backlog, "bob").contains(backlog));
+    }
+
+    @Test
+    public void dependencyChangedTest() throws Exception {
+        SearchIndex.get().find(ModelType.Story, "log");
+        logout.addDependency(login);
+        Assert.assertTrue(SearchIndex.get().find(ModelType.Story, "page").contains(logout));
+        UndoRedoManager.get().revert();
+        Assert.assertTrue(logout.getDependencies().isEmpty());
+        Assert.assertFalse(SearchIndex.get().find(ModelType.Story, "page").contains(logout));
+    }
+
+    @Test
+    public void tokenCandidatesTest() {
+        SearchIndex index = SearchIndex.get();
+        Assert.assertEquals(1, Token.parse("log && page").findCandidates(index, ModelType.Story).size());
+        Assert.assertEquals(2, Token.parse("page || button").findCandidates(index, ModelType.Story).size());
+        Assert.assertEquals(1, Token.parse("lo*in").findCandidates(index, ModelType.Story).size());
+        Assert.assertNull(Token.parse("*").findCandidates(index, ModelType.Story));
+        Assert.assertEquals(1, Token.parse("!regex lo.in page").findCandidates(index, ModelType.Story).size());
+        Assert.assertNull(Token.parse("!regex l.g").findCandidates(index, ModelType.Story));
+        Assert.assertTrue(Token.parse("nothing").findCandidates(index, ModelType.Story).isEmpty());
+        // turns regex back off
+        Token.parse("");
+    }
+
+    @Test
+    public void findPatternTest() {
+        SearchIndex index = SearchIndex.get();
+        Assert.assertEquals(1, index.findPattern(ModelType.Story, Pattern.compile("ogin")).size());
+        Assert.assertEquals(2, index.findPattern(ModelType.Story, Pattern.compile("LOG")).size());
+        Assert.assertEquals(1, index.findPattern(ModelType.Story, Pattern.compile("in page")).size());
+        Assert.assertEquals(1, index.findPattern(ModelType.Story, Pattern.compile("e-mail")).size());
+        Assert.assertEquals(2, index.findPattern(ModelType.Story, Pattern.compile("page|button")).size());
+        Assert.assertEquals(1, index.findPattern(ModelType.Story, Pattern.compile("Log(in|on) page")).size());
+        Assert.assertEquals(2, index.findPattern(ModelType.Story, Pattern.compile("Logo?ut")).size());
+        Assert.assertTrue(index.findPattern(ModelType.Story, Pattern.compile("register\\s+now")).isEmpty());
+        Assert.assertNull(index.findPattern(ModelType.Story, Pattern.compile("l.g")));
+        Assert.assertNull(index.findPattern(ModelType.Story, Pattern.compile("page|.")));
+        Assert.assertNull(index.findPattern(ModelType.Story, Pattern.compile("\\x4cogin")));
+    }
+
+    @Test
+    public void findPatternFindsAllMatchesTest() throws Exception {
+        Story story = new Story();
+        story.setShortName("Ünïcode ΟΔΟΣ 𝒜𝒜 a+b (x)");
+        organisation.add(story);
+        String[] regexes = {"ünï", "(?i)ÜNÏ", "ΟΔΟΣ", "οδοσ", "(?iu)οδος", "𝒜+", "x𝒜?𝒜𝒜", "a\\+b", "\\Qa+b\\E",
+            "\\(x\\)", "de\\s*ΟΔ", "(?:code){1,2} Ο", "[a-z]+ode", "(?=Ün)Ünï", "uni|cod", "co(de)+", "a+b",
+            "ΟΔ{0}ΟΣ", "ΟΔ{1}ΟΣ", "Ün*ïc", "(?<name>cod)e"};
+        for (String regex : regexes) {
+            Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+            Set<Model> candidates = SearchIndex.get().findPattern(ModelType.Story, pattern);
+            for (Story model : organisation.getStories()) {
+                boolean matches = pattern.matcher(model.getShortName()).find()
+                        || model.getDescription() != null && pattern.matcher(model.getDescription()).find();
+                if (matches && candidates != null) {
+                    Assert.assertTrue(regex, candidates.contains(model));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void versionTest() throws Exception {
+        long version = SearchIndex.get().getVersion();
+        Assert.assertEquals(version, SearchIndex.get().getVersion());
+        login.setShortName("Signup page");
+        Assert.assertNotEquals(version, SearchIndex.get().getVersion());
+    }
+
+    @Test
+    public void searchableFieldsTrackedTest() throws Exception {
+        for (ModelType type : ModelType.values()) {
+            Assert.assertTrue(ClassMetadata.of(ModelType.getTypeFromModel(type)).getUntrackedSearchableFields().isEmpty());
+        }
+        long version = SearchIndex.get().getVersion();
+        logout.addDependency(login);
+        Assert.assertNotEquals(version, SearchIndex.get().getVersion());
+    }
+}
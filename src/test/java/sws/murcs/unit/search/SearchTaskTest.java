@@ -0,0 +1,76 @@
+package sws.murcs.unit.search;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import sws.murcs.magic.tracking.UndoRedoManager;
+import sws.murcs.model.Model;
+import sws.murcs.model.ModelType;
+import sws.murcs.model.Story;
+import sws.murcs.search.SearchResult;
+import sws.murcs.search.SearchTask;
+import sws.murcs.search.tokens.Token;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SearchTaskTest {
+    private List<Model> stories;
+
+    @Before
+    public void setUp() throws Exception {
+        UndoRedoManager.get().setDisabled(true);
+        stories = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Story story = new Story();
+            story.setShortName("Story " + i);
+            if (i % 3 == 0) {
+                story.setDescription("Needs story " + i + " first");
+            }
+            stories.add(story);
+        }
+    }
+
+    @Test
+    public void keepsBestResultsTest() {
+        Collection<List<SearchResult>> passes = new ConcurrentLinkedQueue<>();
+        AtomicLong generation = new AtomicLong();
+        SearchTask task = new SearchTask(Token.parse("story 1"), stories, ModelType.Story, generation,
+                pass -> passes.add(new ArrayList<>(pass)), 10);
+        new ForkJoinPool(4).invoke(task);
+
+        Assert.assertEquals(2, passes.size());
+        for (List<SearchResult> pass : passes) {
+            Assert.assertEquals(10, pass.size());
+            List<SearchResult> sorted = new ArrayList<>(pass);
+            sorted.sort(SearchResult.getComparator());
+            Assert.assertEquals(sorted, pass);
+        }
+        // every match is recorded, even though most results were not kept
+        int matches = 0;
+        for (Model story : stories) {
+            if (((Story) story).getShortName().contains("Story 1")) {
+                matches++;
+                Assert.assertTrue(task.getMatchedModels().contains(story));
+            }
+        }
+        Assert.assertEquals(matches, task.getMatchedModels().size());
+        // the best matches have the least context around them
+        Assert.assertEquals("Story 1", passes.iterator().next().get(0).toString());
+        Assert.assertEquals("", passes.iterator().next().get(0).selectionBefore());
+    }
+
+    @Test
+    public void newerSearchCancelsTest() {
+        Collection<Collection<SearchResult>> passes = new ConcurrentLinkedQueue<>();
+        AtomicLong generation = new AtomicLong();
+        SearchTask task = new SearchTask(Token.parse("story"), stories, ModelType.Story, generation, passes::add, 10);
+        generation.incrementAndGet();
+        new ForkJoinPool(4).invoke(task);
+        Assert.assertTrue(passes.isEmpty());
+    }
+}
@@ -109,4 +109,19 @@ public class TokenTest {
         Assert.assertNull("Broken regex was searched.", rootToken.matches("I found something"));
         Assert.assertNull("Broken regex was searched.", rootToken.matches("Blah"));
     }
+
+    @Test
+    public void refinesTest() {
+        Assert.assertTrue(Token.parse("sprin").refines(Token.parse("spri")));
+        Assert.assertTrue(Token.parse("spri && team").refines(Token.parse("spri")));
+        Assert.assertTrue(Token.parse("sp*rint").refines(Token.parse("rin")));
+        Assert.assertTrue(Token.parse("sprint || story").refines(Token.parse("spri || sto")));
+        Assert.assertFalse(Token.parse("spri").refines(Token.parse("sprin")));
+        Assert.assertFalse(Token.parse("sp*rint").refines(Token.parse("spr")));
+        Assert.assertFalse(Token.parse("spri || team").refines(Token.parse("spri")));
+        Assert.assertFalse(Token.parse("spri").refines(Token.parse("spri && team")));
+        Assert.assertFalse(Token.parse("!case sprint").refines(Token.parse("spri")));
+        Assert.assertFalse(Token.parse("!regex a|b").refines(Token.parse("!regex a|")));
+        Assert.assertFalse(Token.parse("sprint").refines(Token.parse("")));
+    }
 }